@@ -363,83 +363,19 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
     /* returns true if there is at least one block in an array. If the passed blocks array is not null it will contain all blocks
      * that overlap the start,end period after a call.*/
     private boolean processBlocks(long start,long end,Collection<AppointmentBlock> blocks, boolean excludeExceptions) {
-        long c1 = start;
-        long c2 = end;
-        long s = this.start.getTime();
-        long e = this.end.getTime();
-        RepeatingImpl repeating = getRepeating();
-        // if there is no repeating
-        if (repeating==null) {
-            if (s <c2 && e>c1) {
-                // check only
-                if ( blocks == null )
-                {
-                	return true;
-                }
-                else
-                {
-                    AppointmentBlock block = new AppointmentBlock(s,e,this, false);
-                    blocks.add(block);
-                }
-            } 
-            return false;
-        }
-
-        DD=DE?BUG: print("s = appointmentstart, e = appointmentend, c1 = intervalstart c2 = intervalend");
-        DD=DE?BUG: print("s:" + n(s) + " e:" + n(e) + " c2:" + n(c2) + " c1:" + n(c1));
-        if (s <c2 && e>c1  && (!repeating.isException(s) || !excludeExceptions)) {
+        final OccurrenceIterator occurrences = new OccurrenceIterator().reset(this, start, end);
+        while (occurrences.next()) {
+            final boolean isException = occurrences.isException();
+            if (isException && excludeExceptions) {
+                continue;
+            }
             // check only
-            if ( blocks == null) 
+            if ( blocks == null )
             {
                 return true;
-            } 
-            else 
-            {
-                AppointmentBlock block = new AppointmentBlock(s,e,this, repeating.isException(s));
-                blocks.add(block);
-            }
-        }
-        
-        long l = repeating.getIntervalLength( s  );
-        //System.out.println( "l in days " + l / DateTools.MILLISECONDS_PER_DAY );
-        Assert.isTrue(l>0);
-        long timeFromStart = l ;
-        if ( repeating.isFixedIntervalLength())
-        {
-            timeFromStart = Math.max(l,((c1-e) / l)* l);
-        }
-        int maxNumber = repeating.getNumber();
-        long maxEnding = Long.MAX_VALUE;
-        if ( maxNumber >= 0)
-        {
-            Date end2 = repeating.getEnd();
-            maxEnding = end2.getTime();
-        }
-        
-        DD=DE?BUG: print("l = repeatingInterval (in minutes), x = stepcount");
-        DD=DE?BUG: print("Maxend " + f( maxEnding));
-        long currentPos = s + timeFromStart;
-        DD=DE?BUG: print( " currentPos:" + n(currentPos) + " c2-s:" + n(c2-s) + " c1-e:" + n(c1-e));
-        long blockLength = Math.max(0, e - s);
-        while (currentPos <= c2 && (maxNumber<0 || (currentPos<=maxEnding ))) {
-            DD=DE?BUG: print(" current pos:" + f(currentPos));
-            if (( currentPos + blockLength > c1  )  && ( currentPos < c2 ) && (( end!=DateTools.cutDate(end) || !repeating.isDaily() || currentPos < maxEnding))) {
-                boolean isException =repeating.isException( currentPos ); 
-                if ((!isException || !excludeExceptions)) {
-                    // check only
-                    if ( blocks == null ) 
-                    {
-                        return true;
-                    } 
-                    else 
-                    {
-                        AppointmentBlock block = new AppointmentBlock(currentPos,currentPos + blockLength,this, isException);
-                        blocks.add( block);
-                    }
-                }
             }
-            currentPos += repeating.getIntervalLength( currentPos) ;
-            
+            AppointmentBlock block = new AppointmentBlock(occurrences.getStart(),occurrences.getEnd(),this, isException);
+            blocks.add( block);
         }
         return false;
     }
@@ -621,7 +557,6 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
     private boolean overlapsHard( AppointmentImpl a2 )
     {
         Repeating r2 = a2.getRepeating();
-        Collection<AppointmentBlock> array = new ArrayList<>();
         Date maxEnd =r2.getEnd();
         // overlaps will be checked two  250 weeks (5 years) from now on
         long maxCheck = System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 250;
@@ -629,12 +564,10 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         {
         	maxEnd = new Date(maxCheck); 
         }
-        createBlocks( getStart(), maxEnd, array);
-        for ( AppointmentBlock block:array)
+        final OccurrenceIterator occurrences = new OccurrenceIterator().reset(this, getStart().getTime(), maxEnd.getTime());
+        while (occurrences.next())
         {
-            long start = block.getStart();
-            long end = block.getEnd();
-            if (a2.overlaps( start, end, true))
+            if (!occurrences.isException() && a2.overlaps( occurrences.getStart(), occurrences.getEnd(), true))
             {
                 return true;
             }
@@ -663,16 +596,16 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         long l1 = r1.getFixedIntervalLength();
         long l2 = r2.getFixedIntervalLength();
         long gap = (l1 * l2) / gcd(l1,l2);
-        Date[] exceptions1 = r1.getExceptions();
-        Date[] exceptions2 = r2.getExceptions();
+        long[] exceptions1 = r1.getExceptionTimes();
+        long[] exceptions2 = r2.getExceptionTimes();
         DD=DE?BUG: print(" Testing Exceptions for overlapp " + f(s1) + " with " + f(s2) + " gap " + n(gap));
         int i1 = 0;
         int i2 = 0;
         long x = 0;
         if (exceptions1.length>i1)
-            DD=DE?BUG: print("Exception a1: " + fe(exceptions1[i1].getTime()));
+            DD=DE?BUG: print("Exception a1: " + fe(exceptions1[i1]));
         if (exceptions2.length>i2)
-            DD=DE?BUG: print("Exception a2: " + fe(exceptions2[i2].getTime()));
+            DD=DE?BUG: print("Exception a2: " + fe(exceptions2[i2]));
         long exceptionTime1 = 0;
         long exceptionTime2 = 0;
   
@@ -684,7 +617,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
             // Find first exception from app1 that matches gap
             while (i1<exceptions1.length)
             {
-               	exceptionTime1=exceptions1[i1].getTime();
+               	exceptionTime1=exceptions1[i1];
             	if ( exceptionTime1  >= pos1)
             	{
             		DD=DE?BUG: print("Exception  a1: " + fe(exceptionTime1));
@@ -696,7 +629,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
             // Find first exception from app2 that matches gap
             while (i2<exceptions2.length)
             {
-            	exceptionTime2 = exceptions2[i2].getTime();
+            	exceptionTime2 = exceptions2[i2];
             	if ( exceptionTime2 >= pos1)
             	{
             		DD=DE?BUG: print("Exception a2: " + fe(exceptionTime2));
@@ -0,0 +1,180 @@
+package org.rapla.entities.domain.internal;
+
+import org.rapla.components.util.Assert;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.AppointmentBlock;
+
+/**
+ * Iterates over the occurrences of an appointment that overlap an interval, in ascending order of their start. In contrast to
+ * {@link AppointmentImpl#createBlocks} no {@link AppointmentBlock} is created for an occurrence, and one iterator can be reused for
+ * many appointments by calling {@link #reset}.
+ * <pre>
+ * OccurrenceIterator occurrences = new OccurrenceIterator();
+ * occurrences.reset(appointment, start, end);
+ * while (occurrences.next())
+ * {
+ *     if (!occurrences.isException())
+ *         process(occurrences.getStart(), occurrences.getEnd());
+ * }
+ * </pre>
+ * Exceptions are returned as occurrences with {@link #isException()} set, so the caller decides whether to skip them.
+ */
+public final class OccurrenceIterator
+{
+    private AppointmentImpl appointment;
+    private RepeatingImpl repeating;
+    private long intervalStart;
+    private long intervalEnd;
+
+    private boolean first;
+    private boolean done;
+
+    // the state of the repeating, initialized with the first occurrence after the start of the appointment
+    private boolean repeatingInitialized;
+    private long currentPos;
+    private long blockLength;
+    private long fixedIntervalLength;
+    private long maxEnding;
+    private boolean endCheckNeeded;
+    private long[] exceptionTimes;
+    private int exceptionIndex;
+
+    private long start;
+    private long end;
+    private boolean exception;
+
+    /**
+     * prepares the iteration over the occurrences of the appointment that overlap the interval from intervalStart to intervalEnd.
+     * @return this iterator
+     */
+    public OccurrenceIterator reset(AppointmentImpl appointment, long intervalStart, long intervalEnd)
+    {
+        this.appointment = appointment;
+        this.repeating = appointment.getRepeating();
+        this.intervalStart = intervalStart;
+        this.intervalEnd = intervalEnd;
+        this.first = true;
+        this.done = false;
+        this.repeatingInitialized = false;
+        this.exceptionTimes = null;
+        this.exceptionIndex = -1;
+        return this;
+    }
+
+    /** moves to the next occurrence. @return false if there are no more occurrences in the interval */
+    public boolean next()
+    {
+        if (done)
+        {
+            return false;
+        }
+        if (first)
+        {
+            first = false;
+            final long s = appointment.getStart().getTime();
+            final long e = appointment.getEnd().getTime();
+            if (repeating == null)
+            {
+                done = true;
+            }
+            if (s < intervalEnd && e > intervalStart)
+            {
+                start = s;
+                end = e;
+                exception = repeating != null && repeating.isException(s);
+                return true;
+            }
+            if (done)
+            {
+                return false;
+            }
+        }
+        // the repeating is initialized lazily, because the first occurrence is often all that is needed for an overlap check
+        if (!repeatingInitialized)
+        {
+            initRepeating();
+        }
+        while (currentPos <= intervalEnd && currentPos <= maxEnding)
+        {
+            final long pos = currentPos;
+            currentPos += fixedIntervalLength > 0 ? fixedIntervalLength : repeating.getIntervalLength(pos);
+            if (pos + blockLength > intervalStart && pos < intervalEnd && (endCheckNeeded || pos < maxEnding))
+            {
+                start = pos;
+                end = pos + blockLength;
+                exception = isExceptionAt(pos);
+                return true;
+            }
+        }
+        done = true;
+        return false;
+    }
+
+    private void initRepeating()
+    {
+        repeatingInitialized = true;
+        final long s = appointment.getStart().getTime();
+        final long e = appointment.getEnd().getTime();
+        final long l = repeating.getIntervalLength(s);
+        Assert.isTrue(l > 0);
+        long timeFromStart = l;
+        if (repeating.isFixedIntervalLength())
+        {
+            fixedIntervalLength = l;
+            timeFromStart = Math.max(l, ((intervalStart - e) / l) * l);
+        }
+        else
+        {
+            fixedIntervalLength = 0;
+        }
+        final int maxNumber = repeating.getNumber();
+        maxEnding = maxNumber >= 0 ? repeating.getEnd().getTime() : Long.MAX_VALUE;
+        currentPos = s + timeFromStart;
+        blockLength = Math.max(0, e - s);
+        // a daily repeating that ends at midnight of the last day has no occurrence at the end date
+        endCheckNeeded = intervalEnd != DateTools.cutDate(intervalEnd) || !repeating.isDaily();
+        exceptionTimes = repeating.hasExceptions() ? repeating.getExceptionTimes() : null;
+    }
+
+    /** the positions are ascending, so the index of the exception only moves forward after the first binary search */
+    private boolean isExceptionAt(long pos)
+    {
+        final long[] exceptionTimes = this.exceptionTimes;
+        if (exceptionTimes == null)
+        {
+            return false;
+        }
+        if (exceptionIndex < 0)
+        {
+            exceptionIndex = Math.max(0, RepeatingImpl.indexOfLastExceptionUntil(exceptionTimes, pos));
+        }
+        while (exceptionIndex < exceptionTimes.length && exceptionTimes[exceptionIndex] + DateTools.MILLISECONDS_PER_DAY <= pos)
+        {
+            exceptionIndex++;
+        }
+        return exceptionIndex < exceptionTimes.length && exceptionTimes[exceptionIndex] <= pos;
+    }
+
+    public AppointmentImpl getAppointment()
+    {
+        return appointment;
+    }
+
+    /** the start of the current occurrence in milliseconds */
+    public long getStart()
+    {
+        return start;
+    }
+
+    /** the end of the current occurrence in milliseconds */
+    public long getEnd()
+    {
+        return end;
+    }
+
+    /** true if the current occurrence is excluded by an exception of the repeating */
+    public boolean isException()
+    {
+        return exception;
+    }
+}
@@ -43,8 +43,13 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     private RepeatingType repeatingType;
     private Set<Date> exceptions;
     private Set<Integer> weekdays;
-    transient private Date[] exceptionArray;
-    transient private boolean arrayUpToDate = false;
+    /**
+     * the sorted exceptions, null if not computed yet. Read only repeatings are shared by the threads of a query, so the arrays are published
+     * together in one volatile field
+     */
+    transient private volatile ExceptionArrays exceptionArrays;
+    /** bit i is set if weekday i is selected, 0 if not computed yet. Only used for weekly repeatings with more than one weekday */
+    transient private int weekdayMask;
     transient private Appointment appointment;
     private int frequency;
     boolean monthly;
@@ -76,6 +81,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         if (repeatingType!=RepeatingType.WEEKLY )
         {
             weekdays = null;
+            weekdayMask = 0;
         }
 
         if (repeatingType== RepeatingType.WEEKLY )
@@ -209,6 +215,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         {
             this.weekdays = null;
         }
+        weekdayMask = 0;
     }
 
     public void setEnd(Date end) {
@@ -285,21 +292,21 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     public boolean isException(long time) {
         if (!hasExceptions())
             return false;
+        final long[] exceptionTimes = getExceptionTimes();
+        final int index = indexOfLastExceptionUntil(exceptionTimes, time);
+        return index >= 0 && time < exceptionTimes[index] + DateTools.MILLISECONDS_PER_DAY;
+    }
 
-        Date[] exceptions = getExceptions();
-        if (exceptions.length == 0) {
-            //          System.out.println("no exceptions");
-            return false;
-        }
-        for (int i=0;i<exceptions.length;i++) {
-            //System.out.println("Comparing exception " + exceptions[i] + " with " + new Date(time));
-            if (exceptions[i].getTime()<=time
-                && time<exceptions[i].getTime() + DateTools.MILLISECONDS_PER_DAY) {
-                //System.out.println("Exception matched " + exceptions[i]);
-                return true;
-            }
+    /** returns the index of the last exception day that starts before or at time, or -1 if there is none. */
+    static int indexOfLastExceptionUntil(long[] exceptionTimes, long time)
+    {
+        int index = Arrays.binarySearch(exceptionTimes, time);
+        if (index < 0)
+        {
+            // the insertion point is the first exception after time
+            index = -index - 2;
         }
-        return false;
+        return index;
     }
 
     public int getNumber() {
@@ -343,7 +350,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         if (exceptions == null)
             exceptions = new TreeSet<>();
         exceptions.add(DateTools.cutDate(date));
-        arrayUpToDate = false;
+        exceptionArrays = null;
     }
 
     public void addExceptions(TimeInterval interval) {
@@ -358,7 +365,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
             final long l = DateTools.cutDate(appointmentBlock.getStart());
             exceptions.add(new Date(l));
         }
-        arrayUpToDate = false;
+        exceptionArrays = null;
     }
 
     public void removeException(Date date) {
@@ -372,7 +379,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         exceptions.remove(DateTools.cutDate(date));
         if (exceptions.size()==0)
             exceptions = null;
-        arrayUpToDate = false;
+        exceptionArrays = null;
     }
 
     public void clearExceptions() {
@@ -380,7 +387,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
             return;
         exceptions.clear();
         exceptions = null;
-        arrayUpToDate = false;
+        exceptionArrays = null;
     }
 
     public String toString() {
@@ -456,6 +463,8 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         {
         	dest.exceptions = null;
         }
+        dest.exceptionArrays = null;
+        dest.weekdayMask = 0;
         
 	}
     
@@ -469,17 +478,51 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     }
 
     private static Date[] DATE_ARRAY = new Date[0];
+    private static long[] LONG_ARRAY = new long[0];
+    private static final ExceptionArrays NO_EXCEPTIONS = new ExceptionArrays(DATE_ARRAY, LONG_ARRAY);
+
+    private static final class ExceptionArrays
+    {
+        final Date[] dates;
+        /** the start of the exception days in ascending order */
+        final long[] times;
+
+        ExceptionArrays(Date[] dates, long[] times)
+        {
+            this.dates = dates;
+            this.times = times;
+        }
+    }
+
     public Date[] getExceptions() {
-        if (!arrayUpToDate) {
+        return getExceptionArrays().dates;
+    }
+
+    /** returns the start of the exception days in ascending order. The array is shared and must not be modified. */
+    long[] getExceptionTimes() {
+        return getExceptionArrays().times;
+    }
+
+    private ExceptionArrays getExceptionArrays() {
+        ExceptionArrays result = exceptionArrays;
+        if (result == null) {
             if (exceptions != null) {
-                exceptionArray = exceptions.toArray(DATE_ARRAY);
+                final Date[] exceptionArray = exceptions.toArray(DATE_ARRAY);
                 Arrays.sort(exceptionArray);
+                final long[] exceptionTimes = new long[exceptionArray.length];
+                for (int i = 0; i < exceptionArray.length; i++)
+                {
+                    exceptionTimes[i] = exceptionArray[i].getTime();
+                }
+                result = new ExceptionArrays(exceptionArray, exceptionTimes);
             }
             else
-                exceptionArray = DATE_ARRAY;
-            arrayUpToDate = true;
+            {
+                result = NO_EXCEPTIONS;
+            }
+            exceptionArrays = result;
         }
-        return exceptionArray;
+        return result;
     }
     public boolean hasExceptions() {
         return exceptions != null && exceptions.size()>0;
@@ -531,21 +574,30 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
 
     private long gotoNextWeekday(  Date start,Date beginDate )
     {
+        final long beginTime = beginDate.getTime();
         if ( weekdays.size() > 1)
         {
-            Date newDate = beginDate;
-            for (int i = 0; i < 7; i++)
+            int mask = weekdayMask;
+            if ( mask == 0)
+            {
+                for (Integer weekday : weekdays)
+                {
+                    mask |= 1 << weekday;
+                }
+                weekdayMask = mask;
+            }
+            // the days are added in milliseconds, so we can count the weekday up instead of computing it for each day
+            int weekday = DateTools.getWeekday(beginDate);
+            for (int i = 1; i <= 7; i++)
             {
-                newDate = DateTools.addDay(newDate);
-                Integer weekday = DateTools.getWeekday(newDate);
-                if (weekdays.contains(weekday))
+                weekday = weekday % 7 + 1;
+                if ((mask & (1 << weekday)) != 0)
                 {
-                    return newDate.getTime();
+                    return beginTime + i * DateTools.MILLISECONDS_PER_DAY;
                 }
             }
         }
-        Date newDate = DateTools.addDays(beginDate,7);
-        return newDate.getTime();
+        return beginTime + 7 * DateTools.MILLISECONDS_PER_DAY;
     }
 
     private long gotoNextYear(  Date start,Date beginDate )
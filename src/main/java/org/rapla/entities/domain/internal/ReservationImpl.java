@@ -22,6 +22,7 @@ import org.rapla.components.util.iterator.IterableChain;
 import org.rapla.components.util.iterator.NestedIterable;
 import org.rapla.entities.Entity;
 import org.rapla.entities.RaplaObject;
+import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.AppointmentBlock;
@@ -35,6 +36,7 @@ import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.entities.dynamictype.internal.ClassificationImpl;
 import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
 import org.rapla.entities.dynamictype.internal.EvalContext;
+import org.rapla.entities.dynamictype.internal.FormatCache;
 import org.rapla.entities.dynamictype.internal.ParsedText;
 import org.rapla.entities.internal.ModifiableTimestamp;
 import org.rapla.entities.storage.CannotExistWithoutTypeException;
@@ -69,6 +71,8 @@ public final class ReservationImpl extends SimpleEntity implements Reservation,
     private Date createDate;
     
     transient HashMap<String,AppointmentImpl> appointmentIndex;
+    /** formatted names of the reservation, only used if the reservation is read only */
+    private transient FormatCache formatCache;
         
     ReservationImpl() {
         this (null, null);
@@ -198,7 +202,27 @@ public final class ReservationImpl extends SimpleEntity implements Reservation,
     
     public String format(Locale locale, String annotationName)
     {
-        return formatAppointment( locale, annotationName, (Appointment)null);
+        if ( !isReadOnly())
+        {
+            return formatAppointment( locale, annotationName, (Appointment)null);
+        }
+        final DynamicTypeImpl type = (DynamicTypeImpl)getClassification().getType();
+        final ParsedText parsedAnnotation = type.getParsedAnnotation( annotationName );
+        if (parsedAnnotation == null)
+        {
+            return "";
+        }
+        FormatCache cache = formatCache;
+        if ( cache == null)
+        {
+            cache = new FormatCache();
+            formatCache = cache;
+        }
+        final User user = type.getEvalContextUser();
+        return cache.get( parsedAnnotation, locale, annotationName, user, () -> {
+            EvalContext evalContext = type.createEvalContext(user, locale, annotationName, this);
+            return parsedAnnotation.formatName(evalContext).trim();
+        });
     }
 
     public String formatAppointment(Locale locale, String annotationName, Appointment appointment)
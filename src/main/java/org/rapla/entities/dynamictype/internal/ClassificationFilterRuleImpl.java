@@ -40,6 +40,9 @@ public final class ClassificationFilterRuleImpl extends ReferenceHandler
     String[] ruleValues;
     String attributeKey;
     String attributeId;
+    /** the parsed rule values of non reference attributes, the needle is already in lower case for contains and starts */
+    transient Object[] matchValues;
+    transient AttributeType matchValuesType;
     
     ClassificationFilterRuleImpl()
     {
@@ -257,23 +260,52 @@ public final class ClassificationFilterRuleImpl extends ReferenceHandler
         	removeId(key);
     	}
     	ruleValues[i] = newValue;
-
+        matchValues = null;
     }
     
     boolean matches(Object value) {
         //String[] ruleOperators = getOperators();
 		Attribute attribute = getAttribute();
+        AttributeType type = attribute.getType();
+        Object[] matchValues = getMatchValues(attribute);
         for (int i=0;i<operators.length;i++) {
         	String operator = operators[i];
-            if (matches(attribute,operator,i,value))
+            Object ruleValue = matchValues != null ? matchValues[i] : getValue(attribute, i);
+            if (matches(type,operator,ruleValue,value))
                 return true;
         }
         return false;
     }
-    
-    private boolean matches(Attribute attribute,String operator,int index,Object value) {
+
+    /** parses the rule values once instead of on every match. References are resolved on every match, because the entities can change */
+    private Object[] getMatchValues(Attribute attribute)
+    {
         AttributeType type = attribute.getType();
-        Object ruleValue = getValue(attribute, index);
+        if (type == AttributeType.CATEGORY || type == AttributeType.ALLOCATABLE)
+        {
+            return null;
+        }
+        Object[] matchValues = this.matchValues;
+        if (matchValues != null && matchValuesType == type && matchValues.length == operators.length)
+        {
+            return matchValues;
+        }
+        matchValues = new Object[operators.length];
+        for (int i=0;i<operators.length;i++) {
+            Object ruleValue = getValue(attribute, i);
+            String operator = operators[i];
+            if (type == AttributeType.STRING && ruleValue != null && (operator.equals("contains") || operator.equals("starts")))
+            {
+                ruleValue = ((String)ruleValue).toLowerCase().trim();
+            }
+            matchValues[i] = ruleValue;
+        }
+        this.matchValuesType = type;
+        this.matchValues = matchValues;
+        return matchValues;
+    }
+    
+    private boolean matches(AttributeType type,String operator,Object ruleValue,Object value) {
         if (type == AttributeType.CATEGORY)
         {
             Category category = (Category) ruleValue;
@@ -320,20 +352,15 @@ public final class ClassificationFilterRuleImpl extends ReferenceHandler
             } 
             else if ( operator.equals("contains") )
             {
-                String string = ((String)ruleValue).toLowerCase();
-                if (string == null)
-                    return true;
-                string = string.trim();
+                // the rule value is already trimmed and in lower case
+                String string = (String)ruleValue;
                 if (value == null)
                     return string.length() == 0;
                 return (((String) value).toLowerCase().contains(string));
             }
             else if ( operator.equals("starts") )
             {
-                String string = ((String)ruleValue).toLowerCase();
-                if (string == null)
-                    return true;
-                string = string.trim();
+                String string = (String)ruleValue;
                 if (value == null)
                     return string.length() == 0;
                 return (((String)value).toLowerCase().startsWith(string));
@@ -388,7 +415,7 @@ public final class ClassificationFilterRuleImpl extends ReferenceHandler
             }
             else if (operator.equals("<=")) 
             {
-                return long1 >=  long2;
+                return long1 <=  long2;
             }
             else if (operator.equals("<>")) 
             {
@@ -433,6 +460,7 @@ public final class ClassificationFilterRuleImpl extends ReferenceHandler
                     arrayList.add(indexOf, newId.getId());
                 }
                 ruleValues = arrayList.toArray(new String[arrayList.size()]);
+                matchValues = null;
             }
         }
 	}
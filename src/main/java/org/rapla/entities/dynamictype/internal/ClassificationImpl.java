@@ -16,6 +16,7 @@ import org.rapla.components.util.SerializableDateTimeFormat;
 import org.rapla.entities.Entity;
 import org.rapla.entities.EntityNotFoundException;
 import org.rapla.entities.ReadOnlyException;
+import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.dynamictype.Attribute;
 import org.rapla.entities.dynamictype.AttributeType;
@@ -58,7 +59,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
 	private Map<String,List<String>> data = new LinkedHashMap<>();
 	private transient boolean readOnly = false;
 
-	private transient TextCache name;
+	private transient FormatCache formatCache;
 	private transient EntityResolver resolver;
 
     /** stores the nonreference values like integers,boolean and string.*/
@@ -66,28 +67,6 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
     /** stores the references to the dynamictype and the reference values */
     //transient ReferenceHandler referenceHandler = new ReferenceHandler(data);
 
-    class TextCache
-    {
-        String nameString;
-        ParsedText lastParsedAnnotation;
-        public String getName(Locale locale, String keyNameFormat) {
-    		DynamicTypeImpl type = getType();
-    		ParsedText parsedAnnotation = type.getParsedAnnotation( keyNameFormat );
-            if ( parsedAnnotation == null) {
-                return type.toString();
-            }
-
-            if (nameString != null)
-            {
-                if (parsedAnnotation.equals(lastParsedAnnotation))
-                    return nameString;
-            }
-            lastParsedAnnotation =  parsedAnnotation;
-            nameString = format(locale, keyNameFormat);
-            return nameString;
-    	}
-    }
-
     public ClassificationImpl()
     {
 
@@ -183,11 +162,12 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
 
     public String getName(Locale locale) {
     	// display name = Title of event
-        if ( name == null)
-        {
-            name = new TextCache();
+        DynamicTypeImpl type = getType();
+        ParsedText parsedAnnotation = type.getParsedAnnotation( DynamicTypeAnnotations.KEY_NAME_FORMAT );
+        if ( parsedAnnotation == null) {
+            return type.toString();
         }
-        return name.getName(locale,  DynamicTypeAnnotations.KEY_NAME_FORMAT);
+        return format(type, parsedAnnotation, locale, DynamicTypeAnnotations.KEY_NAME_FORMAT);
     }
 
     public String format( Locale locale, String annotationName)
@@ -198,9 +178,22 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         {
             return "";
         }
-        EvalContext evalContext = type.createEvalContext(locale, annotationName, this);
-        String nameString = parsedAnnotation.formatName(evalContext).trim();
-        return nameString;
+        return format(type, parsedAnnotation, locale, annotationName);
+    }
+
+    private String format(final DynamicTypeImpl type, final ParsedText parsedAnnotation, final Locale locale, final String annotationName)
+    {
+        final User user = type.getEvalContextUser();
+        FormatCache cache = formatCache;
+        if ( cache == null)
+        {
+            cache = new FormatCache();
+            formatCache = cache;
+        }
+        return cache.get(parsedAnnotation, locale, annotationName, user, () -> {
+            EvalContext evalContext = type.createEvalContext(user, locale, annotationName, this);
+            return parsedAnnotation.formatName(evalContext).trim();
+        });
     }
 
 
@@ -314,7 +307,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         	data.remove( key );
         }
         this.type = type.getKey();
-        name = null;
+        formatCache = null;
     }
 
     /** find the attribute of the given type that matches the id */
@@ -366,7 +359,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
 		if ( values == null || values.isEmpty())
         {
 			data.remove(attributeKey);
-			name = null;
+			formatCache = null;
         	return;
         }
 		ArrayList<String> newValues = new ArrayList<>();
@@ -380,7 +373,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         }
 		data.put(attributeKey,newValues);
         //isNameUpToDate = false;
-        name = null;
+        formatCache = null;
     }
 
     public void addRefValue(Attribute attribute, ReferenceInfo info) throws RaplaException
@@ -418,6 +411,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
             data.put(attributeKey, l);
         }
         l.add(stringValue);
+        formatCache = null;
     }
 
     public Collection<String> getValuesUnresolvedStrings(Attribute attribute) {
@@ -551,7 +545,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         clone.resolver = resolver;
         clone.typeId = getParentId();
         clone.type = type;
-        clone.name = null;
+        clone.formatCache = null;
         clone.readOnly = false;// clones are always writable
         return clone;
     }
@@ -720,12 +720,18 @@ final public class DynamicTypeImpl extends SimpleEntity implements DynamicType,
 
     public EvalContext createEvalContext(Locale locale, String annotationName, Object object)
     {
-        User user = null;
+        User user = getEvalContextUser();
+        return createEvalContext(user,locale, annotationName, object);
+    }
+
+    /** the user whose permissions are checked when an annotation is formatted. Only set on the client, the server formats without a user */
+    public User getEvalContextUser()
+    {
         if (  operator instanceof RemoteOperator)
         {
-            user = ((RemoteOperator)operator).getUser();
+            return ((RemoteOperator)operator).getUser();
         }
-        return createEvalContext(user,locale, annotationName, object);
+        return null;
     }
 
     public EvalContext createEvalContext(User user,Locale locale, String annotationName, Object object)
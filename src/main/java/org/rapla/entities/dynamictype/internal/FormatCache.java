@@ -0,0 +1,118 @@
+package org.rapla.entities.dynamictype.internal;
+
+import org.rapla.entities.User;
+
+import java.util.Locale;
+
+/**
+ * Remembers the formatted annotations of one entity, e.g. its name, for each combination of annotation, locale and user.
+ * <p>
+ * A formatted name can contain values of referenced entities and of the type, so an entry is only valid as long as the parsed annotation
+ * of the type is the same object and no entity cache has changed since the entry was created. Entity caches call {@link #invalidateAll()}
+ * on each change, which invalidates the entries of all entities at once. Entities that change themselves must drop their FormatCache.
+ */
+public final class FormatCache
+{
+    private static final int MAX_ENTRIES = 8;
+    private static final Entry[] EMPTY = new Entry[0];
+    private static volatile long generation;
+
+    private volatile Entry[] entries = EMPTY;
+
+    /** computes the value of a missing or invalid entry */
+    public interface Formatter
+    {
+        String format();
+    }
+
+    private static final class Entry
+    {
+        final ParsedText parsedText;
+        final Locale locale;
+        final String annotationName;
+        final User user;
+        final long generation;
+        final String value;
+
+        Entry(ParsedText parsedText, Locale locale, String annotationName, User user, long generation, String value)
+        {
+            this.parsedText = parsedText;
+            this.locale = locale;
+            this.annotationName = annotationName;
+            this.user = user;
+            this.generation = generation;
+            this.value = value;
+        }
+
+        boolean matches(ParsedText parsedText, Locale locale, String annotationName, User user)
+        {
+            return this.parsedText == parsedText && equals(this.locale, locale) && equals(this.annotationName, annotationName) && equals(this.user,
+                    user);
+        }
+
+        private static boolean equals(Object o1, Object o2)
+        {
+            return o1 == o2 || (o1 != null && o1.equals(o2));
+        }
+    }
+
+    /** invalidates the formatted names of all entities. Call this when an entity is stored in or removed from an entity cache */
+    public static void invalidateAll()
+    {
+        synchronized (FormatCache.class)
+        {
+            generation++;
+        }
+    }
+
+    /** returns the cached value or computes it with the formatter if there is no valid entry */
+    public String get(ParsedText parsedText, Locale locale, String annotationName, User user, Formatter formatter)
+    {
+        // read the generation before formatting, so a change during the format leaves an invalid entry
+        final long currentGeneration = generation;
+        final Entry[] entries = this.entries;
+        for (Entry entry : entries)
+        {
+            if (entry.matches(parsedText, locale, annotationName, user))
+            {
+                if (entry.generation == currentGeneration)
+                {
+                    return entry.value;
+                }
+                break;
+            }
+        }
+        final String value = formatter.format();
+        put(new Entry(parsedText, locale, annotationName, user, currentGeneration, value));
+        return value;
+    }
+
+    private synchronized void put(Entry newEntry)
+    {
+        final Entry[] entries = this.entries;
+        int index = 0;
+        while (index < entries.length && !entries[index].matches(newEntry.parsedText, newEntry.locale, newEntry.annotationName, newEntry.user))
+        {
+            index++;
+        }
+        final Entry[] newEntries;
+        if (index < entries.length)
+        {
+            newEntries = entries.clone();
+        }
+        else if (entries.length < MAX_ENTRIES)
+        {
+            newEntries = new Entry[entries.length + 1];
+            System.arraycopy(entries, 0, newEntries, 0, entries.length);
+        }
+        else
+        {
+            // drop the oldest entry
+            newEntries = new Entry[entries.length];
+            System.arraycopy(entries, 1, newEntries, 0, entries.length - 1);
+            index = entries.length - 1;
+        }
+        newEntries[index] = newEntry;
+        this.entries = newEntries;
+    }
+}
@@ -52,6 +52,15 @@ public class ParsedText implements Serializable
     transient List<Function> variablesList;
     // used for fast storage of text without variables
     transient private String first = "";
+    /** the format elements compiled to parts that append their text in order. null if there are no variables */
+    transient private Part[] parts;
+    transient private int literalLength;
+
+    /** a compiled format element */
+    private interface Part
+    {
+        void append(StringBuilder buf, EvalContext context);
+    }
 
     String formatString;
 
@@ -96,6 +105,7 @@ public class ParsedText implements Serializable
             variablesList.add(func);
         }
         first = "";
+        parts = null;
         if (variablesList.isEmpty())
         {
             if (nonVariablesList.size() > 0)
@@ -105,6 +115,32 @@ public class ParsedText implements Serializable
             variablesList = null;
             nonVariablesList = null;
         }
+        else
+        {
+            compile();
+        }
+    }
+
+    private void compile()
+    {
+        final List<Part> compiled = new ArrayList<>();
+        int length = 0;
+        for (int i = 0; i < nonVariablesList.size(); i++)
+        {
+            final String text = nonVariablesList.get(i);
+            if (text.length() > 0)
+            {
+                compiled.add((buf, context) -> buf.append(text));
+                length += text.length();
+            }
+            if (i < variablesList.size())
+            {
+                final Function function = variablesList.get(i);
+                compiled.add((buf, context) -> buf.append(evalToString(function.eval(context), context)));
+            }
+        }
+        parts = compiled.toArray(new Part[compiled.size()]);
+        literalLength = length;
     }
 
     public void updateFormatString(ParseContext context)
@@ -145,39 +181,38 @@ public class ParsedText implements Serializable
 
     public String formatName(EvalContext context)
     {
-        if (nonVariablesList == null && variablesList == null)
+        final Part[] parts = this.parts;
+        if (parts == null)
         {
             return first;
         }
-        StringBuffer buf = new StringBuffer();
-        if (variablesList != null && (nonVariablesList == null || nonVariablesList.size() == 0))
+        final StringBuilder buf = new StringBuilder(literalLength + 16 * parts.length);
+        for (Part part : parts)
         {
-            for (int i = 0; i < variablesList.size(); i++)
-            {
-                Function function = variablesList.get(i);
-                Object result = function.eval(context);
-                String stringResult = evalToString(result, context);
-                buf.append(stringResult);
-            }
+            part.append(buf, context);
         }
-        else if (nonVariablesList != null)
+        return replaceEscapedNewlines(buf.toString());
+    }
+
+    /** replaces the two characters \n with a line break */
+    static String replaceEscapedNewlines(String string)
+    {
+        int index = string.indexOf("\\n");
+        if (index < 0)
         {
-            for (int i = 0; i < nonVariablesList.size(); i++)
-            {
-                buf.append(nonVariablesList.get(i));
-                if (i < variablesList.size())
-                {
-                    Function function = variablesList.get(i);
-                    Object result = function.eval(context);
-                    String stringResult = evalToString(result, context);
-                    buf.append(stringResult);
-                }
-            }
+            return string;
         }
-
-        String string = buf.toString();
-        string = string.replaceAll("\\\\n", "\n");
-        return string;
+        final StringBuilder buf = new StringBuilder(string.length());
+        int pos = 0;
+        while (index >= 0)
+        {
+            buf.append(string, pos, index);
+            buf.append('\n');
+            pos = index + 2;
+            index = string.indexOf("\\n", pos);
+        }
+        buf.append(string, pos, string.length());
+        return buf.toString();
     }
 
     Function parseFunctions(final ParseContext context, String content) throws IllegalAnnotationException
@@ -23,9 +23,11 @@ import org.rapla.entities.storage.internal.SimpleEntity;
 import org.rapla.framework.RaplaException;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 
 public class UserImpl extends SimpleEntity implements User, ModifiableTimestamp
 {
@@ -37,6 +39,22 @@ public class UserImpl extends SimpleEntity implements User, ModifiableTimestamp
     private Date lastChanged;
     private Date createDate;
 
+    /** incremented on each change of the user groups, invalidates the groups remembered by the users */
+    private static volatile long groupGeneration;
+    private transient volatile GroupsIncludingParents groupsIncludingParents;
+
+    private static final class GroupsIncludingParents
+    {
+        final long generation;
+        final Collection<String> groups;
+
+        GroupsIncludingParents(long generation, Collection<String> groups)
+        {
+            this.generation = generation;
+            this.groups = groups;
+        }
+    }
+
 
 
     @Override public Class<User> getTypeClass()
@@ -272,8 +290,37 @@ public class UserImpl extends SimpleEntity implements User, ModifiableTimestamp
         return person;
     }
 
+    /** invalidates the groups of all users that are remembered by {@link #getGroupsIncludingParents(User)}. Call this when a category is stored or removed */
+    public static void invalidateGroups()
+    {
+        synchronized (UserImpl.class)
+        {
+            groupGeneration++;
+        }
+    }
+
+    /** returns the ids of the groups of the user and of all their parent groups. The result is remembered for read only users
+     * until the next call of {@link #invalidateGroups()} and must not be modified.*/
     public static Collection<String> getGroupsIncludingParents(User user) {
-        Collection<String> groups = new HashSet<>();
+        if ( !(user instanceof UserImpl) || !((UserImpl) user).isReadOnly())
+        {
+            return collectGroupsIncludingParents(user);
+        }
+        final UserImpl userImpl = (UserImpl) user;
+        // read the generation before collecting, so a change during the collect leaves an invalid entry
+        final long generation = groupGeneration;
+        final GroupsIncludingParents cached = userImpl.groupsIncludingParents;
+        if ( cached != null && cached.generation == generation)
+        {
+            return cached.groups;
+        }
+        final Collection<String> groups = Collections.unmodifiableSet(collectGroupsIncludingParents(user));
+        userImpl.groupsIncludingParents = new GroupsIncludingParents(generation, groups);
+        return groups;
+    }
+
+    private static Set<String> collectGroupsIncludingParents(User user) {
+        Set<String> groups = new HashSet<>();
         for ( Category group: user.getGroupList())
         {
             groups.add( group.getId());
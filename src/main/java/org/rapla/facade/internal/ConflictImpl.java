@@ -17,11 +17,12 @@ import org.rapla.components.util.DateTools;
 import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
-import org.rapla.entities.domain.AppointmentBlock;
 import org.rapla.entities.domain.Repeating;
 import org.rapla.entities.domain.RepeatingType;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.domain.internal.AllocatableImpl;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.entities.domain.internal.OccurrenceIterator;
 import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.entities.internal.ModifiableTimestamp;
@@ -33,13 +34,11 @@ import org.rapla.facade.Conflict;
 import org.rapla.facade.RaplaComponent;
 import org.rapla.framework.RaplaException;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -511,28 +510,41 @@ public class ConflictImpl extends SimpleEntity implements Conflict, ModifiableTi
             minEnd = toDate;
         }
 
-        List<AppointmentBlock> listA = new ArrayList<>();
-        a1.createBlocks(maxStart, minEnd, listA);
-        List<AppointmentBlock> listB = new ArrayList<>();
-        a2.createBlocks(maxStart, minEnd, listB);
-        for (int i = 0, j = 0; i < listA.size() && j < listB.size(); )
+        // walk through the occurrences of both appointments in parallel, so we can stop at the first overlap
+        final OccurrenceIterator occurrencesA = new OccurrenceIterator().reset((AppointmentImpl) a1, maxStart.getTime(), minEnd.getTime());
+        final OccurrenceIterator occurrencesB = new OccurrenceIterator().reset((AppointmentImpl) a2, maxStart.getTime(), minEnd.getTime());
+        boolean hasA = nextOccurrence(occurrencesA);
+        boolean hasB = nextOccurrence(occurrencesB);
+        while (hasA && hasB)
         {
-            long s1 = listA.get(i).getStart();
-            long s2 = listB.get(j).getStart();
-            long e1 = listA.get(i).getEnd();
-            long e2 = listB.get(j).getEnd();
+            long s1 = occurrencesA.getStart();
+            long s2 = occurrencesB.getStart();
+            long e1 = occurrencesA.getEnd();
+            long e2 = occurrencesB.getEnd();
             if (s1 < e2 && s2 < e1)
             {
                 return new Date(Math.max(s1, s2));
             }
             if (s1 > s2)
-                j++;
+                hasB = nextOccurrence(occurrencesB);
             else
-                i++;
+                hasA = nextOccurrence(occurrencesA);
         }
         return null;
     }
 
+    private static boolean nextOccurrence(OccurrenceIterator occurrences)
+    {
+        while (occurrences.next())
+        {
+            if (!occurrences.isException())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static void checkAndAddConflicts(Collection<Conflict> conflictList, Allocatable allocatable, Appointment appointment1, Appointment appointment2,
             Date today)
     {
@@ -1,5 +1,6 @@
 package org.rapla.plugin.export2ical.server;
 
+import net.fortuna.ical4j.data.FoldingWriter;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.ComponentList;
 import net.fortuna.ical4j.model.DateTime;
@@ -31,6 +32,8 @@ import net.fortuna.ical4j.model.property.Summary;
 import net.fortuna.ical4j.model.property.Uid;
 import net.fortuna.ical4j.model.property.Version;
 import net.fortuna.ical4j.util.CompatibilityHints;
+import net.fortuna.ical4j.util.Strings;
+import net.fortuna.ical4j.validate.ValidationException;
 import org.rapla.RaplaResources;
 import org.rapla.components.util.DateTools;
 import org.rapla.entities.Entity;
@@ -58,7 +61,9 @@ import org.rapla.plugin.export2ical.Export2iCalPlugin;
 import org.rapla.server.TimeZoneConverter;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
@@ -153,17 +158,8 @@ public class Export2iCalConverter
 
     public Calendar createiCalender(Collection<Appointment> appointments, Preferences preferences, User user)
     {
-
-        boolean doExportAsMeeting = preferences == null ?
-                global_export_attendees :
-                preferences.getEntryAsBoolean(Export2iCalPlugin.EXPORT_ATTENDEES_PREFERENCE, global_export_attendees);
-
-        String exportAttendeesParticipationStatus = preferences == null ?
-                global_export_attendees_participation_status :
-                preferences.getEntryAsString(Export2iCalPlugin.EXPORT_ATTENDEES_PARTICIPATION_STATUS_PREFERENCE, global_export_attendees_participation_status);
-
-        //ensure the stored value is not empty string, if so, do not export attendees
-        doExportAsMeeting = doExportAsMeeting && (exportAttendeesAttribute != null && exportAttendeesAttribute.trim().length() > 0);
+        boolean doExportAsMeeting = isExportAsMeeting(preferences);
+        String exportAttendeesParticipationStatus = getParticipationStatus(preferences);
 
         Calendar calendar = initiCalendar();
         addICalMethod(calendar, Method.PUBLISH);
@@ -177,6 +173,61 @@ public class Export2iCalConverter
         return calendar;
     }
 
+    /**
+     * Writes the same calendar as {@link #createiCalender} and a CalendarOutputter, but creates and writes one event after the other,
+     * so the memory doesn't grow with the number of appointments. Properties, components and line folding are written by ical4j as
+     * before. An invalid event is logged and skipped, the CalendarOutputter wrote nothing if one event was invalid.
+     * The writer is flushed but not closed.
+     */
+    public void writeiCalendar(Collection<Appointment> appointments, Preferences preferences, User user, Writer out) throws IOException
+    {
+        boolean doExportAsMeeting = isExportAsMeeting(preferences);
+        String exportAttendeesParticipationStatus = getParticipationStatus(preferences);
+
+        final FoldingWriter writer = new FoldingWriter(out, FoldingWriter.REDUCED_FOLD_LENGTH);
+        Calendar calendar = initiCalendar();
+        addICalMethod(calendar, Method.PUBLISH);
+        writer.write(Calendar.BEGIN + ':' + Calendar.VCALENDAR + Strings.LINE_SEPARATOR);
+        writer.write(calendar.getProperties().toString());
+        if (timeZone != null)
+        {
+            writer.write(timeZone.getVTimeZone().toString());
+        }
+        for (Appointment app : appointments)
+        {
+            VEvent event = createVEvent(app, doExportAsMeeting, exportAttendeesParticipationStatus, user);
+            try
+            {
+                event.validate();
+            }
+            catch (ValidationException e)
+            {
+                getLogger().error("Skipping invalid event for appointment " + app.getId() + ": " + e.getMessage());
+                continue;
+            }
+            writer.write(event.toString());
+        }
+        writer.write(Calendar.END + ':' + Calendar.VCALENDAR + Strings.LINE_SEPARATOR);
+        writer.flush();
+    }
+
+    private boolean isExportAsMeeting(Preferences preferences)
+    {
+        boolean doExportAsMeeting = preferences == null ?
+                global_export_attendees :
+                preferences.getEntryAsBoolean(Export2iCalPlugin.EXPORT_ATTENDEES_PREFERENCE, global_export_attendees);
+
+        //ensure the stored value is not empty string, if so, do not export attendees
+        return doExportAsMeeting && (exportAttendeesAttribute != null && exportAttendeesAttribute.trim().length() > 0);
+    }
+
+    private String getParticipationStatus(Preferences preferences)
+    {
+        return preferences == null ?
+                global_export_attendees_participation_status :
+                preferences.getEntryAsString(Export2iCalPlugin.EXPORT_ATTENDEES_PARTICIPATION_STATUS_PREFERENCE, global_export_attendees_participation_status);
+    }
+
     private void addVTimeZone(Calendar calendar)
     {
 
@@ -1,20 +1,20 @@
 package org.rapla.plugin.export2ical.server;
 
-import net.fortuna.ical4j.data.CalendarOutputter;
-import net.fortuna.ical4j.model.Calendar;
-import net.fortuna.ical4j.validate.ValidationException;
 import org.rapla.RaplaResources;
 import org.rapla.components.util.DateTools;
 import org.rapla.components.util.TimeInterval;
 import org.rapla.entities.EntityNotFoundException;
+import org.rapla.entities.RaplaObject;
 import org.rapla.entities.User;
 import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.configuration.RaplaConfiguration;
+import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.facade.CalendarModel;
 import org.rapla.facade.CalendarNotFoundExeption;
 import org.rapla.facade.CalendarSelectionModel;
+import org.rapla.facade.Conflict;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.framework.RaplaException;
 import org.rapla.framework.RaplaInitializationException;
@@ -35,12 +35,17 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 import java.util.SimpleTimeZone;
 
 @Path(Export2iCalPlugin.GENERATOR)
@@ -75,6 +80,8 @@ public class Export2iCalServlet
 	RaplaResources i18n;
 	@Inject
 	PromiseWait promiseWait;
+	@Inject
+	ICalFeedCache feedCache;
 
 	@Inject
     public Export2iCalServlet()
@@ -127,6 +134,9 @@ public class Export2iCalServlet
 		boolean isAllAppointmentsSet = request.getParameter("complete") != null;
 		// if param COMPLETE is given, retrieve all appointments
 
+		// the body is written to the output stream, so an error can't be written to the writer after this is set
+		boolean outputStarted = false;
+		FeedOutputStream out = null;
 		try {
             final User user;
             String message = "The calendar '" + filename + "' you tried to retrieve is not published or available for the user " + username + ".";
@@ -142,42 +152,93 @@ public class Export2iCalServlet
                 response.setStatus( 404);
                 return;
             }
-            final Preferences preferences = facade.getPreferences(user);
-
-			final CalendarModel calModel = getCalendarModel(preferences, user, filename);
-
-            if (calModel == null) {
-                response.getWriter().println(message);
-				response.getWriter().close();
-    		    response.setStatus( 404);
-    			getLogger().getChildLogger("404").warn(message);
-                return;
+            final Date now = new Date();
+            ICalFeedCache.Feed feed = feedCache.get(user, filename, now);
+            if (feed == null)
+            {
+                final Date renderedSince = feedCache.getSynched();
+                final Preferences preferences = facade.getPreferences(user);
+
+                final CalendarModel calModel = getCalendarModel(preferences, user, filename);
+
+                if (calModel == null) {
+                    response.getWriter().println(message);
+                    response.getWriter().close();
+                    response.setStatus( 404);
+                    getLogger().getChildLogger("404").warn(message);
+                    return;
+                }
+
+                final Date lastModified = getLastModified(calModel);
+                final Object isSet = calModel.getOption(Export2iCalPlugin.ICAL_EXPORT);
+
+                if((isSet == null || isSet.equals("false")))
+                {
+                    response.getWriter().println(message);
+                    response.getWriter().close();
+                    getLogger().getChildLogger("404").warn(message);
+                    response.setStatus( 404);
+                    return;
+                }
+
+                // a feed that is not cached is not rendered for a HEAD request, so it has no ETag
+                if (request.getMethod().equals("HEAD"))
+                {
+                    response.setHeader("Last-Modified", rfc1123DateFormat.format(lastModified));
+                    if (ICalFeedCache.Feed.isNotModifiedSince(lastModified, getIfModifiedSince(request)))
+                    {
+                        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    }
+                    return;
+                }
+
+                Promise<Collection<Appointment>> appointmentsPromise = calModel.queryAppointments(new TimeInterval(null, null));
+                final Collection<Appointment> appointments = promiseWait.waitForWithRaplaException(appointmentsPromise, 10000);
+                if (appointments == null) {
+                    throw new RaplaException("Error with returning '" + filename);
+                }
+                out = new FeedOutputStream(response, filename, lastModified, request.getHeader("If-None-Match"),
+                        getIfModifiedSince(request));
+                try (Writer writer = new OutputStreamWriter(out, raplaLocale.getCharsetNonUtf()))
+                {
+                    converter.writeiCalendar(appointments, null, user, writer);
+                }
+                catch (FeedNotModifiedException ex)
+                {
+                    return;
+                }
+                if (out.isStreamed())
+                {
+                    return;
+                }
+                feed = createFeed(calModel, appointments, out.toByteArray(), user, lastModified, now);
+                feedCache.put(user, filename, feed, renderedSince);
             }
 
-			response.setHeader("Last-Modified", rfc1123DateFormat.format(getLastModified(calModel)));
-			final Object isSet = calModel.getOption(Export2iCalPlugin.ICAL_EXPORT);
-            
-			if((isSet == null || isSet.equals("false")))
+			response.setHeader("Last-Modified", rfc1123DateFormat.format(feed.getLastModified()));
+			response.setHeader("ETag", feed.getETag());
+			if (feed.isNotModified(request.getHeader("If-None-Match"), getIfModifiedSince(request)))
 			{
-				response.getWriter().println(message);
-				response.getWriter().close();
-    			getLogger().getChildLogger("404").warn(message);
-                response.setStatus( 404);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
 				return;
 			}
-			
+
 			if (request.getMethod().equals("HEAD")) {
 				return;
 			}
 
-			Promise<Collection<Appointment>> appointments = calModel.queryAppointments(new TimeInterval(null, null));
-			write(response, promiseWait.waitForWithRaplaException(appointments, 10000), filename,user, null);
+			outputStarted = true;
+			write(response, feed, filename);
 		} catch (Exception e) {
+			getLogger().error( e.getMessage(), e);
+			if (outputStarted || (out != null && out.isStreamed()) || response.isCommitted())
+			{
+				return;
+			}
 			response.getWriter().println(("An error occured giving you the Calendarview for user " + username + " named " + filename));
 			response.getWriter().println();
 			e.printStackTrace(response.getWriter());
 			response.getWriter().close();
-			getLogger().error( e.getMessage(), e);
 		}
 	}
 
@@ -231,28 +292,168 @@ public class Export2iCalServlet
 		}
 	}
 
-	private void write(final HttpServletResponse response, final Collection<Appointment> appointments, String filename, User user,final Preferences preferences) throws RaplaException, IOException {
+	private ICalFeedCache.Feed createFeed(final CalendarModel calModel, final Collection<Appointment> appointments, byte[] content, User user,
+			Date lastModified, Date now) throws RaplaException
+	{
+		// the feed depends on the selected resources and on the reservations and resources it contains
+		final Set<String> allocatableIds = new HashSet<>();
+		final Set<String> reservationIds = new HashSet<>();
+		for (Allocatable allocatable : calModel.getSelectedAllocatablesAsList())
+		{
+			allocatableIds.add(allocatable.getId());
+		}
+		for (Appointment appointment : appointments)
+		{
+			final Reservation reservation = appointment.getReservation();
+			if (reservation == null)
+			{
+				continue;
+			}
+			if (reservationIds.add(reservation.getId()))
+			{
+				for (Allocatable allocatable : reservation.getAllocatables())
+				{
+					allocatableIds.add(allocatable.getId());
+				}
+			}
+		}
+		boolean typeSelected = false;
+		boolean conflictSelected = false;
+		for (RaplaObject selected : calModel.getSelectedObjects())
+		{
+			if (selected instanceof Conflict)
+			{
+				conflictSelected = true;
+			}
+			else if (!(selected instanceof Allocatable))
+			{
+				typeSelected = true;
+			}
+		}
+		return new ICalFeedCache.Feed(content, lastModified, now, user, allocatableIds, reservationIds, typeSelected, conflictSelected);
+	}
+
+	private void write(final HttpServletResponse response, final ICalFeedCache.Feed feed, String filename) throws IOException {
+		setContentHeaders(response, filename);
+		response.setContentLength(feed.getContent().length);
+		final OutputStream out = response.getOutputStream();
+		try {
+			out.write(feed.getContent());
+		} finally
+		{
+		    out.close();
+		}
+	}
 
+	private void setContentHeaders(final HttpServletResponse response, String filename)
+	{
 	    if (filename == null )
 	    {
 	        filename = i18n.getString("default");
 	    }
 		response.setContentType("text/calendar; charset=" + raplaLocale.getCharsetNonUtf());
 		response.setHeader("Content-Disposition", "attachment; filename=" + filename + ".ics");
+	}
 
-		if (appointments == null) {
-			throw new RaplaException("Error with returning '" + filename);
+	/** stops the rendering of a feed that is too large for the cache, because the client already has it */
+	private static class FeedNotModifiedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Collects a rendered feed for the cache. A feed larger than {@link ICalFeedCache#MAX_FEED_BYTES} is not cached, it is sent to the
+	 * client while it is rendered, without an ETag, so the memory doesn't grow with the size of the feed. Before it is sent, the
+	 * If-Modified-Since header is checked against the last modified date. If the client has the feed, a 304 is sent, the first write
+	 * throws a {@link FeedNotModifiedException} and later writes are ignored.
+	 */
+	private class FeedOutputStream extends OutputStream
+	{
+		private final HttpServletResponse response;
+		private final String filename;
+		private final Date lastModified;
+		private final String ifNoneMatch;
+		private final long ifModifiedSince;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private OutputStream out;
+		private boolean notModified;
+
+		FeedOutputStream(HttpServletResponse response, String filename, Date lastModified, String ifNoneMatch, long ifModifiedSince)
+		{
+			this.response = response;
+			this.filename = filename;
+			this.lastModified = lastModified;
+			this.ifNoneMatch = ifNoneMatch;
+			this.ifModifiedSince = ifModifiedSince;
 		}
-		final Calendar iCal = converter.createiCalender(appointments,preferences, user);
-		final CalendarOutputter calOutputter = new CalendarOutputter();
-		final PrintWriter responseWriter = response.getWriter();
-		try {
-			calOutputter.output(iCal, responseWriter);
-		} catch (ValidationException e) {
-			getLogger().error("The calendar file is invalid!\n" + e);
-		} finally
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (notModified)
+			{
+				return;
+			}
+			if (out != null)
+			{
+				out.write(b, off, len);
+				return;
+			}
+			buffer.write(b, off, len);
+			if (buffer.size() > ICalFeedCache.MAX_FEED_BYTES)
+			{
+				response.setHeader("Last-Modified", rfc1123DateFormat.format(lastModified));
+				// a streamed feed has no ETag, so If-None-Match can only match a tag of a cached version, which is outdated
+				if (ifNoneMatch == null && ICalFeedCache.Feed.isNotModifiedSince(lastModified, ifModifiedSince))
+				{
+					notModified = true;
+					buffer = null;
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					throw new FeedNotModifiedException();
+				}
+				setContentHeaders(response, filename);
+				out = response.getOutputStream();
+				buffer.writeTo(out);
+				buffer = null;
+			}
+		}
+
+		boolean isStreamed()
+		{
+			return out != null;
+		}
+
+		byte[] toByteArray()
+		{
+			return buffer.toByteArray();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (out != null)
+			{
+				out.close();
+			}
+		}
+	}
+
+	private long getIfModifiedSince(HttpServletRequest request)
+	{
+		try
+		{
+			return request.getDateHeader("If-Modified-Since");
+		}
+		catch (IllegalArgumentException ex)
 		{
-		    responseWriter.close();
+			// an invalid date is ignored
+			return -1;
 		}
 	}
 	
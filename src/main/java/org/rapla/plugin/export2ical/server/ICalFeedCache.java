@@ -0,0 +1,395 @@
+package org.rapla.plugin.export2ical.server;
+
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Category;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.domain.internal.ReservationImpl;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.Conflict;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateOperation;
+import org.rapla.storage.UpdateResult;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the rendered iCal feeds of the published calendars, so clients that poll a feed every few minutes don't load the calendar model
+ * and render the feed again if nothing changed.
+ * <p>
+ * A feed is removed as soon as an update affects it: a change of a reservation in the feed or of a reservation allocating a selected
+ * resource, a change of a resource in the feed, a change of the preferences of the user (the calendar configuration and the ical
+ * options) or of the system preferences, and a change of a user, a type or a category. If the calendar selects a type or all resources, a
+ * new or changed resource removes the feed as well, if it selects conflicts every change of a reservation or a conflict does. Feeds
+ * expire at midnight, because the exported interval and the global last modified date move with the current day.
+ * <p>
+ * The updates are read from the operator outside of the monitor of the cache, once after each refresh of the operator. A request that
+ * arrives while the updates of a refresh are read is answered from the cache as it was before the refresh.
+ */
+@Singleton
+public class ICalFeedCache
+{
+    /** the maximum size of all cached feeds, the least recently used feeds are removed first */
+    static final long MAX_BYTES = 64L * 1024 * 1024;
+    /** larger feeds are not cached */
+    static final int MAX_FEED_BYTES = (int) (MAX_BYTES / 16);
+
+    private final CachableStorageOperator operator;
+    private final Logger logger;
+    private final Map<String, Feed> feeds = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private Date synched;
+    /** the last refresh of the operator whose updates are read or being read */
+    private Date syncedRefresh;
+
+    /** A rendered feed and the entities it depends on. */
+    public static final class Feed
+    {
+        private final byte[] content;
+        private final String eTag;
+        private final Date lastModified;
+        private final Date expires;
+        private final String userId;
+        private final Set<String> allocatableIds;
+        private final Set<String> reservationIds;
+        private final boolean typeSelected;
+        private final boolean conflictSelected;
+
+        /**
+         * @param allocatableIds the selected resources and the resources of the exported reservations
+         * @param typeSelected true if resources of a type or all resources are selected, so new resources can be part of the feed
+         * @param conflictSelected true if conflicts are selected instead of resources
+         */
+        public Feed(byte[] content, Date lastModified, Date now, User user, Set<String> allocatableIds, Set<String> reservationIds, boolean typeSelected,
+                boolean conflictSelected)
+        {
+            this.content = content;
+            this.eTag = createETag(content);
+            this.lastModified = lastModified;
+            this.expires = DateTools.addDay(DateTools.cutDate(now));
+            this.userId = user.getId();
+            this.allocatableIds = allocatableIds;
+            this.reservationIds = reservationIds;
+            this.typeSelected = typeSelected;
+            this.conflictSelected = conflictSelected;
+        }
+
+        public byte[] getContent()
+        {
+            return content;
+        }
+
+        /** a strong entity tag computed from the content, so a feed that is rendered again with the same content keeps its tag */
+        public String getETag()
+        {
+            return eTag;
+        }
+
+        public Date getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         * returns true if the client already has this version of the feed. If-None-Match takes precedence over If-Modified-Since.
+         * @param ifNoneMatch the If-None-Match header or null
+         * @param ifModifiedSince the If-Modified-Since header in milliseconds or -1
+         */
+        public boolean isNotModified(String ifNoneMatch, long ifModifiedSince)
+        {
+            if (ifNoneMatch != null)
+            {
+                for (String tag : ifNoneMatch.split(","))
+                {
+                    tag = tag.trim();
+                    if (tag.equals("*") || tag.equals(eTag) || tag.equals("W/" + eTag))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return isNotModifiedSince(lastModified, ifModifiedSince);
+        }
+
+        /**
+         * returns true if a feed with the last modified date is not newer than the If-Modified-Since header.
+         * @param ifModifiedSince the If-Modified-Since header in milliseconds or -1
+         */
+        public static boolean isNotModifiedSince(Date lastModified, long ifModifiedSince)
+        {
+            // http dates have a precision of seconds
+            return ifModifiedSince >= 0 && lastModified.getTime() / 1000 <= ifModifiedSince / 1000;
+        }
+
+        private static String createETag(byte[] content)
+        {
+            final MessageDigest digest;
+            try
+            {
+                digest = MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            final StringBuilder result = new StringBuilder("\"");
+            for (byte b : digest.digest(content))
+            {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16));
+                result.append(Character.forDigit(b & 0xF, 16));
+            }
+            result.append('"');
+            return result.toString();
+        }
+    }
+
+    @Inject
+    public ICalFeedCache(RaplaFacade facade, Logger logger)
+    {
+        this.operator = (CachableStorageOperator) facade.getOperator();
+        this.logger = logger.getChildLogger("ical.cache");
+    }
+
+    /** returns the cached feed of the calendar or null if it must be rendered */
+    public Feed get(User user, String filename, Date now) throws RaplaException
+    {
+        sync();
+        synchronized (this)
+        {
+            final String key = getKey(user, filename);
+            final Feed feed = feeds.get(key);
+            if (feed != null && !now.before(feed.expires))
+            {
+                remove(key);
+                return null;
+            }
+            return feed;
+        }
+    }
+
+    /**
+     * returns the date of the last update that is reflected in the cache. Request it before a feed is rendered and pass it to {@link #put}.
+     * Returns null while the first sync is running in another thread.
+     */
+    public Date getSynched() throws RaplaException
+    {
+        sync();
+        synchronized (this)
+        {
+            return synched;
+        }
+    }
+
+    /**
+     * adds a rendered feed to the cache. The feed is not added if an update that was applied while rendering the feed affects it.
+     * @param renderedSince the result of {@link #getSynched()} before the feed was rendered. If null the feed is not added
+     */
+    public void put(User user, String filename, Feed feed, Date renderedSince) throws RaplaException
+    {
+        sync();
+        final Date checkedUntil;
+        synchronized (this)
+        {
+            checkedUntil = synched;
+        }
+        if (renderedSince == null || checkedUntil == null)
+        {
+            return;
+        }
+        if (renderedSince.before(checkedUntil))
+        {
+            final UpdateResult result = operator.getUpdateResult(renderedSince);
+            if (result.getSince() == null || isAffected(feed, result))
+            {
+                return;
+            }
+        }
+        synchronized (this)
+        {
+            // a sync after the check could have missed the feed
+            if (!checkedUntil.equals(synched))
+            {
+                return;
+            }
+            final String key = getKey(user, filename);
+            remove(key);
+            feeds.put(key, feed);
+            bytes += feed.content.length;
+            final Iterator<Feed> it = feeds.values().iterator();
+            while (bytes > MAX_BYTES && it.hasNext())
+            {
+                bytes -= it.next().content.length;
+                it.remove();
+            }
+        }
+    }
+
+    private String getKey(User user, String filename)
+    {
+        return user.getId() + "/" + filename;
+    }
+
+    private void remove(String key)
+    {
+        final Feed removed = feeds.remove(key);
+        if (removed != null)
+        {
+            bytes -= removed.content.length;
+        }
+    }
+
+    /** removes the feeds affected by the updates since the last sync. Only the first call after a refresh of the operator reads the updates */
+    private void sync() throws RaplaException
+    {
+        final Date lastRefreshed = operator.getLastRefreshed();
+        final Date since;
+        synchronized (this)
+        {
+            if (lastRefreshed != null && lastRefreshed.equals(syncedRefresh))
+            {
+                return;
+            }
+            syncedRefresh = lastRefreshed;
+            since = synched;
+        }
+        try
+        {
+            final UpdateResult result = since != null ? operator.getUpdateResult(since) : null;
+            if (result != null && result.getSince() != null)
+            {
+                synchronized (this)
+                {
+                    final Iterator<Feed> it = feeds.values().iterator();
+                    while (it.hasNext())
+                    {
+                        final Feed feed = it.next();
+                        if (isAffected(feed, result))
+                        {
+                            bytes -= feed.content.length;
+                            it.remove();
+                        }
+                    }
+                    setSynched(result.getUntil());
+                }
+                return;
+            }
+            if (since != null)
+            {
+                logger.warn("Updates since " + since + " not available. Clearing the ical feed cache.");
+            }
+            // the result contains no changes, until is the last update of the operator
+            final Date until = operator.getUpdateResult(operator.getCurrentTimestamp()).getUntil();
+            synchronized (this)
+            {
+                feeds.clear();
+                bytes = 0;
+                setSynched(until);
+            }
+        }
+        catch (RaplaException | RuntimeException ex)
+        {
+            synchronized (this)
+            {
+                // the next call reads the updates again
+                syncedRefresh = null;
+            }
+            throw ex;
+        }
+    }
+
+    /** a sync of an earlier refresh that finishes last doesn't move the date back */
+    private void setSynched(Date until)
+    {
+        if (synched == null || synched.before(until))
+        {
+            synched = until;
+        }
+    }
+
+    private boolean isAffected(Feed feed, UpdateResult result)
+    {
+        for (UpdateOperation operation : result.getOperations())
+        {
+            final Class<? extends Entity> type = operation.getType();
+            final ReferenceInfo reference = operation.getReference();
+            final String id = reference.getId();
+            if (type == Reservation.class)
+            {
+                if (feed.conflictSelected || feed.reservationIds.contains(id))
+                {
+                    return true;
+                }
+                if (allocatesFeedResource(feed, result.getLastEntryBeforeUpdate(reference)) || allocatesFeedResource(feed, result.getLastKnown(reference)))
+                {
+                    return true;
+                }
+            }
+            else if (type == Allocatable.class)
+            {
+                if (feed.allocatableIds.contains(id) || (feed.typeSelected && !(operation instanceof UpdateResult.Remove)))
+                {
+                    return true;
+                }
+            }
+            else if (type == Preferences.class)
+            {
+                Preferences preferences = (Preferences) result.getLastKnown(reference);
+                if (preferences == null)
+                {
+                    preferences = (Preferences) result.getLastEntryBeforeUpdate(reference);
+                }
+                final ReferenceInfo<User> owner = preferences != null ? preferences.getOwnerRef() : null;
+                if (owner == null || owner.getId().equals(feed.userId))
+                {
+                    return true;
+                }
+            }
+            else if (type == Conflict.class)
+            {
+                if (feed.conflictSelected)
+                {
+                    return true;
+                }
+            }
+            // users can be attendees or the organizer of an event
+            else if (type == User.class || type == DynamicType.class || type == Category.class)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean allocatesFeedResource(Feed feed, Entity reservation)
+    {
+        if (reservation == null)
+        {
+            return false;
+        }
+        // the entities of the history have no resolver, so only the ids of the links are read
+        for (String allocatableId : ((ReservationImpl) reservation).getIds("resources"))
+        {
+            if (feed.allocatableIds.contains(allocatableId))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -38,6 +38,7 @@ import org.rapla.scheduler.Promise;
 import org.rapla.server.PromiseWait;
 import org.rapla.server.RemoteSession;
 import org.rapla.server.TimeZoneConverter;
+import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.impl.AbstractCachableOperator;
 
 import javax.inject.Inject;
@@ -384,7 +385,9 @@ public class RaplaICalImport implements ICalImport {
                 }
             }
 
-            facade.storeObjects(toImport.toArray(Reservation.RESERVATION_ARRAY));
+            // the bulk store checks all events in parallel and writes them in batches, progress and throughput are logged by the operator
+            CachableStorageOperator operator = (CachableStorageOperator) facade.getOperator();
+            operator.storeBulk(toImport, user, null);
             return new Integer[] { eventsInICalFinal, eventsImported, eventsPresent, eventsSkippedFinal };
         });
 	}
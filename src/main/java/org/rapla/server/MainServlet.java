@@ -12,6 +12,7 @@
  *--------------------------------------------------------------------------*/
 package org.rapla.server;
 
+import org.jboss.resteasy.plugins.server.servlet.HttpServlet30Dispatcher;
 import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
 import org.rapla.components.util.IOUtil;
 import org.rapla.framework.RaplaException;
@@ -29,6 +30,8 @@ import org.rapla.storage.impl.RaplaLock;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -141,6 +144,22 @@ public class MainServlet extends HttpServlet
                 backendContext.setPatchScript( patchScript );
             }
         }
+        {
+            String clusterPort = jndi.lookupEnvString("raplaclusterport", false);
+            if ( clusterPort != null && !clusterPort.isEmpty())
+            {
+                backendContext.setClusterPort( clusterPort );
+                backendContext.setClusterPeers( jndi.lookupEnvString("raplaclusterpeers", true));
+                backendContext.setClusterAddress( jndi.lookupEnvString("raplaclusteraddress", false));
+            }
+        }
+        {
+            String cacheSnapshot = jndi.lookupEnvString("raplacachesnapshot", false);
+            if ( cacheSnapshot != null && !cacheSnapshot.isEmpty())
+            {
+                backendContext.setCacheSnapshot( cacheSnapshot );
+            }
+        }
         env_raplamail = jndi.lookupResource("mail/Session", false);
         if (env_raplamail != null)
         {
@@ -179,6 +198,7 @@ public class MainServlet extends HttpServlet
                 {
                     throw new RaplaException("Localconnector not set! Can't start standalone");
                 }
+                backendContext.setStandalone(true);
                 serverStarter = new ServerStarter(logger, backendContext);
                 standaloneStarter = new StandaloneStarter(logger, backendContext, serverStarter, downloadUrl, startupUser, localConnector);
                 serverStarter.startServer();
@@ -301,7 +321,8 @@ public class MainServlet extends HttpServlet
         }
         if ( startupMode.equals("server") || startupMode.equals("standalone") )
         {
-            dispatcher = new HttpServletDispatcher();
+            // supports suspended requests, e.g. the clients waiting for changes
+            dispatcher = new HttpServlet30Dispatcher();
             dispatcher.init(new ServletConfig()
             {
                 @Override
@@ -452,8 +473,12 @@ public class MainServlet extends HttpServlet
             }
             try
             {
-                ServletOutputStream outputStream = response.getOutputStream();
-                outputStream.close();
+                // a suspended request is completed later
+                if (!request.isAsyncStarted())
+                {
+                    ServletOutputStream outputStream = response.getOutputStream();
+                    outputStream.close();
+                }
             }
             catch (Exception ex)
             {
@@ -463,7 +488,38 @@ public class MainServlet extends HttpServlet
             {
                 if (standaloneStarter != null)
                 {
-                    standaloneStarter.requestFinished();
+                    if (request.isAsyncStarted())
+                    {
+                        // the local connector takes the response when the request is finished, that is when the suspended request completes
+                        final StandaloneStarter starter = standaloneStarter;
+                        request.getAsyncContext().addListener(new AsyncListener()
+                        {
+                            @Override
+                            public void onComplete(AsyncEvent event)
+                            {
+                                starter.requestFinished();
+                            }
+
+                            @Override
+                            public void onTimeout(AsyncEvent event)
+                            {
+                            }
+
+                            @Override
+                            public void onError(AsyncEvent event)
+                            {
+                            }
+
+                            @Override
+                            public void onStartAsync(AsyncEvent event)
+                            {
+                            }
+                        });
+                    }
+                    else
+                    {
+                        standaloneStarter.requestFinished();
+                    }
                 }
             }
             catch (Exception ex)
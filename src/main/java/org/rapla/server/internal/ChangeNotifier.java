@@ -0,0 +1,298 @@
+package org.rapla.server.internal;
+
+import org.rapla.entities.User;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.scheduler.CommandScheduler;
+import org.rapla.scheduler.CompletablePromise;
+import org.rapla.scheduler.Promise;
+import org.rapla.scheduler.ResolvedPromise;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateEvent;
+import org.rapla.storage.UpdateResult;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Parks the long polling refresh requests of the clients until an update changes data the user can see, so idle clients don't need to
+ * ask for changes every refresh interval and get the changes of others without delay.
+ * <p>
+ * A parked request is a pending promise. The REST layer suspends the request until the promise completes (see
+ * {@link org.rapla.server.provider.resteasy.PromiseAsyncResponseProvider}), so a waiting client holds no thread. After each update of the
+ * storage the parked requests are checked on the scheduler: the shared changes since the last sync of the client tell if the user can see
+ * any of them, and only then the update event of the client is created and returned. A request that is parked longer than
+ * {@link #WAIT_TIMEOUT} is answered with the (empty) update event, so the client sends a new one and the connection isn't closed by a proxy.
+ */
+@Singleton
+public class ChangeNotifier
+{
+    /** the maximum time a request is parked, below the default read timeout of the common reverse proxies */
+    static final long WAIT_TIMEOUT = 50 * 1000;
+    /** the maximum number of parked requests, further requests fail and the clients fall back to the periodic refresh */
+    static final int MAX_WAITING = 10000;
+    /** the maximum number of parked requests of one user. A user can have a few clients open, more are left over from lost connections */
+    static final int MAX_WAITING_PER_USER = 8;
+
+    private final CachableStorageOperator operator;
+    private final UpdateDataManager updateDataManager;
+    private final CommandScheduler scheduler;
+    private final Logger logger;
+    /** the local connector of the standalone server answers one request at a time, so it can't keep a request waiting */
+    private final boolean standalone;
+    private final List<WaitingRequest> waiting = new ArrayList<>();
+    private final Map<String, Integer> waitingPerUser = new HashMap<>();
+    private final AtomicBoolean checkScheduled = new AtomicBoolean();
+    /** the time of the last update of the storage or null if there was no update since the start */
+    private Date lastUpdate;
+
+    private static final class WaitingRequest
+    {
+        final User user;
+        final CompletablePromise<UpdateEvent> promise;
+        final long parked;
+        volatile Date lastSynched;
+        /** true while the update event of the request is created, so later checks don't create it again */
+        final AtomicBoolean creatingEvent = new AtomicBoolean();
+
+        WaitingRequest(User user, Date lastSynched, CompletablePromise<UpdateEvent> promise)
+        {
+            this.user = user;
+            this.lastSynched = lastSynched;
+            this.promise = promise;
+            this.parked = System.currentTimeMillis();
+        }
+    }
+
+    @Inject
+    public ChangeNotifier(CachableStorageOperator operator, UpdateDataManager updateDataManager, CommandScheduler scheduler, Logger logger,
+            ServerContainerContext containerContext)
+    {
+        this.operator = operator;
+        this.standalone = containerContext.isStandalone();
+        this.updateDataManager = updateDataManager;
+        this.scheduler = scheduler;
+        this.logger = logger.getChildLogger("changes");
+        operator.addUpdateListener(this::updated);
+        final long period = WAIT_TIMEOUT / 10;
+        scheduler.schedule(() -> answerExpired(System.currentTimeMillis()), period, period);
+    }
+
+    /**
+     * returns the changes since lastSynched as soon as there are changes the user can see, or after {@link #WAIT_TIMEOUT} without changes.
+     * @throws RaplaException if too many requests are waiting or on a standalone server, the client should use the periodic refresh then
+     * @see UpdateDataManager#createUpdateEvent(User, Date)
+     */
+    public Promise<UpdateEvent> waitForChanges(User user, Date lastSynched) throws RaplaException
+    {
+        if (standalone)
+        {
+            throw new RaplaException("The standalone server doesn't keep requests waiting for changes.");
+        }
+        synchronized (this)
+        {
+            // nothing was stored since the last sync of the client, so we can park the request without computing the changes
+            if (lastUpdate != null && !lastUpdate.after(lastSynched))
+            {
+                return park(user, lastSynched);
+            }
+        }
+        final UpdateEvent event = updateDataManager.createUpdateEvent(user, lastSynched);
+        if (hasChanges(event))
+        {
+            return new ResolvedPromise<>(event);
+        }
+        synchronized (this)
+        {
+            final Promise<UpdateEvent> promise = park(user, event.getLastValidated());
+            // an update was applied while the event was created
+            if (lastUpdate != null && lastUpdate.after(event.getLastValidated()))
+            {
+                scheduleCheck();
+            }
+            return promise;
+        }
+    }
+
+    private Promise<UpdateEvent> park(User user, Date lastSynched) throws RaplaException
+    {
+        if (waiting.size() >= MAX_WAITING)
+        {
+            throw new RaplaException("Too many clients are waiting for changes.");
+        }
+        final int waitingOfUser = waitingPerUser.getOrDefault(user.getId(), 0);
+        if (waitingOfUser >= MAX_WAITING_PER_USER)
+        {
+            throw new RaplaException("Too many clients of " + user.getUsername() + " are waiting for changes.");
+        }
+        final CompletablePromise<UpdateEvent> promise = scheduler.createCompletable();
+        waiting.add(new WaitingRequest(user, lastSynched, promise));
+        waitingPerUser.put(user.getId(), waitingOfUser + 1);
+        return promise;
+    }
+
+    /** called with the write lock of the operator, so the requests are checked later on the scheduler */
+    private void updated(UpdateResult result)
+    {
+        synchronized (this)
+        {
+            lastUpdate = result.getUntil();
+            if (waiting.isEmpty())
+            {
+                return;
+            }
+        }
+        scheduleCheck();
+    }
+
+    private void scheduleCheck()
+    {
+        // updates that are applied while a check is scheduled are checked together
+        if (checkScheduled.compareAndSet(false, true))
+        {
+            scheduler.run(this::checkWaiting);
+        }
+    }
+
+    /** answers the requests with changes since their last sync. The update events are only created for users that can see a change */
+    void checkWaiting()
+    {
+        checkScheduled.set(false);
+        final List<WaitingRequest> toCheck;
+        final Date lastUpdate;
+        synchronized (this)
+        {
+            toCheck = new ArrayList<>(waiting);
+            lastUpdate = this.lastUpdate;
+        }
+        int affected = 0;
+        for (WaitingRequest request : toCheck)
+        {
+            if (lastUpdate == null || !lastUpdate.after(request.lastSynched) || request.creatingEvent.get())
+            {
+                continue;
+            }
+            try
+            {
+                // the changes since a sync date are shared by all users that synced then, so this is cheap compared to the update event
+                if (!operator.hasUpdates(request.lastSynched, request.user))
+                {
+                    request.lastSynched = lastUpdate;
+                    continue;
+                }
+            }
+            catch (Exception ex)
+            {
+                answer(request, null, ex);
+                continue;
+            }
+            if (request.creatingEvent.compareAndSet(false, true))
+            {
+                affected++;
+                scheduler.run(() -> answerChanges(request));
+            }
+        }
+        if (affected > 0)
+        {
+            logger.debug("Changes for " + affected + " of " + toCheck.size() + " waiting clients");
+        }
+    }
+
+    private void answerChanges(WaitingRequest request)
+    {
+        final UpdateEvent event;
+        try
+        {
+            event = updateDataManager.createUpdateEvent(request.user, request.lastSynched);
+        }
+        catch (Exception ex)
+        {
+            answer(request, null, ex);
+            return;
+        }
+        if (hasChanges(event))
+        {
+            answer(request, event, null);
+            return;
+        }
+        // the changes until then are not visible for the user, so the next check can start there
+        request.lastSynched = event.getLastValidated();
+        request.creatingEvent.set(false);
+        synchronized (this)
+        {
+            // an update was applied while the event was created and the check skipped the request
+            if (lastUpdate != null && lastUpdate.after(event.getLastValidated()))
+            {
+                scheduleCheck();
+            }
+        }
+    }
+
+    /** answers the requests that are parked longer than {@link #WAIT_TIMEOUT} at the passed time */
+    void answerExpired(long now)
+    {
+        final List<WaitingRequest> expired = new ArrayList<>();
+        synchronized (this)
+        {
+            for (WaitingRequest request : waiting)
+            {
+                if (now - request.parked >= WAIT_TIMEOUT)
+                {
+                    expired.add(request);
+                }
+            }
+        }
+        for (WaitingRequest request : expired)
+        {
+            try
+            {
+                answer(request, updateDataManager.createUpdateEvent(request.user, request.lastSynched), null);
+            }
+            catch (Exception ex)
+            {
+                answer(request, null, ex);
+            }
+        }
+    }
+
+    private void answer(WaitingRequest request, UpdateEvent event, Exception ex)
+    {
+        synchronized (this)
+        {
+            // the request could have been answered by a check and an expiration at the same time
+            if (!waiting.remove(request))
+            {
+                return;
+            }
+            final String userId = request.user.getId();
+            final int waitingOfUser = waitingPerUser.get(userId) - 1;
+            if (waitingOfUser > 0)
+            {
+                waitingPerUser.put(userId, waitingOfUser);
+            }
+            else
+            {
+                waitingPerUser.remove(userId);
+            }
+        }
+        if (ex != null)
+        {
+            request.promise.completeExceptionally(ex);
+        }
+        else
+        {
+            request.promise.complete(event);
+        }
+    }
+
+    private static boolean hasChanges(UpdateEvent event)
+    {
+        return !event.isEmpty() || event.isNeedResourcesRefresh() || !event.getPreferencePatches().isEmpty();
+    }
+}
@@ -36,6 +36,7 @@ import org.rapla.server.AuthenticationStore;
 import org.rapla.server.PrePostDispatchProcessor;
 import org.rapla.server.RemoteSession;
 import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.ConflictPage;
 import org.rapla.storage.PermissionController;
 import org.rapla.storage.PreferencePatch;
 import org.rapla.storage.RaplaNewVersionException;
@@ -64,6 +65,11 @@ import java.util.stream.Collectors;
 
 @DefaultImplementation(context = InjectionContext.server, of = RemoteStorage.class) public class RemoteStorageImpl implements RemoteStorage
 {
+    /** the maximum number of free dates a client can request with one call of getNextAllocatableDates */
+    static final int MAX_NEXT_ALLOCATABLE_DATES = 100;
+    /** the maximum number of conflicts a client gets with one call of queryConflicts */
+    static final int MAX_CONFLICT_PAGE_SIZE = 1000;
+
     @Inject RemoteSession session;
     @Inject CachableStorageOperator operator;
     @Inject SecurityManager security;
@@ -75,6 +81,7 @@ import java.util.stream.Collectors;
     @Inject RaplaResources i18n;
     @Inject Provider<MailInterface> mailInterface;
     @Inject UpdateDataManager updateDataManager;
+    @Inject ChangeNotifier changeNotifier;
     private final HttpServletRequest request;
 
     @Inject public RemoteStorageImpl(@Context HttpServletRequest request)
@@ -449,6 +456,25 @@ import java.util.stream.Collectors;
         }
     }
 
+    @Override
+    public Promise<UpdateEvent> waitForRefresh(String lastSyncedTime)
+    {
+        try
+        {
+            final User user = checkSessionUser();
+            Date clientRepoVersion = SerializableDateTimeFormat.INSTANCE.parseTimestamp(lastSyncedTime);
+            return changeNotifier.waitForChanges(user, clientRepoVersion);
+        }
+        catch (ParseDateException e)
+        {
+            return new ResolvedPromise<>(new RaplaException("Illegal last synced date " + lastSyncedTime + " caused " + e.getMessage(), e));
+        }
+        catch (RaplaException e)
+        {
+            return new ResolvedPromise<>(e);
+        }
+    }
+
     public Logger getLogger()
     {
         return session.getLogger();
@@ -553,6 +579,26 @@ import java.util.stream.Collectors;
         return operator.getConflicts(sessionUser).thenApply((conflicts) -> conflicts.stream().map(conflict -> (ConflictImpl) conflict).collect(Collectors.toList()));
     }
 
+    @Override public Promise<ConflictPage> queryConflicts(ConflictQuery query)
+    {
+        final User sessionUser;
+        final List<Allocatable> allocatables;
+        try
+        {
+            sessionUser = checkSessionUser();
+            final String[] allocatableIds = query.getAllocatableIds();
+            allocatables = allocatableIds != null ? resolveAllocatables(allocatableIds) : null;
+        }
+        catch (RaplaException ex)
+        {
+            return new ResolvedPromise<>(ex);
+        }
+        final Integer limit = query.getLimit();
+        final int pageSize = Math.max(1, Math.min(limit != null ? limit : MAX_CONFLICT_PAGE_SIZE, MAX_CONFLICT_PAGE_SIZE));
+        return operator.queryConflicts(sessionUser, allocatables, query.getStart(), query.getEnd(), query.getEnabled(), query.getChangedSince(),
+                query.getCursor(), pageSize);
+    }
+
     @Override public Promise<Date> getNextAllocatableDate(NextAllocatableDateRequest job)
     {
         String[] allocatableIds = job.getAllocatableIds();
@@ -579,6 +625,29 @@ import java.util.stream.Collectors;
 
     }
 
+    @Override public Promise<List<Date>> getNextAllocatableDates(NextAllocatableDateRequest job)
+    {
+        String[] allocatableIds = job.getAllocatableIds();
+        AppointmentImpl appointment = job.getAppointment();
+        String[] reservationIds = job.getReservationIds();
+        Integer count = job.getCount();
+        List<Allocatable> allocatables;
+        try
+        {
+            checkSessionUser();
+            allocatables = resolveAllocatables(allocatableIds);
+        }
+        catch ( RaplaException ex)
+        {
+            return new ResolvedPromise<>(ex);
+        }
+        Collection<Reservation> ignoreList = resolveReservations(reservationIds);
+        // the search is limited, so a client can't request all free slots of a year
+        int maxCount = Math.max(1, Math.min(count != null ? count : 1, MAX_NEXT_ALLOCATABLE_DATES));
+        return operator.getNextAllocatableDates(allocatables, appointment, ignoreList, job.getWorktimeStartMinutes(), job.getWorktimeEndMinutes(),
+                job.getExcludedDays(), job.getRowsPerHour(), maxCount);
+    }
+
     @Override public Promise<BindingMap> getFirstAllocatableBindings(AllocatableBindingsRequest job)
     {
         String[] allocatableIds = job.getAllocatableIds();
@@ -12,6 +12,11 @@ public class ServerContainerContext
     private Object mailSession;
     Runnable shutdownCommand;
     String patchScript;
+    String clusterPort;
+    String clusterAddress;
+    String clusterPeers;
+    String cacheSnapshot;
+    boolean standalone;
 
     private ShutdownService shutdownService = new ShutdownService()
     {
@@ -88,6 +93,16 @@ public class ServerContainerContext
         return true;
     }
 
+    /** @return the configured state of the service or defaultValue if the service is not configured */
+    public boolean isServiceEnabled(String serviceKey, boolean defaultValue)
+    {
+        if(services.containsKey(serviceKey))
+        {
+            return Boolean.valueOf( services.get(serviceKey) );
+        }
+        return defaultValue;
+    }
+
 
     public void addFileDatasource(String key,String fileDatasource)
     {
@@ -114,5 +129,60 @@ public class ServerContainerContext
         this.patchScript = patchScript;
     }
 
+    /** @return the port on which this server receives change notifications of other servers on the same database, or null if no cluster is configured */
+    public String getClusterPort()
+    {
+        return clusterPort;
+    }
+
+    public void setClusterPort(String clusterPort)
+    {
+        this.clusterPort = clusterPort;
+    }
+
+    /** @return the local address on which this server receives change notifications, or null for the loopback address */
+    public String getClusterAddress()
+    {
+        return clusterAddress;
+    }
+
+    public void setClusterAddress(String clusterAddress)
+    {
+        this.clusterAddress = clusterAddress;
+    }
+
+    /** @return the comma separated list of host:port of the other servers on the same database */
+    public String getClusterPeers()
+    {
+        return clusterPeers;
+    }
+
+    public void setClusterPeers(String clusterPeers)
+    {
+        this.clusterPeers = clusterPeers;
+    }
+
+    /** @return the path of the file for the cache snapshot of the database backend, or null if no snapshot should be written */
+    public String getCacheSnapshot()
+    {
+        return cacheSnapshot;
+    }
+
+    public void setCacheSnapshot(String cacheSnapshot)
+    {
+        this.cacheSnapshot = cacheSnapshot;
+    }
+
+    /** @return true if the server runs in the same process as its only client, that sends its requests through a local connector */
+    public boolean isStandalone()
+    {
+        return standalone;
+    }
+
+    public void setStandalone(boolean standalone)
+    {
+        this.standalone = standalone;
+    }
+
 
 }
@@ -4,6 +4,7 @@ import org.jetbrains.annotations.NotNull;
 import org.rapla.RaplaResources;
 import org.rapla.entities.domain.permission.PermissionExtension;
 import org.rapla.entities.extensionpoints.FunctionFactory;
+import org.rapla.framework.RaplaException;
 import org.rapla.framework.RaplaLocale;
 import org.rapla.logger.Logger;
 import org.rapla.scheduler.CommandScheduler;
@@ -12,12 +13,17 @@ import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.ImportExportManager;
 import org.rapla.storage.dbfile.FileOperator;
 import org.rapla.storage.dbsql.DBOperator;
+import org.rapla.storage.dbsql.SocketChangeFeed;
 import org.rapla.storage.impl.server.ImportExportManagerImpl;
+import org.rapla.storage.impl.server.LocalAbstractCachableOperator;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.Set;
 
@@ -25,6 +31,12 @@ import java.util.Set;
 @Singleton
 public class ServerStorageSelector implements Provider<CachableStorageOperator>
 {
+    /** service key to switch off the incremental conflict detection, e.g. raplaservices=incrementalconflicts=false */
+    public static final String INCREMENTAL_CONFLICTS = "incrementalconflicts";
+    /** service key to poll the database for changes of other servers every second, e.g. raplaservices=changepolling=true. Disabled by default */
+    public static final String CHANGE_POLLING = "changepolling";
+    /** service key to append changes to a journal instead of rewriting the data file on each change, e.g. raplaservices=filejournal=true. Disabled by default */
+    public static final String FILE_JOURNAL = "filejournal";
     final ServerContainerContext containerContext;
     FileOperator file;
     DBOperator db;
@@ -56,7 +68,15 @@ public class ServerStorageSelector implements Provider<CachableStorageOperator>
     {
         final String raplafile = containerContext.getMainFilesource();
         final String fileDatasource = raplafile != null ? raplafile : "data/data.xml";
-        return new FileOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, fileDatasource, permissionExtensions);
+        final FileOperator operator = new FileOperator(logger, promiseWait, i18n, raplaLocale, scheduler, functionFactoryMap, fileDatasource, permissionExtensions);
+        configure(operator);
+        operator.setJournalEnabled(containerContext.isServiceEnabled(FILE_JOURNAL, false));
+        return operator;
+    }
+
+    private void configure(LocalAbstractCachableOperator operator)
+    {
+        operator.setIncrementalConflictDetection(containerContext.isServiceEnabled(INCREMENTAL_CONFLICTS));
     }
 
     synchronized private ImportExportManager getImportExport()
@@ -77,7 +97,33 @@ public class ServerStorageSelector implements Provider<CachableStorageOperator>
     {
         Provider<ImportExportManager> importExportMananger = getImportExportManager();
         final DataSource dbDatasource = containerContext.getMainDbDatasource();
-        return new DBOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource, permissionExtensions);
+        final DBOperator operator = new DBOperator(logger, promiseWait, i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource, permissionExtensions);
+        configure(operator);
+        operator.setChangePolling(containerContext.isServiceEnabled(CHANGE_POLLING, false));
+        final String cacheSnapshot = containerContext.getCacheSnapshot();
+        if (cacheSnapshot != null)
+        {
+            operator.setSnapshotFile(new File(cacheSnapshot));
+        }
+        final String clusterPort = containerContext.getClusterPort();
+        if (clusterPort != null)
+        {
+            try
+            {
+                final InetAddress clusterAddress = SocketChangeFeed.parseAddress(containerContext.getClusterAddress());
+                final SocketChangeFeed changeFeed = new SocketChangeFeed(logger, clusterAddress, Integer.parseInt(clusterPort.trim()));
+                for (InetSocketAddress peer : SocketChangeFeed.parsePeers(containerContext.getClusterPeers()))
+                {
+                    changeFeed.addPeer(peer);
+                }
+                operator.setChangeFeed(changeFeed);
+            }
+            catch (NumberFormatException | RaplaException e)
+            {
+                logger.error("Cluster mode not enabled: " + e.getMessage());
+            }
+        }
+        return operator;
     }
 
 
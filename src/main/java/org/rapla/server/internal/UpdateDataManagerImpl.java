@@ -53,8 +53,11 @@ import javax.inject.Singleton;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** Provides an adapter for each client-session to their shared storage operator
  * Handles security and synchronizing aspects.
@@ -70,7 +73,18 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
     private Logger logger;
 
     private final PermissionController permissionController;
-
+    /** the number of update results whose permission changes are kept for the next user that syncs the same changes */
+    static final int MAX_PERMISSION_DIFFERENCES = 16;
+    /** the changed permissions of allocatables and reservations for each update result, they are the same for all users */
+    private final Map<String, Map<ReferenceInfo, Set<Permission>>> permissionDifferences = new LinkedHashMap<String, Map<ReferenceInfo, Set<Permission>>>(16,
+            0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<ReferenceInfo, Set<Permission>>> eldest)
+        {
+            return size() > MAX_PERMISSION_DIFFERENCES;
+        }
+    };
 
     @Inject public UpdateDataManagerImpl(Logger logger, CachableStorageOperator operator, SecurityManager securityManager)
     {
@@ -115,6 +129,26 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         return currentInterval;
     }
 
+    private Map<ReferenceInfo, Set<Permission>> getPermissionDifferences(UpdateResult updateResult)
+    {
+        final String key = updateResult.getSince().getTime() + "-" + updateResult.getUntil().getTime();
+        synchronized (permissionDifferences)
+        {
+            return permissionDifferences.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        }
+    }
+
+    private Set<Permission> getPermissionDifferences(Map<ReferenceInfo, Set<Permission>> differences, ReferenceInfo reference, PermissionContainer current,
+            PermissionContainer newObj)
+    {
+        return differences.computeIfAbsent(reference, ref ->
+        {
+            Set<Permission> result = new HashSet<>();
+            Util.addDifferences(result, current, newObj);
+            return result;
+        });
+    }
+
     public UpdateEvent createUpdateEvent(User user, Date lastSynced) throws RaplaException
     {
         Date currentTimestamp = operator.getCurrentTimestamp();
@@ -169,6 +203,7 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
 
         Set<Permission> invalidatePermissions = new HashSet<>();
         Set<Permission> invalidateEventPermissions = new HashSet<>();
+        final Map<ReferenceInfo, Set<Permission>> differences = getPermissionDifferences(updateResult);
 
         for (Change operation : updateResult.getOperations(UpdateResult.Change.class))
         {
@@ -190,7 +225,7 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
                 else
                 {
                     PermissionContainer newObj = (PermissionContainer) newObject;
-                    Util.addDifferences(invalidatePermissions, current, newObj);
+                    invalidatePermissions.addAll(getPermissionDifferences(differences, currentId, current, newObj));
                 }
             }
             // We trigger a resource refresh if the groups of the user have changed
@@ -249,7 +284,7 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
                 else
                 {
                     PermissionContainer newObj = (PermissionContainer) newObject;
-                    Util.addDifferences(invalidateEventPermissions, current, newObj);
+                    invalidateEventPermissions.addAll(getPermissionDifferences(differences, currentId, current, newObj));
                 }
             }
         }
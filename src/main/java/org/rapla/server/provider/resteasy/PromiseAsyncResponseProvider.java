@@ -0,0 +1,40 @@
+package org.rapla.server.provider.resteasy;
+
+import org.jboss.resteasy.spi.ApplicationException;
+import org.jboss.resteasy.spi.AsyncResponseProvider;
+import org.rapla.scheduler.Promise;
+
+import javax.ws.rs.ext.Provider;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Suspends the requests of resource methods that return a {@link Promise} and writes the result when the promise completes, so a pending
+ * promise holds no request thread, e.g. a client waiting for changes. A promise that is already resolved is written right away.
+ * Needs an async supported servlet and the {@link org.jboss.resteasy.plugins.server.servlet.HttpServlet30Dispatcher}.
+ */
+@Provider
+public class PromiseAsyncResponseProvider implements AsyncResponseProvider<Promise>
+{
+    @Override
+    public CompletionStage toCompletionStage(Promise promise)
+    {
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final Promise<Object> result = promise;
+        result.whenComplete((value, ex) ->
+        {
+            if (ex != null)
+            {
+                final Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                // mapped like the exceptions of synchronous methods, see ResteasyExceptionMapper
+                future.completeExceptionally(new ApplicationException(cause));
+            }
+            else
+            {
+                future.complete(value);
+            }
+        });
+        return future;
+    }
+}
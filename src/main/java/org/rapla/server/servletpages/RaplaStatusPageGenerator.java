@@ -6,6 +6,9 @@ package org.rapla.server.servletpages;
 import org.rapla.RaplaSystemInfo;
 import org.rapla.server.internal.RaplaStatusEntry;
 import org.rapla.server.internal.ServerContainerContext;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.impl.LockStatistics;
+import org.rapla.storage.impl.server.LocalAbstractCachableOperator;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -23,6 +26,7 @@ import java.io.IOException;
 public class RaplaStatusPageGenerator  {
     @Inject RaplaSystemInfo m_i18n;
     @Inject ServerContainerContext serverContainerContext;
+    @Inject CachableStorageOperator operator;
     @Inject
     public RaplaStatusPageGenerator()
     {
@@ -52,9 +56,69 @@ public class RaplaStatusPageGenerator  {
         String javaversion = System.getProperty("java.version");
      	out.println( "<p>Server running </p>" +  m_i18n.infoText( javaversion));
         out.println( "<hr>" );
+        if ( operator instanceof LocalAbstractCachableOperator)
+        {
+            final LockStatistics lockStatistics = ((LocalAbstractCachableOperator) operator).getLockStatistics();
+            if ( lockStatistics != null)
+            {
+                printLockStatistics(out, lockStatistics);
+            }
+        }
         out.println( "</body>" );
         out.println( "</html>" );
         out.close();
     }
 
+    private void printLockStatistics(java.io.PrintWriter out, LockStatistics lockStatistics)
+    {
+        out.println( "<h3>Storage lock</h3>" );
+        out.println( "<p>Queue length " + lockStatistics.getQueueLength() + ", read locks " + lockStatistics.getReadLockCount() + ", write locked "
+                + lockStatistics.isWriteLocked() + "</p>" );
+        out.println( "<p>Current holders</p>" );
+        out.println( "<ul>" );
+        for (String holder : lockStatistics.getCurrentHolders())
+        {
+            out.println( "<li>" + escape(holder) + "</li>" );
+        }
+        out.println( "</ul>" );
+        out.println( "<table border=\"1\">" );
+        StringBuilder header = new StringBuilder();
+        header.append("<tr><th>Class</th><th>Lock</th><th>Type</th><th></th><th>Count</th><th>Total ms</th><th>Max ms</th>");
+        for (long bound : LockStatistics.BUCKET_BOUNDS_MILLIS)
+        {
+            header.append("<th>&lt;").append(bound).append(" ms</th>");
+        }
+        header.append("<th>more</th></tr>");
+        out.println( header );
+        for (LockStatistics.Group group : lockStatistics.getGroups())
+        {
+            final Class callerClass = group.getCallerClass();
+            final String prefix = "<td>" + (callerClass != null ? callerClass.getSimpleName() : "") + "</td><td>" + escape(group.getName()) + "</td><td>" + (
+                    group.isWrite() ? "write" : "read") + "</td>";
+            out.println( "<tr>" + prefix + histogramCells("wait", group.getWait()) + "</tr>" );
+            out.println( "<tr>" + prefix + histogramCells("hold", group.getHold()) + "</tr>" );
+        }
+        out.println( "</table>" );
+        out.println( "<hr>" );
+    }
+
+    private String histogramCells(String label, LockStatistics.Histogram histogram)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<td>").append(label).append("</td>");
+        builder.append("<td>").append(histogram.getCount()).append("</td>");
+        builder.append("<td>").append(histogram.getTotalMillis()).append("</td>");
+        builder.append("<td>").append(histogram.getMaxMillis()).append("</td>");
+        for (long count : histogram.getBuckets())
+        {
+            builder.append("<td>").append(count).append("</td>");
+        }
+        return builder.toString();
+    }
+
+    private String escape(String text)
+    {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package org.rapla.storage;
+
+/**
+ * The progress of a {@link CachableStorageOperator#storeBulk}. It is reported after all entities are validated and after each stored chunk.
+ */
+public class BulkStoreProgress
+{
+    private final int total;
+    private final int validated;
+    private final int stored;
+    private final long elapsedMillis;
+
+    public BulkStoreProgress(int total, int validated, int stored, long elapsedMillis)
+    {
+        this.total = total;
+        this.validated = validated;
+        this.stored = stored;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /** the number of entities passed to the bulk store */
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /** the number of entities that passed the consistency checks. Nothing is written before all entities are validated */
+    public int getValidated()
+    {
+        return validated;
+    }
+
+    /** the number of entities written to the storage. They are visible to others after the last chunk is stored */
+    public int getStored()
+    {
+        return stored;
+    }
+
+    /** the milliseconds since the bulk store started */
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    /** the number of validated and stored entities per second */
+    public double getEntitiesPerSecond()
+    {
+        if (elapsedMillis <= 0)
+        {
+            return 0;
+        }
+        return (validated + stored) * 1000.0 / elapsedMillis;
+    }
+
+    public boolean isFinished()
+    {
+        return stored == total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "validated " + validated + ", stored " + stored + " of " + total + " in " + elapsedMillis + " ms (" + Math.round(getEntitiesPerSecond())
+                + " entities/s)";
+    }
+}
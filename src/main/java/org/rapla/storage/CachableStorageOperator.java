@@ -28,12 +28,19 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.function.Consumer;
 
 public interface CachableStorageOperator extends StorageOperator {
 
     void connect() throws RaplaException;
 	void runWithReadLock(CachableStorageOperatorCommand cmd) throws RaplaException;
     void dispatch(UpdateEvent evt) throws RaplaException;
+    /**
+     * Stores a large number of new or changed entities, e.g. the events of an import, as one update. All entities are checked before the
+     * first one is written and the cache and the conflicts are updated once at the end, so either all or none of the entities are stored.
+     * @param progress is called after each validated and each stored chunk, may be null
+     */
+    void storeBulk(Collection<? extends Entity> storeObjects, User user, Consumer<BulkStoreProgress> progress) throws RaplaException;
     String authenticate(String username,String password) throws RaplaException;
     void saveData(LocalCache cache, String version) throws RaplaException;
     
@@ -49,9 +56,17 @@ public interface CachableStorageOperator extends StorageOperator {
 
     UpdateResult getUpdateResult(Date since) throws RaplaException;
     UpdateResult getUpdateResult(Date since,User user) throws RaplaException;
+    /** returns true if a change since the date is visible for the user. Cheaper than {@link #getUpdateResult(Date, User)}, because the
+     * changes since a date are shared by all users and no result is created. */
+    boolean hasUpdates(Date since, User user) throws RaplaException;
+    /** registers a listener that is called after each update of the cache, by a store of this server or by a change from another server.
+     * The listener is called with the write lock held and must return quickly. */
+    void addUpdateListener(Consumer<UpdateResult> listener);
 
     Date getHistoryValidStart();
     Date getConnectStart();
+    /** the time of the last update of the cache, by a store of this server or a refresh from the storage */
+    Date getLastRefreshed();
 
     Map<String, ImportExportEntity> getImportExportEntities(String systemId, int importExportDirection) throws RaplaException;
     
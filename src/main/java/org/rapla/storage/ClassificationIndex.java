@@ -0,0 +1,451 @@
+package org.rapla.storage;
+
+import org.rapla.entities.Category;
+import org.rapla.entities.Entity;
+import org.rapla.entities.dynamictype.Attribute;
+import org.rapla.entities.dynamictype.AttributeType;
+import org.rapla.entities.dynamictype.Classifiable;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.ClassificationFilterRule;
+import org.rapla.entities.dynamictype.DynamicType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes on the attribute values of classifiable entities, so a {@link ClassificationFilter} does not need to be tested against
+ * every entity. For each attribute of a type the index keeps
+ * <ul>
+ *     <li>a hash index on the values for "=" and "is" of strings, categories and allocatables</li>
+ *     <li>a sorted index on int and date values for the range operators</li>
+ *     <li>optionally a trigram index on the lower case string values for "contains" and "starts"</li>
+ * </ul>
+ * A category rule with "is" is answered with the union of the hash entries of the category and all its sub categories.
+ * <p>
+ * {@link #getCandidates(ClassificationFilter[])} returns a superset of the matching entities, the filters must still be applied to the result.
+ * New entities are indexed on the next query, because the referenced types and categories may not be resolvable when the entity is put into
+ * the cache. The methods are synchronized, because the first query after a change updates the index under a read lock.
+ */
+class ClassificationIndex<T extends Entity>
+{
+    /** needles shorter than this are not looked up in the trigram index */
+    static final int GRAM_LENGTH = 3;
+
+    private final boolean substringIndex;
+    private final Map<String, Indexed<T>> indexed = new HashMap<>();
+    private final Map<String, Indexed<T>> pending = new LinkedHashMap<>();
+    private final Map<String, TypeIndex<T>> types = new HashMap<>();
+    /** entities whose values could not be resolved, they are candidates for every query */
+    private final Set<Indexed<T>> unindexed = new HashSet<>();
+    private long nextOrdinal;
+
+    private static final class Indexed<T>
+    {
+        final T entity;
+        final long ordinal;
+        final List<Posting<T>> postings = new ArrayList<>();
+
+        Indexed(T entity, long ordinal)
+        {
+            this.entity = entity;
+            this.ordinal = ordinal;
+        }
+    }
+
+    /** an entry of an indexed entity in one of the maps, needed to remove the entity without resolving its old values */
+    private static final class Posting<T>
+    {
+        final Map<Object, Set<Indexed<T>>> map;
+        final Object key;
+
+        Posting(Map<Object, Set<Indexed<T>>> map, Object key)
+        {
+            this.map = map;
+            this.key = key;
+        }
+    }
+
+    private static final class TypeIndex<T>
+    {
+        final Map<String, AttributeIndex<T>> attributes = new HashMap<>();
+    }
+
+    private static final class AttributeIndex<T>
+    {
+        final Map<Object, Set<Indexed<T>>> values = new HashMap<>();
+        final NavigableMap<Object, Set<Indexed<T>>> sorted = new TreeMap<>();
+        final Map<Object, Set<Indexed<T>>> grams = new HashMap<>();
+    }
+
+    ClassificationIndex(boolean substringIndex)
+    {
+        this.substringIndex = substringIndex;
+    }
+
+    /** adds the entity or replaces the previous version with the same id. The entity keeps its position in the result */
+    synchronized void put(T entity)
+    {
+        final String id = entity.getId();
+        final Indexed<T> old = unindex(id);
+        final Indexed<T> newEntry = new Indexed<>(entity, old != null ? old.ordinal : nextOrdinal++);
+        indexed.put(id, newEntry);
+        pending.put(id, newEntry);
+    }
+
+    synchronized void remove(String id)
+    {
+        unindex(id);
+    }
+
+    synchronized void clear()
+    {
+        indexed.clear();
+        pending.clear();
+        types.clear();
+        unindexed.clear();
+    }
+
+    private Indexed<T> unindex(String id)
+    {
+        final Indexed<T> old = indexed.remove(id);
+        if (old == null)
+        {
+            return null;
+        }
+        pending.remove(id);
+        unindexed.remove(old);
+        for (Posting<T> posting : old.postings)
+        {
+            final Set<Indexed<T>> set = posting.map.get(posting.key);
+            if (set != null)
+            {
+                set.remove(old);
+                if (set.isEmpty())
+                {
+                    posting.map.remove(posting.key);
+                }
+            }
+        }
+        old.postings.clear();
+        return old;
+    }
+
+    private void indexPending()
+    {
+        if (pending.isEmpty())
+        {
+            return;
+        }
+        for (Indexed<T> entry : pending.values())
+        {
+            try
+            {
+                index(entry);
+            }
+            catch (RuntimeException ex)
+            {
+                // e.g. the type could not be resolved, so the entity is tested with the filter on every query
+                for (Posting<T> posting : entry.postings)
+                {
+                    final Set<Indexed<T>> set = posting.map.get(posting.key);
+                    if (set != null)
+                    {
+                        set.remove(entry);
+                    }
+                }
+                entry.postings.clear();
+                unindexed.add(entry);
+            }
+        }
+        pending.clear();
+    }
+
+    private void index(Indexed<T> entry)
+    {
+        final Classification classification = ((Classifiable) entry.entity).getClassification();
+        if (classification == null)
+        {
+            unindexed.add(entry);
+            return;
+        }
+        final DynamicType type = classification.getType();
+        TypeIndex<T> typeIndex = types.get(type.getId());
+        if (typeIndex == null)
+        {
+            typeIndex = new TypeIndex<>();
+            types.put(type.getId(), typeIndex);
+        }
+        for (Attribute attribute : type.getAttributes())
+        {
+            final AttributeType attributeType = attribute.getType();
+            if (attributeType == AttributeType.BOOLEAN)
+            {
+                continue;
+            }
+            final Collection<Object> values = classification.getValues(attribute);
+            if (values.isEmpty())
+            {
+                continue;
+            }
+            AttributeIndex<T> attributeIndex = typeIndex.attributes.get(attribute.getKey());
+            if (attributeIndex == null)
+            {
+                attributeIndex = new AttributeIndex<>();
+                typeIndex.attributes.put(attribute.getKey(), attributeIndex);
+            }
+            for (Object value : values)
+            {
+                if (value == null)
+                {
+                    continue;
+                }
+                if (value instanceof Entity)
+                {
+                    add(entry, attributeIndex.values, ((Entity) value).getId());
+                }
+                else if (value instanceof Long)
+                {
+                    add(entry, attributeIndex.sorted, value);
+                }
+                else if (value instanceof Date)
+                {
+                    add(entry, attributeIndex.sorted, ((Date) value).getTime());
+                }
+                else if (value instanceof String)
+                {
+                    final String string = (String) value;
+                    add(entry, attributeIndex.values, string);
+                    if (substringIndex)
+                    {
+                        final String lowerCase = string.toLowerCase();
+                        for (int i = 0; i + GRAM_LENGTH <= lowerCase.length(); i++)
+                        {
+                            add(entry, attributeIndex.grams, lowerCase.substring(i, i + GRAM_LENGTH));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(Indexed<T> entry, Map<Object, Set<Indexed<T>>> map, Object key)
+    {
+        Set<Indexed<T>> set = map.get(key);
+        if (set == null)
+        {
+            set = new HashSet<>(2);
+            map.put(key, set);
+        }
+        if (set.add(entry))
+        {
+            entry.postings.add(new Posting<>(map, key));
+        }
+    }
+
+    /**
+     * @return all entities that can match one of the filters in the order they were first put into the index, or null if one of the filters
+     * has no rule that can be answered with the index. In that case the filters must be tested against all entities.
+     */
+    synchronized List<T> getCandidates(ClassificationFilter[] filters)
+    {
+        indexPending();
+        final Set<Indexed<T>> union = new HashSet<>();
+        for (ClassificationFilter filter : filters)
+        {
+            final Collection<Indexed<T>> candidates = getCandidates(filter);
+            if (candidates == null)
+            {
+                return null;
+            }
+            union.addAll(candidates);
+        }
+        union.addAll(unindexed);
+        final List<Indexed<T>> sorted = new ArrayList<>(union);
+        sorted.sort(Comparator.comparingLong((entry) -> entry.ordinal));
+        final List<T> result = new ArrayList<>(sorted.size());
+        for (Indexed<T> entry : sorted)
+        {
+            result.add(entry.entity);
+        }
+        return result;
+    }
+
+    /** the rules of a filter must all match, so the smallest candidate set of one rule is enough */
+    private Collection<Indexed<T>> getCandidates(ClassificationFilter filter)
+    {
+        final DynamicType type = filter.getType();
+        final TypeIndex<T> typeIndex = types.get(type.getId());
+        if (typeIndex == null)
+        {
+            return Collections.emptySet();
+        }
+        Collection<Indexed<T>> best = null;
+        final Iterator<? extends ClassificationFilterRule> it = filter.ruleIterator();
+        while (it.hasNext())
+        {
+            final ClassificationFilterRule rule = it.next();
+            final Collection<Indexed<T>> candidates = getCandidates(typeIndex, rule);
+            if (candidates != null && (best == null || candidates.size() < best.size()))
+            {
+                best = candidates;
+            }
+        }
+        return best;
+    }
+
+    /** the conditions of a rule are alternatives, so the union of their candidates is needed. Returns null if one condition can't be indexed */
+    private Collection<Indexed<T>> getCandidates(TypeIndex<T> typeIndex, ClassificationFilterRule rule)
+    {
+        final Attribute attribute = rule.getAttribute();
+        if (attribute == null)
+        {
+            return null;
+        }
+        final AttributeType attributeType = attribute.getType();
+        AttributeIndex<T> attributeIndex = typeIndex.attributes.get(attribute.getKey());
+        if (attributeIndex == null)
+        {
+            // no entity has a value for the attribute
+            attributeIndex = new AttributeIndex<>();
+        }
+        final String[] operators = rule.getOperators();
+        final Object[] values = rule.getValues();
+        final Set<Indexed<T>> result = new HashSet<>();
+        for (int i = 0; i < operators.length; i++)
+        {
+            // a rule without a value can match entities without a value, which are not in the index
+            final Object value = values[i];
+            if (value == null)
+            {
+                return null;
+            }
+            final String operator = operators[i];
+            if (attributeType == AttributeType.CATEGORY || attributeType == AttributeType.ALLOCATABLE)
+            {
+                if (!operator.equals("=") && !operator.equals("is"))
+                {
+                    return null;
+                }
+                addAll(result, attributeIndex.values.get(((Entity) value).getId()));
+                if (operator.equals("is") && attributeType == AttributeType.CATEGORY)
+                {
+                    addSubCategories(result, attributeIndex, (Category) value);
+                }
+            }
+            else if (attributeType == AttributeType.STRING)
+            {
+                if (operator.equals("=") || operator.equals("is"))
+                {
+                    addAll(result, attributeIndex.values.get(value));
+                }
+                else if ((operator.equals("contains") || operator.equals("starts")) && substringIndex)
+                {
+                    final String needle = value.toString().toLowerCase().trim();
+                    if (needle.length() < GRAM_LENGTH)
+                    {
+                        return null;
+                    }
+                    addAll(result, getGramCandidates(attributeIndex, needle));
+                }
+                else
+                {
+                    return null;
+                }
+            }
+            else if (attributeType == AttributeType.INT || attributeType == AttributeType.DATE)
+            {
+                final Long key = value instanceof Date ? ((Date) value).getTime() : (Long) value;
+                final NavigableMap<Object, Set<Indexed<T>>> sorted = attributeIndex.sorted;
+                final Map<Object, Set<Indexed<T>>> range;
+                switch (operator)
+                {
+                    case "=":
+                        addAll(result, sorted.get(key));
+                        continue;
+                    case "<":
+                        range = sorted.headMap(key, false);
+                        break;
+                    case "<=":
+                        range = sorted.headMap(key, true);
+                        break;
+                    case ">":
+                        range = sorted.tailMap(key, false);
+                        break;
+                    case ">=":
+                        range = sorted.tailMap(key, true);
+                        break;
+                    default:
+                        return null;
+                }
+                for (Set<Indexed<T>> set : range.values())
+                {
+                    result.addAll(set);
+                }
+            }
+            else
+            {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private void addSubCategories(Set<Indexed<T>> result, AttributeIndex<T> attributeIndex, Category category)
+    {
+        for (Category child : category.getCategories())
+        {
+            addAll(result, attributeIndex.values.get(child.getId()));
+            addSubCategories(result, attributeIndex, child);
+        }
+    }
+
+    /** the entities whose value contains all trigrams of the needle */
+    private Set<Indexed<T>> getGramCandidates(AttributeIndex<T> attributeIndex, String needle)
+    {
+        Set<Indexed<T>> smallest = null;
+        final List<Set<Indexed<T>>> sets = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= needle.length(); i++)
+        {
+            final Set<Indexed<T>> set = attributeIndex.grams.get(needle.substring(i, i + GRAM_LENGTH));
+            if (set == null)
+            {
+                return Collections.emptySet();
+            }
+            sets.add(set);
+            if (smallest == null || set.size() < smallest.size())
+            {
+                smallest = set;
+            }
+        }
+        final Set<Indexed<T>> result = new HashSet<>(smallest);
+        for (Set<Indexed<T>> set : sets)
+        {
+            if (set != smallest)
+            {
+                result.retainAll(set);
+            }
+        }
+        return result;
+    }
+
+    private static <T> void addAll(Set<Indexed<T>> result, Set<Indexed<T>> set)
+    {
+        if (set != null)
+        {
+            result.addAll(set);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.rapla.storage;
+
+import org.rapla.facade.Conflict;
+import org.rapla.facade.internal.ConflictImpl;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One page of the result of {@link StorageOperator#queryConflicts}. The conflicts of all pages are ordered by id.
+ * <p>
+ * A query for the changes since a date only returns the conflicts that changed since then and the ids of the conflicts that were removed
+ * or are no longer visible or matching. If the changes are not available, e.g. after a restart of the server, the page is a full listing
+ * instead and the client must drop all conflicts it has received before.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ConflictPage
+{
+    private List<ConflictImpl> conflicts = new ArrayList<>();
+    private List<String> removedIds = new ArrayList<>();
+    private String nextCursor;
+    private Date lastSynched;
+    private boolean fullListing;
+
+    public ConflictPage()
+    {
+    }
+
+    public ConflictPage(Date lastSynched, boolean fullListing)
+    {
+        this.lastSynched = lastSynched;
+        this.fullListing = fullListing;
+    }
+
+    public List<Conflict> getConflicts()
+    {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    public void addConflict(Conflict conflict)
+    {
+        conflicts.add((ConflictImpl) conflict);
+    }
+
+    /** the conflicts that were removed or are no longer visible or matching since the requested date. Always empty for a full listing */
+    public List<String> getRemovedIds()
+    {
+        return Collections.unmodifiableList(removedIds);
+    }
+
+    public void addRemovedId(String conflictId)
+    {
+        removedIds.add(conflictId);
+    }
+
+    /** pass this cursor to get the next page. null if this is the last page */
+    public String getNextCursor()
+    {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor)
+    {
+        this.nextCursor = nextCursor;
+    }
+
+    /** the server time of the query. Pass the date of the first page as the changed since date of the next query to get only the changes */
+    public Date getLastSynched()
+    {
+        return lastSynched;
+    }
+
+    public boolean isFullListing()
+    {
+        return fullListing;
+    }
+
+    public int size()
+    {
+        return conflicts.size() + removedIds.size();
+    }
+}
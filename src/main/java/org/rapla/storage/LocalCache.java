@@ -25,9 +25,11 @@ import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.domain.internal.AllocatableImpl;
 import org.rapla.entities.domain.internal.ReservationImpl;
 import org.rapla.entities.dynamictype.Attribute;
+import org.rapla.entities.dynamictype.ClassificationFilter;
 import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.dynamictype.internal.ClassificationImpl;
 import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
+import org.rapla.entities.dynamictype.internal.FormatCache;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.UserImpl;
 import org.rapla.entities.storage.EntityResolver;
@@ -56,13 +58,18 @@ public class LocalCache implements EntityResolver
     Map<String, AllocatableImpl> resources;
     Map<String, ReservationImpl> reservations;
     Map<ReferenceInfo<Allocatable>, GraphNode> graph = new LinkedHashMap<>();
+    // the tree and the resource selection search allocatables by substrings, reservations are only filtered by values
+    final ClassificationIndex<Allocatable> allocatableIndex = new ClassificationIndex<>(true);
+    final ClassificationIndex<Reservation> reservationIndex = new ClassificationIndex<>(false);
 
     private String clientUserId;
     private final PermissionController permissionController;
+    private final PermissionIndex permissionIndex;
 
     public LocalCache(PermissionController permissionController)
     {
         this.permissionController = permissionController;
+        this.permissionIndex = new PermissionIndex(permissionController);
         entities = new HashMap<>();
         // top-level-entities
         reservations = new LinkedHashMap<>();
@@ -100,6 +107,7 @@ public class LocalCache implements EntityResolver
     /** WARNING child entities will not be removed if you use this method */
     public boolean removeWithId(ReferenceInfo info)
     {
+        FormatCache.invalidateAll();
         String entityId = info.getId();
         Class<? extends Entity> typeClass = info.getType();
         boolean bResult = true;
@@ -110,12 +118,22 @@ public class LocalCache implements EntityResolver
             if (entityId == null)
                 return false;
             entitySet.remove(entityId);
+            if (typeClass == Allocatable.class)
+            {
+                allocatableIndex.remove(entityId);
+                permissionIndex.allocatableRemoved(entityId);
+            }
+            else if (typeClass == Reservation.class)
+            {
+                reservationIndex.remove(entityId);
+            }
         }
         else if (typeClass == Conflict.class)
         {
             disabledConflictApp1.remove(entityId);
             disabledConflictApp2.remove(entityId);
         }
+        updatePermissionDependencies(typeClass, entityId);
         if (typeClass == Allocatable.class)
         {
             GraphNode oldNode = graph.get(info);
@@ -182,6 +200,8 @@ public class LocalCache implements EntityResolver
             }
         }
 
+        // names of other entities can contain values of this entity
+        FormatCache.invalidateAll();
         if (entity.getTypeClass() == Allocatable.class)
         {
             updateDependencies(entity);
@@ -198,10 +218,20 @@ public class LocalCache implements EntityResolver
         }
 
         entities.put(entityId, entity);
+        updatePermissionDependencies(typeClass, entityId);
         Map<String, Entity> entitySet = getMap(typeClass);
         if (entitySet != null)
         {
             entitySet.put(entityId, entity);
+            if (typeClass == Allocatable.class)
+            {
+                allocatableIndex.put((Allocatable) entity);
+                permissionIndex.allocatableChanged((Allocatable) entity);
+            }
+            else if (typeClass == Reservation.class)
+            {
+                reservationIndex.put((Reservation) entity);
+            }
         }
         else if (entity instanceof Conflict)
         {
@@ -244,6 +274,24 @@ public class LocalCache implements EntityResolver
         }
     }
 
+    /** the groups of a user depend on the categories and the readable allocatables on users, categories and types */
+    private void updatePermissionDependencies(Class<? extends Entity> typeClass, String entityId)
+    {
+        if (typeClass == Category.class)
+        {
+            UserImpl.invalidateGroups();
+            permissionIndex.clear();
+        }
+        else if (typeClass == DynamicType.class)
+        {
+            permissionIndex.clear();
+        }
+        else if (typeClass == User.class)
+        {
+            permissionIndex.userChanged(entityId);
+        }
+    }
+
     public Entity get(Comparable id)
     {
         if (id == null)
@@ -282,6 +330,11 @@ public class LocalCache implements EntityResolver
         disabledConflictApp2.clear();
         conflictLastChanged.clear();
         graph.clear();
+        allocatableIndex.clear();
+        reservationIndex.clear();
+        permissionIndex.clear();
+        UserImpl.invalidateGroups();
+        FormatCache.invalidateAll();
     }
 
     public CategoryImpl getSuperCategory()
@@ -347,11 +400,19 @@ public class LocalCache implements EntityResolver
                 result.add(user);
             }
         }
-        for (Allocatable alloc : getAllocatables())
+        if (forUser == null || forUser.isAdmin())
         {
-            if (forUser == null || forUser.isAdmin() || permissionController.canReadOnlyInformation(alloc, forUser))
+            result.addAll(getAllocatables());
+        }
+        else
+        {
+            final Set<String> readable = permissionIndex.getReadableAllocatables(forUser, resources.values());
+            for (Allocatable alloc : getAllocatables())
             {
-                result.add(alloc);
+                if (readable.contains(alloc.getId()))
+                {
+                    result.add(alloc);
+                }
             }
         }
         // add system preferences
@@ -479,6 +540,25 @@ public class LocalCache implements EntityResolver
         return (Collection) resources.values();
     }
 
+    /**
+     * uses the attribute indexes to find the allocatables that can match one of the filters.
+     * @return the candidates in the order of {@link #getAllocatables()}, the filters must still be applied to them.
+     * null if the filters can't be answered with the indexes
+     */
+    public List<Allocatable> getAllocatableCandidates(ClassificationFilter[] filters)
+    {
+        return allocatableIndex.getCandidates(filters);
+    }
+
+    /**
+     * uses the attribute indexes to find the reservations that can match one of the filters.
+     * @return the candidates, the filters must still be applied to them. null if the filters can't be answered with the indexes
+     */
+    public List<Reservation> getReservationCandidates(ClassificationFilter[] filters)
+    {
+        return reservationIndex.getCandidates(filters);
+    }
+
     @SuppressWarnings("unchecked") public Collection<Reservation> getReservations()
     {
         return (Collection) reservations.values();
@@ -325,6 +325,12 @@ public class PermissionController
         {
             return false;
         }
+        return canReadOnlyInformationOfReadableType(classifiable, user);
+    }
+
+    /** same as {@link #canReadOnlyInformation(Allocatable, User)} for an allocatable whose type the user can read */
+    boolean canReadOnlyInformationOfReadableType(Allocatable classifiable, User user)
+    {
         if (isOwner(classifiable, user))
         {
             return true;
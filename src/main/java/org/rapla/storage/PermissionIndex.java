@@ -0,0 +1,147 @@
+package org.rapla.storage;
+
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.DynamicType;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers for each user the allocatables the user can read at least the information of, see
+ * {@link PermissionController#canReadOnlyInformation(Allocatable, User)}, and the types the user can read.
+ * <p>
+ * An entry is created on the first request for a user and then kept up to date by the {@link LocalCache}: a stored or removed
+ * allocatable is only checked again for the users with an entry, a stored or removed user drops the entry of that user. A change of a
+ * category (the user groups) or a type can change the result for every allocatable, so it drops all entries.
+ * The entry of a user is only used for the same user object, a new version of a user always gets a new entry.
+ */
+final class PermissionIndex
+{
+    /** the number of users with an entry, the least recently used entry is dropped first */
+    private static final int MAX_USERS = 100;
+
+    private final PermissionController permissionController;
+    private final Map<String, UserEntry> entries = new LinkedHashMap<String, UserEntry>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UserEntry> eldest)
+        {
+            return size() > MAX_USERS;
+        }
+    };
+
+    private static final class UserEntry
+    {
+        final User user;
+        final Set<String> readableAllocatables = new HashSet<>();
+        final Map<String, Boolean> readableTypes = new HashMap<>();
+
+        UserEntry(User user)
+        {
+            this.user = user;
+        }
+    }
+
+    PermissionIndex(PermissionController permissionController)
+    {
+        this.permissionController = permissionController;
+    }
+
+    /**
+     * returns the ids of the readable allocatables of the user. The result must not be modified.
+     * @param allocatables all allocatables of the cache, they are only checked if there is no entry for the user
+     */
+    synchronized Set<String> getReadableAllocatables(User user, Collection<? extends Allocatable> allocatables)
+    {
+        final String userId = user.getId();
+        UserEntry entry = entries.get(userId);
+        if (entry == null || entry.user != user)
+        {
+            entry = new UserEntry(user);
+            for (Allocatable allocatable : allocatables)
+            {
+                if (canRead(entry, allocatable))
+                {
+                    entry.readableAllocatables.add(allocatable.getId());
+                }
+            }
+            entries.put(userId, entry);
+        }
+        return entry.readableAllocatables;
+    }
+
+    private boolean canRead(UserEntry entry, Allocatable allocatable)
+    {
+        final Classification classification = allocatable.getClassification();
+        if (classification != null)
+        {
+            final DynamicType type = classification.getType();
+            final String typeId = type.getId();
+            Boolean canReadType = entry.readableTypes.get(typeId);
+            if (canReadType == null)
+            {
+                canReadType = permissionController.canRead(type, entry.user);
+                entry.readableTypes.put(typeId, canReadType);
+            }
+            if (!canReadType)
+            {
+                return false;
+            }
+        }
+        return permissionController.canReadOnlyInformationOfReadableType(allocatable, entry.user);
+    }
+
+    synchronized void allocatableChanged(Allocatable allocatable)
+    {
+        final String id = allocatable.getId();
+        final Iterator<UserEntry> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            final UserEntry entry = it.next();
+            final boolean canRead;
+            try
+            {
+                canRead = canRead(entry, allocatable);
+            }
+            catch (RuntimeException ex)
+            {
+                // the next request for the user checks all allocatables again and reports the problem
+                it.remove();
+                continue;
+            }
+            if (canRead)
+            {
+                entry.readableAllocatables.add(id);
+            }
+            else
+            {
+                entry.readableAllocatables.remove(id);
+            }
+        }
+    }
+
+    synchronized void allocatableRemoved(String allocatableId)
+    {
+        for (UserEntry entry : entries.values())
+        {
+            entry.readableAllocatables.remove(allocatableId);
+        }
+    }
+
+    synchronized void userChanged(String userId)
+    {
+        entries.remove(userId);
+    }
+
+    synchronized void clear()
+    {
+        entries.clear();
+    }
+}
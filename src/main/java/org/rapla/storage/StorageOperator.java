@@ -141,9 +141,23 @@ public interface StorageOperator extends EntityResolver {
     Promise<Map<Allocatable, Map<Appointment,Collection<Appointment>>>> getAllAllocatableBindings(Collection<Allocatable> allocatables, Collection<Appointment> appointments, Collection<Reservation> ignoreList);
 
     Promise<Date> getNextAllocatableDate(Collection<Allocatable> allocatables,Appointment appointment, Collection<Reservation> ignoreList, Integer worktimeStartMinutes,Integer worktimeEndMinutes, Integer[] excludedDays, Integer rowsPerHour);
+
+    /** returns the first count starts, after the start of the appointment, at which the appointment could be moved without a conflict with one of the allocatables.
+     * The starts are searched in steps of 1/rowsPerHour hours, or days for whole day appointments, and must be in the worktime and not on an excluded day. */
+    Promise<List<Date>> getNextAllocatableDates(Collection<Allocatable> allocatables,Appointment appointment, Collection<Reservation> ignoreList, Integer worktimeStartMinutes,Integer worktimeEndMinutes, Integer[] excludedDays, Integer rowsPerHour, int count);
     
     Promise<Collection<Conflict>> getConflicts(User user);
 
+    /** returns a page of the conflicts the user can modify, ordered by id. If no user is passed all conflicts are returned.
+     * @param allocatables only the conflicts of these allocatables, or of all if null
+     * @param start only the conflicts that occur after start, can be null
+     * @param end only the conflicts that occur before end, can be null
+     * @param enabled only the enabled conflicts if true, only the disabled if false and all if null
+     * @param changedSince only the changes after this date, see {@link ConflictPage}. All conflicts if null
+     * @param cursor the cursor of the previous page or null for the first page
+     * @param limit the maximum number of conflicts and removed ids in the page */
+    Promise<ConflictPage> queryConflicts(User user, Collection<Allocatable> allocatables, Date start, Date end, Boolean enabled, Date changedSince, String cursor, int limit);
+
     Promise<Collection<Conflict>> getConflicts(Reservation reservation);
 
     PermissionController getPermissionController();
@@ -0,0 +1,236 @@
+package org.rapla.storage.dbfile;
+
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.rest.JsonParserWrapper;
+import org.rapla.storage.UpdateEvent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write ahead log for the {@link FileOperator}. Each dispatched {@link UpdateEvent} is appended as one record and forced to disk, so the data file
+ * only needs to be rewritten when the journal is compacted.
+ * <p>
+ * A record consists of the length of the json content, a CRC32 checksum and the UTF-8 encoded json of a {@link JournalRecord}.
+ * A record that is cut off or has a wrong checksum at the end of the journal is the result of a crash while appending and is ignored on read.
+ */
+class FileJournal
+{
+    private final File file;
+    private final Logger logger;
+    private final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+    private RandomAccessFile out;
+    private int recordCount;
+    private long firstRecordTime;
+
+    /** the content of a journal entry. The event contains the changes after the closure and the timestamps are computed */
+    static class JournalRecord
+    {
+        long timestamp;
+        UpdateEvent event;
+        Map<String, String> passwords = new LinkedHashMap<>();
+
+        JournalRecord()
+        {
+        }
+
+        JournalRecord(long timestamp, UpdateEvent event)
+        {
+            this.timestamp = timestamp;
+            this.event = event;
+        }
+    }
+
+    FileJournal(File file, Logger logger)
+    {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /** reads all complete records of the journal */
+    synchronized List<JournalRecord> read() throws RaplaException
+    {
+        List<JournalRecord> result = new ArrayList<>();
+        if (!file.exists())
+        {
+            return result;
+        }
+        long validLength = 0;
+        final long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            while (true)
+            {
+                final int length;
+                final long checksum;
+                final byte[] data;
+                try
+                {
+                    length = in.readInt();
+                    checksum = in.readLong();
+                    // a length beyond the end of the file is a torn or corrupt header, it must not be allocated
+                    if (length < 0 || length > fileLength - validLength - 12)
+                    {
+                        logger.warn("Ignoring invalid record at the end of journal " + file);
+                        break;
+                    }
+                    data = new byte[length];
+                    in.readFully(data);
+                }
+                catch (EOFException ex)
+                {
+                    if (validLength < fileLength)
+                    {
+                        logger.warn("Ignoring incomplete record at the end of journal " + file);
+                    }
+                    break;
+                }
+                if (checksum(data) != checksum)
+                {
+                    logger.warn("Ignoring corrupt record at the end of journal " + file);
+                    break;
+                }
+                final String json = new String(data, StandardCharsets.UTF_8);
+                result.add(gson.fromJson(json, JournalRecord.class));
+                validLength += 4 + 8 + length;
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new RaplaException("Can't read journal " + file + ": " + ex.getMessage(), ex);
+        }
+        // cut off the corrupt rest, so new records are not appended behind it
+        if (validLength < fileLength)
+        {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.setLength(validLength);
+            }
+            catch (IOException ex)
+            {
+                throw new RaplaException("Can't repair journal " + file + ": " + ex.getMessage(), ex);
+            }
+        }
+        recordCount = result.size();
+        firstRecordTime = result.isEmpty() ? 0 : System.currentTimeMillis();
+        return result;
+    }
+
+    /** appends the record and forces it to disk before returning */
+    synchronized void append(JournalRecord record) throws RaplaException
+    {
+        final byte[] data = gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + data.length);
+        buffer.putInt(data.length);
+        buffer.putLong(checksum(data));
+        buffer.put(data);
+        buffer.flip();
+        try
+        {
+            final FileChannel channel = getOut().getChannel();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        catch (IOException ex)
+        {
+            throw new RaplaException("Can't write to journal " + file + ": " + ex.getMessage(), ex);
+        }
+        if (recordCount == 0)
+        {
+            firstRecordTime = System.currentTimeMillis();
+        }
+        recordCount++;
+    }
+
+    private RandomAccessFile getOut() throws IOException
+    {
+        if (out == null)
+        {
+            final File parentFile = file.getParentFile();
+            if (parentFile != null && !parentFile.exists())
+            {
+                parentFile.mkdirs();
+            }
+            out = new RandomAccessFile(file, "rw");
+            out.seek(out.length());
+        }
+        return out;
+    }
+
+    /** removes all records. Call this after the content of the journal is written to the data file */
+    synchronized void truncate() throws RaplaException
+    {
+        try
+        {
+            getOut().setLength(0);
+            out.getChannel().force(true);
+        }
+        catch (IOException ex)
+        {
+            throw new RaplaException("Can't truncate journal " + file + ": " + ex.getMessage(), ex);
+        }
+        recordCount = 0;
+        firstRecordTime = 0;
+    }
+
+    synchronized long getSize()
+    {
+        return file.length();
+    }
+
+    synchronized int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /** @return the time the oldest record that is not compacted was appended or read, 0 if the journal is empty */
+    synchronized long getFirstRecordTime()
+    {
+        return firstRecordTime;
+    }
+
+    synchronized void close()
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException ex)
+            {
+                logger.warn("Can't close journal " + file + ": " + ex.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    private static long checksum(byte[] data)
+    {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+}
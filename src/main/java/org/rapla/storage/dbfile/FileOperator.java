@@ -156,6 +156,13 @@ final public class FileOperator extends LocalAbstractCachableOperator
 
     private final Map<ImportExportMapKey, Map<String,ImportExportEntity>> importExportEntities = new LinkedHashMap<>();
 
+    /** the journal is compacted into the data file when it exceeds this size */
+    static final long JOURNAL_COMPACT_SIZE = 16 * 1024 * 1024;
+    /** the journal is compacted into the data file when the oldest record is older than this */
+    static final long JOURNAL_COMPACT_AGE = 10 * DateTools.MILLISECONDS_PER_MINUTE;
+    static final long JOURNAL_CHECK_PERIOD = DateTools.MILLISECONDS_PER_MINUTE;
+    private FileJournal journal;
+
     public FileOperator(Logger logger, PromiseWait promiseWait,RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
             Map<String, FunctionFactory> functionFactoryMap, @Named(ServerService.ENV_RAPLAFILE_ID) String resolvedPath,
             Set<PermissionExtension> permissionExtensions) throws RaplaInitializationException
@@ -183,6 +190,28 @@ final public class FileOperator extends LocalAbstractCachableOperator
         return storageURL.toString();
     }
 
+    /**
+     * In journal mode every dispatch is appended to data.xml.journal instead of rewriting the data file. The data file is rewritten in the
+     * background when the journal gets too large or too old and on disconnect. Must be set before connecting.
+     */
+    public void setJournalEnabled(boolean enabled)
+    {
+        if (enabled && journal == null)
+        {
+            journal = new FileJournal(new File(new File(storageURL).getPath() + ".journal"), getLogger());
+        }
+        else if (!enabled && journal != null)
+        {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    public boolean isJournalEnabled()
+    {
+        return journal != null;
+    }
+
     public boolean supportsActiveMonitoring()
     {
         return false;
@@ -206,9 +235,17 @@ final public class FileOperator extends LocalAbstractCachableOperator
             importExportEntities.clear();
             addInternalTypes(cache);
             loadData(cache);
+            if (journal != null)
+            {
+                replayJournal();
+            }
             changeStatus(InitStatus.Loaded);
             initIndizes();
             changeStatus(InitStatus.Connected);
+            if (journal != null)
+            {
+                scheduleConnectedTasks(this::compactJournalIfNeeded, JOURNAL_CHECK_PERIOD, JOURNAL_CHECK_PERIOD);
+            }
 
         }
         /*
@@ -231,6 +268,18 @@ final public class FileOperator extends LocalAbstractCachableOperator
     @Override
     final public void disconnect() throws RaplaException
     {
+        if (journal != null && isConnected())
+        {
+            try
+            {
+                compactJournal();
+            }
+            catch (RaplaException ex)
+            {
+                getLogger().error("Could not compact journal on disconnect. It will be replayed on next connect. " + ex.getMessage(), ex);
+            }
+            journal.close();
+        }
         super.disconnect();
         importExportEntities.clear();
     }
@@ -443,6 +492,36 @@ final public class FileOperator extends LocalAbstractCachableOperator
     }
 
     public void dispatch(final UpdateEvent evt) throws RaplaException
+    {
+        // dispatches are serialized by the dispatch lock, so writing the file only needs a read lock on the cache
+        lockDispatch("dispatching " + evt.getInfoString());
+        try
+        {
+            final Date until = applyDispatch(evt);
+            final RaplaLock.ReadLock readLock = readLockIfLoaded("saving " + evt.getInfoString());
+            try
+            {
+                if (journal != null)
+                {
+                    journal.append(createJournalRecord(evt, until));
+                }
+                else
+                {
+                    saveData(cache, null, includeIds);
+                }
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
+        }
+        finally
+        {
+            unlockDispatch();
+        }
+    }
+
+    private Date applyDispatch(final UpdateEvent evt) throws RaplaException
     {
         final RaplaLock.WriteLock writeLock = writeLockIfLoaded("dispatching " +  evt.getInfoString());
         try
@@ -457,34 +536,149 @@ final public class FileOperator extends LocalAbstractCachableOperator
             // then saveData() saves all the data in the cache
             final Collection<ReferenceInfo> removeIds = evt.getRemoveIds();
             final List<PreferencePatch> preferencePatches = evt.getPreferencePatches();
-            final Collection<Entity> storeObjects = new ArrayList<>(evt.getStoreObjects());
-            for (Iterator<Entity> iterator = storeObjects.iterator(); iterator.hasNext();)
+            final Collection<Entity> storeObjects = updateImportExportCache(evt.getStoreObjects(), removeIds);
+            refresh(since, until, storeObjects, preferencePatches, removeIds);
+            return until;
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+    }
+
+    /**
+     * Puts the import export entities into the import export cache and removes them from the passed removeIds.
+     * @return the entities to store without the import export entities
+     */
+    private Collection<Entity> updateImportExportCache(Collection<Entity> entities, Collection<ReferenceInfo> removeIds)
+    {
+        final Collection<Entity> storeObjects = new ArrayList<>(entities);
+        for (Iterator<Entity> iterator = storeObjects.iterator(); iterator.hasNext();)
+        {
+            Entity entity = iterator.next();
+            if(entity instanceof ImportExportEntity)
             {
-                Entity entity = iterator.next();
-                if(entity instanceof ImportExportEntity)
+                iterator.remove();
+                ImportExportEntity cast = (ImportExportEntity) entity;
+                insertIntoImportExportCache(cast);
+            }
+        }
+        Set<ReferenceInfo<ImportExportEntity>> removedImports = new HashSet<>();
+        for (Iterator<ReferenceInfo> iterator = removeIds.iterator(); iterator.hasNext();)
+        {
+            ReferenceInfo referenceInfo = iterator.next();
+            if(referenceInfo.getType() == ImportExportEntity.class)
+            {
+                iterator.remove();
+                removedImports.add( referenceInfo);
+            }
+        }
+        removeFromImportExportCache(removedImports);
+        return storeObjects;
+    }
+
+    private FileJournal.JournalRecord createJournalRecord(UpdateEvent evt, Date until)
+    {
+        final FileJournal.JournalRecord record = new FileJournal.JournalRecord(until.getTime(), evt);
+        for (Entity entity : evt.getStoreObjects())
+        {
+            if (entity instanceof User)
+            {
+                final ReferenceInfo<User> id = ((User) entity).getReference();
+                final String password = cache.getPassword(id);
+                if (password != null)
                 {
-                    iterator.remove();
-                    ImportExportEntity cast = (ImportExportEntity) entity;
-                    insertIntoImportExportCache(cast);
+                    record.passwords.put(id.getId(), password);
                 }
             }
-            Set<ReferenceInfo<ImportExportEntity>> removedImports = new HashSet<>();
-            for (Iterator<ReferenceInfo> iterator = removeIds.iterator(); iterator.hasNext();)
+        }
+        return record;
+    }
+
+    /** applies the changes in the journal, that are not yet written to the data file, to the loaded cache */
+    private void replayJournal() throws RaplaException
+    {
+        final List<FileJournal.JournalRecord> records = journal.read();
+        if (records.isEmpty())
+        {
+            return;
+        }
+        getLogger().info("Replaying " + records.size() + " changes from " + journal.getFile());
+        final Date lastRefreshed = getLastRefreshed();
+        for (FileJournal.JournalRecord record : records)
+        {
+            final UpdateEvent evt = record.event;
+            final Date timestamp = new Date(record.timestamp);
+            final Collection<ReferenceInfo> removeIds = evt.getRemoveIds();
+            final Collection<Entity> storeObjects = updateImportExportCache(evt.getStoreObjects(), removeIds);
+            for (ReferenceInfo id : removeIds)
             {
-                ReferenceInfo referenceInfo = iterator.next();
-                if(referenceInfo.getType() == ImportExportEntity.class)
+                final Entity entity = tryResolve(id);
+                if (entity != null && EntityHistory.isSupportedEntity(id.getType()))
                 {
-                    iterator.remove();
-                    removedImports.add( referenceInfo);
+                    history.addHistoryEntry(entity, timestamp, true);
                 }
             }
-            removeFromImportExportCache(removedImports);
-            refresh(since, until, storeObjects, preferencePatches, removeIds);
-            saveData(cache, null, includeIds);
+            for (Entity entity : storeObjects)
+            {
+                if (entity instanceof Timestamp && EntityHistory.isSupportedEntity(entity.getTypeClass()))
+                {
+                    final Date lastChanged = ((Timestamp) entity).getLastChanged();
+                    history.addHistoryEntry(entity, lastChanged != null ? lastChanged : timestamp, false);
+                }
+            }
+            update(timestamp, timestamp, storeObjects, evt.getPreferencePatches(), removeIds);
+            for (Map.Entry<String, String> password : record.passwords.entrySet())
+            {
+                cache.putPassword(new ReferenceInfo<>(password.getKey(), User.class), password.getValue());
+            }
+        }
+        setLastRefreshed(lastRefreshed);
+    }
+
+    private void compactJournalIfNeeded() throws RaplaException
+    {
+        final long firstRecordTime = journal.getFirstRecordTime();
+        if (firstRecordTime == 0)
+        {
+            return;
+        }
+        if (journal.getSize() >= JOURNAL_COMPACT_SIZE || System.currentTimeMillis() - firstRecordTime >= JOURNAL_COMPACT_AGE)
+        {
+            compactJournal();
+        }
+    }
+
+    /**
+     * Writes the cache to the data file and empties the journal. The dispatch lock prevents new journal records in the meantime,
+     * readers are not blocked while writing.
+     */
+    private void compactJournal() throws RaplaException
+    {
+        lockDispatch("compacting journal");
+        try
+        {
+            if (journal.getRecordCount() == 0)
+            {
+                return;
+            }
+            final RaplaLock.ReadLock readLock = readLockIfLoaded("compacting journal");
+            try
+            {
+                final long start = System.currentTimeMillis();
+                saveData(cache, null, includeIds);
+                // if the server stops before the truncate, the records are replayed again on the new data file. This does not change the result.
+                journal.truncate();
+                getLogger().info("Compacted journal into " + getURL() + " in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
         }
         finally
         {
-            lockManager.unlock(writeLock);
+            unlockDispatch();
         }
     }
 
@@ -610,6 +804,10 @@ final public class FileOperator extends LocalAbstractCachableOperator
         try
         {
             saveData(cache, null, includeIds);
+            if (journal != null)
+            {
+                journal.truncate();
+            }
         }
         finally
         {
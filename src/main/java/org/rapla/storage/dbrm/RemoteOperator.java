@@ -52,6 +52,7 @@ import org.rapla.logger.Logger;
 import org.rapla.scheduler.CommandScheduler;
 import org.rapla.scheduler.Promise;
 import org.rapla.scheduler.ResolvedPromise;
+import org.rapla.storage.ConflictPage;
 import org.rapla.storage.PreferencePatch;
 import org.rapla.storage.RaplaSecurityException;
 import org.rapla.storage.StorageOperator;
@@ -60,6 +61,7 @@ import org.rapla.storage.UpdateEvent;
 import org.rapla.storage.UpdateResult;
 import org.rapla.storage.dbrm.RemoteStorage.AllocatableBindingsRequest;
 import org.rapla.storage.dbrm.RemoteStorage.BindingMap;
+import org.rapla.storage.dbrm.RemoteStorage.ConflictQuery;
 import org.rapla.storage.dbrm.RemoteStorage.MergeRequest;
 import org.rapla.storage.dbrm.RemoteStorage.NextAllocatableDateRequest;
 import org.rapla.storage.dbrm.RemoteStorage.PasswordPost;
@@ -274,17 +276,65 @@ public class RemoteOperator
     }
 
     boolean refreshInProgress;
-
+    /** the start of the pending wait for changes or null if the client is not waiting */
+    private volatile Date waitingForChangesSince;
+    /** the number of failed waits for changes in a row */
+    private int waitFailures;
+    /** the number of refresh cycles to skip before the next wait for changes after a failure */
+    private int waitRetryCountdown;
+    /** a wait for changes that takes longer is considered lost and the periodic refresh takes over */
+    static final long MAX_WAIT_FOR_CHANGES = DateTools.MILLISECONDS_PER_MINUTE * 2;
+
+    /** Called periodically. Refreshes the data and starts to wait for changes if the client is not already waiting for changes. */
     public void triggerRefresh()
     {
         if (refreshInProgress) {
             return;
         }
+        final Date waitingSince = waitingForChangesSince;
+        if (waitingSince != null && System.currentTimeMillis() - waitingSince.getTime() < MAX_WAIT_FOR_CHANGES) {
+            return;
+        }
         // if not we skip until the next update cycle
         if (lockManager.isWriteLocked() && !isConnected()) {
             return;
         }
-        refreshAsync();
+        refreshAsync().thenRun(() -> waitForChanges());
+    }
+
+    /**
+     * Sends a long poll that the server answers as soon as there are changes for the user. The answer is applied like a refresh and the
+     * next poll is sent, so the periodic refresh in {@link #triggerRefresh()} has nothing to do while the client is waiting. If the wait
+     * fails, e.g. on a connection problem or an older server, the client falls back to the periodic refresh and tries again after
+     * an increasing number of refresh cycles.
+     */
+    private void waitForChanges()
+    {
+        if (waitingForChangesSince != null || !isConnected()) {
+            return;
+        }
+        if (waitRetryCountdown > 0) {
+            waitRetryCountdown--;
+            return;
+        }
+        waitingForChangesSince = new Date();
+        final Promise<UpdateEvent> updateEventPromise = getRemoteStorage().waitForRefresh(getLastSyncedTime());
+        updateEventPromise.thenAccept((evt) -> {
+            waitFailures = 0;
+            try {
+                refresh(evt);
+            } catch (EntityNotFoundException ex) {
+                getLogger().error("Refreshing all resources due to " + ex.getMessage(), ex);
+                refreshAll();
+            }
+            waitingForChangesSince = null;
+            waitForChanges();
+        }).exceptionally((ex) -> {
+            waitingForChangesSince = null;
+            waitFailures = Math.min(waitFailures + 1, 6);
+            waitRetryCountdown = (1 << waitFailures) - 1;
+            getLogger().warn("Waiting for changes failed, using periodic refresh: " + ex.getMessage());
+        });
     }
     @Override
      public Promise<Void> refreshAsync() {
@@ -1032,6 +1082,17 @@ public class RemoteOperator
         return nextAllocatableDate;
     }
 
+    @Override
+    public Promise<List<Date>> getNextAllocatableDates(Collection<Allocatable> allocatables, Appointment appointment, Collection<Reservation> ignoreList,
+                                                Integer worktimeStartMinutes, Integer worktimeEndMinutes, Integer[] excludedDays, Integer rowsPerHour, int count) {
+        RemoteStorage serv = getRemoteStorage();
+        String[] allocatableIds = getIdList(allocatables);
+        String[] reservationIds = getIdList(ignoreList);
+        return serv.getNextAllocatableDates(
+                new NextAllocatableDateRequest(allocatableIds, (AppointmentImpl) appointment, reservationIds, worktimeStartMinutes, worktimeEndMinutes,
+                        excludedDays, rowsPerHour, count));
+    }
+
     static private SortedSet<Appointment> getAppointments(Allocatable alloc, SortedSet<Appointment> allAppointments) {
         SortedSet<Appointment> result = new TreeSet<>(new AppointmentStartComparator());
         for (Appointment appointment : allAppointments) {
@@ -1063,6 +1124,20 @@ public class RemoteOperator
         });
     }
 
+    @Override
+    public Promise<ConflictPage> queryConflicts(User user, Collection<Allocatable> allocatables, Date start, Date end, Boolean enabled, Date changedSince,
+            String cursor, int limit) {
+        RemoteStorage serv = getRemoteStorage();
+        String[] allocatableIds = allocatables != null ? getIdList(allocatables) : null;
+        return serv.queryConflicts(new ConflictQuery(allocatableIds, start, end, enabled, changedSince, cursor, limit)).thenApply(page ->
+        {
+            final List<Conflict> conflicts = page.getConflicts();
+            testResolve(conflicts);
+            setResolver(conflicts);
+            return page;
+        });
+    }
+
     @Override
     public Promise<Allocatable> doMerge(Allocatable selectedObject, Set<ReferenceInfo<Allocatable>> allocatableIds, User user) {
         String lastSyncedTime = getLastSyncedTime();
@@ -18,6 +18,7 @@ import org.rapla.entities.domain.internal.ReservationImpl;
 import org.rapla.facade.internal.ConflictImpl;
 import org.rapla.framework.RaplaException;
 import org.rapla.scheduler.Promise;
+import org.rapla.storage.ConflictPage;
 import org.rapla.storage.UpdateEvent;
 
 import javax.ws.rs.Consumes;
@@ -175,6 +176,13 @@ public interface RemoteStorage
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     Promise<UpdateEvent> refresh(@QueryParam("lastSynched") String lastSyncedTime);
 
+    /** like {@link #refresh} but the server answers as soon as there are changes the user can see, or after a timeout without changes.
+     * A client can send the next request after each answer instead of calling refresh periodically. */
+    @POST
+    @Path("refresh/wait")
+    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+    Promise<UpdateEvent> waitForRefresh(@QueryParam("lastSynched") String lastSyncedTime);
+
     @POST
     @Path("restart")
     Promise<Void> restartServer();
@@ -207,6 +215,75 @@ public interface RemoteStorage
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     Promise<List<ConflictImpl>> getConflicts() ;
 
+    @POST
+    @Path("conflicts/query")
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    Promise<ConflictPage> queryConflicts(ConflictQuery query);
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    class ConflictQuery
+    {
+        private String[] allocatableIds;
+        private Date start;
+        private Date end;
+        private Boolean enabled;
+        private Date changedSince;
+        private String cursor;
+        private Integer limit;
+
+        public ConflictQuery()
+        {
+        }
+
+        public ConflictQuery(String[] allocatableIds, Date start, Date end, Boolean enabled, Date changedSince, String cursor, Integer limit)
+        {
+            this.allocatableIds = allocatableIds;
+            this.start = start;
+            this.end = end;
+            this.enabled = enabled;
+            this.changedSince = changedSince;
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+
+        public String[] getAllocatableIds()
+        {
+            return allocatableIds;
+        }
+
+        public Date getStart()
+        {
+            return start;
+        }
+
+        public Date getEnd()
+        {
+            return end;
+        }
+
+        public Boolean getEnabled()
+        {
+            return enabled;
+        }
+
+        public Date getChangedSince()
+        {
+            return changedSince;
+        }
+
+        public String getCursor()
+        {
+            return cursor;
+        }
+
+        public Integer getLimit()
+        {
+            return limit;
+        }
+    }
+
     @POST
     @Path("allocatable/bindings/first")
     @Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
@@ -259,6 +336,12 @@ public interface RemoteStorage
     @Produces({ MediaType.APPLICATION_JSON })
     Promise<Date> getNextAllocatableDate(NextAllocatableDateRequest job);
 
+    @POST
+    @Path("allocatable/date/free")
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    Promise<List<Date>> getNextAllocatableDates(NextAllocatableDateRequest job);
+
     @XmlRootElement
     @XmlAccessorType(XmlAccessType.FIELD)
     class NextAllocatableDateRequest
@@ -270,6 +353,7 @@ public interface RemoteStorage
         private Integer worktimeEndMinutes;
         private Integer[] excludedDays;
         Integer rowsPerHour;
+        private Integer count;
 
         public NextAllocatableDateRequest()
         {
@@ -289,6 +373,13 @@ public interface RemoteStorage
             this.rowsPerHour = rowsPerHour;
         }
 
+        public NextAllocatableDateRequest(String[] allocatableIds, AppointmentImpl appointment, String[] reservationIds, Integer worktimeStartMinutes,
+                Integer worktimeEndMinutes, Integer[] excludedDays, Integer rowsPerHour, Integer count)
+        {
+            this(allocatableIds, appointment, reservationIds, worktimeStartMinutes, worktimeEndMinutes, excludedDays, rowsPerHour);
+            this.count = count;
+        }
+
         public String[] getAllocatableIds()
         {
             return allocatableIds;
@@ -323,6 +414,12 @@ public interface RemoteStorage
         {
             return rowsPerHour;
         }
+
+        /** the number of free dates to return, only used by getNextAllocatableDates */
+        public Integer getCount()
+        {
+            return count;
+        }
     }
 
     @GET
@@ -59,6 +59,12 @@ public class GwtRaplaLock implements RaplaLock
         return false;
     }
 
+    @Override
+    public boolean isWriteLockedByCurrentThread()
+    {
+        return false;
+    }
+
     @Override
     public void unlock(ReadLock lock)
     {
@@ -593,6 +593,21 @@ public class AbstractTableStorage implements TableStorage
         return tableName;
     }
 
+	/** @return the highest value in the timestamp column or null if the table is empty*/
+	protected Date getMaxTimestamp(String column) throws SQLException
+	{
+		try (PreparedStatement stmt = con.prepareStatement("SELECT MAX(" + column + ") FROM " + tableName))
+		{
+			final ResultSet result = stmt.executeQuery();
+			if (result == null || !result.next())
+			{
+				return null;
+			}
+			final java.sql.Timestamp timestamp = result.getTimestamp(1);
+			return timestamp != null ? new Date(timestamp.getTime()) : null;
+		}
+	}
+
 	protected TimeZone getSystemTimeZone() {
 		return TimeZone.getDefault();
 	}
@@ -0,0 +1,259 @@
+package org.rapla.storage.dbsql;
+
+import org.rapla.entities.Entity;
+import org.rapla.entities.RaplaType;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Binary copy of the entities in the cache of the {@link DBOperator}, so a restart only needs to read this file and the changes that were
+ * made after it was written, instead of loading all tables.
+ * <p>
+ * The file starts with a header containing the format version, the refresh timestamp of the cache and the database url. Each entity is stored
+ * with its type, id and its json in the format of the history. A trailer marks the end of a completely written file. The file is written to
+ * a temporary file that replaces the old snapshot, so a crash while writing leaves the previous snapshot intact. On read the file is
+ * memory mapped and the json of the entities is decoded in parallel.
+ */
+class CacheSnapshot
+{
+    /** increment this if the format of the file or the json of the entities changes, snapshots with another version are ignored */
+    static final int FORMAT_VERSION = 1;
+    /** the file is mapped into one buffer, so the snapshot must not be larger than a buffer can be */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+    private static final byte[] MAGIC = "RAPLASNP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRAILER = "RAPLAEND".getBytes(StandardCharsets.US_ASCII);
+
+    private final File file;
+    private final Logger logger;
+
+    static class Record
+    {
+        final ReferenceInfo ref;
+        final String json;
+
+        Record(ReferenceInfo ref, String json)
+        {
+            this.ref = ref;
+            this.json = json;
+        }
+    }
+
+    static class Content
+    {
+        final Date timestamp;
+        final String source;
+        final List<Record> records;
+
+        Content(Date timestamp, String source, List<Record> records)
+        {
+            this.timestamp = timestamp;
+            this.source = source;
+            this.records = records;
+        }
+    }
+
+    CacheSnapshot(File file, Logger logger)
+    {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    boolean exists()
+    {
+        return file.exists();
+    }
+
+    /** removes the snapshot, so the next start loads all tables */
+    void delete()
+    {
+        if (file.exists() && !file.delete())
+        {
+            logger.warn("Could not delete cache snapshot " + file);
+        }
+    }
+
+    /**
+     * writes the records to a temporary file and replaces the snapshot with it
+     * @throws RaplaException if the snapshot can't be written or would be larger than {@link #MAX_SIZE}. The old snapshot is removed then
+     * @param timestamp the time of the last refresh of the cache, changes after this time are loaded from the database on start
+     * @param source the url of the database, a snapshot of another database is ignored
+     */
+    synchronized void write(Date timestamp, String source, List<Record> records) throws RaplaException
+    {
+        final File parentFile = file.getAbsoluteFile().getParentFile();
+        if (parentFile != null && !parentFile.exists())
+        {
+            parentFile.mkdirs();
+        }
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        try
+        {
+            try (FileOutputStream fileOut = new FileOutputStream(tmpFile))
+            {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+                out.write(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(timestamp.getTime());
+                long size = MAGIC.length + 4 + 8 + writeString(out, source);
+                out.writeInt(records.size());
+                size += 4;
+                for (Record record : records)
+                {
+                    size += writeString(out, RaplaType.getLocalName(record.ref.getType()));
+                    size += writeString(out, record.ref.getId());
+                    size += writeString(out, record.json);
+                    if (size + TRAILER.length > MAX_SIZE)
+                    {
+                        throw new IOException("the snapshot exceeds " + MAX_SIZE + " bytes");
+                    }
+                }
+                out.write(TRAILER);
+                out.flush();
+                fileOut.getChannel().force(true);
+            }
+            try
+            {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException ex)
+            {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException ex)
+        {
+            tmpFile.delete();
+            // the old snapshot can't be replaced any more, so the next start loads all tables instead
+            delete();
+            throw new RaplaException("Can't write cache snapshot " + file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /** @return the number of written bytes */
+    private static int writeString(DataOutputStream out, String value) throws IOException
+    {
+        final byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    /**
+     * reads the snapshot
+     * @throws RaplaException if the file is not a complete snapshot, is larger than {@link #MAX_SIZE} or was written with another format
+     * version
+     */
+    synchronized Content read() throws RaplaException
+    {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            final long size = channel.size();
+            if (size > MAX_SIZE)
+            {
+                throw new RaplaException("Cache snapshot " + file + " has " + size + " bytes, more than " + MAX_SIZE + " can't be read");
+            }
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            throw new RaplaException("Can't read cache snapshot " + file + ": " + ex.getMessage(), ex);
+        }
+        try
+        {
+            if (!Arrays.equals(readBytes(buffer, MAGIC.length), MAGIC))
+            {
+                throw new RaplaException(file + " is not a cache snapshot");
+            }
+            final int version = buffer.getInt();
+            if (version != FORMAT_VERSION)
+            {
+                throw new RaplaException("Cache snapshot " + file + " has format version " + version + " expected " + FORMAT_VERSION);
+            }
+            final Date timestamp = new Date(buffer.getLong());
+            final String source = readString(buffer);
+            final int count = buffer.getInt();
+            if (count < 0)
+            {
+                throw new RaplaException("Cache snapshot " + file + " is corrupt");
+            }
+            // first collect the positions of the json, so it can be decoded in parallel
+            final ReferenceInfo[] refs = new ReferenceInfo[count];
+            final int[] offsets = new int[count];
+            final int[] lengths = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                final Class<? extends Entity> type = RaplaType.find(readString(buffer));
+                final String id = readString(buffer);
+                refs[i] = new ReferenceInfo(id, type);
+                lengths[i] = buffer.getInt();
+                offsets[i] = buffer.position();
+                buffer.position(offsets[i] + lengths[i]);
+            }
+            if (!Arrays.equals(readBytes(buffer, TRAILER.length), TRAILER))
+            {
+                throw new RaplaException("Cache snapshot " + file + " is incomplete");
+            }
+            final String[] json = new String[count];
+            IntStream.range(0, count).parallel().forEach(i -> {
+                final ByteBuffer slice = buffer.duplicate();
+                slice.limit(offsets[i] + lengths[i]);
+                slice.position(offsets[i]);
+                json[i] = StandardCharsets.UTF_8.decode(slice).toString();
+            });
+            final List<Record> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                records.add(new Record(refs[i], json[i]));
+            }
+            return new Content(timestamp, source, records);
+        }
+        catch (RuntimeException ex)
+        {
+            throw new RaplaException("Cache snapshot " + file + " is incomplete", ex);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length)
+    {
+        if (length < 0 || length > buffer.remaining())
+        {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        return new String(readBytes(buffer, buffer.getInt()), StandardCharsets.UTF_8);
+    }
+}
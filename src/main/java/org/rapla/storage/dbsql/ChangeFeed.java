@@ -0,0 +1,28 @@
+package org.rapla.storage.dbsql;
+
+import org.rapla.framework.RaplaException;
+
+import java.util.Date;
+
+/**
+ * Notifies the other servers that use the same database about committed changes. The feed only transports the commit timestamp,
+ * the receiving server loads the changes from the CHANGES table with its regular refresh, so the database stays the only source of the data
+ * and a lost or duplicate notification can not bring the caches out of sync.
+ * @see DBOperator#setChangeFeed(ChangeFeed)
+ */
+public interface ChangeFeed
+{
+    interface Listener
+    {
+        /** called when another server committed changes. committedAt is the time of the last refresh on the publishing server after the commit*/
+        void changesCommitted(Date committedAt);
+    }
+
+    /** starts to receive notifications from the other servers */
+    void start(Listener listener) throws RaplaException;
+
+    /** notifies the other servers that changes have been committed and are visible in the database at committedAt */
+    void publish(Date committedAt);
+
+    void stop();
+}
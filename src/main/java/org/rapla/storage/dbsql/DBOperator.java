@@ -34,6 +34,7 @@ import org.rapla.framework.internal.ConfigTools;
 import org.rapla.logger.Logger;
 import org.rapla.scheduler.CommandScheduler;
 import org.rapla.server.PromiseWait;
+import org.rapla.storage.BulkStoreProgress;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.CachableStorageOperatorCommand;
 import org.rapla.storage.IdCreator;
@@ -52,6 +53,7 @@ import org.rapla.storage.xml.RaplaDefaultXMLContext;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
+import java.io.File;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
@@ -62,6 +64,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -70,6 +73,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /** This Operator is used to store the data in a SQL-DBMS.*/
 @Singleton public class DBOperator extends LocalAbstractCachableOperator
@@ -116,8 +123,235 @@ import java.util.Set;
 
     }
 
+    /** period in which the database is polled for changes of other servers, if change polling is enabled*/
+    static final long CHANGE_POLL_PERIOD = 1000;
+    private boolean changePolling = false;
+    private Date lastPolledChange;
+
+    /**
+     * If enabled, the timestamp of the latest change in the database is polled every CHANGE_POLL_PERIOD and the cache is refreshed when it changed.
+     * Use this when more than one server writes to the same database, so changes of the other servers are visible in about a second instead
+     * of waiting for the regular refresh.
+     */
+    public void setChangePolling(boolean changePolling)
+    {
+        this.changePolling = changePolling;
+    }
+
+    public boolean isChangePolling()
+    {
+        return changePolling;
+    }
+
+    private void pollChanges()
+    {
+        final Date latestChange;
+        try (final Connection connection = createConnection(false))
+        {
+            final RaplaSQL raplaSQL = new RaplaSQL(createOutputContext(cache));
+            latestChange = raplaSQL.getLatestChange(connection);
+        }
+        catch (Throwable t)
+        {
+            logger.warn("Could not poll database for changes: " + t.getMessage());
+            return;
+        }
+        if (latestChange == null || latestChange.equals(lastPolledChange))
+        {
+            return;
+        }
+        final RaplaLock.WriteLock writeLock = lockManager.writeLockIfAvaliable(getClass(), "poll Refresh");
+        if (writeLock == null)
+        {
+            // try again with the next poll
+            return;
+        }
+        try
+        {
+            refreshWithoutLock();
+            lastPolledChange = latestChange;
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+    }
+
+    /** period in which the cache snapshot is written, if a snapshot file is set */
+    static final long SNAPSHOT_PERIOD = DateTools.MILLISECONDS_PER_HOUR;
+    /** older snapshots are ignored, because the cleanup may already have removed changes that were made after the snapshot was written */
+    static final long SNAPSHOT_MAX_AGE = HISTORY_DURATION - DateTools.MILLISECONDS_PER_DAY;
+    private CacheSnapshot snapshot;
+
+    /**
+     * Sets the file for a binary snapshot of the cache. The snapshot is written every SNAPSHOT_PERIOD and on disconnect. On connect the entities
+     * are restored from the snapshot and only the changes made after it was written are read from the database. If the snapshot is missing,
+     * outdated or unreadable all tables are loaded as usual. The preferences and passwords are always read from the database.
+     * Remove the file if the database is restored from a backup while the server is down.
+     */
+    public void setSnapshotFile(File file)
+    {
+        this.snapshot = file != null ? new CacheSnapshot(file, getLogger()) : null;
+    }
+
+    public File getSnapshotFile()
+    {
+        return snapshot != null ? snapshot.getFile() : null;
+    }
+
+    /** writes all entities of the cache, except preferences, to the snapshot file. Does nothing if no snapshot file is set */
+    public void writeSnapshot() throws RaplaException
+    {
+        final CacheSnapshot snapshot = this.snapshot;
+        if (snapshot == null)
+        {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final List<Entity> entities = new ArrayList<>();
+        final Date timestamp;
+        final RaplaLock.ReadLock readLock = readLockIfLoaded("writing cache snapshot");
+        try
+        {
+            timestamp = getLastRefreshed();
+            entities.addAll(CategoryImpl.getRecursive(cache.getSuperCategory()));
+            entities.addAll(cache.getDynamicTypes());
+            entities.addAll(cache.getUsers());
+            entities.addAll(cache.getAllocatables());
+            entities.addAll(cache.getReservations());
+            entities.addAll(cache.getDisabledConflicts());
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        // the entities in the cache are read only and are replaced on change, so they can be serialized without holding the lock
+        final String[] json = new String[entities.size()];
+        IntStream.range(0, json.length).parallel().forEach(i -> json[i] = history.toJson(entities.get(i)));
+        final List<CacheSnapshot.Record> records = new ArrayList<>(json.length);
+        for (int i = 0; i < json.length; i++)
+        {
+            records.add(new CacheSnapshot.Record(entities.get(i).getReference(), json[i]));
+        }
+        snapshot.write(timestamp, getConnectionName(), records);
+        getLogger().info("Cache snapshot with " + records.size() + " entities written to " + snapshot.getFile() + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private ChangeFeed changeFeed;
+
+    /**
+     * Sets the feed that notifies the other servers on the same database about committed changes and triggers a refresh when another server
+     * committed changes. The feed is started on connect and stopped on disconnect.
+     */
+    public void setChangeFeed(ChangeFeed changeFeed) throws RaplaException
+    {
+        if (this.changeFeed != null)
+        {
+            this.changeFeed.stop();
+        }
+        this.changeFeed = changeFeed;
+        if (changeFeed != null && isConnected())
+        {
+            changeFeed.start(this::changesCommitted);
+        }
+    }
+
+    public ChangeFeed getChangeFeed()
+    {
+        return changeFeed;
+    }
+
+    /** the earliest commit time of the notifications that arrived since the last refresh for a notification was scheduled */
+    private final AtomicReference<Date> notifiedCommit = new AtomicReference<>();
+    private final AtomicBoolean notificationRefreshPending = new AtomicBoolean();
+
+    private void changesCommitted(Date committedAt)
+    {
+        if (!isConnected() || committedAt.before(getLastRefreshed()))
+        {
+            // the last refresh was done after the publishing server applied its changes, so they are already loaded
+            return;
+        }
+        notifiedCommit.accumulateAndGet(committedAt, (pending, notified) -> pending == null || notified.before(pending) ? notified : pending);
+        // notifications that arrive while a refresh is pending are loaded with that refresh
+        if (notificationRefreshPending.compareAndSet(false, true))
+        {
+            getScheduler().run(this::refreshAfterNotification);
+        }
+    }
+
+    private void refreshAfterNotification()
+    {
+        notificationRefreshPending.set(false);
+        final Date committedAt = notifiedCommit.getAndSet(null);
+        if (committedAt == null || !isConnected() || committedAt.before(getLastRefreshed()))
+        {
+            return;
+        }
+        final Date databaseTimestamp;
+        try (final Connection connection = createConnection(false))
+        {
+            databaseTimestamp = new RaplaSQL(createOutputContext(cache)).getDatabaseTimestamp(connection);
+        }
+        catch (Throwable t)
+        {
+            logger.warn("Could not refresh after change notification. Changes will be loaded with the next refresh: " + t.getMessage());
+            return;
+        }
+        if (committedAt.after(databaseTimestamp))
+        {
+            // a commit can't be later than the current time of the database, the notification wasn't sent by a server on this database
+            logger.warn("Ignoring change notification with commit time " + committedAt + " after database time " + databaseTimestamp);
+            return;
+        }
+        final RaplaLock.WriteLock writeLock;
+        try
+        {
+            writeLock = writeLockIfLoaded("changefeed Refresh");
+        }
+        catch (RaplaException e)
+        {
+            logger.warn("Could not refresh after change notification. Changes will be loaded with the next refresh: " + e.getMessage());
+            return;
+        }
+        try
+        {
+            refreshWithoutLock();
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+    }
+
+    private void publishChanges()
+    {
+        final ChangeFeed changeFeed = this.changeFeed;
+        if (changeFeed != null)
+        {
+            changeFeed.publish(getLastRefreshed());
+        }
+    }
+
     private void scheduleCleanupAndRefresh()
     {
+        if (changePolling)
+        {
+            scheduleConnectedTasks(() -> pollChanges(), CHANGE_POLL_PERIOD, CHANGE_POLL_PERIOD);
+        }
+        if (snapshot != null)
+        {
+            scheduleConnectedTasks(() -> {
+                try
+                {
+                    writeSnapshot();
+                }
+                catch (Throwable t)
+                {
+                    DBOperator.this.logger.error("could not write cache snapshot: " + t.getMessage(), t);
+                }
+            }, SNAPSHOT_PERIOD, SNAPSHOT_PERIOD);
+        }
         {
             final int delay = 30000;
             final int period = 1000*60*10;
@@ -148,14 +382,13 @@ import java.util.Set;
         }
         {
             long delay = 100;//DateTools.MILLISECONDS_PER_DAY;
-            long period = DateTools.MILLISECONDS_PER_DAY;
+            // the cleanup works in chunks and stops after HISTORY_CLEANUP_MAX_DURATION, so it is run more often than the history grows
+            long period = DateTools.MILLISECONDS_PER_HOUR;
             scheduleConnectedTasks(() -> {
-                try(final Connection con = createConnection( false))
+                try
                 {
-                    final RaplaDefaultXMLContext context = createOutputContext(cache);
-                    final RaplaSQL raplaSQL = new RaplaSQL(context);
                     final Date date = new Date(getLastRefreshed().getTime() - LocalAbstractCachableOperator.HISTORY_DURATION);
-                    raplaSQL.cleanupHistory(con, date);
+                    cleanupHistory(date);
                 }
                 catch(Throwable t)
                 {
@@ -165,6 +398,27 @@ import java.util.Set;
         }
     }
 
+    /** the maximum time one run of the history cleanup may take, the next run continues where the last stopped*/
+    static final long HISTORY_CLEANUP_MAX_DURATION = 5 * DateTools.MILLISECONDS_PER_MINUTE;
+
+    /**
+     * removes the entries in the CHANGES table that are not needed to compute the changes since the passed date.
+     * @return the number of deleted entries
+     */
+    public int cleanupHistory(Date date) throws RaplaException
+    {
+        try (final Connection con = createConnection())
+        {
+            final RaplaDefaultXMLContext context = createOutputContext(cache);
+            final RaplaSQL raplaSQL = new RaplaSQL(context);
+            return raplaSQL.cleanupHistory(con, date, HISTORY_CLEANUP_MAX_DURATION);
+        }
+        catch (SQLException e)
+        {
+            throw new RaplaException("Could not clean up history: " + e.getMessage(), e);
+        }
+    }
+
     public boolean supportsActiveMonitoring()
     {
         return true;
@@ -305,6 +559,10 @@ import java.util.Set;
             initIndizes();
             changeStatus(InitStatus.Connected);
             scheduleCleanupAndRefresh();
+            if (changeFeed != null)
+            {
+                changeFeed.start(this::changesCommitted);
+            }
         }
         /*
         if (connectInfo != null)
@@ -352,7 +610,8 @@ import java.util.Set;
         {
             return;
         }
-        final Collection<ReferenceInfo> allIds = raplaSQLInput.update(c, lastUpdated, connectionTime);
+        final Map<HistoryEntry, Entity> decodedEntities = new HashMap<>();
+        final Collection<ReferenceInfo> allIds = raplaSQLInput.update(c, lastUpdated, connectionTime, decodedEntities);
         List<PreferencePatch> patches = raplaSQLInput.getPatches(c, lastUpdated);
         Collection<Entity> toStore = new LinkedHashSet<>();
         Set<ReferenceInfo> toRemove = new HashSet<>();
@@ -365,11 +624,15 @@ import java.util.Set;
             }
             else
             {
-                final Entity entity = history.getEntity(before);
-                setResolver(Collections.singleton(entity));
+                Entity entity = decodedEntities.get(before);
+                if (entity == null)
+                {
+                    entity = history.getEntity(before);
+                }
                 toStore.add(entity);
             }
         }
+        setResolver(toStore);
         refresh(lastUpdated, connectionTime, toStore, patches, toRemove);
         return;
     }
@@ -377,6 +640,21 @@ import java.util.Set;
     @Override
     synchronized public void disconnect() throws RaplaException
     {
+        if (snapshot != null && isConnected())
+        {
+            try
+            {
+                writeSnapshot();
+            }
+            catch (RaplaException ex)
+            {
+                getLogger().error("Could not write cache snapshot on disconnect: " + ex.getMessage(), ex);
+            }
+        }
+        if (changeFeed != null)
+        {
+            changeFeed.stop();
+        }
         super.disconnect();
 
         // HSQLDB Special
@@ -410,7 +688,8 @@ import java.util.Set;
             c = createConnection();
             connectionName = c.getMetaData().getURL();
             getLogger().info("Using datasource " + c.getMetaData().getDatabaseProductName() + ": " + connectionName);
-            if (upgradeDatabase(c))
+            final boolean upgraded = upgradeDatabase(c);
+            if (upgraded)
             {
                 close(c);
                 c = null;
@@ -418,7 +697,11 @@ import java.util.Set;
             }
             cache.clearAll();
             addInternalTypes(cache);
-            loadData(c, cache);
+            // a snapshot written before an upgrade of the schema may miss migrated data
+            if (snapshot == null || !snapshot.exists() || upgraded || !loadSnapshot(c))
+            {
+                loadData(c, cache);
+            }
 
             if (getLogger().isDebugEnabled())
                 getLogger().debug("Entities contextualized");
@@ -683,44 +966,189 @@ import java.util.Set;
 
     public void dispatch(UpdateEvent evt) throws RaplaException
     {
-        RaplaLock.WriteLock writeLock = writeLockIfLoaded("Dispatching " + evt.toString());
+        // dispatches are serialized by the dispatch lock, so the cache only needs a read lock while the changes are written to the database.
+        // Readers are only blocked while the stored changes are applied to the cache
+        lockDispatch("Dispatching " + evt.toString());
         try
         {
-            //Date since = lastUpdated;
-            preprocessEventStorage(evt);
-            Collection<Entity> storeObjects = evt.getStoreObjects();
-            List<PreferencePatch> preferencePatches = evt.getPreferencePatches();
-            Collection<ReferenceInfo> removeObjects = evt.getRemoveIds();
-            if (storeObjects.isEmpty() && preferencePatches.isEmpty() && removeObjects.isEmpty())
-            {
-                return;
-            }
-            Connection connection = createConnection();
+            Connection connection = null;
             try
             {
-                dbStore(storeObjects, preferencePatches, removeObjects, connection, evt.getUserId());
+                RaplaLock.ReadLock readLock = readLockIfLoaded("Dispatching " + evt.toString());
                 try
                 {
-                    refreshWithoutLock(connection);
+                    //Date since = lastUpdated;
+                    preprocessEventStorage(evt);
+                    Collection<Entity> storeObjects = evt.getStoreObjects();
+                    List<PreferencePatch> preferencePatches = evt.getPreferencePatches();
+                    Collection<ReferenceInfo> removeObjects = evt.getRemoveIds();
+                    if (storeObjects.isEmpty() && preferencePatches.isEmpty() && removeObjects.isEmpty())
+                    {
+                        return;
+                    }
+                    connection = createConnection();
+                    dbStore(storeObjects, preferencePatches, removeObjects, connection, evt.getUserId());
                 }
-                catch (SQLException e)
+                finally
                 {
-                    getLogger().error("Could not load update from db. Will be loaded afterwards", e);
+                    lockManager.unlock(readLock);
                 }
+                applyStoredChanges(connection, "Applying " + evt.toString());
             }
             finally
             {
-                close(connection);
+                if (connection != null)
+                {
+                    close(connection);
+                }
             }
         }
         finally
         {
-            lockManager.unlock(writeLock);
+            unlockDispatch();
         }
         // TODO check if still needed
         //fireStorageUpdated(result);
     }
 
+    /** loads the stored changes from the database into the cache and notifies the listeners */
+    private void applyStoredChanges(Connection connection, String name) throws RaplaException
+    {
+        RaplaLock.WriteLock writeLock = writeLockIfLoaded(name);
+        try
+        {
+            refreshWithoutLock(connection);
+            publishChanges();
+        }
+        catch (SQLException e)
+        {
+            getLogger().error("Could not load update from db. Will be loaded afterwards", e);
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+    }
+
+    /**
+     * Checks all entities as one update before the first one is written, then writes them in chunks with the global lock in a single
+     * transaction, so other servers see all or nothing. Each chunk is written with one batched statement per table, the cache and the conflicts are
+     * refreshed once after the commit.
+     */
+    @Override
+    public void storeBulk(Collection<? extends Entity> storeObjects, User user, Consumer<BulkStoreProgress> progress) throws RaplaException
+    {
+        checkConnected();
+        if (storeObjects.isEmpty())
+        {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final int total = storeObjects.size();
+        final String name = "Bulk storing " + total + " entities";
+        lockDispatch(name);
+        try
+        {
+            Connection connection = null;
+            try
+            {
+                RaplaLock.ReadLock readLock = readLockIfLoaded(name);
+                try
+                {
+                    final UpdateEvent evt = preprocessBulk(storeObjects, user, progress, start);
+                    connection = createConnection();
+                    dbStoreBulk(evt, total, connection, user != null ? user.getId() : null, progress, start);
+                }
+                finally
+                {
+                    lockManager.unlock(readLock);
+                }
+                applyStoredChanges(connection, name);
+            }
+            finally
+            {
+                if (connection != null)
+                {
+                    close(connection);
+                }
+            }
+        }
+        finally
+        {
+            unlockDispatch();
+        }
+        reportBulkProgress(progress, new BulkStoreProgress(total, total, total, System.currentTimeMillis() - start));
+    }
+
+    private void dbStoreBulk(UpdateEvent evt, int total, Connection connection, String userId, Consumer<BulkStoreProgress> progress, long start)
+            throws RaplaException
+    {
+        final Collection<String> lockIds = Collections.singletonList(LockStorage.GLOBAL_LOCK);
+        RaplaSQL raplaSQLOutput = new RaplaSQL(createOutputContext(cache));
+        Date connectionTimestamp = null;
+        try
+        {
+            connectionTimestamp = raplaSQLOutput.getDatabaseTimestamp(connection);
+            User lastChangedBy = (userId != null) ? resolve(userId, User.class) : null;
+            raplaSQLOutput.requestLocks(connection, connectionTimestamp, lockIds, null, false);
+            for (ReferenceInfo id : evt.getRemoveIds())
+            {
+                raplaSQLOutput.remove(connection, id, connectionTimestamp);
+            }
+            final List<Entity> storeObjects = new ArrayList<>(evt.getStoreObjects());
+            for (int from = 0; from < storeObjects.size(); from += BULK_CHUNK_SIZE)
+            {
+                final int to = Math.min(storeObjects.size(), from + BULK_CHUNK_SIZE);
+                raplaSQLOutput.store(connection, createStoreMap(storeObjects.subList(from, to), lastChangedBy, connectionTimestamp), connectionTimestamp);
+                // entities added by the closure are written too, but not counted
+                final int stored = Math.min(total, to);
+                if (stored < total)
+                {
+                    reportBulkProgress(progress, new BulkStoreProgress(total, total, stored, System.currentTimeMillis() - start));
+                }
+            }
+            raplaSQLOutput.storePatches(connection, evt.getPreferencePatches(), connectionTimestamp);
+            if (bSupportsTransactions)
+            {
+                getLogger().debug("Commiting");
+                connection.commit();
+            }
+        }
+        catch (Exception ex)
+        {
+            rollback(connection, ex);
+        }
+        finally
+        {
+            removeLocks(raplaSQLOutput, connection, lockIds, connectionTimestamp, false);
+        }
+    }
+
+    /** sets the creation date and the last changed by of the entities and returns them mapped to their current version in the cache */
+    private Map<Entity, Entity> createStoreMap(Collection<Entity> storeObjects, User lastChangedBy, Date connectionTimestamp)
+    {
+        Map<Entity, Entity> storeMap = new LinkedHashMap<>();
+        for (Entity e : storeObjects)
+        {
+            final Entity oldEntity = tryResolve(e.getReference());
+
+            if (e instanceof ModifiableTimestamp)
+            {
+                ModifiableTimestamp modifiableTimestamp = (ModifiableTimestamp) e;
+                if ( lastChangedBy != null)
+                {
+                    modifiableTimestamp.setLastChangedBy(lastChangedBy);
+                }
+                if ( oldEntity == null)
+                {
+                    modifiableTimestamp.setCreateDate( connectionTimestamp );
+                }
+            }
+            storeMap.put( e, oldEntity);
+        }
+        return storeMap;
+    }
+
     private void dbStore(Collection<Entity> storeObjects, List<PreferencePatch> preferencePatches, Collection<ReferenceInfo> removeObjects,
             Connection connection, String userId) throws RaplaException
     {
@@ -747,29 +1175,11 @@ import java.util.Set;
         Date connectionTimestamp = null;
         final Collection<String> lockIds = needsGlobalLock ? Collections.singletonList(LockStorage.GLOBAL_LOCK) : getLockIds(ids);
         RaplaSQL raplaSQLOutput = new RaplaSQL(createOutputContext(cache));
-        Map<Entity,Entity> storeMap = new LinkedHashMap<>();
         try
         {
             connectionTimestamp = raplaSQLOutput.getDatabaseTimestamp(connection);
             User lastChangedBy = (userId != null) ? resolve(userId, User.class) : null;
-            for (Entity e : storeObjects)
-            {
-                final Entity oldEntity = tryResolve(e.getReference());
-
-                if (e instanceof ModifiableTimestamp)
-                {
-                    ModifiableTimestamp modifiableTimestamp = (ModifiableTimestamp) e;
-                    if ( lastChangedBy != null)
-                    {
-                        modifiableTimestamp.setLastChangedBy(lastChangedBy);
-                    }
-                    if ( oldEntity == null)
-                    {
-                        modifiableTimestamp.setCreateDate( connectionTimestamp );
-                    }
-                }
-                storeMap.put( e, oldEntity);
-            }
+            Map<Entity,Entity> storeMap = createStoreMap(storeObjects, lastChangedBy, connectionTimestamp);
             raplaSQLOutput.requestLocks(connection, connectionTimestamp, lockIds, null, !needsGlobalLock);
             for (ReferenceInfo id : removeObjects)
             {
@@ -787,45 +1197,56 @@ import java.util.Set;
         }
         catch (Exception ex)
         {
-            try
+            rollback(connection, ex);
+        }
+        finally
+        {
+            removeLocks(raplaSQLOutput, connection, lockIds, connectionTimestamp, !needsGlobalLock);
+        }
+    }
+
+    /** rolls back the failed store and always throws an exception */
+    private void rollback(Connection connection, Exception ex) throws RaplaException
+    {
+        try
+        {
+            if (bSupportsTransactions)
             {
-                if (bSupportsTransactions)
-                {
-                    connection.rollback();
-                    getLogger().error("Doing rollback for: " + ex.getMessage());
-                    throw new RaplaDBException(getI18n().getString("error.rollback"), ex);
-                }
-                else
-                {
-                    String message = getI18n().getString("error.no_rollback");
-                    getLogger().error(message);
-                    forceDisconnect();
-                    throw new RaplaDBException(message, ex);
-                }
+                connection.rollback();
+                getLogger().error("Doing rollback for: " + ex.getMessage());
+                throw new RaplaDBException(getI18n().getString("error.rollback"), ex);
             }
-            catch (SQLException sqlEx)
+            else
             {
-                String message = "Unrecoverable error while storing";
-                getLogger().error(message, sqlEx);
+                String message = getI18n().getString("error.no_rollback");
+                getLogger().error(message);
                 forceDisconnect();
-                throw new RaplaDBException(message, sqlEx);
+                throw new RaplaDBException(message, ex);
             }
         }
-        finally
+        catch (SQLException sqlEx)
         {
-            try
-            {
-                raplaSQLOutput.removeLocks(connection, lockIds, connectionTimestamp, !needsGlobalLock);
-                if (bSupportsTransactions)
-                {
-                    connection.commit();
-                }
-            }
-            catch (Exception ex)
+            String message = "Unrecoverable error while storing";
+            getLogger().error(message, sqlEx);
+            forceDisconnect();
+            throw new RaplaDBException(message, sqlEx);
+        }
+    }
+
+    private void removeLocks(RaplaSQL raplaSQLOutput, Connection connection, Collection<String> lockIds, Date connectionTimestamp, boolean deleteLocks)
+    {
+        try
+        {
+            raplaSQLOutput.removeLocks(connection, lockIds, connectionTimestamp, deleteLocks);
+            if (bSupportsTransactions)
             {
-                getLogger().error("Could not remove locks. They will be removed during next cleanup. ", ex);
+                connection.commit();
             }
         }
+        catch (Exception ex)
+        {
+            getLogger().error("Could not remove locks. They will be removed during next cleanup. ", ex);
+        }
     }
 
     private Collection<String> getLockIds(Collection<ReferenceInfo> ids)
@@ -878,6 +1299,10 @@ import java.util.Set;
 
     public void removeAll() throws RaplaException
     {
+        if (snapshot != null)
+        {
+            snapshot.delete();
+        }
         Connection connection = createConnection();
 
         try
@@ -931,6 +1356,11 @@ import java.util.Set;
     {
         String connectionName = getConnectionName();
         getLogger().info("Importing Data into " + connectionName);
+        if (snapshot != null)
+        {
+            // the snapshot does not match the imported data
+            snapshot.delete();
+        }
         RaplaSQL raplaSQLOutput = new RaplaSQL(createOutputContext(cache));
 
         //		if (dropOldTables)
@@ -1006,8 +1436,30 @@ import java.util.Set;
         entityStore.put( superCategory);
         final RaplaDefaultXMLContext inputContext = createInputContext(entityStore, this, superCategory);
         RaplaSQL raplaSQLInput = new RaplaSQL(inputContext);
-        raplaSQLInput.loadAll(connection);
-
+        final Map<String, Long> timings = new LinkedHashMap<>();
+        final long loadStart = System.currentTimeMillis();
+        // the history is read on a second connection while the entity tables are loaded
+        Connection historyConnection = null;
+        try
+        {
+            historyConnection = createConnection();
+        }
+        catch (RaplaException ex)
+        {
+            getLogger().warn("Could not open second connection, loading history sequentially: " + ex.getMessage());
+        }
+        try
+        {
+            raplaSQLInput.loadAll(connection, historyConnection, timings);
+        }
+        finally
+        {
+            if (historyConnection != null)
+            {
+                close(historyConnection);
+            }
+        }
+        long start = System.currentTimeMillis();
         final Collection<ReferenceInfo> entitiesToRemove = removeInconsistentReservations(entityStore);
 
         Collection<Entity> list = entityStore.getList();
@@ -1022,14 +1474,19 @@ import java.util.Set;
             }
         }
         cache.putAll(list);
+        start = addTiming(timings, "fill cache", start);
+        // resolving stays sequential, because some resolve might write to referenced objects
         resolveInitial(list, this);
+        start = addTiming(timings, "resolve", start);
         removeInconsistentEntities(cache, list);
         Collection<Entity> migratedTemplates = migrateTemplates();
         cache.putAll(migratedTemplates);
         List<PreferencePatch> preferencePatches = Collections.emptyList();
         Collection<ReferenceInfo> removeObjects = (Collection)entitiesToRemove;
         dbStore(migratedTemplates, preferencePatches, removeObjects, connection, null);
+        start = addTiming(timings, "consistency check", start);
         // It is important to do the read only later because some resolve might involve write to referenced objects
+        final List<Entity> historyEntities = new ArrayList<>();
         for (Entity entity : list)
         {
             ((RefEntity) entity).setReadOnly();
@@ -1038,7 +1495,7 @@ import java.util.Set;
                 Date lastChanged = ((Timestamp) entity).getLastChanged();
                 if ( lastChanged != null)
                 {
-                    history.addHistoryEntry(entity, lastChanged, false);
+                    historyEntities.add(entity);
                 }
             }
         }
@@ -1047,7 +1504,16 @@ import java.util.Set;
             ((RefEntity) entity).setReadOnly();
         }
         cache.getSuperCategory().setReadOnly();
-
+        start = addTiming(timings, "read only", start);
+        // the entities are read only now, so they can be serialized in parallel
+        final String[] historyJson = new String[historyEntities.size()];
+        IntStream.range(0, historyJson.length).parallel().forEach(i -> historyJson[i] = history.toJson(historyEntities.get(i)));
+        for (int i = 0; i < historyJson.length; i++)
+        {
+            final Entity entity = historyEntities.get(i);
+            history.addHistoryEntry(entity.getReference(), historyJson[i], ((Timestamp) entity).getLastChanged(), false);
+        }
+        start = addTiming(timings, "history of " + historyJson.length + " entities", start);
 
         for (User user : cache.getUsers())
         {
@@ -1055,6 +1521,156 @@ import java.util.Set;
             String password = entityStore.getPassword(id);
             cache.putPassword(id, password);
         }
+        addTiming(timings, "passwords", start);
+        logLoadTimings(timings, System.currentTimeMillis() - loadStart, list.size());
+    }
+
+    /**
+     * restores the entities from the snapshot and applies the changes of the history that were made after the snapshot was written.
+     * @return false if the snapshot can't be used. The cache and the history are cleared in that case
+     */
+    private boolean loadSnapshot(Connection connection) throws SQLException, RaplaException
+    {
+        final Map<String, Long> timings = new LinkedHashMap<>();
+        final long loadStart = System.currentTimeMillis();
+        final CacheSnapshot.Content content;
+        try
+        {
+            content = snapshot.read();
+        }
+        catch (RaplaException | RuntimeException ex)
+        {
+            getLogger().warn("Ignoring cache snapshot: " + ex.getMessage());
+            return false;
+        }
+        long start = addTiming(timings, "read snapshot", loadStart);
+        final Date lastUpdated = loadInitialLastUpdateFromDb(connection);
+        final Date snapshotTime = content.timestamp;
+        if (!getConnectionName().equals(content.source))
+        {
+            getLogger().warn("Ignoring cache snapshot of " + content.source + " for " + getConnectionName());
+            return false;
+        }
+        if (snapshotTime.after(lastUpdated) || lastUpdated.getTime() - snapshotTime.getTime() > SNAPSHOT_MAX_AGE)
+        {
+            getLogger().warn("Ignoring cache snapshot from " + snapshotTime + ". The history does not contain all changes since then.");
+            return false;
+        }
+        try
+        {
+            setLastRefreshed(lastUpdated);
+            setConnectStart(lastUpdated);
+            final List<CacheSnapshot.Record> records = content.records;
+            final Entity[] decoded = new Entity[records.size()];
+            IntStream.range(0, decoded.length).parallel().forEach(i -> decoded[i] = history.getEntity(records.get(i).ref, records.get(i).json));
+            final Map<ReferenceInfo, Entity> entities = new LinkedHashMap<>();
+            final Map<ReferenceInfo, String> json = new HashMap<>();
+            for (int i = 0; i < decoded.length; i++)
+            {
+                final ReferenceInfo ref = records.get(i).ref;
+                // the internal types are already in the cache
+                if (cache.tryResolve(ref) == null)
+                {
+                    entities.put(ref, decoded[i]);
+                    json.put(ref, records.get(i).json);
+                }
+            }
+            start = addTiming(timings, "decode " + decoded.length + " entities", start);
+            final Category superCategory = (Category) entities.get(Category.SUPER_CATEGORY_REF);
+            if (superCategory == null)
+            {
+                throw new RaplaException("Super category missing");
+            }
+            new RaplaSQL(createInputContext(new EntityStore(cache), this, superCategory)).loadHistory(connection);
+            start = addTiming(timings, "history", start);
+            int changeCount = 0;
+            for (ReferenceInfo id : history.getAllIds())
+            {
+                final HistoryEntry entry = history.getLastChangedUntil(id, lastUpdated);
+                if (entry == null || entry.getTimestamp() <= snapshotTime.getTime())
+                {
+                    continue;
+                }
+                json.remove(id);
+                if (entry.isDelete())
+                {
+                    entities.remove(id);
+                }
+                else
+                {
+                    entities.put(id, history.getEntity(entry));
+                }
+                changeCount++;
+            }
+            start = addTiming(timings, changeCount + " changes since " + snapshotTime, start);
+            final Collection<Entity> list = new ArrayList<>(entities.values());
+            cache.putAll(list);
+            final EntityStore entityStore = new EntityStore(cache);
+            new RaplaSQL(createInputContext(entityStore, this, cache.getSuperCategory())).loadPreferencesAndPasswords(connection);
+            list.addAll(entityStore.getList());
+            cache.putAll(entityStore.getList());
+            start = addTiming(timings, "preferences", start);
+            resolveInitial(list, this);
+            removeInconsistentEntities(cache, list);
+            start = addTiming(timings, "resolve", start);
+            final List<Entity> historyEntities = new ArrayList<>();
+            for (Entity entity : list)
+            {
+                ((RefEntity) entity).setReadOnly();
+                if (EntityHistory.isSupportedEntity(entity.getTypeClass()) && ((Timestamp) entity).getLastChanged() != null)
+                {
+                    historyEntities.add(entity);
+                }
+            }
+            cache.getSuperCategory().setReadOnly();
+            // only the changed entities need to be serialized, the others are stored in the snapshot in the format of the history
+            final String[] historyJson = new String[historyEntities.size()];
+            IntStream.range(0, historyJson.length).parallel().forEach(i -> {
+                final Entity entity = historyEntities.get(i);
+                final String snapshotJson = json.get(entity.getReference());
+                historyJson[i] = snapshotJson != null ? snapshotJson : history.toJson(entity);
+            });
+            for (int i = 0; i < historyJson.length; i++)
+            {
+                final Entity entity = historyEntities.get(i);
+                history.addHistoryEntry(entity.getReference(), historyJson[i], ((Timestamp) entity).getLastChanged(), false);
+            }
+            start = addTiming(timings, "history of " + historyJson.length + " entities", start);
+            for (User user : cache.getUsers())
+            {
+                ReferenceInfo<User> id = user.getReference();
+                cache.putPassword(id, entityStore.getPassword(id));
+            }
+            addTiming(timings, "passwords", start);
+            logLoadTimings(timings, System.currentTimeMillis() - loadStart, list.size());
+            return true;
+        }
+        catch (RaplaException | RuntimeException ex)
+        {
+            getLogger().warn("Ignoring cache snapshot: " + ex.getMessage(), ex);
+            cache.clearAll();
+            addInternalTypes(cache);
+            history.clear();
+            return false;
+        }
+    }
+
+    private static long addTiming(Map<String, Long> timings, String phase, long start)
+    {
+        final long now = System.currentTimeMillis();
+        timings.put(phase, now - start);
+        return now;
+    }
+
+    private void logLoadTimings(Map<String, Long> timings, long total, int entityCount)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Loaded ").append(entityCount).append(" entities in ").append(total).append(" ms:");
+        for (Map.Entry<String, Long> timing : timings.entrySet())
+        {
+            builder.append("\n  ").append(timing.getKey()).append(": ").append(timing.getValue()).append(" ms");
+        }
+        getLogger().info(builder.toString());
     }
 
     private RaplaDefaultXMLContext createInputContext(EntityStore store, IdCreator idCreator, Category superCategory) throws RaplaException
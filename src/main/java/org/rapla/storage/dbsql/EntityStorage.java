@@ -50,6 +50,8 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
     private RaplaLocale raplaLocale;
     
     protected final EntityHistory history;
+    /** number of rows the driver fetches at once when loading a table */
+    static final int LOAD_FETCH_SIZE = 1000;
     protected Collection<SubStorage<T>> subStores = new ArrayList<>();
 	private int lastParameterIndex;
     RaplaXMLContext context;
@@ -222,6 +224,8 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
 
         try (Statement stmt = con.createStatement())
 		{
+			// let the driver stream the rows instead of reading the whole table into memory
+			stmt.setFetchSize(LOAD_FETCH_SIZE);
 			try (ResultSet rset = stmt.executeQuery(selectSql))
 			{
 				while (rset.next())
@@ -349,19 +353,17 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
                 {
                     final String id = referenceInfo.getId();
                     final Timestamp loadedEntities = (Timestamp)cache.get(id);
-                    if(has(id))
+                    if ( loadedEntities == null)
                     {
-                        if ( loadedEntities != null)
-                        {
-                            stmt.setString(1, id);
-                            setTimestamp(stmt, 2, loadedEntities.getLastChanged());
-                            stmt.addBatch();
-                            commitNeeded = true;
-                        }
-                        else
-                        {
-                            idsToDelete.add( id );
-                        }
+                        // deleting a row that doesn't exist has no effect, so new entities, e.g. of an import, need no query
+                        idsToDelete.add( id );
+                    }
+                    else if(has(id))
+                    {
+                        stmt.setString(1, id);
+                        setTimestamp(stmt, 2, loadedEntities.getLastChanged());
+                        stmt.addBatch();
+                        commitNeeded = true;
                     }
                 }
                 if(commitNeeded)
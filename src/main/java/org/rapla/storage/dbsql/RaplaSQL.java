@@ -96,6 +96,10 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 class RaplaSQL
@@ -217,18 +221,163 @@ class RaplaSQL
 
     synchronized public void loadAll(Connection con) throws SQLException, RaplaException
     {
-        Date connectionTimestamp = getDatabaseTimestamp(con);
-        for (Storage storage : stores.values())
+        loadAll(con, null, new LinkedHashMap<>());
+    }
+
+    /**
+     * Loads all tables. If a historyConnection is passed, the CHANGES table is read on that connection in a separate thread while the entity tables
+     * are read on con. The entity tables are read one after another, because the readers resolve references to the entities of the previous tables.
+     * @param timings the time in milliseconds needed for each table is put into this map
+     */
+    synchronized public void loadAll(Connection con, Connection historyConnection, Map<String, Long> timings) throws SQLException, RaplaException
+    {
+        final Date connectionTimestamp = getDatabaseTimestamp(con);
+        ExecutorService executor = null;
+        Future<Long> historyLoad = null;
+        if (historyConnection != null)
+        {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "Rapla history loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            history.setConnection(historyConnection, connectionTimestamp);
+            historyLoad = executor.submit(() -> {
+                final long start = System.currentTimeMillis();
+                try
+                {
+                    history.loadHistory();
+                }
+                finally
+                {
+                    history.removeConnection();
+                }
+                return System.currentTimeMillis() - start;
+            });
+        }
+        try
         {
-            storage.setConnection(con, connectionTimestamp);
+            for (RaplaTypeStorage storage : stores.values())
+            {
+                if (storage == history)
+                {
+                    continue;
+                }
+                final long start = System.currentTimeMillis();
+                storage.setConnection(con, connectionTimestamp);
+                try
+                {
+                    storage.loadAll();
+                }
+                finally
+                {
+                    storage.removeConnection();
+                }
+                timings.put(storage.getTableName(), System.currentTimeMillis() - start);
+            }
+            if (historyLoad != null)
+            {
+                final long start = System.currentTimeMillis();
+                final long historyTime = waitFor(historyLoad);
+                timings.put(history.getTableName() + " (parallel, waited " + (System.currentTimeMillis() - start) + " ms)", historyTime);
+            }
+            history.setConnection(con, connectionTimestamp);
             try
             {
-                storage.loadAll();
+                long start = System.currentTimeMillis();
+                if (historyLoad == null)
+                {
+                    history.loadHistory();
+                    timings.put(history.getTableName(), System.currentTimeMillis() - start);
+                    start = System.currentTimeMillis();
+                }
+                history.restoreChangedEntities();
+                timings.put("restore changed entities", System.currentTimeMillis() - start);
             }
             finally
             {
-                storage.removeConnection();
+                history.removeConnection();
+            }
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                if (!historyLoad.isDone())
+                {
+                    historyLoad.cancel(true);
+                }
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static long waitFor(Future<Long> future) throws SQLException, RaplaException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new RaplaException("Interrupted while loading history", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof SQLException)
+            {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RaplaException)
+            {
+                throw (RaplaException) cause;
             }
+            throw new RaplaException(cause);
+        }
+    }
+
+    /** reads the CHANGES table into the history without loading the entity tables. Used when the entities are restored from a {@link CacheSnapshot} */
+    synchronized public void loadHistory(Connection con) throws SQLException, RaplaException
+    {
+        final Date connectionTimestamp = getDatabaseTimestamp(con);
+        history.setConnection(con, connectionTimestamp);
+        try
+        {
+            history.loadHistory();
+        }
+        finally
+        {
+            history.removeConnection();
+        }
+    }
+
+    /**
+     * loads the preferences and the user passwords into the entity store. The preferences and passwords are not part of the {@link CacheSnapshot},
+     * so they are always read from the database. The users must be resolvable by the entity store.
+     */
+    synchronized public void loadPreferencesAndPasswords(Connection con) throws SQLException, RaplaException
+    {
+        final Date connectionTimestamp = getDatabaseTimestamp(con);
+        preferencesStorage.setConnection(con, connectionTimestamp);
+        try
+        {
+            preferencesStorage.loadAll();
+        }
+        finally
+        {
+            preferencesStorage.removeConnection();
+        }
+        final UserStorage userStorage = (UserStorage) stores.get(User.class);
+        userStorage.setConnection(con, connectionTimestamp);
+        try
+        {
+            userStorage.loadPasswords();
+        }
+        finally
+        {
+            userStorage.removeConnection();
         }
     }
 
@@ -390,12 +539,13 @@ class RaplaSQL
         }
     }
 
-    public Collection<ReferenceInfo> update(Connection c, Date lastUpdated, Date connectionTimestamp) throws SQLException, RaplaException
+    /** @see HistoryStorage#update(Date, Map) */
+    public Collection<ReferenceInfo> update(Connection c, Date lastUpdated, Date connectionTimestamp, Map<HistoryEntry, Entity> decodedEntities) throws SQLException, RaplaException
     {
         history.setConnection(c, connectionTimestamp);
         try
         {
-            return history.update(lastUpdated);
+            return history.update(lastUpdated, decodedEntities);
         }
         finally
         {
@@ -450,6 +600,39 @@ class RaplaSQL
         }
     }
 
+    /**
+     * @return the timestamp of the latest change in the history or the preferences. This is a cheap query that
+     * can be polled to detect changes made by other servers on the same database. Returns null if nothing was stored yet.
+     */
+    public Date getLatestChange(Connection c) throws SQLException
+    {
+        final Date historyChange;
+        final Date preferenceChange;
+        try
+        {
+            history.setConnection(c, null);
+            historyChange = history.getMaxTimestamp("CHANGED_AT");
+        }
+        finally
+        {
+            history.removeConnection();
+        }
+        try
+        {
+            preferencesStorage.setConnection(c, null);
+            preferenceChange = preferencesStorage.getMaxTimestamp("LAST_CHANGED");
+        }
+        finally
+        {
+            preferencesStorage.removeConnection();
+        }
+        if (historyChange == null || (preferenceChange != null && preferenceChange.after(historyChange)))
+        {
+            return preferenceChange;
+        }
+        return historyChange;
+    }
+
     public Date getLastRequested(Connection c, String id) throws SQLException, RaplaException
     {
         try
@@ -527,16 +710,20 @@ class RaplaSQL
         }
     }
 
-    public void cleanupHistory(Connection con, Date date) throws SQLException
+    /** @see HistoryStorage#cleanupHistory(Date, LockStorage, long) */
+    public int cleanupHistory(Connection con, Date date, long maxDurationMillis) throws SQLException, RaplaException
     {
+        final Date databaseTimestamp = getDatabaseTimestamp(con);
         try
         {
+            lockStorage.setConnection(con, databaseTimestamp);
             history.setConnection(con, null);
-            history.cleanupHistory(date);
+            return history.cleanupHistory(date, lockStorage, maxDurationMillis);
         }
         finally
         {
             history.removeConnection();
+            lockStorage.removeConnection();
         }
     }
 }
@@ -545,12 +732,18 @@ class RaplaSQL
 class LockStorage extends AbstractTableStorage
 {
     static final String GLOBAL_LOCK = "GLOBAL_LOCK";
-    private final String countLocksSql = "SELECT COUNT(LOCKID) FROM WRITE_LOCK WHERE LOCKID <> '" + GLOBAL_LOCK + "' AND ACTIVE = 1";
+    /** the lock of the history cleanup, its LAST_REQUESTED stores how far the cleanup has processed the CHANGES table.
+     * It doesn't guard entity writes, so it is ignored when waiting for the global lock and when reading the lock timestamp*/
+    static final String HISTORY_CLEANUP_LOCK = "HISTORY_CLEANUP";
+    private final String countLocksSql = "SELECT COUNT(LOCKID) FROM WRITE_LOCK WHERE LOCKID <> '" + GLOBAL_LOCK + "' AND LOCKID <> '" + HISTORY_CLEANUP_LOCK
+            + "' AND ACTIVE = 1";
+    private final String insertInactiveSql = "insert into WRITE_LOCK (LOCKID, LAST_CHANGED, LAST_REQUESTED, VALID_UNTIL, ACTIVE) values (?, CURRENT_TIMESTAMP, NULL, CURRENT_TIMESTAMP, 2)";
     private final String cleanupSql = "UPDATE WRITE_LOCK SET ACTIVE = 2 WHERE ACTIVE = 1 and VALID_UNTIL < CURRENT_TIMESTAMP";
     private final String activateSql = "UPDATE WRITE_LOCK SET ACTIVE = 1, LAST_CHANGED = CURRENT_TIMESTAMP, VALID_UNTIL = ? WHERE LOCKID = ? AND ACTIVE <> 1";
     private final String deactivateWithLastRequestedUpdateSql = "UPDATE WRITE_LOCK SET ACTIVE = 2, LAST_REQUESTED = ? WHERE LOCKID = ?";
     private final String deactivateWithoutLastRequestedUpdateSql = "UPDATE WRITE_LOCK SET ACTIVE = 2 WHERE LOCKID = ?";
     private final String deleteLocksSql = "DELETE FROM WRITE_LOCK WHERE LOCKID = ?";
+    private final String updateLastRequestedSql = "UPDATE WRITE_LOCK SET LAST_REQUESTED = ?, VALID_UNTIL = ? WHERE LOCKID = ? AND ACTIVE = 1";
     private String readTimestampInclusiveLockedSql;
     private String requestTimestampSql;
 
@@ -586,7 +779,8 @@ class LockStorage extends AbstractTableStorage
             requestTimestampSql = "SELECT CURRENT_TIMESTAMP";
         }
         readTimestampInclusiveLockedSql =
-                "SELECT LAST_CHANGED FROM WRITE_LOCK WHERE ACTIVE = 1 UNION " + requestTimestampSql + " ORDER BY LAST_CHANGED ASC LIMIT 1";
+                "SELECT LAST_CHANGED FROM WRITE_LOCK WHERE ACTIVE = 1 AND LOCKID <> '" + HISTORY_CLEANUP_LOCK + "' UNION " + requestTimestampSql
+                        + " ORDER BY LAST_CHANGED ASC LIMIT 1";
     }
 
     public void removeLocks(Collection<String> ids, Date updatedUntil, boolean deleteLocks) throws RaplaException
@@ -681,6 +875,39 @@ class LockStorage extends AbstractTableStorage
         }
     }
 
+    boolean hasLock(String id) throws SQLException
+    {
+        try (final PreparedStatement stmt = con.prepareStatement("SELECT COUNT(LOCKID) FROM WRITE_LOCK WHERE LOCKID = ?"))
+        {
+            stmt.setString(1, id);
+            final ResultSet result = stmt.executeQuery();
+            return result.next() && result.getInt(1) != 0;
+        }
+    }
+
+    /** inserts an inactive lock without LAST_REQUESTED, so a long running job can store its progress in it*/
+    void insertInactiveLock(String id) throws SQLException
+    {
+        try (final PreparedStatement stmt = con.prepareStatement(insertInactiveSql))
+        {
+            stmt.setString(1, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /** stores the progress of a long running job in an active lock and extends its validity*/
+    void updateLastRequested(String id, Date lastRequested, Date validUntil) throws SQLException
+    {
+        try (final PreparedStatement stmt = con.prepareStatement(updateLastRequestedSql))
+        {
+            stmt.setTimestamp(1, new java.sql.Timestamp(lastRequested.getTime()));
+            stmt.setTimestamp(2, new java.sql.Timestamp(validUntil.getTime()));
+            stmt.setString(3, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /** @return the LAST_REQUESTED of the lock or null if it is not set */
     public Date readLastRequested(String id) throws RaplaException
     {
         try (final PreparedStatement stmt = con.prepareStatement(selectSql))
@@ -689,7 +916,8 @@ class LockStorage extends AbstractTableStorage
             final ResultSet dbResult = stmt.executeQuery();
             if (dbResult.next())
             {
-                return new Date(dbResult.getTimestamp(3).getTime());
+                final java.sql.Timestamp lastRequested = dbResult.getTimestamp(3);
+                return lastRequested != null ? new Date(lastRequested.getTime()) : null;
             }
             throw new IllegalStateException();
         }
@@ -850,9 +1078,7 @@ class LockStorage extends AbstractTableStorage
                 final long startWaitingTime = System.currentTimeMillis();
                 try (PreparedStatement cstmt = con.prepareStatement(countLocksSql))
                 {
-                    final ResultSet result = cstmt.executeQuery();
-                    result.next();
-                    while (result.getInt(1) > 0)
+                    while (countLocks(cstmt) > 0)
                     {
                         // wait for max 30 seconds
                         final long actualTime = System.currentTimeMillis();
@@ -877,6 +1103,16 @@ class LockStorage extends AbstractTableStorage
         }
     }
 
+    // the query is executed again on each call, so released locks are seen while waiting
+    private int countLocks(PreparedStatement countStmt) throws SQLException
+    {
+        try (final ResultSet result = countStmt.executeQuery())
+        {
+            result.next();
+            return result.getInt(1);
+        }
+    }
+
     Date readLockTimestamp() throws RaplaException
     {
         try (PreparedStatement stmt = con.prepareStatement(readTimestampInclusiveLockedSql))
@@ -2466,6 +2702,23 @@ class UserStorage extends RaplaTypeStorage<User>
         put(user);
     }
 
+    /** reads only the passwords of the users into the entity store */
+    void loadPasswords() throws SQLException, RaplaException
+    {
+        try (Statement stmt = con.createStatement(); ResultSet rset = stmt.executeQuery("SELECT ID, PASSWORD FROM " + getTableName()))
+        {
+            while (rset.next())
+            {
+                ReferenceInfo<User> userId = readId(rset, 1, User.class);
+                String password = getString(rset, 2, null);
+                if (password != null)
+                {
+                    putPassword(userId, password);
+                }
+            }
+        }
+    }
+
 }
 
 class ConflictStorage extends RaplaTypeStorage<Conflict>
@@ -2606,14 +2859,16 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
 
     private JsonParserWrapper.JsonParser gson;
     private final Date supportTimestamp;
-    private final String loadAllUpdatesSql;
+    private final String loadLatestUpdatesSql;
 
     HistoryStorage(RaplaXMLContext context) throws RaplaException
     {
         super(context, null, "CHANGES",
                 new String[] { "ID VARCHAR(255) KEY", "TYPE VARCHAR(50)", "ENTITY_CLASS VARCHAR(255)", "XML_VALUE TEXT NOT NULL", "CHANGED_AT TIMESTAMP KEY",
                         "ISDELETE INTEGER NOT NULL" });
-        loadAllUpdatesSql = "SELECT ID, TYPE, ENTITY_CLASS, XML_VALUE, CHANGED_AT, ISDELETE FROM CHANGES WHERE CHANGED_AT >= ? ORDER BY CHANGED_AT ASC";
+        // only the newest change of each id is loaded, the entries between two refreshes are not needed in the history
+        loadLatestUpdatesSql = "SELECT C1.ID, C1.TYPE, C1.ENTITY_CLASS, C1.XML_VALUE, C1.CHANGED_AT, C1.ISDELETE FROM CHANGES C1 WHERE C1.CHANGED_AT >= ? "
+                + "AND NOT EXISTS (SELECT C2.ID FROM CHANGES C2 WHERE C2.ID = C1.ID AND C2.CHANGED_AT > C1.CHANGED_AT) ORDER BY C1.CHANGED_AT ASC";
         Class[] additionalClasses = new Class[] { RaplaMapImpl.class };
         gson = JsonParserWrapper.defaultJson().get();
         if (context.has(Date.class))
@@ -2626,92 +2881,191 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
         }
     }
 
-    public void cleanupHistory(Date date) throws SQLException
+    /** maximum number of rows that are processed in one window of the history cleanup*/
+    static final int CLEANUP_WINDOW_SIZE = 1000;
+    static final long CLEANUP_LOCK_VALID_MILLIS = 10 * DateTools.MILLISECONDS_PER_MINUTE;
+
+    /**
+     * Removes the entries that are not needed to compute the changes since date. For each id only the latest entry before date is kept,
+     * and only if the entity was changed after date and the entry is not a delete.
+     * <p>
+     * The table is processed in windows of at most CLEANUP_WINDOW_SIZE rows ordered by CHANGED_AT. The selection of the rows is done in the database,
+     * each window is committed on its own and the end of the last processed window is stored in the HISTORY_CLEANUP lock.
+     * The next call continues from there, so a cleanup that is interrupted or exceeds maxDurationMillis is resumed on the next call.
+     * Entries older than the stored progress are removed when a newer entry of the same id is processed.
+     * @return the number of deleted entries
+     */
+    public int cleanupHistory(Date date, LockStorage lockStorage, long maxDurationMillis) throws SQLException, RaplaException
     {
-        // first we collect all dates from entries
-        final LinkedHashMap<String, Date> idToTimestamp = new LinkedHashMap<>();
-        final HashSet<String> hasChangeLargerThanDate = new HashSet<>();
-        final HashSet<String> toDeleteFromHistory = new HashSet<>();
-        ResultSet result = null;
-        final long cleanUpBefore = date.getTime();
-        try (final PreparedStatement stmt = con.prepareStatement("SELECT ID, CHANGED_AT FROM CHANGES ORDER BY CHANGED_AT DESC"))
+        final String lockId = LockStorage.HISTORY_CLEANUP_LOCK;
+        if (!lockStorage.hasLock(lockId))
         {
-            result = stmt.executeQuery();
-            while (result.next())
+            // the progress marker starts without a processed timestamp, so a first run that is interrupted starts from the beginning again
+            lockStorage.insertInactiveLock(lockId);
+            commit();
+        }
+        try
+        {
+            lockStorage.getLocks(Collections.singleton(lockId), CLEANUP_LOCK_VALID_MILLIS, false);
+        }
+        catch (RaplaException e)
+        {
+            logger.info("History cleanup skipped. Cleanup is running on another server or the lock is not available: " + e.getMessage());
+            return 0;
+        }
+        final long startTime = System.currentTimeMillis();
+        // rows before the processed timestamp are only those, that are needed for a later change of the same id
+        final Date lastProcessed = lockStorage.readLastRequested(lockId);
+        java.sql.Timestamp processedUntil = new java.sql.Timestamp(lastProcessed != null ? lastProcessed.getTime() : 0);
+        final java.sql.Timestamp cleanupBefore = new java.sql.Timestamp(date.getTime());
+        int sum = 0;
+        int windows = 0;
+        try
+        {
+            while (processedUntil.before(cleanupBefore))
             {
-                final String id = result.getString(1);
-                final java.sql.Timestamp timestamp = result.getTimestamp(2);
-                if ( timestamp.getTime() > cleanUpBefore)
+                final java.sql.Timestamp windowEnd = getCleanupWindowEnd(processedUntil, cleanupBefore);
+                if (windowEnd == null)
                 {
-                    hasChangeLargerThanDate.add( id );
+                    break;
                 }
-                else
+                sum += cleanupWindow(processedUntil, windowEnd, cleanupBefore);
+                processedUntil = windowEnd;
+                windows++;
+                final long duration = System.currentTimeMillis() - startTime;
+                final Date validUntil = new Date(lockStorage.getConnectionTimestamp().getTime() + duration + CLEANUP_LOCK_VALID_MILLIS);
+                lockStorage.updateLastRequested(lockId, processedUntil, validUntil);
+                commit();
+                if (windows % 10 == 0)
                 {
-                    // we have only old entries, so we can delete all ids
-                    if ( !hasChangeLargerThanDate.contains( id))
-                    {
-                        toDeleteFromHistory.add( id);
-                    }
-                    // we leave the latest timestamp, so we can still get the difference
-                    else if (!idToTimestamp.containsKey(id))
-                    {
-                        idToTimestamp.put(id, new Date(timestamp.getTime()));
-                    }
+                    logger.info("History cleanup processed until " + processedUntil + ". Deleted " + sum + " entries in " + duration + " ms");
+                }
+                if (duration > maxDurationMillis)
+                {
+                    logger.info("History cleanup stopped after " + duration + " ms. Continuing with the next run.");
+                    break;
                 }
             }
         }
         finally
         {
-            if (result != null)
-            {
-                result.close();
-            }
+            // keep the marker empty if nothing was processed yet
+            lockStorage.removeLocks(Collections.singleton(lockId), lastProcessed != null || windows > 0 ? processedUntil : null, false);
+            commit();
         }
-        // now we delete all older entries or those who have the same timestamp and are deleted
-        int sum =0;
-        try (final PreparedStatement stmt = con.prepareStatement("DELETE FROM CHANGES WHERE (ID = ? AND CHANGED_AT < ?) OR (ID = ? AND CHANGED_AT = ? AND ISDELETE = 1)"))
+        final long duration = System.currentTimeMillis() - startTime;
+        logger.info("Deleted " + sum + " history entries in " + windows + " windows and " + duration + " ms (" + (sum * 1000 / Math.max(1, duration))
+                + " entries/s). Processed until " + processedUntil);
+        return sum;
+    }
+
+    /** @return the CHANGED_AT of the last row of the next window or null if there are no rows after processedUntil*/
+    private java.sql.Timestamp getCleanupWindowEnd(java.sql.Timestamp processedUntil, java.sql.Timestamp cleanupBefore) throws SQLException
+    {
+        try (final PreparedStatement stmt = con.prepareStatement(
+                "SELECT CHANGED_AT FROM CHANGES WHERE CHANGED_AT > ? AND CHANGED_AT <= ? ORDER BY CHANGED_AT ASC"))
         {
-            boolean batch = false;
-            for (Entry<String, Date> idAndTimestamp : idToTimestamp.entrySet())
+            stmt.setMaxRows(CLEANUP_WINDOW_SIZE);
+            stmt.setFetchSize(CLEANUP_WINDOW_SIZE);
+            stmt.setTimestamp(1, processedUntil);
+            stmt.setTimestamp(2, cleanupBefore);
+            java.sql.Timestamp windowEnd = null;
+            final ResultSet result = stmt.executeQuery();
+            while (result.next())
             {
-                final String id = idAndTimestamp.getKey();
-                final java.sql.Timestamp changedAt = new java.sql.Timestamp(idAndTimestamp.getValue().getTime());
-                stmt.setString(1, id);
-                stmt.setTimestamp(2, changedAt);
-                stmt.setString(3, id);
-                stmt.setTimestamp(4, changedAt);
-                stmt.addBatch();
-                batch = true;
+                windowEnd = result.getTimestamp(1);
             }
-            if ( batch)
+            return windowEnd;
+        }
+    }
+
+    private int cleanupWindow(java.sql.Timestamp windowStart, java.sql.Timestamp windowEnd, java.sql.Timestamp cleanupBefore) throws SQLException
+    {
+        // select the latest entry before the cleanup date for each id in the window and if the entity was changed after the cleanup date
+        final String selectSql = "SELECT C1.ID, C1.CHANGED_AT, C1.ISDELETE, "
+                + "CASE WHEN EXISTS (SELECT C2.ID FROM CHANGES C2 WHERE C2.ID = C1.ID AND C2.CHANGED_AT > ?) THEN 1 ELSE 0 END "
+                + "FROM CHANGES C1 WHERE C1.CHANGED_AT > ? AND C1.CHANGED_AT <= ? "
+                + "AND NOT EXISTS (SELECT C3.ID FROM CHANGES C3 WHERE C3.ID = C1.ID AND C3.CHANGED_AT > C1.CHANGED_AT AND C3.CHANGED_AT <= ?)";
+        int sum = 0;
+        try (final PreparedStatement select = con.prepareStatement(selectSql);
+                final PreparedStatement deleteOlder = con.prepareStatement("DELETE FROM CHANGES WHERE ID = ? AND CHANGED_AT < ?");
+                final PreparedStatement deleteAll = con.prepareStatement("DELETE FROM CHANGES WHERE ID = ? AND CHANGED_AT <= ?");
+                final PreparedStatement deleteDeleted = con.prepareStatement("DELETE FROM CHANGES WHERE ID = ? AND CHANGED_AT = ? AND ISDELETE = 1"))
+        {
+            select.setTimestamp(1, cleanupBefore);
+            select.setTimestamp(2, windowStart);
+            select.setTimestamp(3, windowEnd);
+            select.setTimestamp(4, cleanupBefore);
+            boolean batchOlder = false;
+            boolean batchDeleted = false;
+            boolean batchAll = false;
+            final ResultSet result = select.executeQuery();
+            while (result.next())
             {
-                final int[] executeBatch = stmt.executeBatch();
-                for (int i : executeBatch)
+                final String id = result.getString(1);
+                final java.sql.Timestamp changedAt = result.getTimestamp(2);
+                final boolean isDelete = result.getInt(3) == 1;
+                final boolean changedAfterCleanup = result.getInt(4) == 1;
+                if (!changedAfterCleanup)
+                {
+                    // we have only old entries, so we can delete all entries of the id
+                    deleteAll.setString(1, id);
+                    deleteAll.setTimestamp(2, changedAt);
+                    deleteAll.addBatch();
+                    batchAll = true;
+                }
+                else
                 {
-                    sum += i;
+                    // we leave the latest entry, so we can still get the difference, unless it is a delete
+                    deleteOlder.setString(1, id);
+                    deleteOlder.setTimestamp(2, changedAt);
+                    deleteOlder.addBatch();
+                    batchOlder = true;
+                    if (isDelete)
+                    {
+                        deleteDeleted.setString(1, id);
+                        deleteDeleted.setTimestamp(2, changedAt);
+                        deleteDeleted.addBatch();
+                        batchDeleted = true;
+                    }
                 }
             }
+            result.close();
+            if (batchOlder)
+            {
+                sum += executeBatch(deleteOlder);
+            }
+            if (batchDeleted)
+            {
+                sum += executeBatch(deleteDeleted);
+            }
+            if (batchAll)
+            {
+                sum += executeBatch(deleteAll);
+            }
         }
+        return sum;
+    }
 
-        try (final PreparedStatement stmt = con.prepareStatement("DELETE FROM CHANGES WHERE ID = ?"))
+    private void commit() throws SQLException
+    {
+        if (!con.getAutoCommit())
         {
-            boolean batch = false;
-            for (String id : toDeleteFromHistory)
-            {
-                stmt.setString(1, id);
-                stmt.addBatch();
-                batch = true;
-            }
-            if ( batch)
+            con.commit();
+        }
+    }
+
+    private int executeBatch(PreparedStatement stmt) throws SQLException
+    {
+        int sum = 0;
+        for (int i : stmt.executeBatch())
+        {
+            if (i > 0)
             {
-                final int[] executeBatch = stmt.executeBatch();
-                for (int i : executeBatch)
-                {
-                    sum += i;
-                }
+                sum += i;
             }
         }
-        logger.info("Deleted " + sum + " history entries");
+        return sum;
     }
 
     @Override
@@ -2889,9 +3243,14 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
         return 1;
     }
 
-    public Collection<ReferenceInfo> update(Date lastUpdated) throws SQLException, RaplaException
+    /**
+     * Adds the newest change of each entity, that was changed since lastUpdated, to the history.
+     * @param decodedEntities the entities that are decoded while loading are put in this map, so they need not be parsed again from the history
+     * @return the ids of the changed entities
+     */
+    public Collection<ReferenceInfo> update(Date lastUpdated, Map<HistoryEntry, Entity> decodedEntities) throws SQLException, RaplaException
     {
-        try (final PreparedStatement stmt = con.prepareStatement(loadAllUpdatesSql))
+        try (final PreparedStatement stmt = con.prepareStatement(loadLatestUpdatesSql))
         {
             stmt.setTimestamp(1, new java.sql.Timestamp(lastUpdated.getTime()));
             final ResultSet result = stmt.executeQuery();
@@ -2899,14 +3258,23 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
             {
                 return Collections.emptyList();
             }
-            Collection<ReferenceInfo> ids = new HashSet<>();
+            Collection<ReferenceInfo> ids = new LinkedHashSet<>();
             while (result.next())
             {
-                load(result);
                 final String id = result.getString(1);
                 final String raplaTypeLocalName = result.getString(2);
                 final Class<? extends Entity> typeClass = RaplaType.find(raplaTypeLocalName);
-                ids.add(new ReferenceInfo(id, typeClass));
+                final ReferenceInfo ref = new ReferenceInfo(id, typeClass);
+                final String json = getText(result, 4);
+                final Date lastChanged = new Date(result.getTimestamp(5).getTime());
+                final Integer isDelete = getInt(result, 6);
+                final boolean deleted = isDelete != null && isDelete == 1;
+                final HistoryEntry entry = history.addHistoryEntry(ref, json, lastChanged, deleted);
+                if (!deleted && json != null)
+                {
+                    decodedEntities.put(entry, history.getEntity(ref, json));
+                }
+                ids.add(ref);
             }
             return ids;
         }
@@ -2915,8 +3283,17 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
     @Override
     public void loadAll() throws SQLException, RaplaException
     {
-        try (Statement stmt = con.createStatement(); ResultSet rset = stmt.executeQuery(selectSql))
+        loadHistory();
+        restoreChangedEntities();
+    }
+
+    /** reads the CHANGES table into the history. Does not access the entity store, so it can run while the other tables are loaded */
+    void loadHistory() throws SQLException, RaplaException
+    {
+        try (Statement stmt = con.createStatement())
         {
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
+            final ResultSet rset = stmt.executeQuery(selectSql);
             final HashSet<String> finishedIdsToLoad = new HashSet<>();
             while (rset.next())
             {
@@ -2934,6 +3311,11 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
                 }
             }
         }
+    }
+
+    /** replaces the loaded entities that were changed after the connection timestamp with their version from the history */
+    void restoreChangedEntities() throws RaplaException
+    {
         {
             final Collection<ReferenceInfo> allIds = history.getAllIds();
             final Date connectionTimestamp = getConnectionTimestamp();
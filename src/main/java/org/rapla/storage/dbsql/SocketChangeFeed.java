@@ -0,0 +1,247 @@
+package org.rapla.storage.dbsql;
+
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link ChangeFeed} that sends a small UDP datagram to each configured peer. The peers are configured as a list of host:port, e.g.
+ * "rapla2.example.org:7801,rapla3.example.org:7801". Lost datagrams are not repeated, the regular refresh of the {@link DBOperator} picks up
+ * the changes in that case.
+ * <p>
+ * The feed listens only on the configured address and drops datagrams that were not sent from the address and port of a peer.
+ */
+public class SocketChangeFeed implements ChangeFeed
+{
+    static final String MESSAGE_PREFIX = "rapla-changes ";
+    private static final int MAX_MESSAGE_SIZE = 512;
+
+    private final Logger logger;
+    private final InetAddress bindAddress;
+    private final int port;
+    private DatagramSocket socket;
+    private final List<InetSocketAddress> peers = new CopyOnWriteArrayList<>();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * @param bindAddress the local address to receive notifications on, null for the loopback address
+     * @param port the local port to receive notifications on, use 0 for a free port
+     */
+    public SocketChangeFeed(Logger logger, InetAddress bindAddress, int port)
+    {
+        this.logger = logger;
+        this.bindAddress = bindAddress != null ? bindAddress : InetAddress.getLoopbackAddress();
+        this.port = port;
+    }
+
+    /** parses the address to receive notifications on, null or an empty string for the loopback address */
+    public static InetAddress parseAddress(String address) throws RaplaException
+    {
+        if (address == null || address.trim().isEmpty())
+        {
+            return null;
+        }
+        try
+        {
+            return InetAddress.getByName(address.trim());
+        }
+        catch (UnknownHostException e)
+        {
+            throw new RaplaException("Unknown cluster address " + address);
+        }
+    }
+
+    /** parses a comma separated list of host:port */
+    public static Collection<InetSocketAddress> parsePeers(String peers) throws RaplaException
+    {
+        List<InetSocketAddress> result = new ArrayList<>();
+        if (peers == null)
+        {
+            return result;
+        }
+        for (String peer : peers.split(","))
+        {
+            final String trimmed = peer.trim();
+            if (trimmed.isEmpty())
+            {
+                continue;
+            }
+            final int index = trimmed.lastIndexOf(':');
+            if (index <= 0)
+            {
+                throw new RaplaException("Cluster peer " + trimmed + " must be in the form host:port");
+            }
+            try
+            {
+                result.add(new InetSocketAddress(trimmed.substring(0, index), Integer.parseInt(trimmed.substring(index + 1))));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new RaplaException("Illegal port in cluster peer " + trimmed);
+            }
+        }
+        return result;
+    }
+
+    public void addPeer(InetSocketAddress peer)
+    {
+        peers.add(peer);
+    }
+
+    /** @return the port the feed receives on, this is the configured port until the feed is started */
+    synchronized public int getLocalPort()
+    {
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    @Override
+    synchronized public void start(Listener listener) throws RaplaException
+    {
+        if (socket != null)
+        {
+            return;
+        }
+        final DatagramSocket socket;
+        try
+        {
+            socket = new DatagramSocket(port, bindAddress);
+        }
+        catch (SocketException e)
+        {
+            throw new RaplaException("Could not open change feed on " + bindAddress.getHostAddress() + ":" + port + ": " + e.getMessage(), e);
+        }
+        this.socket = socket;
+        final Thread receiver = new Thread(() -> receive(socket, listener), "Rapla change feed " + socket.getLocalPort());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private void receive(DatagramSocket socket, Listener listener)
+    {
+        final byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+        while (!socket.isClosed())
+        {
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try
+            {
+                socket.receive(packet);
+            }
+            catch (IOException e)
+            {
+                if (!socket.isClosed())
+                {
+                    logger.warn("Could not receive change notification: " + e.getMessage());
+                }
+                continue;
+            }
+            if (!isPeer(packet.getSocketAddress()))
+            {
+                logger.debug("Dropping change notification from unknown sender " + packet.getSocketAddress());
+                continue;
+            }
+            final Date committedAt = parse(new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8));
+            if (committedAt == null)
+            {
+                continue;
+            }
+            try
+            {
+                listener.changesCommitted(committedAt);
+            }
+            catch (Exception e)
+            {
+                logger.error("Could not process change notification: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    boolean isPeer(SocketAddress sender)
+    {
+        for (InetSocketAddress peer : peers)
+        {
+            if (peer.equals(sender))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the commit time of the message or null if the message is invalid or was sent by this feed */
+    Date parse(String message)
+    {
+        if (!message.startsWith(MESSAGE_PREFIX))
+        {
+            return null;
+        }
+        final String[] parts = message.substring(MESSAGE_PREFIX.length()).split(" ");
+        if (parts.length != 2 || parts[0].equals(nodeId))
+        {
+            return null;
+        }
+        try
+        {
+            return new Date(Long.parseLong(parts[1]));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    String createMessage(Date committedAt)
+    {
+        return MESSAGE_PREFIX + nodeId + " " + committedAt.getTime();
+    }
+
+    @Override
+    public void publish(Date committedAt)
+    {
+        final DatagramSocket socket;
+        synchronized (this)
+        {
+            socket = this.socket;
+        }
+        if (socket == null)
+        {
+            return;
+        }
+        final byte[] data = createMessage(committedAt).getBytes(StandardCharsets.UTF_8);
+        for (InetSocketAddress peer : peers)
+        {
+            try
+            {
+                socket.send(new DatagramPacket(data, data.length, peer));
+            }
+            catch (IOException e)
+            {
+                logger.warn("Could not send change notification to " + peer + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    synchronized public void stop()
+    {
+        if (socket != null)
+        {
+            socket.close();
+            socket = null;
+        }
+    }
+}
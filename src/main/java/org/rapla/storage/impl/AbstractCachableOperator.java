@@ -450,7 +450,12 @@ public abstract class AbstractCachableOperator implements StorageOperator
         RaplaLock.ReadLock readLock = lockManager.readLock(getClass(),"getAllocatables");
         try
         {
-            Collection<Allocatable> collection = cache.getAllocatables();
+            // the attribute indexes narrow the allocatables that must be tested with the filters
+            Collection<Allocatable> collection = filters != null ? cache.getAllocatableCandidates(filters) : null;
+            if (collection == null)
+            {
+                collection = cache.getAllocatables();
+            }
             // We return a clone to avoid synchronization Problems
             allocatables.addAll(collection);
         }
@@ -625,6 +630,28 @@ public abstract class AbstractCachableOperator implements StorageOperator
         }
     }
 
+    public RaplaLock.ReadLock readLockIfLoaded(String name) throws RaplaException
+    {
+        final RaplaLock.ReadLock lock = lockManager.readLock(getClass(),name);
+        try
+        {
+            checkLoaded();
+        }
+        catch (Throwable ex)
+        {
+            lockManager.unlock(lock);
+            if (ex instanceof RaplaException)
+            {
+                throw ex;
+            }
+            else
+            {
+                throw new RaplaException(ex);
+            }
+        }
+        return lock;
+    }
+
     public RaplaLock.WriteLock writeLockIfLoaded(String name) throws RaplaException
     {
         final RaplaLock.WriteLock lock = lockManager.writeLock(getClass(),name,60);
@@ -7,10 +7,9 @@ import org.rapla.inject.InjectionContext;
 import org.rapla.logger.Logger;
 
 import javax.inject.Inject;
-import java.util.Stack;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @DefaultImplementation(of = RaplaLock.class, context = { InjectionContext.server, InjectionContext.swing })
@@ -18,9 +17,8 @@ public class DefaultRaplaLock implements RaplaLock
 {
     public static final int DEFAULT_READLOCK_TIMEOUT_SECONDS = 20;
     public static final int DEFAULT_WRITELOCK_TIMEOUT_SECONDS = 60;
-    final protected ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    Stack<WriteLock> writeLocks = new Stack<>();
-    Stack<ReadLock> readLocks = new Stack<>();
+    final protected ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final LockStatistics statistics = new LockStatistics(readWriteLock);
     Logger logger;
 
     @Inject
@@ -40,9 +38,11 @@ public class DefaultRaplaLock implements RaplaLock
         // Enabling the stack trace is a huge performance cost
         StackTraceElement[] stackTrace = logger.isTraceEnabled() ? getStackTrace() : new StackTraceElement[] {};
         final long currentTime = System.currentTimeMillis();
-        final Lock lock = lock(this.readWriteLock.readLock(), seconds, true);
-        final ReadLock readLock = new ReadLock(lock,clazz, name, stackTrace, currentTime);
-        readLocks.add(readLock);
+        final LockStatistics.Group group = statistics.getGroup(clazz, name, false);
+        final Lock lock = this.readWriteLock.readLock();
+        final long waitNanos = lock(lock, seconds, true);
+        final ReadLock readLock = new ReadLock(lock, clazz, name, stackTrace, currentTime);
+        statistics.acquired(readLock, group, waitNanos);
         return readLock;
     }
 
@@ -54,25 +54,27 @@ public class DefaultRaplaLock implements RaplaLock
         }
     }
 
-    private Lock lock(Lock lock, int seconds, boolean isRead) throws RaplaException
+    /** @return the nanoseconds spent waiting for the lock*/
+    private long lock(Lock lock, int seconds, boolean isRead) throws RaplaException
     {
         try
         {
             if (lock.tryLock())
             {
-                return lock;
+                return 0;
             }
+            final long waitStart = System.nanoTime();
             if (lock.tryLock(seconds, TimeUnit.SECONDS))
             {
-                return lock;
+                return System.nanoTime() - waitStart;
             }
             else
             {
                 if (logger != null)
                 {
                     int logThreshholdTime = 0;
-                    logLongLocks(this.writeLocks, logThreshholdTime);
-                    logLongLocks(this.readLocks, logThreshholdTime);
+                    logLongLocks(statistics.getHolders(WriteLock.class), logThreshholdTime);
+                    logLongLocks(statistics.getHolders(ReadLock.class), logThreshholdTime);
                 }
                 if ( isRead)
                 {
@@ -80,7 +82,7 @@ public class DefaultRaplaLock implements RaplaLock
                 }
                 else
                 {
-                    throw new RaplaSynchronizationException("Someone is currently reading or writing. Please try again! Can't acquire write lock." + readLocks);
+                    throw new RaplaSynchronizationException("Someone is currently reading or writing. Please try again! Can't acquire write lock." + statistics.getHolders(ReadLock.class));
                 }
             }
         }
@@ -90,13 +92,12 @@ public class DefaultRaplaLock implements RaplaLock
         }
     }
 
-    private void logLongLocks(Stack<? extends LockInfo> lockCollection, int logThreshholdTime)
+    private void logLongLocks(List<? extends LockInfo> locks, int logThreshholdTime)
     {
         final long currentTime = System.currentTimeMillis();
-        final LockInfo[] locks = lockCollection.toArray(new LockInfo[] {});
-        for (int i = 0; i < locks.length; i++)
+        for (int i = 0; i < locks.size(); i++)
         {
-            final LockInfo lock = locks[i];
+            final LockInfo lock = locks.get(i);
             final long timeSinceLock = (currentTime - lock.getLockTime())/ 1000;
             if ( timeSinceLock > logThreshholdTime )
             {
@@ -110,31 +111,26 @@ public class DefaultRaplaLock implements RaplaLock
 
     public WriteLock writeLock(Class clazz, String name,int seconds) throws RaplaException
     {
-        final WriteLock lock;
         StackTraceElement[] stackTrace = logger.isDebugEnabled() ? getStackTrace() : new StackTraceElement[] {};
         final long currentTime = System.currentTimeMillis();
+        final LockStatistics.Group group = statistics.getGroup(clazz, name, true);
+        final Lock writeLock = this.readWriteLock.writeLock();
+        final long waitNanos;
         if (seconds > 0)
         {
-            lock = new WriteLock(lock(this.readWriteLock.writeLock(), seconds, false),clazz, name, stackTrace, currentTime);
+            waitNanos = lock(writeLock, seconds, false);
         }
         else
         {
-            Lock writeLock = this.readWriteLock.writeLock();
             // dispatch also does an refresh without lock so we get the new data each time a store is called
-            boolean tryLock = writeLock.tryLock();
-            if (tryLock)
+            if (!writeLock.tryLock())
             {
-                lock = new WriteLock(writeLock,clazz, name, stackTrace, currentTime);
-            }
-            else
-            {
-                lock = null;
+                return null;
             }
+            waitNanos = 0;
         }
-        if (lock != null)
-        {
-            writeLocks.add(lock);
-        }
+        final WriteLock lock = new WriteLock(writeLock, clazz, name, stackTrace, currentTime);
+        statistics.acquired(lock, group, waitNanos);
         return lock;
     }
 
@@ -156,6 +152,12 @@ public class DefaultRaplaLock implements RaplaLock
         return stackTrace;
     }
 
+    /** @return the wait and hold times of the locks and the current lock holders */
+    public LockStatistics getStatistics()
+    {
+        return statistics;
+    }
+
     public WriteLock writeLockIfAvaliable(Class clazz, String name)
     {
         try
@@ -187,6 +189,12 @@ public class DefaultRaplaLock implements RaplaLock
         return tryLock;
     }
 
+    @Override
+    public boolean isWriteLockedByCurrentThread()
+    {
+        return readWriteLock.isWriteLockedByCurrentThread();
+    }
+
     @Override
     public boolean isReadLocked()
     {
@@ -205,8 +213,8 @@ public class DefaultRaplaLock implements RaplaLock
         {
             return;
         }
+        statistics.released(lock);
         ((Lock) lock.lock).unlock();
-        readLocks.remove(lock);
     }
 
     public void unlock(WriteLock lock)
@@ -215,8 +223,8 @@ public class DefaultRaplaLock implements RaplaLock
         {
             return;
         }
+        statistics.released(lock);
         ((Lock) lock.lock).unlock();
-        writeLocks.remove(lock);
     }
 
 }
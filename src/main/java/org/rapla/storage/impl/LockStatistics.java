@@ -0,0 +1,388 @@
+package org.rapla.storage.impl;
+
+import org.rapla.storage.impl.RaplaLock.AbstractLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Collects the wait and hold times of the locks handed out by a {@link DefaultRaplaLock}. The times are grouped by caller class,
+ * lock type and the first word of the lock name, so "Dispatching UpdateEvent ..." and "getConflicts for homer" are counted as
+ * "Dispatching" and "getConflicts".
+ * <p>
+ * The currently held locks are kept in a fixed array of slots instead of a synchronized collection, so acquiring and releasing a lock
+ * does not allocate once the group of the lock has been seen. If all slots are taken, further locks are still counted but
+ * not listed as holders.
+ */
+public class LockStatistics implements LockStatisticsMBean
+{
+    /** upper bounds of the histogram buckets in milliseconds. The last bucket counts all times above the last bound */
+    public static final long[] BUCKET_BOUNDS_MILLIS = { 1, 5, 10, 50, 100, 500, 1000, 5000, 10000 };
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_MILLIS.length];
+    static
+    {
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++)
+        {
+            BUCKET_BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BUCKET_BOUNDS_MILLIS[i]);
+        }
+    }
+    static final int MAX_TRACKED_HOLDERS = 256;
+    /** lock names of a class that exceed this number are counted in a common group */
+    static final int MAX_GROUPS_PER_CLASS = 64;
+    static final String OTHER_GROUP = "other";
+
+    private final ReentrantReadWriteLock readWriteLock;
+    private final AtomicReferenceArray<AbstractLock> holders = new AtomicReferenceArray<>(MAX_TRACKED_HOLDERS);
+    private volatile Map<Class, Group[]> groups = new ConcurrentHashMap<>();
+
+    public LockStatistics(ReentrantReadWriteLock readWriteLock)
+    {
+        this.readWriteLock = readWriteLock;
+    }
+
+    public static class Histogram
+    {
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MILLIS.length + 1];
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Histogram()
+        {
+            for (int i = 0; i < buckets.length; i++)
+            {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos)
+        {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_NANOS.length && nanos >= BUCKET_BOUNDS_NANOS[bucket])
+            {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            if (nanos > 0)
+            {
+                totalNanos.add(nanos);
+                if (nanos > maxNanos.get())
+                {
+                    maxNanos.accumulateAndGet(nanos, Math::max);
+                }
+            }
+        }
+
+        public long getCount()
+        {
+            long count = 0;
+            for (LongAdder bucket : buckets)
+            {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /** @return the counts per bucket, see {@link #BUCKET_BOUNDS_MILLIS}*/
+        public long[] getBuckets()
+        {
+            final long[] result = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++)
+            {
+                result[i] = buckets[i].sum();
+            }
+            return result;
+        }
+
+        public long getTotalMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+        }
+
+        public long getMaxMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        @Override
+        public String toString()
+        {
+            final long count = getCount();
+            StringBuilder builder = new StringBuilder();
+            builder.append(count).append(" total ").append(getTotalMillis()).append(" ms max ").append(getMaxMillis()).append(" ms [");
+            final long[] counts = getBuckets();
+            for (int i = 0; i < counts.length; i++)
+            {
+                if (i > 0)
+                {
+                    builder.append(", ");
+                }
+                builder.append(i < BUCKET_BOUNDS_MILLIS.length ? "<" + BUCKET_BOUNDS_MILLIS[i] : ">=" + BUCKET_BOUNDS_MILLIS[i - 1]);
+                builder.append("ms:").append(counts[i]);
+            }
+            builder.append(']');
+            return builder.toString();
+        }
+    }
+
+    /** the statistic for all locks of a caller class with the same lock type and the same first word in the lock name */
+    public static class Group
+    {
+        private final Class callerClass;
+        private final String name;
+        private final boolean write;
+        private final Histogram wait = new Histogram();
+        private final Histogram hold = new Histogram();
+
+        Group(Class callerClass, String name, boolean write)
+        {
+            this.callerClass = callerClass;
+            this.name = name;
+            this.write = write;
+        }
+
+        public Class getCallerClass()
+        {
+            return callerClass;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public boolean isWrite()
+        {
+            return write;
+        }
+
+        public Histogram getWait()
+        {
+            return wait;
+        }
+
+        public Histogram getHold()
+        {
+            return hold;
+        }
+
+        boolean matches(String lockname, boolean write)
+        {
+            if (this.write != write)
+            {
+                return false;
+            }
+            final int start = nameStart(lockname);
+            final int end = nameEnd(lockname, start);
+            return end - start == name.length() && lockname.regionMatches(start, name, 0, name.length());
+        }
+
+        @Override
+        public String toString()
+        {
+            final String className = callerClass != null ? callerClass.getSimpleName() : "";
+            return className + " " + (write ? "write" : "read") + " " + name + ": wait " + wait + ", hold " + hold;
+        }
+    }
+
+    private static int nameStart(String lockname)
+    {
+        int start = 0;
+        while (start < lockname.length() && lockname.charAt(start) == ' ')
+        {
+            start++;
+        }
+        return start;
+    }
+
+    private static int nameEnd(String lockname, int start)
+    {
+        final int end = lockname.indexOf(' ', start);
+        return end < 0 ? lockname.length() : end;
+    }
+
+    /** returns the group for the lock. Does not allocate if a lock with the same group was acquired before */
+    Group getGroup(Class callerClass, String lockname, boolean write)
+    {
+        final Class key = callerClass != null ? callerClass : Object.class;
+        final String name = lockname != null ? lockname : "";
+        final Map<Class, Group[]> groups = this.groups;
+        Group[] forClass = groups.get(key);
+        Group group = find(forClass, name, write);
+        if (group != null)
+        {
+            return group;
+        }
+        synchronized (this)
+        {
+            forClass = groups.get(key);
+            group = find(forClass, name, write);
+            if (group != null)
+            {
+                return group;
+            }
+            final int length = forClass != null ? forClass.length : 0;
+            final String groupName;
+            if (length >= MAX_GROUPS_PER_CLASS)
+            {
+                group = find(forClass, OTHER_GROUP, write);
+                if (group != null)
+                {
+                    return group;
+                }
+                groupName = OTHER_GROUP;
+            }
+            else
+            {
+                final int start = nameStart(name);
+                groupName = name.substring(start, nameEnd(name, start));
+            }
+            group = new Group(callerClass, groupName, write);
+            final Group[] newGroups = new Group[length + 1];
+            if (forClass != null)
+            {
+                System.arraycopy(forClass, 0, newGroups, 0, length);
+            }
+            newGroups[length] = group;
+            groups.put(key, newGroups);
+            return group;
+        }
+    }
+
+    private static Group find(Group[] forClass, String lockname, boolean write)
+    {
+        if (forClass != null)
+        {
+            for (Group group : forClass)
+            {
+                if (group.matches(lockname, write))
+                {
+                    return group;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** called after the lock is acquired. Stores the lock in a free slot and records the wait time */
+    void acquired(AbstractLock lock, Group group, long waitNanos)
+    {
+        group.wait.record(waitNanos);
+        lock.group = group;
+        lock.acquiredNanos = System.nanoTime();
+        lock.slot = -1;
+        final int start = (int) Thread.currentThread().getId() & (MAX_TRACKED_HOLDERS - 1);
+        for (int i = 0; i < MAX_TRACKED_HOLDERS; i++)
+        {
+            final int slot = (start + i) & (MAX_TRACKED_HOLDERS - 1);
+            if (holders.get(slot) == null && holders.compareAndSet(slot, null, lock))
+            {
+                lock.slot = slot;
+                break;
+            }
+        }
+    }
+
+    /** called before the lock is released. Frees the slot and records the hold time */
+    void released(AbstractLock lock)
+    {
+        final int slot = lock.slot;
+        if (slot >= 0)
+        {
+            holders.compareAndSet(slot, lock, null);
+            lock.slot = -1;
+        }
+        final Group group = lock.group;
+        if (group != null)
+        {
+            group.hold.record(System.nanoTime() - lock.acquiredNanos);
+            lock.group = null;
+        }
+    }
+
+    /** @return the currently held locks of the passed type */
+    public <T extends AbstractLock> List<T> getHolders(Class<T> lockType)
+    {
+        List<T> result = new ArrayList<>();
+        for (int i = 0; i < MAX_TRACKED_HOLDERS; i++)
+        {
+            final AbstractLock lock = holders.get(i);
+            if (lockType.isInstance(lock))
+            {
+                result.add(lockType.cast(lock));
+            }
+        }
+        return result;
+    }
+
+    public List<Group> getGroups()
+    {
+        List<Group> result = new ArrayList<>();
+        for (Group[] forClass : groups.values())
+        {
+            for (Group group : forClass)
+            {
+                result.add(group);
+            }
+        }
+        result.sort((g1, g2) -> Long.compare(g2.hold.totalNanos.sum() + g2.wait.totalNanos.sum(), g1.hold.totalNanos.sum() + g1.wait.totalNanos.sum()));
+        return result;
+    }
+
+    @Override
+    public int getQueueLength()
+    {
+        return readWriteLock.getQueueLength();
+    }
+
+    @Override
+    public int getReadLockCount()
+    {
+        return readWriteLock.getReadLockCount();
+    }
+
+    @Override
+    public boolean isWriteLocked()
+    {
+        return readWriteLock.isWriteLocked();
+    }
+
+    @Override
+    public String[] getCurrentHolders()
+    {
+        final long now = System.nanoTime();
+        List<String> result = new ArrayList<>();
+        for (AbstractLock lock : getHolders(AbstractLock.class))
+        {
+            final long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - lock.acquiredNanos);
+            // only the group name, the full lock name can contain user names and event details
+            final Group group = lock.group;
+            final String groupName = group != null ? group.getName() : "";
+            result.add(groupName + " held for " + heldMillis + " ms");
+        }
+        return result.toArray(new String[] {});
+    }
+
+    @Override
+    public String[] getStatistics()
+    {
+        List<String> result = new ArrayList<>();
+        for (Group group : getGroups())
+        {
+            result.add(group.toString());
+        }
+        return result.toArray(new String[] {});
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        groups = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,21 @@
+package org.rapla.storage.impl;
+
+/** JMX view on the {@link LockStatistics} of the storage lock */
+public interface LockStatisticsMBean
+{
+    /** @return the number of threads waiting for the read or the write lock */
+    int getQueueLength();
+
+    /** @return the number of read locks currently held */
+    int getReadLockCount();
+
+    boolean isWriteLocked();
+
+    /** @return the group of each lock that is currently held and the time since it was acquired */
+    String[] getCurrentHolders();
+
+    /** @return one line with the wait and hold times per caller class, lock name and lock type */
+    String[] getStatistics();
+
+    void resetStatistics();
+}
@@ -16,6 +16,8 @@ public interface RaplaLock
 
     boolean isWriteLocked();
     boolean isReadLocked();
+    /** true if the calling thread holds the write lock. Other threads can't get a read lock until it is released */
+    boolean isWriteLockedByCurrentThread();
 
     void unlock(ReadLock lock);
     void unlock(WriteLock lock);
@@ -48,7 +50,11 @@ public interface RaplaLock
         final long lockTime;
         final Class lockClazz;
         final String lockname;
-        final private String lockType;
+        final String lockType;
+        // bookkeeping of the DefaultRaplaLock while the lock is held
+        LockStatistics.Group group;
+        long acquiredNanos;
+        int slot = -1;
 
         public AbstractLock(Object lock, Class lockClazz, String lockname, StackTraceElement[] stackTrace, long lockTime, String lockType)
         {
@@ -0,0 +1,231 @@
+package org.rapla.storage.impl.server;
+
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Stores the appointments bound to one allocatable. The set itself is sorted with the {@link AppointmentStartComparator}
+ * and can be iterated like the former TreeSet. Additionally all appointments with a finite end are kept in an
+ * {@link IntervalST} keyed on [start, maxEnd), so range queries only visit the appointments that can overlap the range.
+ * Repeatings without an end are kept in a separate set sorted by start.
+ * <p>
+ * The views returned by {@link #headSet(Appointment)}, {@link #tailSet(Appointment)} and {@link #subSet(Appointment, Appointment)}
+ * are read only. The index is not thread safe, access must be guarded by the operators lock.
+ */
+final class AppointmentIndex extends AbstractSet<Appointment> implements SortedSet<Appointment>
+{
+    private final Comparator<Appointment> comparator = new AppointmentStartComparator();
+    private final TreeSet<Appointment> sorted = new TreeSet<>(comparator);
+    private final IntervalST<Appointment> bounded = new IntervalST<>(comparator);
+    private final TreeSet<Appointment> openEnded = new TreeSet<>(comparator);
+
+    @Override
+    public boolean add(Appointment appointment)
+    {
+        if (!sorted.add(appointment))
+        {
+            return false;
+        }
+        addToIntervals(appointment);
+        return true;
+    }
+
+    private void addToIntervals(Appointment appointment)
+    {
+        final Date maxEnd = appointment.getMaxEnd();
+        if (maxEnd == null)
+        {
+            openEnded.add(appointment);
+        }
+        else
+        {
+            final long start = appointment.getStart().getTime();
+            bounded.put(start, Math.max(start, maxEnd.getTime()), appointment);
+        }
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (!(o instanceof Appointment))
+        {
+            return false;
+        }
+        final Appointment appointment = (Appointment) o;
+        if (!sorted.remove(appointment))
+        {
+            return false;
+        }
+        removeFromIntervals(appointment);
+        return true;
+    }
+
+    private void removeFromIntervals(Appointment appointment)
+    {
+        final Date maxEnd = appointment.getMaxEnd();
+        final boolean removed;
+        if (maxEnd == null)
+        {
+            removed = openEnded.remove(appointment);
+        }
+        else
+        {
+            final long start = appointment.getStart().getTime();
+            removed = bounded.remove(start, Math.max(start, maxEnd.getTime()), appointment);
+        }
+        if (!removed)
+        {
+            // the span of the appointment has changed since it was added, which should not happen as only immutable objects are stored
+            rebuildIntervals();
+        }
+    }
+
+    private void rebuildIntervals()
+    {
+        bounded.clear();
+        openEnded.clear();
+        for (Appointment appointment : sorted)
+        {
+            addToIntervals(appointment);
+        }
+    }
+
+    /**
+     * Adds all appointments that overlap the passed period to the result. Does the same filtering as
+     * {@link AppointmentImpl#getAppointments(SortedSet, User, Date, Date, boolean)} but without scanning all appointments that start before end.
+     * @param user the owner of the reservation or null for appointments from all users
+     * @param start the start of the period or null for no lower bound
+     * @param end the end of the period or null for no upper bound
+     */
+    public void getAppointments(User user, Date start, Date end, boolean excludeExceptions, Collection<? super Appointment> result)
+    {
+        final List<Appointment> candidates = new ArrayList<>();
+        final long lo = start != null ? start.getTime() : Long.MIN_VALUE;
+        final long hi = end != null ? end.getTime() : Long.MAX_VALUE;
+        bounded.searchAll(lo, hi, candidates);
+        for (Appointment appointment : openEnded)
+        {
+            if (end != null && !appointment.getStart().before(end))
+            {
+                break;
+            }
+            candidates.add(appointment);
+        }
+        for (Appointment candidate : candidates)
+        {
+            final AppointmentImpl appointment = (AppointmentImpl) candidate;
+            // Ignore appointments without a reservation
+            if (appointment.getReservation() == null)
+            {
+                continue;
+            }
+            if (!appointment.overlaps(start, end, excludeExceptions))
+            {
+                continue;
+            }
+            if (user == null || user.getReference().equals(appointment.getOwnerRef()))
+            {
+                result.add(appointment);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Appointment> iterator()
+    {
+        final Iterator<Appointment> it = sorted.iterator();
+        return new Iterator<Appointment>()
+        {
+            Appointment last;
+
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public Appointment next()
+            {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove()
+            {
+                it.remove();
+                removeFromIntervals(last);
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return sorted.contains(o);
+    }
+
+    @Override
+    public int size()
+    {
+        return sorted.size();
+    }
+
+    @Override
+    public void clear()
+    {
+        sorted.clear();
+        bounded.clear();
+        openEnded.clear();
+    }
+
+    @Override
+    public Comparator<? super Appointment> comparator()
+    {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<Appointment> subSet(Appointment fromElement, Appointment toElement)
+    {
+        return Collections.unmodifiableSortedSet(sorted.subSet(fromElement, toElement));
+    }
+
+    @Override
+    public SortedSet<Appointment> headSet(Appointment toElement)
+    {
+        return Collections.unmodifiableSortedSet(sorted.headSet(toElement));
+    }
+
+    @Override
+    public SortedSet<Appointment> tailSet(Appointment fromElement)
+    {
+        return Collections.unmodifiableSortedSet(sorted.tailSet(fromElement));
+    }
+
+    @Override
+    public Appointment first()
+    {
+        return sorted.first();
+    }
+
+    @Override
+    public Appointment last()
+    {
+        return sorted.last();
+    }
+}
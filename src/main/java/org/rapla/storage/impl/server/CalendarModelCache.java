@@ -1,7 +1,9 @@
 package org.rapla.storage.impl.server;
 
 import org.rapla.RaplaResources;
+import org.rapla.entities.RaplaObject;
 import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.User;
 import org.rapla.entities.configuration.CalendarModelConfiguration;
@@ -9,6 +11,11 @@ import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.configuration.RaplaMap;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.storage.EntityReferencer;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.internal.CalendarModelImpl;
 import org.rapla.framework.RaplaException;
@@ -31,17 +38,82 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
+/**
+ * Keeps the calendars with an exchange export of all users and an index from the allocatables and the event types of each calendar to
+ * the calendar, so the users that export an appointment or an allocatable are found without evaluating the selection and the filters of
+ * all calendars.
+ * <p>
+ * The selected allocatables of a calendar (including the allocatables of the selected types and their dependent allocatables) and its
+ * event filters are computed when the preferences of the user change. They are computed again if an allocatable changes that is part of
+ * the calendar, or that can become part of it because the calendar selects types, and if a type or a category changes.
+ */
 public class CalendarModelCache
 {
     RaplaLock lockManager;
 
-    private final Map<ReferenceInfo<User>, List<CalendarModelImpl>> calendarModels = new HashMap<>();
+    private final Map<ReferenceInfo<User>, List<Subscription>> calendarModels = new HashMap<>();
+    private final Map<String, Set<Subscription>> subscriptionsByAllocatable = new HashMap<>();
+    /** calendars without selected allocatables export the appointments of all allocatables */
+    private final Set<Subscription> subscriptionsWithoutAllocatables = new HashSet<>();
+    /** the calendars that only export some event types, by the id of the event type */
+    private final Map<String, Set<Subscription>> subscriptionsByEventType = new HashMap<>();
     final CachableStorageOperator operator;
     final RaplaResources i18n;
     final Logger logger;
     final CommandScheduler scheduler;
 
+    /** an exported calendar of a user with the allocatables and event filters it had when it was indexed */
+    private static final class Subscription
+    {
+        final ReferenceInfo<User> userId;
+        final CalendarModelImpl model;
+        final Set<String> allocatableIds;
+        /** null if all event types are exported */
+        final ClassificationFilter[] reservationFilter;
+        /** true if the calendar selects types or all allocatables, so new or changed allocatables can be part of it */
+        final boolean typesSelected;
+
+        Subscription(ReferenceInfo<User> userId, CalendarModelImpl model) throws RaplaException
+        {
+            this.userId = userId;
+            this.model = model;
+            allocatableIds = new HashSet<>();
+            for (Allocatable allocatable : model.getAllAllocatables())
+            {
+                allocatableIds.add(allocatable.getId());
+            }
+            reservationFilter = model.isDefaultEventTypes() ? null : model.getReservationFilter();
+            boolean typesSelected = false;
+            for (RaplaObject selected : model.getSelectedObjects())
+            {
+                if (selected instanceof DynamicType || selected.equals(CalendarModelImpl.ALLOCATABLES_ROOT))
+                {
+                    typesSelected = true;
+                    break;
+                }
+            }
+            this.typesSelected = typesSelected;
+        }
+
+        boolean isMatchingFilter(Classification classification)
+        {
+            if (reservationFilter == null)
+            {
+                return true;
+            }
+            for (ClassificationFilter filter : reservationFilter)
+            {
+                if (filter.matches(classification))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     public CalendarModelCache(CachableStorageOperator operator, RaplaResources i18n, Logger logger, final CommandScheduler scheduler)
     {
         this.operator = operator;
@@ -53,14 +125,68 @@ public class CalendarModelCache
 
     private void removeCalendarModelFor(ReferenceInfo<User> userId) throws RaplaException
     {
-        RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "removeCalendar for user " + userId,60);
+        setSubscriptions(userId, Collections.emptyList(), "removeCalendar for user " + userId);
+    }
+
+    private void setSubscriptions(ReferenceInfo<User> userId, List<Subscription> subscriptions, String lockName) throws RaplaException
+    {
+        RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), lockName, 60);
         try
         {
-            this.calendarModels.remove(userId);
+            final List<Subscription> old = subscriptions.size() > 0 ? this.calendarModels.put(userId, subscriptions) : this.calendarModels.remove(userId);
+            if (old != null)
+            {
+                old.forEach(this::removeFromIndex);
+            }
+            subscriptions.forEach(this::addToIndex);
         }
         finally
         {
-            lockManager.unlock( lock);
+            lockManager.unlock(lock);
+        }
+    }
+
+    private void addToIndex(Subscription subscription)
+    {
+        if (subscription.allocatableIds.isEmpty())
+        {
+            subscriptionsWithoutAllocatables.add(subscription);
+        }
+        for (String allocatableId : subscription.allocatableIds)
+        {
+            subscriptionsByAllocatable.computeIfAbsent(allocatableId, (id) -> new HashSet<>()).add(subscription);
+        }
+        if (subscription.reservationFilter != null)
+        {
+            for (ClassificationFilter filter : subscription.reservationFilter)
+            {
+                subscriptionsByEventType.computeIfAbsent(filter.getType().getId(), (id) -> new HashSet<>()).add(subscription);
+            }
+        }
+    }
+
+    private void removeFromIndex(Subscription subscription)
+    {
+        subscriptionsWithoutAllocatables.remove(subscription);
+        for (String allocatableId : subscription.allocatableIds)
+        {
+            removeFromIndex(subscriptionsByAllocatable, allocatableId, subscription);
+        }
+        if (subscription.reservationFilter != null)
+        {
+            for (ClassificationFilter filter : subscription.reservationFilter)
+            {
+                removeFromIndex(subscriptionsByEventType, filter.getType().getId(), subscription);
+            }
+        }
+    }
+
+    private static void removeFromIndex(Map<String, Set<Subscription>> index, String key, Subscription subscription)
+    {
+        final Set<Subscription> subscriptions = index.get(key);
+        if (subscriptions != null && subscriptions.remove(subscription) && subscriptions.isEmpty())
+        {
+            index.remove(key);
         }
     }
 
@@ -76,37 +202,21 @@ public class CalendarModelCache
      */
     private void updateCalendarMap(User user) throws RaplaException
     {
-        final List<CalendarModelImpl> calendarModelList = new ArrayList<>();
+        final List<Subscription> calendarModelList = new ArrayList<>();
         final boolean createIfNotNull = false;
         final ReferenceInfo<User> userId = user.getReference();
         final Preferences preferences = operator.getPreferences(user, createIfNotNull);
         if (preferences == null)
         {
-            final RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "Update calendar for user no prefe " + userId, 60);
-            try
-            {
-                this.calendarModels.remove(userId);
-            }
-            finally
-            {
-                lockManager.unlock(lock);
-            }
-            return; //calendarModelList;
+            setSubscriptions(userId, calendarModelList, "Update calendar for user no prefe " + userId);
+            return;
         }
         final CalendarModelConfiguration modelConfig = preferences.getEntry(CalendarModelConfiguration.CONFIG_ENTRY);
         final RaplaMap<CalendarModelConfiguration> exportMap = preferences.getEntry(CalendarModelConfiguration.EXPORT_ENTRY);
         if (modelConfig == null && exportMap == null)
         {
-            final RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "Update calendar for user  " + userId, 60);
-            try
-            {
-                this.calendarModels.remove(userId);
-            }
-            finally
-            {
-                lockManager.unlock(lock);
-            }
-            return;// calendarModelList;
+            setSubscriptions(userId, calendarModelList, "Update calendar for user  " + userId);
+            return;
         }
         final List<CalendarModelConfiguration> configList = new ArrayList<>();
         if (modelConfig != null)
@@ -130,53 +240,52 @@ public class CalendarModelCache
                     calendarModelImpl = new CalendarModelImpl(locale, user, operator,logger);
                     Map<String, String> alternativOptions = null;
                     calendarModelImpl.setConfiguration(config, alternativOptions);
-                    calendarModelList.add(calendarModelImpl);
+                    calendarModelList.add(new Subscription(userId, calendarModelImpl));
                 }
 
             }
         }
 
-        final RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "Update calendar for user " + userId + " writing new calendar", 60);
-        try
-        {
-            if (calendarModelList.size() > 0)
-            {
-                this.calendarModels.put(userId, calendarModelList);
-            }
-            else
-            {
-                this.calendarModels.remove(userId);
-            }
-        }
-        finally
-        {
-            lockManager.unlock(lock);
-        }
-        //return calendarModelList;
+        setSubscriptions(userId, calendarModelList, "Update calendar for user " + userId + " writing new calendar");
     }
 
     // checks all exports if appointment is still in on of the exported calendars (check eslected resources)
     public Collection<ReferenceInfo<User>> findMatchingUser(Appointment appointment) throws RaplaException
     {
         Set<ReferenceInfo<User>> result = new HashSet<>();
+        final Reservation reservation = appointment.getReservation();
+        if (reservation == null)
+        {
+            return result;
+        }
+        final Classification classification = reservation.getClassification();
+        final String eventTypeId = classification.getType().getId();
         RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "findMatchingUserForAppointment");
         try
         {
-            for (ReferenceInfo<User> userId : calendarModels.keySet())
+            // TODO check wether the user can see the appointment or no
+            //
+            final Set<Subscription> candidates = new HashSet<>(subscriptionsWithoutAllocatables);
+            reservation.getAllocatablesFor(appointment).forEach((allocatable) ->
             {
-                // TODO check wether the user can see the appointment or no
-                //
-                List<CalendarModelImpl> list = calendarModels.get(userId);
-                for (CalendarModelImpl conf : list)
+                final Set<Subscription> subscriptions = subscriptionsByAllocatable.get(allocatable.getId());
+                if (subscriptions != null)
                 {
-                    if (conf.isMatchingSelectionAndFilter(appointment))
-                    {
-                        result.add(userId);
-                        break;
-                    }
+                    candidates.addAll(subscriptions);
+                }
+            });
+            final Set<Subscription> eventTypeSubscriptions = subscriptionsByEventType.getOrDefault(eventTypeId, Collections.emptySet());
+            for (Subscription subscription : candidates)
+            {
+                if (result.contains(subscription.userId))
+                {
+                    continue;
+                }
+                if (subscription.reservationFilter == null || (eventTypeSubscriptions.contains(subscription) && subscription.isMatchingFilter(classification)))
+                {
+                    result.add(subscription.userId);
                 }
             }
-
         }
         finally
         {
@@ -192,19 +301,14 @@ public class CalendarModelCache
         RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "findMatchingUserForAppointment");
         try
         {
-            for (ReferenceInfo<User> userId : calendarModels.keySet())
+            final Set<Subscription> subscriptions = subscriptionsByAllocatable.get(allocatable.getId());
+            if (subscriptions != null)
             {
-                List<CalendarModelImpl> list = calendarModels.get(userId);
-                for (CalendarModelImpl model : list)
+                for (Subscription subscription : subscriptions)
                 {
-                    if (model.getAllAllocatables().contains(allocatable))
-                    {
-                        result.add(userId);
-                        break;
-                    }
+                    result.add(subscription.userId);
                 }
             }
-
         }
         finally
         {
@@ -217,7 +321,7 @@ public class CalendarModelCache
     public Collection<Appointment> getAppointments(ReferenceInfo<User> userId, TimeInterval syncRange) throws RaplaException
     {
         final RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "getAppointments for " + userId);
-        List<CalendarModelImpl> calendarModelList;
+        List<Subscription> calendarModelList;
         try
         {
             calendarModelList = calendarModels.get(userId);
@@ -231,10 +335,10 @@ public class CalendarModelCache
             return Collections.emptySet();
         }
         Collection<Appointment> appointments = new LinkedHashSet<>();
-        for (CalendarModelImpl calendarModelImpl : calendarModelList)
+        for (Subscription subscription : calendarModelList)
         {
             // check if filter or calendar selection changes so that we need to add or remove events from the exchange calendar
-            final Collection<Appointment> c = operator.waitForWithRaplaException(calendarModelImpl.queryAppointments(syncRange), 10000);
+            final Collection<Appointment> c = operator.waitForWithRaplaException(subscription.model.queryAppointments(syncRange), 10000);
             appointments.addAll(c);
         }
         return appointments;
@@ -250,6 +354,9 @@ public class CalendarModelCache
 
     public  void synchronizeCalendars(UpdateResult evt) throws RaplaException
     {
+        final Set<ReferenceInfo<User>> usersToUpdate = new LinkedHashSet<>();
+        final Set<String> changedAllocatableIds = new HashSet<>();
+        boolean typeOrCategoryChanged = false;
         for (UpdateOperation operation : evt.getOperations())
         {
             final Class<? extends Entity> raplaType = operation.getType();
@@ -276,8 +383,7 @@ public class CalendarModelCache
                     ReferenceInfo<User> ownerId = preferences.getOwnerRef();
                     if (ownerId != null)
                     {
-                        User owner = operator.resolve(ownerId);
-                        updateCalendarMap(owner);
+                        usersToUpdate.add(ownerId);
                     }
                     // FIXME if export is removed from a calendar we can remove calendar model from cache
                     // removeCalendarModelFor(ownerId);
@@ -285,13 +391,122 @@ public class CalendarModelCache
             }
             else if (raplaType == User.class)
             {
+                ReferenceInfo<User> userId = operation.getReference();
                 if (operation instanceof UpdateResult.Remove)
                 {
-                    ReferenceInfo<User> userId = operation.getReference();
+                    usersToUpdate.remove(userId);
                     removeCalendarModelFor(userId);
                 }
+                // the groups of the user and so the readable allocatables could have changed
+                else if (operation instanceof UpdateResult.Change)
+                {
+                    usersToUpdate.add(userId);
+                }
             }
+            else if (raplaType == Allocatable.class)
+            {
+                final ReferenceInfo<Allocatable> reference = operation.getReference();
+                changedAllocatableIds.add(reference.getId());
+                // an allocatable that now or before belonged to a selected allocatable
+                addReferencedAllocatables(changedAllocatableIds, evt.getLastEntryBeforeUpdate(reference));
+                addReferencedAllocatables(changedAllocatableIds, evt.getLastKnown(reference));
+            }
+            else if (raplaType == DynamicType.class || raplaType == Category.class)
+            {
+                typeOrCategoryChanged = true;
+            }
+        }
+        for (ReferenceInfo<User> userId : usersToUpdate)
+        {
+            final User user = operator.tryResolve(userId);
+            if (user != null)
+            {
+                updateCalendarMap(user);
+            }
+        }
+        if (typeOrCategoryChanged)
+        {
+            refreshSubscriptions((subscription) -> !usersToUpdate.contains(subscription.userId));
+        }
+        else if (!changedAllocatableIds.isEmpty())
+        {
+            refreshSubscriptions((subscription) -> !usersToUpdate.contains(subscription.userId) && (subscription.typesSelected || !Collections
+                    .disjoint(subscription.allocatableIds, changedAllocatableIds)));
+        }
+    }
+
+    private void addReferencedAllocatables(Set<String> allocatableIds, Allocatable allocatable)
+    {
+        if (allocatable == null)
+        {
+            return;
+        }
+        for (ReferenceInfo reference : ((EntityReferencer) allocatable).getReferenceInfo())
+        {
+            if (reference.getType() == Allocatable.class)
+            {
+                allocatableIds.add(reference.getId());
+            }
+        }
+    }
+
+    /** computes the allocatables and filters of the matching calendars again */
+    private void refreshSubscriptions(Predicate<Subscription> needsRefresh) throws RaplaException
+    {
+        final List<Subscription> toRefresh = new ArrayList<>();
+        RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "refreshSubscriptions");
+        try
+        {
+            for (List<Subscription> subscriptions : calendarModels.values())
+            {
+                for (Subscription subscription : subscriptions)
+                {
+                    if (needsRefresh.test(subscription))
+                    {
+                        toRefresh.add(subscription);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        if (toRefresh.isEmpty())
+        {
+            return;
+        }
+        final List<Subscription> refreshed = new ArrayList<>();
+        for (Subscription subscription : toRefresh)
+        {
+            refreshed.add(new Subscription(subscription.userId, subscription.model));
+        }
+        RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "refreshSubscriptions", 60);
+        try
+        {
+            for (int i = 0; i < toRefresh.size(); i++)
+            {
+                final Subscription old = toRefresh.get(i);
+                final List<Subscription> subscriptions = calendarModels.get(old.userId);
+                final int index = subscriptions != null ? subscriptions.indexOf(old) : -1;
+                // the calendars of the user were replaced in the meantime
+                if (index < 0)
+                {
+                    continue;
+                }
+                // the lists are read without a lock in getAppointments
+                final List<Subscription> copy = new ArrayList<>(subscriptions);
+                copy.set(index, refreshed.get(i));
+                calendarModels.put(old.userId, copy);
+                removeFromIndex(old);
+                addToIndex(refreshed.get(i));
+            }
+        }
+        finally
+        {
+            lockManager.unlock(lock);
         }
+        logger.debug("Refreshed " + refreshed.size() + " exported calendars");
     }
 
 }
@@ -43,6 +43,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -50,13 +51,22 @@ class ConflictFinder {
 	AllocationMap  allocationMap;
     // stores all conflicts (can be without enable/disable information)
     private Map<ReferenceInfo<Allocatable>,Map<ReferenceInfo<Conflict>,Conflict>> conflictMap;
+    // stores the appointment blocks of each allocatable, only used in incremental mode
+    private final Map<ReferenceInfo<Allocatable>,BlockIndex> blockIndexMap = new HashMap<>();
+    private final boolean incremental;
     Logger logger;
     EntityResolver resolver;
     private final PermissionController permissionController;
-    public ConflictFinder( AllocationMap  allocationMap, Date today, Logger logger, EntityResolver resolver,  PermissionController permissionController)  {
+
+    /**
+     * @param incremental if set, the appointment blocks of each allocatable are kept in an interval index and a change only
+     * intersects the changed appointments with the index. Otherwise all conflicts of a changed allocatable are recalculated with a full sweep.
+     */
+    public ConflictFinder( AllocationMap  allocationMap, Date today, Logger logger, EntityResolver resolver,  PermissionController permissionController, boolean incremental)  {
     	this.logger = logger;
     	this.allocationMap = allocationMap;
         this.permissionController = permissionController;
+        this.incremental = incremental;
     	conflictMap = new HashMap<>();
     	long startTime = System.currentTimeMillis();
     	int conflictSize = 0;
@@ -97,11 +107,24 @@ class ConflictFinder {
 
     private Map<ReferenceInfo<Conflict>,Conflict> calculateConflicts(Allocatable allocatable,Date today )
     {
+        blockIndexMap.remove( allocatable.getReference());
         if ( isConflictIgnored(allocatable))
         {
             return Collections.emptyMap();
         }
         Set<Appointment> allAppointments = allocationMap.getAppointments(allocatable);
+        if ( incremental)
+        {
+            // an empty index is stored as well, so the next change on that allocatable can be processed incrementally
+            BlockIndex index = new BlockIndex( today);
+            Map<ReferenceInfo<Conflict>,Conflict> conflictList = updateConflicts(allocatable, today, allAppointments, index);
+            blockIndexMap.put( allocatable.getReference(), index);
+            if ( conflictList.isEmpty())
+            {
+                return Collections.emptyMap();
+            }
+            return conflictList;
+        }
 //        Set<Appointment> changedAppointments;
 //        Set<Appointment> removedAppointments;
 //        if ( change == null)
@@ -231,8 +254,12 @@ class ConflictFinder {
 //    }
     
     private  Map<ReferenceInfo<Conflict>,Conflict>  updateConflicts(Allocatable allocatable, Date today, Set<Appointment> allAppointments) {
+        return updateConflicts(allocatable, today, allAppointments, null);
+    }
+
+    private  Map<ReferenceInfo<Conflict>,Conflict>  updateConflicts(Allocatable allocatable, Date today, Set<Appointment> allAppointments, BlockIndex index) {
         Collection<AppointmentBlock> allAppointmentBlocks = new LinkedList<>();
-        createBlocks(today,allAppointments,allAppointmentBlocks);
+        createBlocks(today,allAppointments,allAppointmentBlocks, index);
 //        Collection<AppointmentBlock> appointmentBlocks =  new LinkedList<AppointmentBlock>();
 //        createBlocks(today,changedAppointments,appointmentBlocks, null);
 //        long startTime = 0;
@@ -413,51 +440,269 @@ class ConflictFinder {
 //        return( idList.contains( appointment1) || idList.contains( appointment2));
 //	}
 	
-    private void createBlocks(Date today, Collection<Appointment> appointmentSet,  Collection<AppointmentBlock> allAppointmentBlocks) {
-        // overlaps will be checked  260 weeks (5 years) from now on
-		long maxCheck = System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 260;
+    private void createBlocks(Date today, Collection<Appointment> appointmentSet,  Collection<AppointmentBlock> allAppointmentBlocks, BlockIndex index) {
 		//Appointment last = appointmentSet.last();
 		
 		// Get all time blocks of all appointments
 		for (Appointment appointment:appointmentSet)
 		{
-			// Get the end date of the appointment (if repeating, end date of last occurence)
-			Date maxEnd = appointment.getMaxEnd();
-		       // Check if the appointment is repeating forever
-            if ( maxEnd == null || maxEnd.getTime() > maxCheck)
+		    if ( index == null)
+		    {
+		        createBlocks( today, appointment, allAppointmentBlocks);
+		    }
+		    else
+		    {
+		        Collection<AppointmentBlock> blocks = index.add( appointment, today);
+		        allAppointmentBlocks.addAll( blocks);
+		    }
+		}
+    }
+
+    private static void createBlocks(Date today, Appointment appointment, Collection<AppointmentBlock> appointmentBlocks) {
+        // overlaps will be checked  260 weeks (5 years) from today on. We use today instead of the current time, so that the
+        // incremental and the full calculation check the same period
+        long maxCheck = today.getTime() + DateTools.MILLISECONDS_PER_WEEK * 260;
+        // Get the end date of the appointment (if repeating, end date of last occurence)
+        Date maxEnd = appointment.getMaxEnd();
+        // Check if the appointment is repeating forever
+        if ( maxEnd == null || maxEnd.getTime() > maxCheck)
+        {
+            // If the repeating has no end, set the end to the start of the last appointment in the set + 100 weeks (~2 years)
+            maxEnd = new Date(maxCheck);
+        }
+        if ( maxEnd.before( today))
+        {
+            return;
+        }
+
+        if ( RaplaComponent.isTemplate(appointment.getReservation()))
+        {
+            return;
+        }
+
+        Reservation r1 = appointment.getReservation();
+        DynamicType type1 = r1 != null ? r1.getClassification().getType() : null;
+        String annotation1 = ConflictImpl.getConflictAnnotation( type1);
+        if ( ConflictImpl.isNoConflicts( annotation1 ) )
+        {
+            return;
+        }
+        /*
+         * If the appointment has a repeating, get all single time blocks of it. If it is no
+         * repeating, this will just createInfoDialog one block, which is equal to the appointment
+         * itself.
+         */
+        Date start = appointment.getStart();
+        if ( start.before( today))
+        {
+            start = today;
+        }
+        ((AppointmentImpl)appointment).createBlocks(start, DateTools.fillDate(maxEnd), appointmentBlocks);
+    }
+
+    /** the appointment blocks of all appointments of an allocatable that are relevant for conflict detection at the passed day.*/
+    static class BlockIndex
+    {
+        final Date today;
+        final IntervalST<AppointmentBlock> blocks = new IntervalST<>(AppointmentBlock::compareTo);
+        // we store the appointment instance together with its blocks to detect changes of the allocation map by comparing instances
+        final Map<ReferenceInfo<Appointment>,IndexedAppointment> appointments = new HashMap<>();
+
+        BlockIndex(Date today)
+        {
+            this.today = today;
+        }
+
+        Collection<AppointmentBlock> add(Appointment appointment, Date today)
+        {
+            IndexedAppointment indexed = new IndexedAppointment( appointment);
+            createBlocks(today, appointment, indexed.blocks);
+            for (AppointmentBlock block : indexed.blocks)
+            {
+                blocks.put(block.getStart(), block.getEnd(), block);
+            }
+            appointments.put(appointment.getReference(), indexed);
+            return indexed.blocks;
+        }
+
+        void remove(ReferenceInfo<Appointment> appointmentRef)
+        {
+            IndexedAppointment indexed = appointments.remove( appointmentRef);
+            if ( indexed == null)
+            {
+                return;
+            }
+            for (AppointmentBlock block : indexed.blocks)
+            {
+                blocks.remove(block.getStart(), block.getEnd(), block);
+            }
+        }
+    }
+
+    static class IndexedAppointment
+    {
+        final Appointment appointment;
+        final List<AppointmentBlock> blocks = new ArrayList<>();
+
+        IndexedAppointment(Appointment appointment)
+        {
+            this.appointment = appointment;
+        }
+    }
+
+    // a pair of appointments with intersecting blocks. The flags store which appointment started first in one of the intersections,
+    // because the sweep line checks the overlapping from the appointment that started first
+    static class ConflictCandidate
+    {
+        final Appointment changed;
+        final Appointment other;
+        boolean changedStartsFirst;
+        boolean otherStartsFirst;
+
+        ConflictCandidate(Appointment changed, Appointment other)
+        {
+            this.changed = changed;
+            this.other = other;
+        }
+    }
+
+    /** calculates the conflicts of the allocatable by only intersecting the changed appointments with the block index.
+     * Produces the same conflicts as the full sweep over all appointments, as long as the index was built on the same day.*/
+    private Map<ReferenceInfo<Conflict>,Conflict> updateConflictsIncremental(Allocatable allocatable, BlockIndex index, AllocationChange change, Map<ReferenceInfo<Conflict>,Conflict> conflictListBefore)
+    {
+        final Date today = index.today;
+        Set<Appointment> allAppointments = allocationMap.getAppointments(allocatable);
+        // the changed appointments passed from the binding update
+        Set<ReferenceInfo<Appointment>> changed = new HashSet<>();
+        for (Appointment appointment : change.toChange)
+        {
+            changed.add(appointment.getReference());
+        }
+        for (Appointment appointment : change.toRemove)
+        {
+            changed.add(appointment.getReference());
+        }
+        // we also need to process the appointments that changed without notice, e.g. changes in the belongsTo or package allocatables
+        Set<ReferenceInfo<Appointment>> current = new HashSet<>(allAppointments.size());
+        for (Appointment appointment : allAppointments)
+        {
+            final ReferenceInfo<Appointment> reference = appointment.getReference();
+            current.add(reference);
+            final IndexedAppointment indexed = index.appointments.get(reference);
+            if (indexed == null || indexed.appointment != appointment)
+            {
+                changed.add(reference);
+            }
+        }
+        for (ReferenceInfo<Appointment> reference : index.appointments.keySet())
+        {
+            if (!current.contains(reference))
+            {
+                changed.add(reference);
+            }
+        }
+
+        // all conflicts between unchanged appointments stay the same
+        Map<ReferenceInfo<Conflict>,Conflict> conflictList = new HashMap<>();
+        for (Conflict conflict : conflictListBefore.values())
+        {
+            if (!changed.contains(conflict.getAppointment1()) && !changed.contains(conflict.getAppointment2()))
+            {
+                conflictList.put(conflict.getReference(), conflict);
+            }
+        }
+        if (changed.isEmpty())
+        {
+            return conflictList;
+        }
+        for (ReferenceInfo<Appointment> reference : changed)
+        {
+            index.remove(reference);
+        }
+        List<IndexedAppointment> changedAppointments = new ArrayList<>();
+        for (Appointment appointment : allAppointments)
+        {
+            if (changed.contains(appointment.getReference()))
             {
-                // If the repeating has no end, set the end to the start of the last appointment in the set + 100 weeks (~2 years)
-                maxEnd = new Date(maxCheck); 
+                index.add(appointment, today);
+                changedAppointments.add(index.appointments.get(appointment.getReference()));
             }
-            if ( maxEnd.before( today))
+        }
+
+        // now intersect the blocks of the changed appointments with the index
+        Map<String,ConflictCandidate> candidates = new LinkedHashMap<>();
+        List<AppointmentBlock> intersecting = new ArrayList<>();
+        for (IndexedAppointment indexed : changedAppointments)
+        {
+            final Appointment appointment1 = indexed.appointment;
+            for (AppointmentBlock appBlock : indexed.blocks)
+            {
+                // blocks without duration are never added to the sweep line
+                if (appBlock.getStart() >= appBlock.getEnd())
+                {
+                    continue;
+                }
+                intersecting.clear();
+                index.blocks.searchAll(appBlock.getStart(), appBlock.getEnd(), intersecting);
+                for (AppointmentBlock appBlock2 : intersecting)
+                {
+                    final Appointment appointment2 = appBlock2.getAppointment();
+                    if (appBlock == appBlock2 || appBlock2.getStart() >= appBlock2.getEnd() || appointment1.equals(appointment2))
+                    {
+                        continue;
+                    }
+                    String id = ConflictImpl.createId(allocatable.getReference(), appointment1.getReference(), appointment2.getReference());
+                    ConflictCandidate candidate = candidates.get(id);
+                    if (candidate == null)
+                    {
+                        candidate = new ConflictCandidate(appointment1, appointment2);
+                        candidates.put(id, candidate);
+                    }
+                    // if both appointments are changed, the candidate can also be found from the other appointment
+                    boolean sameOrder = candidate.changed == appointment1;
+                    if (appBlock.getStart() <= appBlock2.getStart())
+                    {
+                        if (sameOrder)
+                            candidate.changedStartsFirst = true;
+                        else
+                            candidate.otherStartsFirst = true;
+                    }
+                    if (appBlock2.getStart() <= appBlock.getStart())
+                    {
+                        if (sameOrder)
+                            candidate.otherStartsFirst = true;
+                        else
+                            candidate.changedStartsFirst = true;
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String,ConflictCandidate> entry : candidates.entrySet())
+        {
+            String id = entry.getKey();
+            ConflictCandidate candidate = entry.getValue();
+            final ConflictImpl conflict;
+            if (candidate.otherStartsFirst && isConflict(candidate.changed, candidate.other, today))
+            {
+                conflict = new ConflictImpl(allocatable, candidate.changed, candidate.other, today, id);
+            }
+            else if (candidate.changedStartsFirst && isConflict(candidate.other, candidate.changed, today))
+            {
+                conflict = new ConflictImpl(allocatable, candidate.other, candidate.changed, today, id);
+            }
+            else
             {
                 continue;
             }
-   		
-			if ( RaplaComponent.isTemplate(appointment.getReservation()))
-			{
-			    continue;
-			}
-			
-			Reservation r1 = appointment.getReservation();
-	        DynamicType type1 = r1 != null ? r1.getClassification().getType() : null;
-	        String annotation1 = ConflictImpl.getConflictAnnotation( type1);
-	        if ( ConflictImpl.isNoConflicts( annotation1 ) )
-	        {
-	            continue;
-	        }
-			/*
-			 * If the appointment has a repeating, get all single time blocks of it. If it is no
-			 * repeating, this will just createInfoDialog one block, which is equal to the appointment
-			 * itself.
-			 */
-			Date start = appointment.getStart();
-			if ( start.before( today))
-			{
-			    start = today;
-			}
-            ((AppointmentImpl)appointment).createBlocks(start, DateTools.fillDate(maxEnd), allAppointmentBlocks);
-		}
+            conflictList.put(conflict.getReference(), conflict);
+        }
+        return conflictList;
+    }
+
+    // same check as in the sweep line, appointment2 is the appointment that starts first
+    private static boolean isConflict(Appointment appointment1, Appointment appointment2, Date today)
+    {
+        return appointment2.overlapsAppointment(appointment1) && ConflictImpl.isConflictWithoutCheck(appointment1, appointment2, today);
     }
 
 
@@ -485,6 +730,17 @@ class ConflictFinder {
 		return conflictList;
 	}
 
+	/** returns all conflicts of the allocatable without a permission check */
+	public Collection<Conflict> getConflictsOf(ReferenceInfo<Allocatable> allocatable)
+	{
+		Map<ReferenceInfo<Conflict>,Conflict> set = conflictMap.get( allocatable);
+		if ( set == null)
+		{
+			return Collections.emptyList();
+		}
+		return set.values();
+	}
+
 
 	private boolean endsBefore(Conflict conflict,Date date )
 	{
@@ -569,12 +825,15 @@ class ConflictFinder {
         Collection<ConflictChangeOperation> conflictChanges = new ArrayList<>();
         Map<ReferenceInfo<Allocatable>, AllocationChange> toUpdate = bindingsResult.toUpdate;
         Collection<ReferenceInfo<Allocatable>> removedAllocatables = bindingsResult.removedAllocatables;
+        // conflicts of changed allocatables are always recalculated, because the full calculation would create them with the new allocatable
+        Set<ReferenceInfo<Allocatable>> changedAllocatables = new HashSet<>();
 		for (UpdateResult.Change change:currentUpdateResult.getOperations(UpdateResult.Change.class))
 		{
 		    ReferenceInfo nextId = change.getReference();
 			if ( nextId.getType() == Allocatable.class)
 			{
                 final ReferenceInfo<Allocatable> allocatableId = (ReferenceInfo<Allocatable>) nextId;
+                changedAllocatables.add( allocatableId);
                 Allocatable current = currentUpdateResult.getLastKnown(allocatableId);
                 Allocatable old = currentUpdateResult.getLastEntryBeforeUpdate(allocatableId);
 				Allocatable newAlloc = current;
@@ -613,10 +872,21 @@ class ConflictFinder {
     		}
             Allocatable allocatable = resolver.tryResolve( allocatableId);
 			Map<ReferenceInfo<Conflict>,Conflict> conflictListAfter;
-            if  (allocatable != null)
-             conflictListAfter = calculateConflicts( allocatable , today);
+            BlockIndex index = blockIndexMap.get( allocatableId);
+            if ( allocatable == null)
+            {
+                blockIndexMap.remove( allocatableId);
+                conflictListAfter= Collections.emptyMap();
+            }
+            // we can't use the index if the day changed or if all conflicts of the allocatable need to be recalculated
+            else if (index != null && changedAppointments != null && index.today.equals( today) && !changedAllocatables.contains( allocatableId))
+            {
+                conflictListAfter = updateConflictsIncremental( allocatable, index, changedAppointments, conflictListBefore);
+            }
             else
-             conflictListAfter= Collections.emptyMap();
+            {
+                conflictListAfter = calculateConflicts( allocatable , today);
+            }
 			conflictMap.put( allocatableId, conflictListAfter);
 			//User user = evt.getUserFromRequest();
 		
@@ -711,6 +981,7 @@ class ConflictFinder {
                 logger.error("Removing non empty conflict map for resource " +  alloc + " Appointments:" + sortedSet);
             }
             conflictMap.remove( alloc);
+            blockIndexMap.remove( alloc);
         }
 
 
@@ -0,0 +1,163 @@
+package org.rapla.storage.impl.server;
+
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Category;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.Conflict;
+import org.rapla.storage.PermissionController;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Remembers for each user the conflicts the user can modify, ordered by id, so a paged conflict query doesn't check the permissions of
+ * all conflicts on every call.
+ * <p>
+ * An entry is brought up to date with the changes since its last use: changed conflicts and the conflicts of changed allocatables are
+ * checked again, removed conflicts are dropped. A change of a category or a type or a new version of the user rebuilds the entry.
+ * Other changes, e.g. of a template, can change the permission of a conflict without a change entry, so an entry is rebuilt after
+ * {@link #MAX_STALENESS} at the latest. Must only be used with the read lock of the operator.
+ * <p>
+ * The map of an entry is never modified after it was returned, an update works on a copy, so the callers can iterate it without a lock.
+ */
+final class ConflictVisibilityIndex
+{
+    /** the maximum age of an entry */
+    static final long MAX_STALENESS = 5 * DateTools.MILLISECONDS_PER_MINUTE;
+    /** the number of users with an entry, the least recently used entry is dropped first */
+    private static final int MAX_USERS = 100;
+
+    private final PermissionController permissionController;
+    private final ConflictFinder conflictFinder;
+    private final Map<String, UserConflicts> entries = new LinkedHashMap<String, UserConflicts>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UserConflicts> eldest)
+        {
+            return size() > MAX_USERS;
+        }
+    };
+
+    private static final class UserConflicts
+    {
+        final User user;
+        final long created;
+        NavigableMap<String, Conflict> visible = new TreeMap<>();
+        boolean copied;
+        Date synched;
+
+        UserConflicts(User user, Date now)
+        {
+            this.user = user;
+            this.created = now.getTime();
+            this.synched = now;
+        }
+    }
+
+    ConflictVisibilityIndex(PermissionController permissionController, ConflictFinder conflictFinder)
+    {
+        this.permissionController = permissionController;
+        this.conflictFinder = conflictFinder;
+    }
+
+    /**
+     * returns the conflicts the user can modify ordered by id. The result must not be modified.
+     * @param now the current server time
+     * @param changesSince returns the references of all entities that changed or were removed after the passed date
+     */
+    synchronized NavigableMap<String, Conflict> getVisibleConflicts(User user, Date now, Function<Date, Collection<ReferenceInfo>> changesSince)
+    {
+        final String userId = user.getId();
+        UserConflicts entry = entries.get(userId);
+        if (entry == null || entry.user != user || now.getTime() - entry.created > MAX_STALENESS || !update(entry, changesSince.apply(entry.synched)))
+        {
+            entry = new UserConflicts(user, now);
+            for (Conflict conflict : conflictFinder.getConflicts(user))
+            {
+                entry.visible.put(conflict.getId(), conflict);
+            }
+            entries.put(userId, entry);
+        }
+        entry.synched = now;
+        entry.copied = false;
+        return entry.visible;
+    }
+
+    /** @return false if the entry needs to be rebuilt */
+    private boolean update(UserConflicts entry, Collection<ReferenceInfo> changes)
+    {
+        for (ReferenceInfo reference : changes)
+        {
+            final Class<? extends Entity> type = reference.getType();
+            if (type == Category.class || type == DynamicType.class)
+            {
+                return false;
+            }
+            if (type == Conflict.class)
+            {
+                @SuppressWarnings("unchecked")
+                final Conflict conflict = conflictFinder.findConflict((ReferenceInfo<Conflict>) reference);
+                update(entry, reference.getId(), conflict);
+            }
+            else if (type == Allocatable.class)
+            {
+                final String allocatableId = reference.getId();
+                final List<String> toRemove = new ArrayList<>();
+                for (Conflict conflict : entry.visible.values())
+                {
+                    if (conflict.getAllocatableId().getId().equals(allocatableId))
+                    {
+                        toRemove.add(conflict.getId());
+                    }
+                }
+                for (String conflictId : toRemove)
+                {
+                    getVisibleForUpdate(entry).remove(conflictId);
+                }
+                @SuppressWarnings("unchecked")
+                final ReferenceInfo<Allocatable> allocatable = (ReferenceInfo<Allocatable>) reference;
+                for (Conflict conflict : conflictFinder.getConflictsOf(allocatable))
+                {
+                    update(entry, conflict.getId(), conflict);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void update(UserConflicts entry, String conflictId, Conflict conflict)
+    {
+        if (conflict != null && permissionController.canModify(conflict, entry.user))
+        {
+            if (entry.visible.get(conflictId) != conflict)
+            {
+                getVisibleForUpdate(entry).put(conflictId, conflict);
+            }
+        }
+        else if (entry.visible.containsKey(conflictId))
+        {
+            getVisibleForUpdate(entry).remove(conflictId);
+        }
+    }
+
+    private NavigableMap<String, Conflict> getVisibleForUpdate(UserConflicts entry)
+    {
+        if (!entry.copied)
+        {
+            entry.visible = new TreeMap<>(entry.visible);
+            entry.copied = true;
+        }
+        return entry.visible;
+    }
+}
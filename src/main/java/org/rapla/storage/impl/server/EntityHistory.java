@@ -13,12 +13,16 @@ import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.UserImpl;
 import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.entities.storage.internal.SimpleEntity;
 import org.rapla.facade.Conflict;
 import org.rapla.facade.internal.ConflictImpl;
 import org.rapla.framework.RaplaException;
 import org.rapla.rest.JsonParserWrapper;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -28,6 +32,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class EntityHistory
 {
@@ -46,7 +53,9 @@ public class EntityHistory
     {
         private long timestamp;
         ReferenceInfo ref;
-        private String json;
+        /** the json of the entity as utf-8, deflated if it is longer than COMPRESS_THRESHOLD*/
+        private byte[] data;
+        private boolean compressed;
         private boolean isDelete;
 
         private HistoryEntry()
@@ -59,7 +68,28 @@ public class EntityHistory
             this.ref = id;
             this.isDelete = isDelete;
             this.timestamp = timestamp;
-            this.json = json;
+            if (json != null)
+            {
+                final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+                compressed = bytes.length > COMPRESS_THRESHOLD;
+                data = compressed ? deflate(bytes) : bytes;
+            }
+        }
+
+        String getJson()
+        {
+            if (data == null)
+            {
+                return null;
+            }
+            final byte[] bytes = compressed ? inflate(data) : data;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** @return the number of bytes used to store the json */
+        int getSize()
+        {
+            return data != null ? data.length : 0;
         }
 
         public ReferenceInfo getId()
@@ -83,8 +113,24 @@ public class EntityHistory
         }
     }
 
+    /** json strings shorter than this are stored uncompressed, as deflate has no gain on them */
+    static final int COMPRESS_THRESHOLD = 128;
+    /** number of decoded entities kept for repeated get calls */
+    static final int DECODED_CACHE_SIZE = 500;
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
     private final Map<ReferenceInfo, List<EntityHistory.HistoryEntry>> map = new LinkedHashMap<>();
     private final JsonParserWrapper.JsonParser gson;
+    // get is called from multiple readers, so the access order of the lru must be synchronized
+    private final Map<HistoryEntry, Entity> decoded = Collections.synchronizedMap(new LinkedHashMap<HistoryEntry, Entity>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HistoryEntry, Entity> eldest)
+        {
+            return size() > DECODED_CACHE_SIZE;
+        }
+    });
 
     public EntityHistory()
     {
@@ -107,7 +153,7 @@ public class EntityHistory
         return result;
     }
 
-    /** returns the history entry with a timestamp<= since or null if no such entry exists*/
+    /** returns the history entry with a timestamp<= since or null if no such entry exists. The returned entity is read only and may be shared with other callers*/
     public Entity get(ReferenceInfo id, Date since) throws RaplaException
     {
         final List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
@@ -133,7 +179,7 @@ public class EntityHistory
             final Date lastChanged = getLastChanged(entry);
             if ( lastChanged.before( since))
             {
-                return getEntity( entry);
+                return getDecodedEntity( entry);
             }
             else
                 {
@@ -141,7 +187,7 @@ public class EntityHistory
             }
         }
         EntityHistory.HistoryEntry entry = historyEntries.get(index);
-        final Entity entity = getEntity(entry);
+        final Entity entity = getDecodedEntity(entry);
         if ( index >=0)
         {
             // if two history entries have the same timestamp
@@ -157,7 +203,7 @@ public class EntityHistory
             }
             if (entryBefore != null && entryBefore.getTimestamp() == entry.getTimestamp())
             {
-                Entity otherEntity = getEntity( entryBefore);
+                Entity otherEntity = getDecodedEntity( entryBefore);
                 final Date lastChanged1 = ((Timestamp) entity).getLastChanged();
                 final Date lastChanged2= ((Timestamp) (otherEntity)).getLastChanged();
                 // we return the newest change
@@ -189,15 +235,79 @@ public class EntityHistory
         typeImpl.put(type, impl);
     }
 
+    /** returns a new instance of the entity stored in the entry, that can be modified by the caller*/
     public Entity getEntity(HistoryEntry entry)
     {
-        String json = entry.json;
-        final Class typeClass = entry.getId().getType();
+        return getEntity(entry.getId(), entry.getJson());
+    }
+
+    /** parses the json of a history entry, so the caller can decode an entity before or without adding it to the history */
+    public Entity getEntity(ReferenceInfo id, String json)
+    {
+        final Class typeClass = id.getType();
         final Class<? extends Entity> implementingClass = typeImpl.get(typeClass);
         final Entity entity = gson.fromJson(json, implementingClass);
         return entity;
     }
 
+    /** returns a read only instance of the entity stored in the entry, the last DECODED_CACHE_SIZE decoded entities are reused*/
+    private Entity getDecodedEntity(HistoryEntry entry)
+    {
+        Entity entity = decoded.get(entry);
+        if (entity == null)
+        {
+            entity = getEntity(entry);
+            if (entity instanceof SimpleEntity)
+            {
+                ((SimpleEntity) entity).setReadOnly();
+            }
+            decoded.put(entry, entity);
+        }
+        return entity;
+    }
+
+    private static byte[] deflate(byte[] bytes)
+    {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        final byte[] buffer = new byte[1024];
+        while (!deflater.finished())
+        {
+            final int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data)
+    {
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        final byte[] buffer = new byte[1024];
+        try
+        {
+            while (!inflater.finished())
+            {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IllegalStateException("Corrupt history entry");
+                }
+                out.write(buffer, 0, length);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IllegalStateException("Corrupt history entry", e);
+        }
+        return out.toByteArray();
+    }
+
     public EntityHistory.HistoryEntry addHistoryEntry(ReferenceInfo id, String json, Date timestamp, boolean isDelete)
     {
         List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
@@ -228,8 +338,8 @@ public class EntityHistory
             }
             else if (timestamp == newEntry.timestamp)
             {
-                final String json = newEntry.json;
-                if (json != null && !json.equals( lastEntry.json))
+                final byte[] data = newEntry.data;
+                if (data != null && !Arrays.equals(data, lastEntry.data))
                 {
                     Date lastChanged1 = getLastChanged(newEntry);
                     Date lastChanged2 = getLastChanged(lastEntry);
@@ -252,17 +362,23 @@ public class EntityHistory
 
     private Date getLastChanged(HistoryEntry newEntry)
     {
-        final Entity entity = getEntity(newEntry);
+        final Entity entity = getDecodedEntity(newEntry);
         return((Timestamp)entity).getLastChanged();
     }
 
     public EntityHistory.HistoryEntry addHistoryEntry(Entity entity, Date timestamp, boolean isDelete)
     {
         final ReferenceInfo id = entity.getReference();
-        final String json = gson.toJson(entity);
+        final String json = toJson(entity);
         return addHistoryEntry(id, json, timestamp, isDelete);
     }
 
+    /** serializes the entity in the format of the history. Can be called from multiple threads */
+    public String toJson(Entity entity)
+    {
+        return gson.toJson(entity);
+    }
+
     public EntityHistory.HistoryEntry addHistoryDeleteEntry(Entity entity, Date timestamp, boolean isDelete)
     {
         final ReferenceInfo id = entity.getReference();
@@ -273,6 +389,7 @@ public class EntityHistory
     public void clear()
     {
         map.clear();
+        decoded.clear();
     }
 
     List<HistoryEntry> getHistoryList(ReferenceInfo key)
@@ -289,7 +406,7 @@ public class EntityHistory
             final List<HistoryEntry> list = map.get(key);
             while (list.size() >= 2 && list.get(1).timestamp < time)
             {
-                list.remove(0);
+                decoded.remove(list.remove(0));
             }
         }
     }
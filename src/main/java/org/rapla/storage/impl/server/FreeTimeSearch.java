@@ -0,0 +1,172 @@
+package org.rapla.storage.impl.server;
+
+import org.rapla.entities.domain.internal.OccurrenceIterator;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Finds free slots in the busy times of a set of allocatables. The busy intervals are collected once with {@link #addBusy} and merged
+ * into a sorted list of disjoint intervals, the gaps between them are the free times. {@link #findFreeSlots} walks the candidate starts
+ * and the busy list in a single pass and jumps over a busy interval instead of testing every candidate inside it.
+ * <p>
+ * Two intervals overlap if one starts before the other ends, so a slot that ends when a busy interval starts is free. This is the same
+ * rule as in {@link org.rapla.entities.domain.Appointment#overlapsAppointment}.
+ * The search is not thread safe and meant to be used for a single request.
+ */
+final class FreeTimeSearch
+{
+    private long[] busyStarts = new long[64];
+    private long[] busyEnds = new long[64];
+    private int size;
+    private boolean merged = true;
+
+    /** marks the interval from start to end as busy. The intervals can be added in any order and may overlap */
+    void addBusy(long start, long end)
+    {
+        if (end < start)
+        {
+            return;
+        }
+        if (size == busyStarts.length)
+        {
+            busyStarts = Arrays.copyOf(busyStarts, size * 2);
+            busyEnds = Arrays.copyOf(busyEnds, size * 2);
+        }
+        busyStarts[size] = start;
+        busyEnds[size] = end;
+        size++;
+        merged = false;
+    }
+
+    /** @return the number of disjoint busy intervals */
+    int getBusyCount()
+    {
+        merge();
+        return size;
+    }
+
+    private void merge()
+    {
+        if (merged)
+        {
+            return;
+        }
+        merged = true;
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+        {
+            order[i] = i;
+        }
+        final long[] starts = busyStarts;
+        final long[] ends = busyEnds;
+        Arrays.sort(order, (i1, i2) -> Long.compare(starts[i1], starts[i2]));
+        final long[] mergedStarts = new long[Math.max(size, 16)];
+        final long[] mergedEnds = new long[mergedStarts.length];
+        int count = 0;
+        for (Integer index : order)
+        {
+            final long start = starts[index];
+            final long end = ends[index];
+            if (count > 0 && start <= mergedEnds[count - 1])
+            {
+                mergedEnds[count - 1] = Math.max(mergedEnds[count - 1], end);
+            }
+            else
+            {
+                mergedStarts[count] = start;
+                mergedEnds[count] = end;
+                count++;
+            }
+        }
+        busyStarts = mergedStarts;
+        busyEnds = mergedEnds;
+        size = count;
+    }
+
+    /** @return the index of the first busy interval that ends after time, or the number of intervals if there is none */
+    private int firstEndingAfter(long time)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (busyEnds[mid] <= time)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** @return true if the interval from start to end overlaps no busy interval */
+    boolean isFree(long start, long end)
+    {
+        merge();
+        final int index = firstEndingAfter(start);
+        return index >= size || busyStarts[index] >= end;
+    }
+
+    /** @return true if none of the occurrences that are not exceptions overlaps a busy interval */
+    boolean isFree(OccurrenceIterator occurrences)
+    {
+        while (occurrences.next())
+        {
+            if (!occurrences.isException() && !isFree(occurrences.getStart(), occurrences.getEnd()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * searches the first free slots of the passed length. The candidates are firstStart + i * step for i from 1 to candidateCount.
+     * @param accept decides if a candidate start is allowed at all, e.g. if it is in the worktime. Can be null
+     * @param maxResults the search stops after this number of free slots
+     * @return the starts of the free slots in ascending order
+     */
+    long[] findFreeSlots(long firstStart, long step, int candidateCount, long length, LongPredicate accept, int maxResults)
+    {
+        if (step <= 0)
+        {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        merge();
+        long[] result = new long[Math.min(Math.max(maxResults, 0), 16)];
+        int resultCount = 0;
+        int busyIndex = 0;
+        long i = 1;
+        while (i <= candidateCount && resultCount < maxResults)
+        {
+            final long start = firstStart + i * step;
+            // the candidates are ascending, so the busy intervals that end before this candidate are never needed again
+            while (busyIndex < size && busyEnds[busyIndex] <= start)
+            {
+                busyIndex++;
+            }
+            if (busyIndex < size && busyStarts[busyIndex] < start + length)
+            {
+                // continue with the first candidate that starts at or after the end of the busy interval
+                final long distance = busyEnds[busyIndex] - firstStart;
+                i = Math.max(i + 1, (distance + step - 1) / step);
+                continue;
+            }
+            if (accept == null || accept.test(start))
+            {
+                if (resultCount == result.length)
+                {
+                    result = Arrays.copyOf(result, resultCount * 2);
+                }
+                result[resultCount++] = start;
+            }
+            i++;
+        }
+        return Arrays.copyOf(result, resultCount);
+    }
+}
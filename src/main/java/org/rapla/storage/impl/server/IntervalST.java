@@ -0,0 +1,242 @@
+package org.rapla.storage.impl.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *  The <tt>IntervalST</tt> class stores values together with a half open time interval [lo, hi)
+ *  and returns all values whose interval intersects a query interval.
+ *  <p>
+ *  This implementation uses a randomized binary search tree (a treap) ordered by the lower endpoint
+ *  and augmented with the maximum upper endpoint of each subtree, as described in
+ *  <i>Introduction to Algorithms</i> by Cormen et al.
+ *  The <em>put</em> and <em>remove</em> operations take expected logarithmic time,
+ *  the <em>searchAll</em> operation takes expected time proportional to log n + k,
+ *  where k is the number of reported intervals.
+ *  <p>
+ *  Entries with the same lower and upper endpoint are ordered by the passed comparator,
+ *  so the comparator must only return 0 for equal values.
+ *  <p>
+ *  An empty interval [lo, lo) is treated as the point lo, so it intersects every query interval that contains lo,
+ *  including a query that starts at lo.
+ */
+public class IntervalST<Value> {
+    private final Comparator<? super Value> comparator;
+    private final Random random = new Random(0);
+    private Node root;
+
+    private class Node {
+        final long lo;
+        final long hi;
+        final Value value;
+        final int priority;
+        long max;
+        int size = 1;
+        Node left, right;
+
+        Node(long lo, long hi, Value value, int priority) {
+            this.lo = lo;
+            this.hi = hi;
+            this.value = value;
+            this.priority = priority;
+            this.max = hi;
+        }
+    }
+
+    /**
+     * Initializes an empty interval tree.
+     * @param comparator the order of values that share the same interval
+     */
+    public IntervalST(Comparator<? super Value> comparator) {
+        this.comparator = comparator;
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * Inserts the value with the interval [lo, hi).
+     * @throws IllegalArgumentException if hi is smaller than lo
+     */
+    public void put(long lo, long hi, Value value) {
+        if (hi < lo) {
+            throw new IllegalArgumentException("Illegal interval " + lo + "-" + hi);
+        }
+        root = put(root, new Node(lo, hi, value, random.nextInt()));
+    }
+
+    private Node put(Node x, Node node) {
+        if (x == null) {
+            return node;
+        }
+        if (compare(node.lo, node.hi, node.value, x) < 0) {
+            x.left = put(x.left, node);
+            if (x.left.priority > x.priority) {
+                x = rotR(x);
+            }
+        } else {
+            x.right = put(x.right, node);
+            if (x.right.priority > x.priority) {
+                x = rotL(x);
+            }
+        }
+        fix(x);
+        return x;
+    }
+
+    /**
+     * Removes the value that was inserted with the interval [lo, hi).
+     * @return true if the value was found
+     */
+    public boolean remove(long lo, long hi, Value value) {
+        int sizeBefore = size();
+        root = remove(root, lo, hi, value);
+        return size() < sizeBefore;
+    }
+
+    private Node remove(Node x, long lo, long hi, Value value) {
+        if (x == null) {
+            return null;
+        }
+        int cmp = compare(lo, hi, value, x);
+        if (cmp < 0) {
+            x.left = remove(x.left, lo, hi, value);
+        } else if (cmp > 0) {
+            x.right = remove(x.right, lo, hi, value);
+        } else {
+            x = join(x.left, x.right);
+        }
+        fix(x);
+        return x;
+    }
+
+    // joins two subtrees where every key in a is smaller than every key in b
+    private Node join(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = join(a.right, b);
+            fix(a);
+            return a;
+        } else {
+            b.left = join(a, b.left);
+            fix(b);
+            return b;
+        }
+    }
+
+    /**
+     * Adds all values whose interval intersects the half open interval [lo, hi) to the result.
+     * Values with an empty interval that starts at lo are included.
+     */
+    public void searchAll(long lo, long hi, Collection<? super Value> result) {
+        searchAll(root, lo, hi, result);
+    }
+
+    /**
+     * @return all values whose interval intersects the half open interval [lo, hi).
+     */
+    public List<Value> searchAll(long lo, long hi) {
+        List<Value> result = new ArrayList<>();
+        searchAll(root, lo, hi, result);
+        return result;
+    }
+
+    private void searchAll(Node x, long lo, long hi, Collection<? super Value> result) {
+        // no interval in this subtree ends after lo and no empty interval can start at lo
+        if (x == null || x.max < lo) {
+            return;
+        }
+        searchAll(x.left, lo, hi, result);
+        // all intervals in the right subtree start after x.lo
+        if (x.lo >= hi) {
+            return;
+        }
+        if (x.hi > lo || (x.hi == lo && x.lo == lo)) {
+            result.add(x.value);
+        }
+        searchAll(x.right, lo, hi, result);
+    }
+
+    /**
+     * Adds all values in the order of their lower endpoint.
+     */
+    public void values(Collection<? super Value> result) {
+        values(root, result);
+    }
+
+    private void values(Node x, Collection<? super Value> result) {
+        if (x == null) {
+            return;
+        }
+        values(x.left, result);
+        result.add(x.value);
+        values(x.right, result);
+    }
+
+    private int compare(long lo, long hi, Value value, Node x) {
+        if (lo != x.lo) {
+            return lo < x.lo ? -1 : 1;
+        }
+        if (hi != x.hi) {
+            return hi < x.hi ? -1 : 1;
+        }
+        return comparator.compare(value, x.value);
+    }
+
+    private int size(Node x) {
+        return x == null ? 0 : x.size;
+    }
+
+    private void fix(Node x) {
+        if (x == null) {
+            return;
+        }
+        x.size = 1 + size(x.left) + size(x.right);
+        long max = x.hi;
+        if (x.left != null && x.left.max > max) {
+            max = x.left.max;
+        }
+        if (x.right != null && x.right.max > max) {
+            max = x.right.max;
+        }
+        x.max = max;
+    }
+
+    // right rotate
+    private Node rotR(Node h) {
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+        fix(h);
+        fix(x);
+        return x;
+    }
+
+    // left rotate
+    private Node rotL(Node h) {
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+        fix(h);
+        fix(x);
+        return x;
+    }
+
+}
@@ -55,6 +55,7 @@ import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.domain.ResourceAnnotations;
 import org.rapla.entities.domain.internal.AllocatableImpl;
 import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.entities.domain.internal.OccurrenceIterator;
 import org.rapla.entities.domain.internal.PermissionImpl;
 import org.rapla.entities.domain.internal.ReservationImpl;
 import org.rapla.entities.domain.permission.PermissionExtension;
@@ -84,9 +85,11 @@ import org.rapla.entities.storage.internal.SimpleEntity;
 import org.rapla.facade.CalendarModel;
 import org.rapla.facade.Conflict;
 import org.rapla.facade.RaplaComponent;
+import org.rapla.facade.internal.ConflictImpl;
 import org.rapla.framework.Disposable;
 import org.rapla.framework.RaplaException;
 import org.rapla.framework.RaplaLocale;
+import org.rapla.framework.RaplaSynchronizationException;
 import org.rapla.logger.Logger;
 import org.rapla.rest.JsonParserWrapper;
 import org.rapla.scheduler.CommandScheduler;
@@ -94,8 +97,10 @@ import org.rapla.scheduler.Promise;
 import org.rapla.scheduler.ResolvedPromise;
 import org.rapla.server.PromiseWait;
 import org.rapla.server.internal.TimeZoneConverterImpl;
+import org.rapla.storage.BulkStoreProgress;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.CachableStorageOperatorCommand;
+import org.rapla.storage.ConflictPage;
 import org.rapla.storage.IdCreator;
 import org.rapla.storage.LocalCache;
 import org.rapla.storage.PreferencePatch;
@@ -111,8 +116,12 @@ import org.rapla.storage.UpdateResult.Remove;
 import org.rapla.storage.impl.AbstractCachableOperator;
 import org.rapla.storage.impl.DefaultRaplaLock;
 import org.rapla.storage.impl.EntityStore;
+import org.rapla.storage.impl.LockStatistics;
 import org.rapla.storage.impl.RaplaLock;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -125,17 +134,28 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public abstract class LocalAbstractCachableOperator extends AbstractCachableOperator implements Disposable, CachableStorageOperator, IdCreator
@@ -159,12 +179,37 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
      */
     public static final long HISTORY_DURATION = DateTools.MILLISECONDS_PER_WEEK;
 
+    /** the number of days after the start of an appointment that are searched for a free slot */
+    static final int NEXT_ALLOCATABLE_DATE_SEARCH_DAYS = 366;
+
     /**
      * set encryption if you want to enable password encryption. Possible values
      * are "sha" or "md5".
      */
     private String encryption = "sha-1";
     private ConflictFinder conflictFinder;
+    private ConflictVisibilityIndex conflictVisibility;
+    private boolean incrementalConflictDetection = true;
+    /** queries with at least that many allocatables are processed in parallel*/
+    static final int PARALLEL_QUERY_THRESHOLD = 16;
+    static final int MAX_QUERY_THREADS = 8;
+    private ForkJoinPool queryPool;
+    /** updates with at least that many entities are checked for consistency in parallel */
+    static final int PARALLEL_VALIDATION_THRESHOLD = 256;
+    /** the number of entities that are written together in a {@link #storeBulk} */
+    protected static final int BULK_CHUNK_SIZE = 1000;
+    /** the number of sync dates whose changes are kept for the next client that syncs from the same date */
+    static final int MAX_UPDATE_DELTAS = 32;
+    private final Map<Date, UpdateDelta> updateDeltas = new LinkedHashMap<Date, UpdateDelta>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Date, UpdateDelta> eldest)
+        {
+            return size() > MAX_UPDATE_DELTAS;
+        }
+    };
+    /** serializes the dispatches, so the write lock on the cache is only needed while the changes are applied*/
+    private final ReentrantLock dispatchLock = new ReentrantLock();
     //private SortedSet<LastChangedTimestamp> timestampSet;
     // we need a bidi to sort the values instead of the keys
     protected final EntityHistory history;
@@ -174,8 +219,10 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     private CommandScheduler scheduler;
     private List<io.reactivex.disposables.Disposable> scheduledTasks = new ArrayList<>();
     private CalendarModelCache calendarModelCache;
+    private final List<Consumer<UpdateResult>> updateListeners = new CopyOnWriteArrayList<>();
     private Date connectStart;
     private final DefaultRaplaLock disconnectLock;
+    private ObjectName lockStatisticsName;
     private final PromiseWait promiseWait;
 
     public LocalAbstractCachableOperator(Logger logger, PromiseWait promiseWait, RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
@@ -207,6 +254,64 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     {
         connectStatus = status;
         getLogger().debug("Initstatus " + status);
+        if (status == InitStatus.Connected)
+        {
+            registerLockStatistics();
+        }
+        else if (status == InitStatus.Disconnected)
+        {
+            unregisterLockStatistics();
+        }
+    }
+
+    /** @return the wait and hold times of the storage lock or null if the lock does not collect statistics*/
+    public LockStatistics getLockStatistics()
+    {
+        return lockManager instanceof DefaultRaplaLock ? ((DefaultRaplaLock) lockManager).getStatistics() : null;
+    }
+
+    private void registerLockStatistics()
+    {
+        final LockStatistics statistics = getLockStatistics();
+        if (statistics == null || lockStatisticsName != null)
+        {
+            return;
+        }
+        try
+        {
+            final ObjectName name = new ObjectName("org.rapla:type=LockStatistics,name=" + getClass().getSimpleName());
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(name))
+            {
+                // another operator in the same vm, e.g. in tests
+                getLogger().debug("Lock statistics already registered as " + name);
+                return;
+            }
+            mBeanServer.registerMBean(statistics, name);
+            lockStatisticsName = name;
+        }
+        catch (Exception ex)
+        {
+            getLogger().warn("Could not register lock statistics: " + ex.getMessage());
+        }
+    }
+
+    private void unregisterLockStatistics()
+    {
+        final ObjectName name = lockStatisticsName;
+        if (name == null)
+        {
+            return;
+        }
+        lockStatisticsName = null;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (Exception ex)
+        {
+            getLogger().warn("Could not unregister lock statistics: " + ex.getMessage());
+        }
     }
 
     @Override
@@ -536,61 +641,184 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 allocs = (allocatables == null || allocatables.size() == 0) ? getAllocatables(null) : allocatables;
                 nonTemplates = Collections.emptySet();
             }
-            Map<Allocatable, Collection<Appointment>> result = new LinkedHashMap<>();
-            for (Allocatable allocatable: allocs)
+            final List<Allocatable> allocList = new ArrayList<>(allocs);
+            final List<SortedSet<Appointment>> appointmentSets;
+            final Set<Reservation> reservationCandidates;
+            // one read lock for all allocatables, the index queries are cheap so writers are not blocked for long
+            RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "queryAppointments");
+            try
             {
-                RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "queryAppointments");
-                SortedSet<Appointment> appointmentSet;
-                try
+                appointmentSets = mapInOrder(allocList, (allocatable) -> getAppointments(allocatable, user, start, end, excludeExceptions));
+                final List<Reservation> candidates = filters != null ? cache.getReservationCandidates(filters) : null;
+                reservationCandidates = candidates != null ? new HashSet<>(candidates) : null;
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
+            // the filters only depend on the reservation, so we evaluate them once per reservation and not for every appointment of every allocatable
+            final Map<Reservation, Boolean> reservationMatches = new ConcurrentHashMap<>();
+            final Function<Reservation, Boolean> matcher = (reservation) ->
+            {
+                if (reservationCandidates != null && !reservationCandidates.contains(reservation))
+                {
+                    return false;
+                }
+                if (!match(reservation, annotationQuery))
                 {
-                    SortedSet<Appointment> appointments = getAppointments(allocatable);
-                    appointmentSet = AppointmentImpl.getAppointments(appointments, user, start, end, excludeExceptions);
+                    return false;
                 }
-                finally
+                // Ignore Templates if not explicitly requested
+                final boolean isTemplate = RaplaComponent.isTemplate(reservation);
+                if ((isTemplate != isResourceTemplate))
                 {
-                    lockManager.unlock(readLock);
+                    // FIXME this special case should be refactored, so one can get all reservations in one method
+                    return false;
                 }
-                for (Appointment appointment : appointmentSet)
+                return filters == null || ClassificationFilter.Util.matches(filters, reservation);
+            };
+            final List<Integer> indizes = IntStream.range(0, allocList.size()).boxed().collect(Collectors.toList());
+            final List<Collection<Appointment>> filtered = mapInOrder(indizes, (index) ->
+            {
+                Collection<Appointment> appointmentCollection = new LinkedHashSet<>();
+                for (Appointment appointment : appointmentSets.get(index))
                 {
                     Reservation reservation = appointment.getReservation();
-                    if (!match(reservation, annotationQuery))
+                    if (!reservationMatches.computeIfAbsent(reservation, matcher))
                     {
                         continue;
                     }
-                    final Stream<Allocatable> allocatablesFor = reservation.getAllocatablesFor(appointment);
-                    if ( !nonTemplates.isEmpty())
+                    if (!nonTemplates.isEmpty())
                     {
+                        final Stream<Allocatable> allocatablesFor = reservation.getAllocatablesFor(appointment);
                         if (!allocatablesFor.anyMatch(nonTemplates::contains))
                         {
                             continue;
                         }
                     }
-                    // Ignore Templates if not explicitly requested
-
-                    final boolean isTemplate = RaplaComponent.isTemplate(reservation);
-                    if ((isTemplate != isResourceTemplate) )
-                    {
-                        // FIXME this special case should be refactored, so one can get all reservations in one method
-                        continue;
-                    }
-                    if (filters != null && !ClassificationFilter.Util.matches(filters, reservation))
-                    {
-                        continue;
-                    }
-                    Collection<Appointment> appointmentCollection = result.get(allocatable);
-                    if (appointmentCollection == null)
-                    {
-                        appointmentCollection = new LinkedHashSet<>();
-                        result.put(allocatable, appointmentCollection);
-                    }
                     appointmentCollection.add(appointment);
                 }
-            };
+                return appointmentCollection;
+            });
+            // merge in the order of the passed allocatables
+            Map<Allocatable, Collection<Appointment>> result = new LinkedHashMap<>();
+            for (int i = 0; i < allocList.size(); i++)
+            {
+                final Collection<Appointment> appointmentCollection = filtered.get(i);
+                if (!appointmentCollection.isEmpty())
+                {
+                    result.put(allocList.get(i), appointmentCollection);
+                }
+            }
             return result;
         });
         return promise;
     }
 
+    /**
+     * Applies the function to all elements of the list and returns the results in the order of the list.
+     * Larger lists are processed in parallel on the query pool.
+     */
+    private <T, R> List<R> mapInOrder(List<T> list, Function<T, R> function) throws Exception
+    {
+        if (list.size() < PARALLEL_QUERY_THRESHOLD)
+        {
+            return list.stream().map(function).collect(Collectors.toList());
+        }
+        try
+        {
+            return getQueryPool().submit(() -> list.parallelStream().map(function).collect(Collectors.toList())).get();
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Stores the entities with a single dispatch. Subclasses with a storage that can't write large updates in one step, e.g. a database,
+     * override this.
+     */
+    @Override
+    public void storeBulk(Collection<? extends Entity> storeObjects, User user, Consumer<BulkStoreProgress> progress) throws RaplaException
+    {
+        checkConnected();
+        if (storeObjects.isEmpty())
+        {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final int total = storeObjects.size();
+        dispatch(createUpdateEvent(storeObjects, Collections.emptyList(), user));
+        reportBulkProgress(progress, new BulkStoreProgress(total, total, total, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Prepares and checks the entities of a {@link #storeBulk} like a dispatched update. All entities are checked together, so they can
+     * reference each other and the closure and dependency checks see the whole update. Must be called with the dispatch lock and a read
+     * lock.
+     * @return the checked update event, ready to be written
+     */
+    protected UpdateEvent preprocessBulk(Collection<? extends Entity> storeObjects, User user, Consumer<BulkStoreProgress> progress, long start)
+            throws RaplaException
+    {
+        final int total = storeObjects.size();
+        final UpdateEvent evt = createUpdateEvent(storeObjects, Collections.emptyList(), user);
+        preprocessEventStorage(evt);
+        reportBulkProgress(progress, new BulkStoreProgress(total, total, 0, System.currentTimeMillis() - start));
+        return evt;
+    }
+
+    protected void reportBulkProgress(Consumer<BulkStoreProgress> progress, BulkStoreProgress status)
+    {
+        if (status.isFinished())
+        {
+            getLogger().info("Bulk store finished: " + status);
+        }
+        else if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("Bulk store: " + status);
+        }
+        if (progress != null)
+        {
+            progress.accept(status);
+        }
+    }
+
+    /** waits until no other dispatch is running. Must be called before any cache lock is requested, to prevent deadlocks */
+    protected void lockDispatch(String name) throws RaplaException
+    {
+        try
+        {
+            if (!dispatchLock.tryLock(DefaultRaplaLock.DEFAULT_WRITELOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            {
+                throw new RaplaSynchronizationException("Someone is currently writing. Please try again! Can't start " + name);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            throw new RaplaSynchronizationException(ex);
+        }
+    }
+
+    protected void unlockDispatch()
+    {
+        dispatchLock.unlock();
+    }
+
+    synchronized private ForkJoinPool getQueryPool()
+    {
+        if (queryPool == null)
+        {
+            queryPool = new ForkJoinPool(Math.min(MAX_QUERY_THREADS, Runtime.getRuntime().availableProcessors()));
+        }
+        return queryPool;
+    }
 
     private boolean containsResourceTemplate(Collection<Allocatable> allocs) {
         if ( allocs == null)
@@ -717,6 +945,20 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         return systemTimeZone;
     }
 
+    /**
+     * if set (the default) the conflicts of an allocatable are updated by only checking the changed appointments against an index of all appointment blocks.
+     * Otherwise all conflicts of the allocatable are recalculated on every change. Takes effect on the next connect.
+     */
+    public void setIncrementalConflictDetection(boolean incrementalConflictDetection)
+    {
+        this.incrementalConflictDetection = incrementalConflictDetection;
+    }
+
+    public boolean isIncrementalConflictDetection()
+    {
+        return incrementalConflictDetection;
+    }
+
     public String authenticate(String username, String password) throws RaplaException
     {
         checkConnected();
@@ -987,6 +1229,143 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         });
     }
 
+    @Override
+    public Promise<ConflictPage> queryConflicts(User user, Collection<Allocatable> allocatables, Date start, Date end, Boolean enabled, Date changedSince,
+            String cursor, int limit)
+    {
+        return scheduler.supply(() -> {
+            checkConnected();
+            final Set<ReferenceInfo<Allocatable>> allocatableRefs;
+            if (allocatables != null)
+            {
+                allocatableRefs = new HashSet<>();
+                for (Allocatable allocatable : allocatables)
+                {
+                    allocatableRefs.add(allocatable.getReference());
+                }
+            }
+            else
+            {
+                allocatableRefs = null;
+            }
+            RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "queryConflicts for " + user);
+            try
+            {
+                final Date lastSynched = getCurrentTimestamp();
+                final NavigableMap<String, Conflict> visible;
+                if (user != null)
+                {
+                    visible = conflictVisibility.getVisibleConflicts(user, lastSynched, this::getChangedReferences);
+                }
+                else
+                {
+                    visible = new TreeMap<>();
+                    for (Conflict conflict : conflictFinder.getConflicts(null))
+                    {
+                        visible.put(conflict.getId(), conflict);
+                    }
+                }
+                // the changes are only known since the start of the server and a change of a type can change all conflicts
+                Collection<ReferenceInfo> changes = null;
+                if (changedSince != null && !changedSince.before(getConnectStart()))
+                {
+                    changes = getChangedReferences(changedSince);
+                    for (ReferenceInfo reference : changes)
+                    {
+                        final Class<? extends Entity> type = reference.getType();
+                        if (type == DynamicType.class || type == Category.class || (user != null && reference.isSame(user.getReference())))
+                        {
+                            changes = null;
+                            break;
+                        }
+                    }
+                }
+                final ConflictPage page = new ConflictPage(lastSynched, changes == null);
+                final Iterator<String> ids;
+                if (changes != null)
+                {
+                    final TreeSet<String> changedIds = new TreeSet<>();
+                    for (ReferenceInfo reference : changes)
+                    {
+                        if (reference.getType() == Conflict.class)
+                        {
+                            changedIds.add(reference.getId());
+                        }
+                        else if (reference.getType() == Allocatable.class)
+                        {
+                            // the permissions of the allocatable can change the visibility of its conflicts
+                            for (Conflict conflict : conflictFinder.getConflictsOf((ReferenceInfo<Allocatable>) reference))
+                            {
+                                changedIds.add(conflict.getId());
+                            }
+                        }
+                    }
+                    ids = (cursor != null ? changedIds.tailSet(cursor, false) : changedIds).iterator();
+                }
+                else
+                {
+                    ids = (cursor != null ? visible.tailMap(cursor, false) : visible).keySet().iterator();
+                }
+                final int pageSize = Math.max(1, limit);
+                String lastId = null;
+                while (ids.hasNext())
+                {
+                    if (page.size() >= pageSize)
+                    {
+                        page.setNextCursor(lastId);
+                        break;
+                    }
+                    final String id = ids.next();
+                    lastId = id;
+                    final Conflict conflict = visible.get(id);
+                    final Conflict filled = conflict != null && (allocatableRefs == null || allocatableRefs.contains(conflict.getAllocatableId())) ?
+                            cache.fillConflictDisableInformation(user, conflict) : null;
+                    if (filled != null && matches(filled, start, end, enabled))
+                    {
+                        page.addConflict(filled);
+                    }
+                    else if (changes != null)
+                    {
+                        page.addRemovedId(id);
+                    }
+                }
+                return page;
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
+        });
+    }
+
+    private boolean matches(Conflict conflict, Date start, Date end, Boolean enabled)
+    {
+        if (enabled != null && conflict.checkEnabled() != enabled)
+        {
+            return false;
+        }
+        if (start == null && end == null)
+        {
+            return true;
+        }
+        final Appointment appointment1 = tryResolve(conflict.getAppointment1());
+        final Appointment appointment2 = tryResolve(conflict.getAppointment2());
+        return appointment1 != null && appointment2 != null && ConflictImpl.getFirstConflictDate(start, end, appointment1, appointment2) != null;
+    }
+
+    /** returns the references of all entities that changed or were removed after the passed timestamp */
+    private Collection<ReferenceInfo> getChangedReferences(Date timestamp)
+    {
+        final String dummyId = "";
+        final DeleteUpdateEntry fromElement = new DeleteUpdateEntry(new ReferenceInfo(dummyId, Allocatable.class), new Date(timestamp.getTime() + 1), false);
+        final List<ReferenceInfo> result = new ArrayList<>();
+        for (DeleteUpdateEntry entry : deleteUpdateSet.inverseBidiMap().tailMap(fromElement).keySet())
+        {
+            result.add(entry.reference);
+        }
+        return result;
+    }
+
     boolean disposing;
 
     public void dispose()
@@ -1007,6 +1386,14 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
         finally
         {
+            synchronized (this)
+            {
+                if (queryPool != null)
+                {
+                    queryPool.shutdown();
+                    queryPool = null;
+                }
+            }
             disposing = false;
         }
     }
@@ -1114,7 +1501,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         };
         // The conflict map
         Logger logger = getLogger();
-        conflictFinder = new ConflictFinder(allocationMap, today2, logger, this, permissionController);
+        conflictFinder = new ConflictFinder(allocationMap, today2, logger, this, permissionController, incrementalConflictDetection);
+        conflictVisibility = new ConflictVisibilityIndex(permissionController, conflictFinder);
 
         // if a client request changes before the start date return refresh conflict flag
         Action cleanUpConflicts = ()->
@@ -1640,22 +2028,28 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
     private boolean isAffected(DeleteUpdateEntry entry, String userId, final Collection<String> groupsIncludingParents)
     {
-        if (entry.affectAll)
+        return isAffected(entry.affectAll, entry.affectedGroupIds, entry.affectedUserIds, userId, groupsIncludingParents);
+    }
+
+    static private boolean isAffected(boolean affectAll, Set<String> affectedGroupIds, Set<String> affectedUserIds, String userId,
+            final Collection<String> groupsIncludingParents)
+    {
+        if (affectAll)
         {
             return true;
         }
         else
         {
-            if (entry.affectedGroupIds != null)
+            if (affectedGroupIds != null)
             {
-                if (!Collections.disjoint(entry.affectedGroupIds, groupsIncludingParents))
+                if (!Collections.disjoint(affectedGroupIds, groupsIncludingParents))
                 {
                     return true;
                 }
             }
-            if (entry.affectedUserIds != null)
+            if (affectedUserIds != null)
             {
-                if (entry.affectedUserIds.contains(userId))
+                if (affectedUserIds.contains(userId))
                 {
                     return true;
                 }
@@ -1664,6 +2058,49 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         return false;
     }
 
+    /**
+     * The changes since a sync date with the entities before and after the change, shared by all users that sync from that date until the
+     * next update. The changes of a user are filtered from it with the users and groups that were affected by each change, so the history
+     * isn't searched for every user.
+     */
+    static final class UpdateDelta
+    {
+        final Date until;
+        final List<DeltaEntry> updates = new ArrayList<>();
+        final List<DeltaEntry> removes = new ArrayList<>();
+
+        UpdateDelta(Date until)
+        {
+            this.until = until;
+        }
+    }
+
+    /** a copy of a {@link DeleteUpdateEntry}, because the entries are changed by later updates */
+    static final class DeltaEntry
+    {
+        final ReferenceInfo reference;
+        final boolean affectAll;
+        final Set<String> affectedGroupIds;
+        final Set<String> affectedUserIds;
+        Entity oldEntity;
+        /** null for conflicts, they are resolved with the disable information of the user */
+        Entity newEntity;
+
+        DeltaEntry(DeleteUpdateEntry entry)
+        {
+            this.reference = entry.reference;
+            this.affectAll = entry.affectAll;
+            this.affectedGroupIds = entry.affectedGroupIds != null ? new HashSet<>(entry.affectedGroupIds) : null;
+            this.affectedUserIds = entry.affectedUserIds != null ? new HashSet<>(entry.affectedUserIds) : null;
+        }
+
+        boolean isAffected(User user, Collection<String> groupsIncludingParents)
+        {
+            return user == null || user.isAdmin() || LocalAbstractCachableOperator.isAffected(affectAll, affectedGroupIds, affectedUserIds, user.getId(),
+                    groupsIncludingParents);
+        }
+    }
+
     class DeleteUpdateEntry implements Comparable<DeleteUpdateEntry>
     {
         public boolean affectAll;
@@ -1863,43 +2300,32 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     */
 
     /**
-     * returns all entities with a timestamp > the passed timestamp
+     * returns all changes with a timestamp > the passed timestamp and the time of the last refresh that includes them
      */
-    private Collection<ReferenceInfo> getEntities(User user, final Date timestamp, boolean isDelete) throws RaplaException
+    private UpdateDelta getDeltaEntries(final Date timestamp) throws RaplaException
     {
         Assert.notNull(timestamp);
         // we use an empty id here because the implmentation of the DeleteUpdateEntry compare compares idStrings if timestamps are equal
         // so tailMap returns all entities with a timestamp >= timestamp
         final String dummyId = "";
         // we need to add +1 so that we dont get entities with the passed (guaranteed timestamp)
-        DeleteUpdateEntry fromElement = new DeleteUpdateEntry(new ReferenceInfo(dummyId, Allocatable.class), new Date(timestamp.getTime() + 1), isDelete);
-        LinkedList<ReferenceInfo> result = new LinkedList<>();
+        DeleteUpdateEntry fromElement = new DeleteUpdateEntry(new ReferenceInfo(dummyId, Allocatable.class), new Date(timestamp.getTime() + 1), false);
 
-        RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "getEntities for "+ user);
-        final Collection<String> groupsIncludingParents = user != null ? UserImpl.getGroupsIncludingParents(user) : null;
-        String userId = user != null ? user.getId() : null;
+        RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "getDeltaEntries");
         try
         {
+            final UpdateDelta delta = new UpdateDelta(getLastRefreshed());
             SortedMap<DeleteUpdateEntry, String> tailMap = deleteUpdateSet.inverseBidiMap().tailMap(fromElement);
-            Set<DeleteUpdateEntry> tailSet = tailMap.keySet();
-            for (DeleteUpdateEntry entry : tailSet)
+            for (DeleteUpdateEntry entry : tailMap.keySet())
             {
-                if (entry.isDelete != isDelete)
-                {
-                    continue;
-                }
-                if (user == null || user.isAdmin() || isAffected(entry, userId, groupsIncludingParents))
-                {
-                    ReferenceInfo deletedReference = entry.reference;
-                    result.add(deletedReference);
-                }
+                (entry.isDelete ? delta.removes : delta.updates).add(new DeltaEntry(entry));
             }
+            return delta;
         }
         finally
         {
             lockManager.unlock(lock);
         }
-        return result;
     }
 
     protected void updateBindings(Map<ReferenceInfo<Allocatable>, AllocationChange> toUpdate, Reservation reservation, Appointment app, boolean remove)
@@ -1983,7 +2409,9 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
     static final SortedSet<Appointment> EMPTY_SORTED_SET = Collections.unmodifiableSortedSet(new TreeSet<Appointment>());
 
-    /** returs all appointments for the allocatable and all groupMembers and belongsTo*/
+    /** returs all appointments for the allocatable and all groupMembers and belongsTo.
+     * The appointments of the dependent allocatables are not copied, the result is a read only view on the bindings
+     * and must only be used while holding the lock*/
     protected SortedSet<Appointment> getAppointments(Allocatable allocatable)
     {
         final ReferenceInfo<Allocatable> reference = allocatable != null ? allocatable.getReference() : null;
@@ -1999,23 +2427,53 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
         else
         {
-            SortedSet<Appointment> transitive = new TreeSet<>(new AppointmentStartComparator());
+            List<SortedSet<Appointment>> dependentSets = new ArrayList<>(allocatableIds.size());
             for (ReferenceInfo<Allocatable> allocatableId : allocatableIds)
             {
                 SortedSet<Appointment> s = appointmentBindings.getAppointments(allocatableId);
-                for (Appointment appointment : s)
+                if (!s.isEmpty())
                 {
-                    transitive.add(appointment);
+                    dependentSets.add(s);
                 }
             }
-            return transitive;
+            if (dependentSets.isEmpty())
+            {
+                return EMPTY_SORTED_SET;
+            }
+            if (dependentSets.size() == 1)
+            {
+                return Collections.unmodifiableSortedSet(dependentSets.get(0));
+            }
+            return new MergedSortedSet<>(new AppointmentStartComparator(), dependentSets);
+        }
+    }
+
+    /** returns all appointments for the allocatable and all groupMembers and belongsTo that overlap the period.
+     * @param user the owner of the reservation or null for appointments from all users
+     */
+    protected SortedSet<Appointment> getAppointments(Allocatable allocatable, User user, Date start, Date end, boolean excludeExceptions)
+    {
+        final ReferenceInfo<Allocatable> reference = allocatable != null ? allocatable.getReference() : null;
+        Set<ReferenceInfo<Allocatable>> allocatableIds = cache.getDependentRef(reference);
+        SortedSet<Appointment> result = new TreeSet<>(new AppointmentStartComparator());
+        if (allocatableIds.size() == 0)
+        {
+            appointmentBindings.getAppointments(null, user, start, end, excludeExceptions, result);
+        }
+        else
+        {
+            for (ReferenceInfo<Allocatable> allocatableId : allocatableIds)
+            {
+                appointmentBindings.getAppointments(allocatableId, user, start, end, excludeExceptions, result);
+            }
         }
+        return result;
     }
 
     static final class AppointmentMapClass
     {
         final private Logger logger;
-        private Map<ReferenceInfo<Allocatable>, SortedSet<Appointment>> appointmentMap;
+        private Map<ReferenceInfo<Allocatable>, AppointmentIndex> appointmentMap;
         Set<String> problematicIdSet = Collections.synchronizedSet(new HashSet<>());
 
         private AppointmentMapClass(Logger newLogger)
@@ -2081,7 +2539,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         {
             for (ReferenceInfo<Allocatable> alloc : removedAllocatables)
             {
-                SortedSet<Appointment> sortedSet = appointmentMap.get(alloc);
+                AppointmentIndex sortedSet = appointmentMap.get(alloc);
                 if (sortedSet != null && !sortedSet.isEmpty())
                 {
                     logger.error("Removing non empty appointment map for resource " + alloc + " Appointments:" + sortedSet);
@@ -2092,10 +2550,10 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
         private void addAppointmentBinding(Appointment appRef, ReferenceInfo<Allocatable> allocationId)
         {
-            SortedSet<Appointment> set = appointmentMap.get(allocationId);
+            AppointmentIndex set = appointmentMap.get(allocationId);
             if (set == null)
             {
-                set = new TreeSet<>(new AppointmentStartComparator());
+                set = new AppointmentIndex();
                 appointmentMap.put(allocationId, set);
             }
             set.add(appRef);
@@ -2112,7 +2570,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             {
                 for (Allocatable allocatable : allocatables)
                 {
-                    SortedSet<Appointment> appointmentSet = this.appointmentMap.get(allocatable.getReference());
+                    AppointmentIndex appointmentSet = this.appointmentMap.get(allocatable.getReference());
                     if (appointmentSet == null)
                     {
                         continue;
@@ -2189,6 +2647,18 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             }
             return EMPTY_SORTED_REF_SET;
         }
+
+        /** adds all appointments of the allocatable that overlap the period to the result. Uses the interval index instead of a scan over all appointments
+         * @see AppointmentIndex#getAppointments(User, Date, Date, boolean, Collection) */
+        public void getAppointments(ReferenceInfo<Allocatable> allocatableId, User user, Date start, Date end, boolean excludeExceptions,
+                Collection<? super Appointment> result)
+        {
+            final AppointmentIndex index = appointmentMap.get(allocatableId);
+            if (index != null)
+            {
+                index.getAppointments(user, start, end, excludeExceptions, result);
+            }
+        }
     }
 
     protected UpdateResult refresh(Date since, Date until, Collection<Entity> storeObjects, Collection<PreferencePatch> preferencePatches,
@@ -2202,9 +2672,26 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             // conflicts
             update.addOperation(op.getNewConflict(), op.getOldConflict(), op.getOperation());
         }
+        for (Consumer<UpdateResult> listener : updateListeners)
+        {
+            try
+            {
+                listener.accept(update);
+            }
+            catch (Exception ex)
+            {
+                logger.error("Error notifying update listener: " + ex.getMessage(), ex);
+            }
+        }
         return update;
     }
 
+    @Override
+    public void addUpdateListener(Consumer<UpdateResult> listener)
+    {
+        updateListeners.add(listener);
+    }
+
     private void removeOldHistory() throws RaplaException
     {
         final RaplaLock.WriteLock writeLock = writeLockIfLoaded("Removing Oldhistory");
@@ -2983,11 +3470,44 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             }
         }
 
-        for (Entity entity : evt.getStoreObjects())
+        final Collection<Entity> storeObjects = evt.getStoreObjects();
+        // the workers resolve through the cache with a read lock, which they can't get while this thread holds the write lock
+        if (storeObjects.size() < PARALLEL_VALIDATION_THRESHOLD || lockManager.isWriteLockedByCurrentThread())
         {
-            checkConsitency(entity, store);
+            for (Entity entity : storeObjects)
+            {
+                checkConsitency(entity, store);
+            }
+            return;
+        }
+        // the checks only read the store and the cache, so the entities of large updates, e.g. imports, are checked in parallel
+        final List<RaplaException> errors;
+        try
+        {
+            errors = mapInOrder(new ArrayList<>(storeObjects), (entity) -> {
+                try
+                {
+                    checkConsitency(entity, store);
+                    return null;
+                }
+                catch (RaplaException ex)
+                {
+                    return ex;
+                }
+            });
+        }
+        catch (Exception ex)
+        {
+            throw new RaplaException(ex.getMessage(), ex);
+        }
+        // report the same error as a sequential check
+        for (RaplaException error : errors)
+        {
+            if (error != null)
+            {
+                throw error;
+            }
         }
-
     }
 
     protected void checkConsitency(Entity entity, EntityResolver store) throws RaplaException
@@ -3532,16 +4052,13 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                     continue;
                 }
                 // TODO check also parents and children from allocatables
-                SortedSet<Appointment> appointmentSet = getAppointments(allocatable);
-                if (appointmentSet == null)
-                {
-                    continue;
-                }
                 map.put(allocatable, new HashMap<>());
                 for (Appointment appointment : appointments)
                 {
+                    // only the appointments in the span of the appointment can conflict
+                    SortedSet<Appointment> appointmentsToTest = getAppointments(allocatable, null, appointment.getStart(), appointment.getMaxEnd(), true);
                     Set<Appointment> conflictingAppointments = AppointmentImpl
-                            .getConflictingAppointments(appointmentSet, appointment, ignoreList, onlyFirstConflictingAppointment);
+                            .getConflictingAppointments(appointmentsToTest, appointment, ignoreList, onlyFirstConflictingAppointment);
                     if (conflictingAppointments.size() > 0)
                     {
                         Map<Appointment, Collection<Appointment>> appMap = map.get(allocatable);
@@ -3563,52 +4080,160 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             final Collection<Reservation> ignoreList, final Integer worktimeStartMinutes, final Integer worktimeEndMinutes, final Integer[] excludedDays,
             final Integer rowsPerHour)
     {
-        Promise<Date> promise = scheduler.supply(() ->
-        {
-            RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getNextAllocatableDate");
+        return getNextAllocatableDates(allocatables, appointment, ignoreList, worktimeStartMinutes, worktimeEndMinutes, excludedDays, rowsPerHour, 1)
+                .thenApply((dates) -> dates.isEmpty() ? null : dates.get(0));
+    }
+
+    @Override
+    public Promise<List<Date>> getNextAllocatableDates(final Collection<Allocatable> allocatables, final Appointment appointment,
+            final Collection<Reservation> ignoreList, final Integer worktimeStartMinutes, final Integer worktimeEndMinutes, final Integer[] excludedDays,
+            final Integer rowsPerHour, final int count)
+    {
+        Promise<List<Date>> promise = scheduler.supply(() ->
+        {
+            final long firstStart = appointment.getStart().getTime();
+            final long length = appointment.getEnd().getTime() - firstStart;
+            final boolean startDateExcluded = isExcluded(excludedDays, appointment.getStart());
+            final boolean wholeDay = appointment.isWholeDaysSet();
+            final boolean inWorktime = !wholeDay && inWorktime(appointment, worktimeStartMinutes, worktimeEndMinutes);
+            final int rowsPerHourInt = (rowsPerHour == null || rowsPerHour <= 1) ? 1 : rowsPerHour;
+            final long step = wholeDay ? DateTools.MILLISECONDS_PER_DAY : (DateTools.MILLISECONDS_PER_HOUR / rowsPerHourInt);
+            final int candidateCount = (int) (NEXT_ALLOCATABLE_DATE_SEARCH_DAYS * DateTools.MILLISECONDS_PER_DAY / step);
+            final LongPredicate accept = (start) -> (startDateExcluded || !isExcluded(excludedDays, new Date(start))) && (!inWorktime || inWorktime(start,
+                    start + length, worktimeStartMinutes, worktimeEndMinutes));
+            final boolean repeating = appointment.getRepeating() != null;
+            final Date maxEnd = appointment.getMaxEnd();
+            if (repeating && maxEnd == null)
+            {
+                return getNextAllocatableDatesWithOverlapCheck(allocatables, appointment, ignoreList, step, candidateCount, accept, count);
+            }
+            final long lastStart = firstStart + candidateCount * step;
+            final long horizonEnd = repeating ? Math.max(maxEnd.getTime(), lastStart + maxEnd.getTime() - firstStart) : lastStart + length;
+            final FreeTimeSearch search = new FreeTimeSearch();
+            // only the busy times are collected in the lock, the search itself works on a copy
+            RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getNextAllocatableDates");
             try
             {
-                Appointment newState = appointment;
-                Date firstStart = appointment.getStart();
-                boolean startDateExcluded = isExcluded(excludedDays, firstStart);
-                boolean wholeDay = appointment.isWholeDaysSet();
-                boolean inWorktime = inWorktime(appointment, worktimeStartMinutes, worktimeEndMinutes);
-                final int rowsPerHourInt = (rowsPerHour == null || rowsPerHour <= 1) ? 1 : rowsPerHour;
-                for (int i = 0; i < 366 * 24 * rowsPerHourInt; i++)
-                {
-                    newState = ((AppointmentImpl) newState).clone();
-                    Date start = newState.getStart();
-                    long millisToAdd = wholeDay ? DateTools.MILLISECONDS_PER_DAY : (DateTools.MILLISECONDS_PER_HOUR / rowsPerHourInt);
-                    Date newStart = new Date(start.getTime() + millisToAdd);
-                    if (!startDateExcluded && isExcluded(excludedDays, newStart))
-                    {
-                        continue;
-                    }
-                    newState.moveTo(newStart);
-                    if (!wholeDay && inWorktime && !inWorktime(newState, worktimeStartMinutes, worktimeEndMinutes))
-                    {
-                        continue;
-                    }
-                    if (!isAllocated(allocatables, newState, ignoreList))
-                    {
-                        return newStart;
-                    }
-                }
-                return null;
+                addBusyTimes(search, allocatables, appointment, ignoreList, firstStart, horizonEnd);
             }
             finally
             {
                 lockManager.unlock(readLock);
             }
+            final List<Date> result = new ArrayList<>();
+            if (!repeating)
+            {
+                for (long start : search.findFreeSlots(firstStart, step, candidateCount, length, accept, count))
+                {
+                    result.add(new Date(start));
+                }
+                return result;
+            }
+            final OccurrenceIterator occurrences = new OccurrenceIterator();
+            for (int i = 1; i <= candidateCount && result.size() < count; i++)
+            {
+                final long start = firstStart + i * step;
+                if (!accept.test(start))
+                {
+                    continue;
+                }
+                final AppointmentImpl newState = ((AppointmentImpl) appointment).clone();
+                newState.moveTo(new Date(start));
+                if (search.isFree(occurrences.reset(newState, start, horizonEnd)))
+                {
+                    result.add(new Date(start));
+                }
+            }
+            return result;
         });
         return promise;
     }
 
+    /**
+     * adds the occurrences of all appointments that would conflict with the appointment, to the search. The same appointments are ignored
+     * as in {@link AppointmentImpl#getConflictingAppointments}.
+     */
+    private void addBusyTimes(FreeTimeSearch search, Collection<Allocatable> allocatables, Appointment appointment, Collection<Reservation> ignoreList,
+            long start, long end)
+    {
+        final Reservation reservation = appointment.getReservation();
+        // Templates don't cause conflicts
+        if (RaplaComponent.isTemplate(appointment) || RaplaComponent.isTemplate(reservation))
+        {
+            return;
+        }
+        final OccurrenceIterator occurrences = new OccurrenceIterator();
+        for (Allocatable allocatable : allocatables)
+        {
+            String annotation = allocatable.getAnnotation(ResourceAnnotations.KEY_CONFLICT_CREATION);
+            boolean holdBackConflicts = annotation != null && annotation.equals(ResourceAnnotations.VALUE_CONFLICT_CREATION_IGNORE);
+            if (holdBackConflicts)
+            {
+                continue;
+            }
+            for (Appointment busy : getAppointments(allocatable, null, new Date(start), new Date(end), true))
+            {
+                final Reservation busyReservation = busy.getReservation();
+                if (busy.equals(appointment) || RaplaComponent.isTemplate(busy))
+                {
+                    continue;
+                }
+                if (busyReservation != null && (ignoreList.contains(busyReservation) || busyReservation.equals(reservation) || RaplaComponent
+                        .isTemplate(busyReservation)))
+                {
+                    continue;
+                }
+                occurrences.reset((AppointmentImpl) busy, start, end);
+                while (occurrences.next())
+                {
+                    if (!occurrences.isException())
+                    {
+                        search.addBusy(occurrences.getStart(), occurrences.getEnd());
+                    }
+                }
+            }
+        }
+    }
+
+    /** tests every candidate with the overlap check of the appointments. Used for repeatings without an end, which have no finite busy horizon */
+    private List<Date> getNextAllocatableDatesWithOverlapCheck(Collection<Allocatable> allocatables, Appointment appointment,
+            Collection<Reservation> ignoreList, long step, int candidateCount, LongPredicate accept, int count) throws Exception
+    {
+        final List<Date> result = new ArrayList<>();
+        final long firstStart = appointment.getStart().getTime();
+        RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getNextAllocatableDates");
+        try
+        {
+            for (int i = 1; i <= candidateCount && result.size() < count; i++)
+            {
+                final Date newStart = new Date(firstStart + i * step);
+                if (!accept.test(newStart.getTime()))
+                {
+                    continue;
+                }
+                final AppointmentImpl newState = ((AppointmentImpl) appointment).clone();
+                newState.moveTo(newStart);
+                if (!isAllocated(allocatables, newState, ignoreList))
+                {
+                    result.add(newStart);
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        return result;
+    }
+
     private boolean inWorktime(Appointment appointment, Integer worktimeStartMinutes, Integer worktimeEndMinutes)
     {
-        long start = appointment.getStart().getTime();
+        return inWorktime(appointment.getStart().getTime(), appointment.getEnd().getTime(), worktimeStartMinutes, worktimeEndMinutes);
+    }
+
+    private boolean inWorktime(long start, long end, Integer worktimeStartMinutes, Integer worktimeEndMinutes)
+    {
         int minuteOfDayStart = DateTools.getMinuteOfDay(start);
-        long end = appointment.getEnd().getTime();
         int minuteOfDayEnd = DateTools.getMinuteOfDay(end) + (int) DateTools.countDays(start, end) * 24 * 60;
         boolean inWorktime = (worktimeStartMinutes == null || worktimeStartMinutes <= minuteOfDayStart) && (worktimeEndMinutes == null
                 || worktimeEndMinutes >= minuteOfDayEnd);
@@ -3896,46 +4521,27 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             final Date until = new Date(historyValidStart.getTime() + DateTools.MILLISECONDS_PER_MINUTE * 10);
             return new UpdateResult(null, until, null, null);
         }
-        Date until = getLastRefreshed();
-        final Collection<ReferenceInfo> toUpdate = getEntities(user, since, false);
+        final UpdateDelta delta = getUpdateDelta(since);
+        final Date until = delta.until;
+        final Collection<String> groupsIncludingParents = user != null ? UserImpl.getGroupsIncludingParents(user) : null;
         Map<ReferenceInfo, Entity> oldEntities = new LinkedHashMap<>();
         Collection<Entity> updatedEntities = new ArrayList<>();
-        for (ReferenceInfo update : toUpdate)
+        for (DeltaEntry entry : delta.updates)
         {
-            Entity oldEntity;
-            Entity newEntity;
-            final Class<? extends Entity> type = update.getType();
-            if (type == Conflict.class)
+            if (!entry.isAffected(user, groupsIncludingParents))
+            {
+                continue;
+            }
+            final ReferenceInfo update = entry.reference;
+            Entity oldEntity = entry.oldEntity;
+            Entity newEntity = entry.newEntity;
+            if (update.getType() == Conflict.class)
             {
                 final Conflict conflict = conflictFinder.findConflict((ReferenceInfo<Conflict>) update);
                 if (conflict != null)
                 {
                     newEntity = cache.fillConflictDisableInformation(user, conflict);
-                    // can be null if no conflict disable information is stored
-                    if (history.hasHistory(update))
-                    {
-                        oldEntity = history.get(update, since);
-                    }
-                    else
-                    {
-                        oldEntity = null;
-                    }
-                } else {
-                    // conflict may be deleted
-                    newEntity = null;
-                    oldEntity = null;
                 }
-
-            }
-            else if (type == Preferences.class)
-            {
-                newEntity = tryResolve(update);
-                oldEntity = newEntity;
-            }
-            else
-            {
-                oldEntity = history.get(update, since);
-                newEntity = tryResolve(update);
             }
             // if newEntity is null, then it must be deleted and within the to removed entities
             if (newEntity != null)
@@ -3947,25 +4553,96 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 }
             }
         }
-        Collection<ReferenceInfo> toRemove = getEntities(user, since, true);
-        for (Iterator<ReferenceInfo> it = toRemove.iterator(); it.hasNext(); )
+        Collection<ReferenceInfo> toRemove = new ArrayList<>();
+        for (DeltaEntry entry : delta.removes)
         {
-            ReferenceInfo update = it.next();
-            Entity entity;
-            if (update.getType() == Conflict.class)
+            if (!entry.isAffected(user, groupsIncludingParents))
+            {
+                continue;
+            }
+            toRemove.add(entry.reference);
+            if (entry.oldEntity != null)
+            {
+                oldEntities.put(entry.reference, entry.oldEntity);
+            }
+        }
+        UpdateResult updateResult = createUpdateResult(oldEntities, updatedEntities, toRemove, since, until);
+        return updateResult;
+    }
+
+    @Override
+    public boolean hasUpdates(Date since, User user) throws RaplaException
+    {
+        checkConnected();
+        // the history before that date can be deleted, so the client needs a full refresh
+        if (since.before(getHistoryValidStart()))
+        {
+            return true;
+        }
+        final UpdateDelta delta = getUpdateDelta(since);
+        final Collection<String> groupsIncludingParents = user != null ? UserImpl.getGroupsIncludingParents(user) : null;
+        for (DeltaEntry entry : delta.updates)
+        {
+            if (entry.isAffected(user, groupsIncludingParents))
+            {
+                return true;
+            }
+        }
+        for (DeltaEntry entry : delta.removes)
+        {
+            if (entry.isAffected(user, groupsIncludingParents))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** returns the changes since the date. They are computed once for all users that sync from that date until the next update */
+    private UpdateDelta getUpdateDelta(Date since) throws RaplaException
+    {
+        final Date lastRefreshed = getLastRefreshed();
+        synchronized (updateDeltas)
+        {
+            final UpdateDelta delta = updateDeltas.get(since);
+            if (delta != null && delta.until.equals(lastRefreshed))
+            {
+                return delta;
+            }
+        }
+        final UpdateDelta delta = getDeltaEntries(since);
+        for (DeltaEntry entry : delta.updates)
+        {
+            final ReferenceInfo update = entry.reference;
+            final Class<? extends Entity> type = update.getType();
+            if (type == Conflict.class)
             {
-                entity = null;
+                // can be null if no conflict disable information is stored
+                if (history.hasHistory(update))
+                {
+                    entry.oldEntity = history.get(update, since);
+                }
+            }
+            else if (type == Preferences.class)
+            {
+                entry.newEntity = tryResolve(update);
+                entry.oldEntity = entry.newEntity;
             }
             else
             {
-                entity = history.get(update, since);
+                entry.oldEntity = history.get(update, since);
+                entry.newEntity = tryResolve(update);
             }
-            Entity oldEntity = null;
-            if (entity != null)
+        }
+        for (DeltaEntry entry : delta.removes)
+        {
+            final ReferenceInfo update = entry.reference;
+            if (update.getType() == Conflict.class)
             {
-                oldEntity = entity;
+                continue;
             }
-            else if (update.getType() != Conflict.class)
+            Entity oldEntity = history.get(update, since);
+            if (oldEntity == null)
             {
                 final EntityHistory.HistoryEntry latest = history.getLatest(update);
                 if (latest != null)
@@ -3977,13 +4654,13 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                     getLogger().warn("the entity " + update + " was deleted but not found in the history.");
                 }
             }
-            if (oldEntity != null)
-            {
-                oldEntities.put(update, oldEntity);
-            }
+            entry.oldEntity = oldEntity;
         }
-        UpdateResult updateResult = createUpdateResult(oldEntities, updatedEntities, toRemove, since, until);
-        return updateResult;
+        synchronized (updateDeltas)
+        {
+            updateDeltas.put(since, delta);
+        }
+        return delta;
     }
 
     @Override
@@ -4018,7 +4695,18 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
      */
     protected void merge(Allocatable selectedObject, Set<ReferenceInfo<Allocatable>> allocatableIds, User user) throws RaplaException
     {
-        final RaplaLock.WriteLock writeLock = writeLockIfLoaded("merging " + allocatableIds.size() + " allocatables into " + selectedObject.getId()  );
+        // the merge dispatches while holding the write lock, so the dispatch lock must be acquired first
+        lockDispatch("merging " + allocatableIds.size() + " allocatables into " + selectedObject.getId());
+        final RaplaLock.WriteLock writeLock;
+        try
+        {
+            writeLock = writeLockIfLoaded("merging " + allocatableIds.size() + " allocatables into " + selectedObject.getId()  );
+        }
+        catch (RaplaException ex)
+        {
+            unlockDispatch();
+            throw ex;
+        }
         try
         {
             final ReferenceInfo<Allocatable> newRef = selectedObject.getReference();
@@ -4069,6 +4757,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         finally
         {
             lockManager.unlock(writeLock);
+            unlockDispatch();
         }
     }
 
@@ -0,0 +1,196 @@
+package org.rapla.storage.impl.server;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * A read only view on the union of sorted sets that share the same comparator. The iterator does a lazy k-way merge
+ * over the sources and skips elements that are contained in more than one source, so no copy of the
+ * elements is created. Changes in the sources are visible in the view.
+ * <p>
+ * {@link #size()} has to iterate over all elements, {@link #contains(Object)} asks each source.
+ */
+final class MergedSortedSet<T> extends AbstractSet<T> implements SortedSet<T>
+{
+    private final Comparator<? super T> comparator;
+    private final List<SortedSet<T>> sources;
+
+    MergedSortedSet(Comparator<? super T> comparator, Collection<? extends SortedSet<T>> sources)
+    {
+        this.comparator = comparator;
+        this.sources = new ArrayList<>(sources);
+    }
+
+    private class Cursor
+    {
+        final Iterator<T> it;
+        T current;
+
+        Cursor(Iterator<T> it)
+        {
+            this.it = it;
+            current = it.next();
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        final MinPQ<Cursor> heads = new MinPQ<>(sources.size(), (c1, c2) -> comparator.compare(c1.current, c2.current));
+        for (SortedSet<T> source : sources)
+        {
+            final Iterator<T> it = source.iterator();
+            if (it.hasNext())
+            {
+                heads.insert(new Cursor(it));
+            }
+        }
+        return new Iterator<T>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public T next()
+            {
+                if (heads.isEmpty())
+                {
+                    throw new NoSuchElementException();
+                }
+                final T next = heads.min().current;
+                // advance all cursors that point to the same element
+                while (!heads.isEmpty() && comparator.compare(heads.min().current, next) == 0)
+                {
+                    final Cursor cursor = heads.delMin();
+                    if (cursor.it.hasNext())
+                    {
+                        cursor.current = cursor.it.next();
+                        heads.insert(cursor);
+                    }
+                }
+                return next;
+            }
+        };
+    }
+
+    @Override
+    public int size()
+    {
+        int size = 0;
+        for (Iterator<T> it = iterator(); it.hasNext(); it.next())
+        {
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        for (SortedSet<T> source : sources)
+        {
+            if (!source.isEmpty())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        for (SortedSet<T> source : sources)
+        {
+            if (source.contains(o))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Comparator<? super T> comparator()
+    {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<T> subSet(T fromElement, T toElement)
+    {
+        final List<SortedSet<T>> subSets = new ArrayList<>(sources.size());
+        for (SortedSet<T> source : sources)
+        {
+            subSets.add(source.subSet(fromElement, toElement));
+        }
+        return new MergedSortedSet<>(comparator, subSets);
+    }
+
+    @Override
+    public SortedSet<T> headSet(T toElement)
+    {
+        final List<SortedSet<T>> headSets = new ArrayList<>(sources.size());
+        for (SortedSet<T> source : sources)
+        {
+            headSets.add(source.headSet(toElement));
+        }
+        return new MergedSortedSet<>(comparator, headSets);
+    }
+
+    @Override
+    public SortedSet<T> tailSet(T fromElement)
+    {
+        final List<SortedSet<T>> tailSets = new ArrayList<>(sources.size());
+        for (SortedSet<T> source : sources)
+        {
+            tailSets.add(source.tailSet(fromElement));
+        }
+        return new MergedSortedSet<>(comparator, tailSets);
+    }
+
+    @Override
+    public T first()
+    {
+        T first = null;
+        for (SortedSet<T> source : sources)
+        {
+            if (!source.isEmpty() && (first == null || comparator.compare(source.first(), first) < 0))
+            {
+                first = source.first();
+            }
+        }
+        if (first == null)
+        {
+            throw new NoSuchElementException();
+        }
+        return first;
+    }
+
+    @Override
+    public T last()
+    {
+        T last = null;
+        for (SortedSet<T> source : sources)
+        {
+            if (!source.isEmpty() && (last == null || comparator.compare(source.last(), last) > 0))
+            {
+                last = source.last();
+            }
+        }
+        if (last == null)
+        {
+            throw new NoSuchElementException();
+        }
+        return last;
+    }
+}
@@ -125,6 +125,26 @@ public class ParsedTextTest
         Assert.assertEquals(annotationContent, type.getAnnotation(annoName));
     }
 
+    @Test
+    public void testFormatCache() throws IllegalAnnotationException
+    {
+        final String annoName = "myanno";
+        type.setAnnotation(annoName, "{name(a1,\"de\")}\\n!");
+        type.setReadOnly();
+        Locale locale = Locale.GERMANY;
+        ClassificationImpl classification = (ClassificationImpl) type.newClassification();
+        classification.setValueForAttribute(attribute, c2);
+        Assert.assertEquals("Welt\n!", classification.format(locale, annoName));
+        c2.getName().setName("de", "Erde");
+        // the cached name is used until an entity cache changes
+        Assert.assertEquals("Welt\n!", classification.format(locale, annoName));
+        FormatCache.invalidateAll();
+        Assert.assertEquals("Erde\n!", classification.format(locale, annoName));
+        // changing the classification itself drops its cache
+        classification.setValueForAttribute(attribute, c3);
+        Assert.assertEquals("Welten\n!", classification.format(locale, annoName));
+    }
+
     @Test
     public void testCategoryAnnotation() throws IllegalAnnotationException
     {
@@ -24,6 +24,7 @@ import org.rapla.entities.domain.AppointmentStartComparator;
 import org.rapla.entities.domain.Repeating;
 import org.rapla.entities.domain.RepeatingType;
 import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.entities.domain.internal.OccurrenceIterator;
 import org.rapla.rest.client.internal.isodate.ISODateTimeFormat;
 
 import java.util.ArrayList;
@@ -547,9 +548,80 @@ public class AppointmentTest {
         assertEquals( 1, blocks.size());        
     }
 
-}
-
-
 
+    @Test
+    public void testManyExceptions() {
+        Appointment a1 = createAppointment("2010-1-1","10:00","12:00");
+        a1.setRepeatingEnabled(true);
+        Repeating repeating = a1.getRepeating();
+        repeating.setType( RepeatingType.DAILY);
+        repeating.setEnd( createDate("2015-1-1"));
+        // every third day is an exception
+        Date exceptionDate = createDate("2010-1-1");
+        int exceptionCount = 0;
+        while ( exceptionDate.before( createDate("2015-1-1")))
+        {
+            repeating.addException( exceptionDate);
+            exceptionCount++;
+            exceptionDate = DateTools.addDays( exceptionDate, 3);
+        }
+        final Date start = createDate("2010-1-1");
+        final Date end = createDate("2015-1-1");
+        final int days = (int) DateTools.countDays( start, end);
+        List<AppointmentBlock> blocks = new ArrayList<AppointmentBlock>();
+        a1.createBlocks( start, end, blocks);
+        assertEquals( days - exceptionCount, blocks.size());
+        blocks.clear();
+        ((AppointmentImpl) a1).createBlocks( start, end, blocks, false);
+        assertEquals( days, blocks.size());
+        int i = 0;
+        for ( AppointmentBlock block: blocks)
+        {
+            boolean expectedException = i % 3 == 0;
+            assertEquals( expectedException, block.isException());
+            assertEquals( expectedException, repeating.isException( block.getStart() + DateTools.MILLISECONDS_PER_HOUR));
+            i++;
+        }
+        assertTrue( !repeating.isException( createDate("2010-1-2").getTime()));
+        assertTrue( repeating.isException( createDate("2010-1-4").getTime() + DateTools.MILLISECONDS_PER_DAY - 1));
+        // the occurrence iterator returns the same occurrences, also in an interval in the middle of the repeating
+        final long intervalStart = createDate("2012-3-3").getTime();
+        final long intervalEnd = createDate("2012-6-1").getTime();
+        blocks.clear();
+        ((AppointmentImpl) a1).createBlocks( new Date(intervalStart), new Date(intervalEnd), blocks, false);
+        OccurrenceIterator occurrences = new OccurrenceIterator().reset( (AppointmentImpl) a1, intervalStart, intervalEnd);
+        for ( AppointmentBlock block: blocks)
+        {
+            assertTrue( occurrences.next());
+            assertEquals( block.getStart(), occurrences.getStart());
+            assertEquals( block.getEnd(), occurrences.getEnd());
+            assertEquals( block.isException(), occurrences.isException());
+        }
+        assertTrue( !occurrences.next());
+    }
 
+    @Test
+    public void testWeeklyWithWeekdays() {
+        // 2010-1-4 is a monday
+        Appointment a1 = createAppointment("2010-1-4","10:00","12:00");
+        a1.setRepeatingEnabled(true);
+        Repeating repeating = a1.getRepeating();
+        repeating.setType( RepeatingType.WEEKLY);
+        Set<Integer> weekdays = new TreeSet<Integer>();
+        weekdays.add( DateTools.MONDAY);
+        weekdays.add( DateTools.WEDNESDAY);
+        weekdays.add( DateTools.FRIDAY);
+        repeating.setWeekdays( weekdays);
+        repeating.setNumber( 6);
+        List<AppointmentBlock> blocks = new ArrayList<AppointmentBlock>();
+        a1.createBlocks( createDate("2010-1-1"), createDate("2010-3-1"), blocks);
+        assertEquals( 6, blocks.size());
+        final int[] expected = { DateTools.MONDAY, DateTools.WEDNESDAY, DateTools.FRIDAY, DateTools.MONDAY, DateTools.WEDNESDAY, DateTools.FRIDAY };
+        for ( int i = 0; i < expected.length; i++)
+        {
+            assertEquals( expected[i], DateTools.getWeekday( new Date( blocks.get( i).getStart())));
+        }
+        assertEquals( createDate("2010-1-15").getTime() + 10 * DateTools.MILLISECONDS_PER_HOUR, blocks.get( 5).getStart());
+    }
 
+}
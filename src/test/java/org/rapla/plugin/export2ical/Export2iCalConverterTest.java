@@ -0,0 +1,107 @@
+package org.rapla.plugin.export2ical;
+
+import net.fortuna.ical4j.data.CalendarOutputter;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.RaplaResources;
+import org.rapla.components.i18n.BundleManager;
+import org.rapla.components.i18n.server.ServerBundleManager;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.configuration.RaplaConfiguration;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Repeating;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.DefaultConfiguration;
+import org.rapla.framework.internal.RaplaLocaleImpl;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.export2ical.server.Export2iCalConverter;
+import org.rapla.server.internal.TimeZoneConverterImpl;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+@RunWith(JUnit4.class)
+public class Export2iCalConverterTest
+{
+    @Test
+    public void writtenFeedEqualsCalendarOutputter() throws Exception
+    {
+        final Logger logger = RaplaTestCase.initLoger();
+        final RaplaFacade facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        final User user = facade.getUser("homer");
+
+        // export the persons with a title as attendees
+        final Preferences systemPreferences = facade.edit(facade.getSystemPreferences());
+        final RaplaConfiguration config = new RaplaConfiguration();
+        config.addChild(new DefaultConfiguration(Export2iCalPlugin.EXPORT_ATTENDEES, "true"));
+        config.addChild(new DefaultConfiguration(Export2iCalPlugin.EXPORT_ATTENDEES_EMAIL_ATTRIBUTE, "title"));
+        systemPreferences.putEntry(Export2iCalPlugin.ICAL_CONFIG, config);
+        facade.store(systemPreferences);
+        Allocatable person = null;
+        for (Allocatable allocatable : facade.getAllocatables())
+        {
+            if (allocatable.isPerson())
+            {
+                person = facade.edit(allocatable);
+                break;
+            }
+        }
+        Assert.assertNotNull(person);
+        person.getClassification().setValue("title", "mailto:lecturer@rapla.dummy.rapla");
+        facade.store(person);
+        final Allocatable room = facade.newAllocatable(
+                facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        room.getClassification().setValue("name", "exported room");
+        facade.store(room);
+
+        final Date start = DateTools.toDateTime(new Date(), new Date(DateTools.toTime(10, 0, 0)));
+        final Date end = new Date(start.getTime() + 2 * DateTools.MILLISECONDS_PER_HOUR);
+        final Reservation reservation = facade.newReservation(
+                facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        reservation.getClassification().setValue("name", "exported event with a long name, so the summary line of the event is folded");
+        final Appointment weekly = facade.newAppointmentWithUser(start, end, user);
+        weekly.setRepeatingEnabled(true);
+        weekly.getRepeating().setType(Repeating.WEEKLY);
+        weekly.getRepeating().setNumber(5);
+        weekly.getRepeating().addException(DateTools.addDays(start, 7));
+        weekly.getRepeating().addException(DateTools.addDays(start, 21));
+        reservation.addAppointment(weekly);
+        final Appointment single = facade.newAppointmentWithUser(DateTools.addDays(start, 1), DateTools.addDays(end, 1), user);
+        reservation.addAppointment(single);
+        reservation.addAllocatable(person);
+        reservation.addAllocatable(room);
+        facade.store(reservation);
+
+        final TimeZoneConverterImpl timeZoneConverter = new TimeZoneConverterImpl();
+        timeZoneConverter.setImportExportTimeZone(TimeZone.getTimeZone("Europe/Berlin"));
+        final BundleManager bundleManager = new ServerBundleManager();
+        final Export2iCalConverter converter = new Export2iCalConverter(timeZoneConverter, new RaplaLocaleImpl(bundleManager), logger, facade,
+                new RaplaResources(bundleManager));
+        final List<Appointment> appointments = new ArrayList<>(Arrays.asList(facade.resolve(reservation.getReference()).getAppointments()));
+
+        final StringWriter expected = new StringWriter();
+        new CalendarOutputter().output(converter.createiCalender(appointments, null, user), expected);
+        final StringWriter written = new StringWriter();
+        converter.writeiCalendar(appointments, null, user, written);
+
+        final String expectedFeed = expected.toString();
+        Assert.assertTrue(expectedFeed.contains("BEGIN:VTIMEZONE"));
+        Assert.assertTrue(expectedFeed.contains("RRULE:"));
+        Assert.assertTrue(expectedFeed.contains("EXDATE"));
+        Assert.assertTrue(expectedFeed.contains("ATTENDEE"));
+        Assert.assertEquals(expectedFeed, written.toString());
+        RaplaTestCase.dispose(facade);
+    }
+}
@@ -0,0 +1,132 @@
+package org.rapla.plugin.export2ical;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.internal.UserImpl;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.RaplaException;
+import org.rapla.framework.TypedComponentRole;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.export2ical.server.ICalFeedCache;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+
+@RunWith(JUnit4.class)
+public class ICalFeedCacheTest
+{
+    private ICalFeedCache.Feed createFeed(String content, Date lastModified)
+    {
+        UserImpl user = new UserImpl(lastModified, lastModified);
+        user.setId("u1");
+        return new ICalFeedCache.Feed(content.getBytes(StandardCharsets.UTF_8), lastModified, new Date(), user, Collections.emptySet(),
+                Collections.emptySet(), false, false);
+    }
+
+    @Test
+    public void conditionalRequests()
+    {
+        final Date lastModified = new Date(1_000_000_000_500L);
+        final ICalFeedCache.Feed feed = createFeed("BEGIN:VCALENDAR\nEND:VCALENDAR", lastModified);
+        final String eTag = feed.getETag();
+        Assert.assertEquals(eTag, createFeed("BEGIN:VCALENDAR\nEND:VCALENDAR", lastModified).getETag());
+        Assert.assertFalse(eTag.equals(createFeed("BEGIN:VCALENDAR\nX:1\nEND:VCALENDAR", lastModified).getETag()));
+
+        Assert.assertTrue(feed.isNotModified(eTag, -1));
+        Assert.assertTrue(feed.isNotModified("\"other\", " + eTag, -1));
+        Assert.assertTrue(feed.isNotModified("*", -1));
+        Assert.assertFalse(feed.isNotModified("\"other\"", -1));
+        // If-None-Match takes precedence
+        Assert.assertFalse(feed.isNotModified("\"other\"", lastModified.getTime()));
+
+        // http dates have no milliseconds
+        Assert.assertTrue(feed.isNotModified(null, 1_000_000_000_000L));
+        Assert.assertFalse(feed.isNotModified(null, 999_999_999_000L));
+        Assert.assertFalse(feed.isNotModified(null, -1));
+    }
+
+    @Test
+    public void updatesRemoveAffectedFeeds() throws Exception
+    {
+        final Logger logger = RaplaTestCase.initLoger();
+        final RaplaFacade facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        final User user = facade.getUser("homer");
+        final Allocatable resource = newResource(facade, user, "feedResource");
+        final Allocatable otherResource = newResource(facade, user, "otherResource");
+        final Reservation reservation = newReservation(facade, user, "feedEvent", resource);
+        final ICalFeedCache cache = new ICalFeedCache(facade, logger);
+        final ICalFeedCache.Feed feed = new ICalFeedCache.Feed("BEGIN:VCALENDAR\nEND:VCALENDAR".getBytes(StandardCharsets.UTF_8), new Date(),
+                new Date(), user, Collections.singleton(resource.getId()), Collections.singleton(reservation.getId()), false, false);
+        final TypedComponentRole<String> entry = new TypedComponentRole<>("org.rapla.test.feedcache");
+
+        // a change of a reservation in the feed
+        putFeed(cache, user, feed);
+        final Reservation editedReservation = facade.edit(reservation);
+        editedReservation.getClassification().setValue("name", "feedEvent changed");
+        facade.store(editedReservation);
+        Assert.assertNull(cache.get(user, "feed", new Date()));
+
+        // a change of a resource in the feed
+        putFeed(cache, user, feed);
+        final Allocatable editedResource = facade.edit(resource);
+        editedResource.getClassification().setValue("name", "feedResource changed");
+        facade.store(editedResource);
+        Assert.assertNull(cache.get(user, "feed", new Date()));
+
+        // a change of the preferences of the user
+        putFeed(cache, user, feed);
+        final Preferences preferences = facade.edit(facade.getPreferences(user));
+        preferences.putEntry(entry, "changed");
+        facade.store(preferences);
+        Assert.assertNull(cache.get(user, "feed", new Date()));
+
+        // unrelated changes: another resource, a reservation of another resource and the preferences of another user
+        putFeed(cache, user, feed);
+        final Allocatable editedOther = facade.edit(otherResource);
+        editedOther.getClassification().setValue("name", "otherResource changed");
+        facade.store(editedOther);
+        newReservation(facade, user, "otherEvent", otherResource);
+        final User otherUser = facade.getUser("monty");
+        final Preferences otherPreferences = facade.edit(facade.getPreferences(otherUser));
+        otherPreferences.putEntry(entry, "changed");
+        facade.store(otherPreferences);
+        Assert.assertSame(feed, cache.get(user, "feed", new Date()));
+        RaplaTestCase.dispose(facade);
+    }
+
+    private void putFeed(ICalFeedCache cache, User user, ICalFeedCache.Feed feed) throws RaplaException
+    {
+        cache.put(user, "feed", feed, cache.getSynched());
+        Assert.assertSame(feed, cache.get(user, "feed", new Date()));
+    }
+
+    private Allocatable newResource(RaplaFacade facade, User user, String name) throws RaplaException
+    {
+        final Allocatable resource = facade.newAllocatable(
+                facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        resource.getClassification().setValue("name", name);
+        facade.store(resource);
+        return resource;
+    }
+
+    private Reservation newReservation(RaplaFacade facade, User user, String name, Allocatable resource) throws RaplaException
+    {
+        final Reservation reservation = facade.newReservation(
+                facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        reservation.getClassification().setValue("name", name);
+        reservation.addAppointment(facade.newAppointmentWithUser(new Date(), new Date(System.currentTimeMillis() + DateTools.MILLISECONDS_PER_HOUR), user));
+        reservation.addAllocatable(resource);
+        facade.store(reservation);
+        return reservation;
+    }
+}
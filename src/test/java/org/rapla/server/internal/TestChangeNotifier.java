@@ -0,0 +1,136 @@
+package org.rapla.server.internal;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.AppointmentFormaterImpl;
+import org.rapla.RaplaResources;
+import org.rapla.components.i18n.internal.AbstractBundleManager;
+import org.rapla.components.i18n.server.ServerBundleManager;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.RaplaException;
+import org.rapla.framework.TypedComponentRole;
+import org.rapla.framework.internal.RaplaLocaleImpl;
+import org.rapla.logger.Logger;
+import org.rapla.scheduler.Promise;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateEvent;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(JUnit4.class)
+public class TestChangeNotifier
+{
+    private Logger logger;
+    private RaplaFacade facade;
+    private UpdateDataManager updateManager;
+    private ChangeNotifier notifier;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        CachableStorageOperator operator = (CachableStorageOperator) facade.getOperator();
+        // the file operator stamps the entities it creates on load after its refresh time, so a sync right after the start could still get them
+        operator.refresh();
+        AbstractBundleManager bundleManager = new ServerBundleManager();
+        RaplaResources i18n = new RaplaResources(bundleManager);
+        final RaplaLocaleImpl raplaLocale = new RaplaLocaleImpl(bundleManager);
+        SecurityManager securityManager = new SecurityManager(logger, i18n, new AppointmentFormaterImpl(i18n, raplaLocale), operator);
+        updateManager = new UpdateDataManagerImpl(logger, operator, securityManager);
+        notifier = new ChangeNotifier(operator, updateManager, facade.getScheduler(), logger, new ServerContainerContext());
+    }
+
+    @After
+    public void tearDown() throws RaplaException
+    {
+        RaplaTestCase.dispose(facade);
+    }
+
+    @Test
+    public void visibleStoreAnswersWaitingClient() throws Exception
+    {
+        final User monty = facade.getUser("monty");
+        final Date lastSynched = updateManager.createUpdateEvent(monty, new Date()).getLastValidated();
+        final Promise<UpdateEvent> promise = notifier.waitForChanges(monty, lastSynched);
+        final AtomicReference<UpdateEvent> answer = answerOf(promise);
+        Assert.assertNull(answer.get());
+
+        final Allocatable resource = facade.newAllocatable(
+                facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), facade.getUser("homer"));
+        resource.getClassification().setValue("name", "resource stored while monty waits");
+        facade.store(resource);
+        final UpdateEvent event = RaplaTestCase.waitForWithRaplaException(promise, 10000);
+        boolean found = false;
+        for (Entity entity : event.getStoreObjects())
+        {
+            found |= entity.getId().equals(resource.getId());
+        }
+        Assert.assertTrue(found);
+    }
+
+    @Test
+    public void invisibleStoreKeepsClientWaitingUntilExpired() throws Exception
+    {
+        final User homer = facade.getUser("homer");
+        final User monty = facade.getUser("monty");
+        final Date lastSynched = updateManager.createUpdateEvent(monty, new Date()).getLastValidated();
+        final Promise<UpdateEvent> promise = notifier.waitForChanges(monty, lastSynched);
+        final AtomicReference<UpdateEvent> answer = answerOf(promise);
+
+        // monty can't see the preferences of homer
+        final Preferences preferences = facade.edit(facade.getPreferences(homer));
+        preferences.putEntry(new TypedComponentRole<String>("org.rapla.test.changes"), "changed");
+        facade.store(preferences);
+        notifier.checkWaiting();
+        Assert.assertNull(answer.get());
+
+        notifier.answerExpired(System.currentTimeMillis() + ChangeNotifier.WAIT_TIMEOUT);
+        final UpdateEvent event = RaplaTestCase.waitForWithRaplaException(promise, 10000);
+        Assert.assertTrue(event.isEmpty());
+        Assert.assertTrue(event.getPreferencePatches().isEmpty());
+    }
+
+    @Test
+    public void waitingClientsPerUserAreLimited() throws Exception
+    {
+        final User homer = facade.getUser("homer");
+        final User monty = facade.getUser("monty");
+        final Date lastSynched = updateManager.createUpdateEvent(monty, new Date()).getLastValidated();
+        for (int i = 0; i < ChangeNotifier.MAX_WAITING_PER_USER; i++)
+        {
+            notifier.waitForChanges(monty, lastSynched);
+        }
+        try
+        {
+            notifier.waitForChanges(monty, lastSynched);
+            Assert.fail("More waiting clients of a user than allowed");
+        }
+        catch (RaplaException ex)
+        {
+        }
+        notifier.waitForChanges(homer, lastSynched);
+
+        // answered requests don't count
+        notifier.answerExpired(System.currentTimeMillis() + ChangeNotifier.WAIT_TIMEOUT);
+        notifier.waitForChanges(monty, lastSynched);
+    }
+
+    private static AtomicReference<UpdateEvent> answerOf(Promise<UpdateEvent> promise)
+    {
+        final AtomicReference<UpdateEvent> answer = new AtomicReference<>();
+        promise.thenAccept(answer::set);
+        return answer;
+    }
+}
@@ -18,6 +18,7 @@ import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.dynamictype.Classification;
 import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.Conflict;
 import org.rapla.facade.ModificationEvent;
 import org.rapla.facade.ModificationListener;
@@ -25,12 +26,18 @@ import org.rapla.facade.RaplaFacade;
 import org.rapla.facade.client.ClientFacade;
 import org.rapla.facade.internal.FacadeImpl;
 import org.rapla.framework.RaplaException;
+import org.rapla.storage.ConflictPage;
+import org.rapla.storage.RaplaSecurityException;
+import org.rapla.storage.StorageOperator;
+import org.rapla.storage.dbrm.RestartServer;
 import org.rapla.test.util.RaplaTestCase;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -253,4 +260,135 @@ public class TestRemoteStorageImpl extends AbstractTestWithServer
         Assert.assertEquals(1, conflicts.size());
     }
 
+    /** the methods returning a promise are answered asynchronously, see PromiseAsyncResponseProvider. The results and errors must not change */
+    @Test
+    public void testPromiseResultsAndErrors() throws Exception
+    {
+        final RaplaFacade facade = clientFacade.getRaplaFacade();
+        final StorageOperator operator = facade.getOperator();
+        Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification();
+        User user = clientFacade.getUser();
+        final Allocatable allocatable = operator.tryResolve("r9b69d90-46a0-41bb-94fa-82079b424c03", Allocatable.class);
+        Date startDate = DateTools.toDateTime(new Date(System.currentTimeMillis()), new Date(DateTools.toTime(10, 00, 00)));
+        Date endDate = DateTools.toDateTime(new Date(System.currentTimeMillis()), new Date(DateTools.toTime(12, 00, 00)));
+        for (int i = 0; i < 2; i++)
+        {
+            final Reservation newReservation = facade.newReservation(classification, user);
+            newReservation.addAllocatable(allocatable);
+            newReservation.addAppointment(facade.newAppointmentWithUser(startDate, endDate, user));
+            facade.store(newReservation);
+        }
+        // the client gets the same conflicts as the server computes
+        final RaplaFacade serverFacade = getServerRaplaFacade();
+        final List<String> expected = new ArrayList<>();
+        for (Conflict conflict : RaplaTestCase.waitForWithRaplaException(serverFacade.getOperator().getConflicts(serverFacade.getUser("homer")), 10000))
+        {
+            expected.add(conflict.getId());
+        }
+        final List<String> remote = new ArrayList<>();
+        for (Conflict conflict : RaplaTestCase.waitForWithRaplaException(operator.getConflicts(user), 10000))
+        {
+            remote.add(conflict.getId());
+        }
+        Collections.sort(expected);
+        Collections.sort(remote);
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, remote);
+        final List<ReferenceInfo<Allocatable>> ids = RaplaTestCase.waitForWithRaplaException(operator.createIdentifierAsync(Allocatable.class, 3), 10000);
+        Assert.assertEquals(3, new HashSet<>(ids).size());
+
+        // a failed promise is sent like the exception of a synchronous method
+        final ClientFacade montyFacade = createClientFacade();
+        login(montyFacade, "monty", "burns".toCharArray());
+        final RestartServer restartServer = (RestartServer) montyFacade.getRaplaFacade().getOperator();
+        try
+        {
+            RaplaTestCase.waitForWithRaplaException(restartServer.restartServer(), 10000);
+            Assert.fail("RaplaSecurityException expected");
+        }
+        catch (Exception ex)
+        {
+            Throwable cause = ex;
+            while (cause != null && !(cause instanceof RaplaSecurityException))
+            {
+                cause = cause.getCause();
+            }
+            Assert.assertNotNull("RaplaSecurityException expected but was " + ex, cause);
+            Assert.assertEquals("Only admins can restart the server", cause.getMessage());
+        }
+    }
+
+    @Test
+    public void testQueryConflictPages() throws Exception
+    {
+        final RaplaFacade facade = clientFacade.getRaplaFacade();
+        final StorageOperator operator = facade.getOperator();
+        Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification();
+        User user = clientFacade.getUser();
+        final Allocatable allocatable = operator.tryResolve("r9b69d90-46a0-41bb-94fa-82079b424c03", Allocatable.class);
+        Date startDate = DateTools.toDateTime(new Date(System.currentTimeMillis()), new Date(DateTools.toTime(10, 00, 00)));
+        Date endDate = DateTools.toDateTime(new Date(System.currentTimeMillis()), new Date(DateTools.toTime(12, 00, 00)));
+        for (int i = 0; i < 3; i++)
+        {
+            final Reservation newReservation = facade.newReservation(classification, user);
+            newReservation.addAllocatable(allocatable);
+            newReservation.addAppointment(facade.newAppointmentWithUser(startDate, endDate, user));
+            facade.store(newReservation);
+        }
+        final Collection<Conflict> allConflicts = RaplaTestCase.waitForWithRaplaException(operator.getConflicts(user), 10000);
+        final List<String> expected = new ArrayList<>();
+        for (Conflict conflict : allConflicts)
+        {
+            expected.add(conflict.getId());
+        }
+        Collections.sort(expected);
+        Assert.assertTrue(expected.size() >= 3);
+
+        final List<String> paged = new ArrayList<>();
+        String cursor = null;
+        Date lastSynched = null;
+        do
+        {
+            final ConflictPage page = RaplaTestCase.waitForWithRaplaException(operator.queryConflicts(user, null, null, null, null, null, cursor, 2), 10000);
+            Assert.assertTrue(page.isFullListing());
+            Assert.assertTrue(page.getConflicts().size() <= 2);
+            for (Conflict conflict : page.getConflicts())
+            {
+                paged.add(conflict.getId());
+            }
+            if (lastSynched == null)
+            {
+                lastSynched = page.getLastSynched();
+            }
+            cursor = page.getNextCursor();
+        }
+        while (cursor != null);
+        Assert.assertEquals(expected, paged);
+
+        final List<Allocatable> otherAllocatables = Collections.singletonList(operator.tryResolve("c24ce517-4697-4e52-9917-ec000c84563c", Allocatable.class));
+        final ConflictPage otherPage = RaplaTestCase.waitForWithRaplaException(operator.queryConflicts(user, otherAllocatables, null, null, null, null, null, 100), 10000);
+        Assert.assertEquals(0, otherPage.getConflicts().size());
+
+        // only the conflicts of the new reservation are returned as changes
+        final Reservation newReservation = facade.newReservation(classification, user);
+        newReservation.addAllocatable(allocatable);
+        newReservation.addAppointment(facade.newAppointmentWithUser(startDate, endDate, user));
+        facade.store(newReservation);
+        final ConflictPage changes = RaplaTestCase.waitForWithRaplaException(operator.queryConflicts(user, null, null, null, null, lastSynched, null, 100), 10000);
+        Assert.assertFalse(changes.isFullListing());
+        Assert.assertEquals(expected.size() + changes.getConflicts().size(), RaplaTestCase.waitForWithRaplaException(operator.getConflicts(user), 10000).size());
+        for (Conflict conflict : changes.getConflicts())
+        {
+            Assert.assertFalse(expected.contains(conflict.getId()));
+        }
+
+        // removing the reservation reports its conflicts as removed
+        final Date removeSynched = changes.getLastSynched();
+        facade.remove(newReservation);
+        final ConflictPage removed = RaplaTestCase.waitForWithRaplaException(operator.queryConflicts(user, null, null, null, null, removeSynched, null, 100), 10000);
+        Assert.assertFalse(removed.isFullListing());
+        Assert.assertEquals(0, removed.getConflicts().size());
+        Assert.assertEquals(changes.getConflicts().size(), removed.getRemovedIds().size());
+    }
+
 }
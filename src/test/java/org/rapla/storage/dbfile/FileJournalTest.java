@@ -0,0 +1,33 @@
+package org.rapla.storage.dbfile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.logger.RaplaBootstrapLogger;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+
+@RunWith(JUnit4.class)
+public class FileJournalTest
+{
+    @Test
+    public void testCorruptLengthIsTruncated() throws Exception
+    {
+        final File file = Files.createTempFile("rapla", ".journal").toFile();
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file)))
+        {
+            // a header with a huge length, as left behind by a torn write
+            out.writeInt(Integer.MAX_VALUE - 16);
+            out.writeLong(0);
+            out.write(new byte[] { 1, 2, 3 });
+        }
+        final FileJournal journal = new FileJournal(file, RaplaBootstrapLogger.createRaplaLogger());
+        Assert.assertTrue(journal.read().isEmpty());
+        Assert.assertEquals(0, file.length());
+    }
+}
@@ -17,6 +17,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.entities.storage.ImportExportDirections;
 import org.rapla.entities.storage.ImportExportEntity;
 import org.rapla.entities.storage.internal.ImportExportEntityImpl;
@@ -37,10 +41,12 @@ import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.Collection;
+import java.util.Date;
 import java.util.concurrent.Future;
 
 @RunWith(JUnit4.class)
@@ -164,9 +170,49 @@ public class FileOperatorTest extends AbstractOperatorTest {
             Assert.assertEquals(0, importExportEntities.size());
         }
     }
-}
-
-
-
-
 
+    @Test
+    public void testJournalReplay() throws Exception
+    {
+        final Path dir = Files.createTempDirectory("rapla-journal");
+        final Path dataFile = dir.resolve("data.xml");
+        Files.copy(Paths.get(RaplaTestCase.getTestDataFile("/testdefault.xml")), dataFile);
+        final String path = dataFile.toString();
+        final RaplaFacade facade1 = RaplaTestCase.createFacadeWithFile(logger, path, new FileOperator.DefaultFileIO());
+        final FileOperator operator1 = (FileOperator) facade1.getOperator();
+        operator1.disconnect();
+        operator1.setJournalEnabled(true);
+        operator1.connect();
+        final long dataFileModified = Files.getLastModifiedTime(dataFile).toMillis();
+
+        final User user = facade1.getUser("homer");
+        Reservation event = facade1.newReservation(facade1.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        event.getClassification().setValue("name", "journaled");
+        event.addAppointment(facade1.newAppointmentWithUser(new Date(), new Date(System.currentTimeMillis() + DateTools.MILLISECONDS_PER_HOUR), user));
+        event.addAllocatable(facade1.getAllocatables()[0]);
+        facade1.store(event);
+        // the change is only in the journal
+        Assert.assertEquals(dataFileModified, Files.getLastModifiedTime(dataFile).toMillis());
+        Assert.assertTrue(Files.size(dir.resolve("data.xml.journal")) > 0);
+
+        // a second operator that starts while the first did not compact replays the journal
+        final RaplaFacade facade2 = RaplaTestCase.createFacadeWithFile(logger, path, new FileOperator.DefaultFileIO());
+        final FileOperator operator2 = (FileOperator) facade2.getOperator();
+        operator2.disconnect();
+        operator2.setJournalEnabled(true);
+        operator2.connect();
+        final Reservation replayed = operator2.tryResolve(event.getReference());
+        Assert.assertNotNull(replayed);
+        Assert.assertEquals("journaled", replayed.getClassification().getValue("name"));
+        operator2.setJournalEnabled(false);
+        operator2.disconnect();
+
+        // disconnect compacts the journal into the data file
+        operator1.disconnect();
+        Assert.assertEquals(0, Files.size(dir.resolve("data.xml.journal")));
+        operator1.setJournalEnabled(false);
+        operator1.connect();
+        Assert.assertNotNull(operator1.tryResolve(event.getReference()));
+        operator1.disconnect();
+    }
+}
@@ -0,0 +1,122 @@
+package org.rapla.storage.dbsql.tests;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.storage.dbsql.DBOperator;
+import org.rapla.storage.dbsql.SocketChangeFeed;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/** runs two servers on one database and checks that the changes of one server are visible on the other without waiting for the regular refresh */
+@RunWith(JUnit4.class)
+public class ClusterConvergenceTest
+{
+    static final long CONVERGENCE_TIMEOUT = 5000;
+
+    RaplaFacade facade1;
+    RaplaFacade facade2;
+    DBOperator operator1;
+    DBOperator operator2;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        JDBCDataSource datasource = new JDBCDataSource();
+        datasource.setUrl("jdbc:hsqldb:target/test/rapla-cluster");
+        datasource.setUser("db_user");
+        datasource.setPassword("your_pwd");
+        // the first server imports the test data, the second loads it from the database
+        facade1 = RaplaTestCase.createFacadeWithDatasource(logger, datasource, "/testdefault.xml");
+        facade2 = RaplaTestCase.createFacadeWithDatasource(logger, datasource, null);
+        operator1 = (DBOperator) facade1.getOperator();
+        operator2 = (DBOperator) facade2.getOperator();
+        SocketChangeFeed feed1 = new SocketChangeFeed(logger, null, 0);
+        SocketChangeFeed feed2 = new SocketChangeFeed(logger, null, 0);
+        operator1.setChangeFeed(feed1);
+        operator2.setChangeFeed(feed2);
+        feed1.addPeer(new InetSocketAddress("localhost", feed2.getLocalPort()));
+        feed2.addPeer(new InetSocketAddress("localhost", feed1.getLocalPort()));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        RaplaTestCase.dispose(facade2);
+        RaplaTestCase.dispose(facade1);
+    }
+
+    @Test
+    public void testChangesConverge() throws Exception
+    {
+        final User user1 = facade1.getUser("homer");
+        final Date start = new Date(DateTools.cutDate(System.currentTimeMillis()) + DateTools.MILLISECONDS_PER_HOUR * 10);
+        final Date end = new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR);
+        Allocatable resource = facade1
+                .newAllocatable(facade1.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user1);
+        resource.getClassification().setValue("name", "cluster-resource");
+        Reservation event = facade1
+                .newReservation(facade1.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user1);
+        event.getClassification().setValue("name", "cluster-event");
+        event.addAppointment(facade1.newAppointmentWithUser(start, end, user1));
+        event.addAllocatable(resource);
+        facade1.storeAndRemove(new Entity[] { resource, event }, Entity.ENTITY_ARRAY, user1);
+
+        final ReferenceInfo<Reservation> eventId = event.getReference();
+        final ReferenceInfo<Allocatable> resourceId = resource.getReference();
+        waitFor(() -> operator2.tryResolve(eventId) != null, "new event not propagated to second server");
+
+        // the appointment bindings of the second server must contain the new appointment
+        final Allocatable resource2 = operator2.tryResolve(resourceId);
+        Assert.assertNotNull(resource2);
+        final Map<Allocatable, Collection<Appointment>> appointments = RaplaTestCase
+                .waitForWithRaplaException(operator2.queryAppointments(null, Collections.singleton(resource2), start, end, null, (Map<String, String>) null),
+                        10000);
+        Assert.assertEquals(1, appointments.get(resource2).size());
+
+        // and back: a change on the second server is visible on the first
+        final User user2 = facade2.getUser("homer");
+        Reservation editEvent = facade2.edit(operator2.tryResolve(eventId));
+        editEvent.getClassification().setValue("name", "cluster-event-changed");
+        facade2.store(editEvent);
+        waitFor(() -> "cluster-event-changed".equals(operator1.tryResolve(eventId).getClassification().getValue("name")),
+                "changed event not propagated to first server");
+
+        facade2.storeAndRemove(Entity.ENTITY_ARRAY, new Entity[] { operator2.tryResolve(eventId) }, user2);
+        waitFor(() -> operator1.tryResolve(eventId) == null, "removed event not propagated to first server");
+    }
+
+    private void waitFor(BooleanSupplier condition, String message) throws InterruptedException
+    {
+        final long timeout = System.currentTimeMillis() + CONVERGENCE_TIMEOUT;
+        while (!condition.getAsBoolean())
+        {
+            if (System.currentTimeMillis() > timeout)
+            {
+                Assert.fail(message);
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -52,6 +52,10 @@ import org.rapla.storage.dbsql.DBOperator;
 import org.rapla.storage.tests.AbstractOperatorTest;
 import org.rapla.test.util.RaplaTestCase;
 
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -686,6 +690,59 @@ public class SQLOperatorTest extends AbstractOperatorTest
         }
     }
 
+    @Test
+    public void testSnapshotRestart() throws Exception
+    {
+        final DBOperator operator = (DBOperator) facade.getOperator();
+        final Path dir = Files.createTempDirectory("rapla-snapshot");
+        final Path snapshotFile = dir.resolve("cache.snapshot");
+        operator.disconnect();
+        operator.setSnapshotFile(snapshotFile.toFile());
+        operator.connect();
+        final User user = facade.getUser("homer");
+        final Reservation beforeSnapshot = newEvent(user, "before snapshot");
+        facade.store(beforeSnapshot);
+        operator.writeSnapshot();
+        final Path copy = dir.resolve("copy.snapshot");
+        Files.copy(snapshotFile, copy);
+
+        // this change is only in the database and must be loaded from the history on restart
+        final Reservation afterSnapshot = newEvent(user, "after snapshot");
+        facade.store(afterSnapshot);
+        operator.disconnect();
+        Files.copy(copy, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        operator.connect();
+        Assert.assertEquals("before snapshot", operator.resolve(beforeSnapshot.getReference()).getClassification().getValue("name"));
+        Assert.assertEquals("after snapshot", operator.resolve(afterSnapshot.getReference()).getClassification().getValue("name"));
+        Assert.assertNotNull(facade.getUser("homer"));
+
+        // a corrupt snapshot is ignored
+        operator.disconnect();
+        Files.write(snapshotFile, new byte[] { 1, 2, 3 });
+        operator.connect();
+        Assert.assertNotNull(operator.tryResolve(afterSnapshot.getReference()));
+
+        // a snapshot that is too large to be mapped is ignored, the sparse file takes no disk space
+        operator.disconnect();
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile.toFile(), "rw"))
+        {
+            file.setLength(Integer.MAX_VALUE + 1L);
+        }
+        operator.connect();
+        Assert.assertNotNull(operator.tryResolve(afterSnapshot.getReference()));
+        Files.delete(snapshotFile);
+        operator.setSnapshotFile(null);
+    }
+
+    private Reservation newEvent(User user, String name) throws RaplaException
+    {
+        final Reservation event = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        event.getClassification().setValue("name", name);
+        final Date start = new Date();
+        event.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), user));
+        return event;
+    }
+
     @Test
     public void testInsertAndDelete() throws Exception
     {
@@ -701,6 +758,105 @@ public class SQLOperatorTest extends AbstractOperatorTest
         facade.storeAndRemove(new Entity[]{reservation}, Entity.ENTITY_ARRAY, user);
         facade.storeAndRemove(Entity.ENTITY_ARRAY, new Entity[]{reservation} , user);
     }
+
+    @Test
+    public void testCleanupHistory() throws Exception
+    {
+        final DBOperator operator = (DBOperator) facade.getOperator();
+        final long now = System.currentTimeMillis();
+        final long day = DateTools.MILLISECONDS_PER_DAY;
+        try (final Connection connection = operator.createConnection();
+                final PreparedStatement stmt = connection.prepareStatement(
+                        "INSERT INTO CHANGES (ID, TYPE, ENTITY_CLASS, XML_VALUE, CHANGED_AT, ISDELETE) VALUES (?, 'resource', 'Allocatable', '{}', ?, ?)"))
+        {
+            // only old changes, all will be removed
+            insertChange(stmt, "cleanup1", now - 10 * day, 0);
+            insertChange(stmt, "cleanup1", now - 9 * day, 0);
+            // changed after the cleanup date, the last change before is kept
+            insertChange(stmt, "cleanup2", now - 10 * day, 0);
+            insertChange(stmt, "cleanup2", now - 8 * day, 0);
+            insertChange(stmt, "cleanup2", now - day, 0);
+            // the last change before is a delete, so it is removed as well
+            insertChange(stmt, "cleanup3", now - 10 * day, 0);
+            insertChange(stmt, "cleanup3", now - 8 * day, 1);
+            insertChange(stmt, "cleanup3", now - day, 0);
+            stmt.executeBatch();
+            connection.commit();
+        }
+        operator.cleanupHistory(new Date(now - 7 * day));
+        Assert.assertEquals(0, countChanges(operator, "cleanup1"));
+        Assert.assertEquals(2, countChanges(operator, "cleanup2"));
+        Assert.assertEquals(1, countChanges(operator, "cleanup3"));
+        // the next cleanup continues after the last one and still removes the kept entry
+        operator.cleanupHistory(new Date(now));
+        Assert.assertEquals(0, countChanges(operator, "cleanup2"));
+        Assert.assertEquals(0, countChanges(operator, "cleanup3"));
+    }
+
+    @Test
+    public void testGlobalLockDuringCleanupHistory() throws Exception
+    {
+        final DBOperator operator = (DBOperator) facade.getOperator();
+        // creates the progress marker of the cleanup
+        operator.cleanupHistory(new Date(System.currentTimeMillis() - 7 * DateTools.MILLISECONDS_PER_DAY));
+        try (final Connection connection = operator.createConnection();
+                final PreparedStatement stmt = connection.prepareStatement("SELECT LAST_REQUESTED FROM WRITE_LOCK WHERE LOCKID = 'HISTORY_CLEANUP'"))
+        {
+            final ResultSet result = stmt.executeQuery();
+            Assert.assertTrue(result.next());
+            // nothing was older than the cleanup date, so no progress is stored
+            Assert.assertNull(result.getTimestamp(1));
+        }
+        // a cleanup that is running on another server
+        setCleanupActive(operator, true);
+        try
+        {
+            final long start = System.currentTimeMillis();
+            DynamicType type = facade.edit(facade.getDynamicType("event"));
+            Attribute att = facade.newAttribute(AttributeType.STRING);
+            att.setKey("during-cleanup");
+            type.addAttribute(att);
+            facade.store(type);
+            Assert.assertNotNull(facade.getDynamicType("event").getAttribute("during-cleanup"));
+            Assert.assertTrue(System.currentTimeMillis() - start < 30000);
+        }
+        finally
+        {
+            setCleanupActive(operator, false);
+        }
+    }
+
+    private void setCleanupActive(DBOperator operator, boolean active) throws Exception
+    {
+        try (final Connection connection = operator.createConnection();
+                final PreparedStatement stmt = connection.prepareStatement("UPDATE WRITE_LOCK SET ACTIVE = ?, VALID_UNTIL = ? WHERE LOCKID = 'HISTORY_CLEANUP'"))
+        {
+            stmt.setInt(1, active ? 1 : 2);
+            stmt.setTimestamp(2, new Timestamp(System.currentTimeMillis() + 10 * DateTools.MILLISECONDS_PER_MINUTE));
+            Assert.assertEquals(1, stmt.executeUpdate());
+            connection.commit();
+        }
+    }
+
+    private void insertChange(PreparedStatement stmt, String id, long changedAt, int isDelete) throws SQLException
+    {
+        stmt.setString(1, id);
+        stmt.setTimestamp(2, new Timestamp(changedAt));
+        stmt.setInt(3, isDelete);
+        stmt.addBatch();
+    }
+
+    private int countChanges(DBOperator operator, String id) throws Exception
+    {
+        try (final Connection connection = operator.createConnection();
+                final PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(ID) FROM CHANGES WHERE ID = ?"))
+        {
+            stmt.setString(1, id);
+            final ResultSet result = stmt.executeQuery();
+            result.next();
+            return result.getInt(1);
+        }
+    }
     @Test
     @Ignore
     public void testChangesAddChangeDelete() throws Exception
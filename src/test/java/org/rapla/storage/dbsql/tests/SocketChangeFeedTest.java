@@ -0,0 +1,69 @@
+package org.rapla.storage.dbsql.tests;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.logger.Logger;
+import org.rapla.logger.RaplaBootstrapLogger;
+import org.rapla.storage.dbsql.SocketChangeFeed;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class SocketChangeFeedTest
+{
+    SocketChangeFeed receiver;
+    SocketChangeFeed sender;
+
+    @After
+    public void tearDown()
+    {
+        if (receiver != null)
+        {
+            receiver.stop();
+        }
+        if (sender != null)
+        {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void testOnlyPeersAreAccepted() throws Exception
+    {
+        Logger logger = RaplaBootstrapLogger.createRaplaLogger();
+        final BlockingQueue<Date> received = new LinkedBlockingQueue<>();
+        receiver = new SocketChangeFeed(logger, null, 0);
+        receiver.start(received::add);
+        sender = new SocketChangeFeed(logger, null, 0);
+        sender.start(committedAt -> {
+        });
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        final InetSocketAddress receiverAddress = new InetSocketAddress(loopback, receiver.getLocalPort());
+        sender.addPeer(receiverAddress);
+
+        // a well formed message from a socket that is not a peer of the receiver
+        try (DatagramSocket unknown = new DatagramSocket(0, loopback))
+        {
+            final byte[] data = "rapla-changes other-node 1000".getBytes(StandardCharsets.UTF_8);
+            unknown.send(new DatagramPacket(data, data.length, receiverAddress));
+        }
+        Assert.assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+
+        receiver.addPeer(new InetSocketAddress(loopback, sender.getLocalPort()));
+        sender.publish(new Date(2000));
+        final Date committedAt = received.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(new Date(2000), committedAt);
+        Assert.assertTrue(received.isEmpty());
+    }
+}
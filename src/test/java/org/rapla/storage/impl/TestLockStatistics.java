@@ -0,0 +1,64 @@
+package org.rapla.storage.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.logger.ConsoleLogger;
+
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class TestLockStatistics
+{
+    @Test
+    public void groupsAndHolders() throws Exception
+    {
+        DefaultRaplaLock lockManager = new DefaultRaplaLock(new ConsoleLogger());
+        LockStatistics statistics = lockManager.getStatistics();
+        RaplaLock.ReadLock read1 = lockManager.readLock(getClass(), "getConflicts for homer");
+        RaplaLock.ReadLock read2 = lockManager.readLock(getClass(), "getConflicts for bart");
+        Assert.assertEquals(2, statistics.getHolders(RaplaLock.ReadLock.class).size());
+        Assert.assertEquals(2, statistics.getReadLockCount());
+        Assert.assertEquals(2, statistics.getCurrentHolders().length);
+        for (String holder : statistics.getCurrentHolders())
+        {
+            // the status page is public, so the holders only show the group of the lock name
+            Assert.assertTrue(holder, holder.startsWith("getConflicts held for "));
+            Assert.assertFalse(holder, holder.contains("homer") || holder.contains("bart"));
+        }
+        lockManager.unlock(read1);
+        lockManager.unlock(read2);
+        Assert.assertTrue(statistics.getHolders(RaplaLock.ReadLock.class).isEmpty());
+
+        RaplaLock.WriteLock write = lockManager.writeLock(getClass(), "Dispatching UpdateEvent");
+        final RaplaLock.WriteLock[] otherThreadLock = new RaplaLock.WriteLock[1];
+        Thread thread = new Thread(() -> otherThreadLock[0] = lockManager.writeLockIfAvaliable(getClass(), "Dispatching other"));
+        thread.start();
+        thread.join();
+        Assert.assertNull(otherThreadLock[0]);
+        Assert.assertEquals(1, statistics.getHolders(RaplaLock.WriteLock.class).size());
+        lockManager.unlock(write);
+        Assert.assertTrue(statistics.getHolders(RaplaLock.AbstractLock.class).isEmpty());
+
+        List<LockStatistics.Group> groups = statistics.getGroups();
+        Assert.assertEquals(2, groups.size());
+        for (LockStatistics.Group group : groups)
+        {
+            if (group.isWrite())
+            {
+                Assert.assertEquals("Dispatching", group.getName());
+                // the failed try of the other thread is not counted
+                Assert.assertEquals(1, group.getHold().getCount());
+            }
+            else
+            {
+                Assert.assertEquals("getConflicts", group.getName());
+                Assert.assertEquals(2, group.getWait().getCount());
+                Assert.assertEquals(2, group.getHold().getCount());
+            }
+        }
+        statistics.resetStatistics();
+        Assert.assertTrue(statistics.getGroups().isEmpty());
+    }
+}
@@ -0,0 +1,176 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.entities.domain.internal.ReservationImpl;
+import org.rapla.logger.Logger;
+import org.rapla.logger.RaplaBootstrapLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+@RunWith(JUnit4.class)
+public class TestAppointmentIndex
+{
+    private final Date start = new Date(DateTools.cutDate(System.currentTimeMillis()));
+    private int id;
+
+    @Test
+    public void compareWithTreeSetScan()
+    {
+        Random random = new Random(42);
+        AppointmentIndex index = new AppointmentIndex();
+        SortedSet<Appointment> treeSet = new TreeSet<>(new AppointmentStartComparator());
+        List<Appointment> appointments = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            Appointment appointment = createAppointment(random, 1000);
+            appointments.add(appointment);
+            index.add(appointment);
+            treeSet.add(appointment);
+        }
+        for (int i = 0; i < appointments.size(); i += 3)
+        {
+            Appointment appointment = appointments.get(i);
+            Assert.assertTrue(index.remove(appointment));
+            treeSet.remove(appointment);
+        }
+        Assert.assertEquals(treeSet.size(), index.size());
+        Assert.assertEquals(new ArrayList<>(treeSet), new ArrayList<>(index));
+        for (int i = 0; i < 500; i++)
+        {
+            Date queryStart = random.nextInt(10) == 0 ? null : new Date(start.getTime() + random.nextInt(1200) * DateTools.MILLISECONDS_PER_HOUR * 24);
+            Date queryEnd = random.nextInt(10) == 0 ? null : new Date(
+                    (queryStart != null ? queryStart.getTime() : start.getTime()) + random.nextInt(24 * 14) * DateTools.MILLISECONDS_PER_HOUR);
+            boolean excludeExceptions = random.nextBoolean();
+            SortedSet<Appointment> expected = AppointmentImpl.getAppointments(treeSet, null, queryStart, queryEnd, excludeExceptions);
+            SortedSet<Appointment> result = new TreeSet<>(new AppointmentStartComparator());
+            index.getAppointments(null, queryStart, queryEnd, excludeExceptions, result);
+            Assert.assertEquals(new ArrayList<>(expected), new ArrayList<>(result));
+        }
+    }
+
+    @Test
+    public void zeroLengthAppointmentAtQueryStart()
+    {
+        IntervalST<String> intervals = new IntervalST<>(String::compareTo);
+        intervals.put(10, 10, "point");
+        intervals.put(5, 10, "before");
+        Assert.assertEquals(Collections.singletonList("point"), intervals.searchAll(10, 20));
+        Assert.assertEquals(Collections.singletonList("before"), intervals.searchAll(0, 10));
+
+        AppointmentIndex index = new AppointmentIndex();
+        SortedSet<Appointment> treeSet = new TreeSet<>(new AppointmentStartComparator());
+        Date appStart = new Date(start.getTime() + 8 * DateTools.MILLISECONDS_PER_HOUR);
+        Appointment point = createAppointment(appStart, appStart);
+        Appointment repeatingPoint = createAppointment(new AppointmentImpl(appStart, appStart, RepeatingType.DAILY, 3));
+        for (Appointment appointment : new Appointment[] { point, repeatingPoint })
+        {
+            index.add(appointment);
+            treeSet.add(appointment);
+        }
+        Date[] queryStarts = { appStart, new Date(appStart.getTime() + DateTools.MILLISECONDS_PER_DAY), new Date(appStart.getTime() - 1), null };
+        for (Date queryStart : queryStarts)
+        {
+            Date queryEnd = new Date(appStart.getTime() + 2 * DateTools.MILLISECONDS_PER_DAY + DateTools.MILLISECONDS_PER_HOUR);
+            for (boolean excludeExceptions : new boolean[] { true, false })
+            {
+                SortedSet<Appointment> expected = AppointmentImpl.getAppointments(treeSet, null, queryStart, queryEnd, excludeExceptions);
+                SortedSet<Appointment> result = new TreeSet<>(new AppointmentStartComparator());
+                index.getAppointments(null, queryStart, queryEnd, excludeExceptions, result);
+                Assert.assertEquals("query from " + queryStart, new ArrayList<>(expected), new ArrayList<>(result));
+            }
+        }
+    }
+
+    /** compares a one week query on a resource with 15 years of daily appointments */
+    @Ignore
+    @Test
+    public void benchmark()
+    {
+        Logger logger = RaplaBootstrapLogger.createRaplaLogger();
+        Random random = new Random(42);
+        AppointmentIndex index = new AppointmentIndex();
+        SortedSet<Appointment> treeSet = new TreeSet<>(new AppointmentStartComparator());
+        final int days = 15 * 365;
+        for (int i = 0; i < days; i++)
+        {
+            Date appStart = new Date(start.getTime() + i * DateTools.MILLISECONDS_PER_DAY + 8 * DateTools.MILLISECONDS_PER_HOUR);
+            Appointment appointment = createAppointment(appStart, new Date(appStart.getTime() + 2 * DateTools.MILLISECONDS_PER_HOUR));
+            index.add(appointment);
+            treeSet.add(appointment);
+        }
+        final int queries = 10000;
+        long[] queryStarts = new long[queries];
+        for (int i = 0; i < queries; i++)
+        {
+            queryStarts[i] = start.getTime() + random.nextInt(days) * DateTools.MILLISECONDS_PER_DAY;
+        }
+        for (int run = 0; run < 3; run++)
+        {
+            long time = System.nanoTime();
+            int found = 0;
+            for (long queryStart : queryStarts)
+            {
+                found += AppointmentImpl
+                        .getAppointments(treeSet, null, new Date(queryStart), new Date(queryStart + DateTools.MILLISECONDS_PER_WEEK), false).size();
+            }
+            long treeSetTime = System.nanoTime() - time;
+            time = System.nanoTime();
+            int foundInIndex = 0;
+            for (long queryStart : queryStarts)
+            {
+                List<Appointment> result = new ArrayList<>();
+                index.getAppointments(null, new Date(queryStart), new Date(queryStart + DateTools.MILLISECONDS_PER_WEEK), false, result);
+                foundInIndex += result.size();
+            }
+            long indexTime = System.nanoTime() - time;
+            Assert.assertEquals(found, foundInIndex);
+            logger.info("TreeSet scan " + treeSetTime / queries + " ns/query, interval index " + indexTime / queries + " ns/query");
+        }
+    }
+
+    private Appointment createAppointment(Random random, int maxDays)
+    {
+        Date appStart = new Date(start.getTime() + random.nextInt(maxDays * 24) * DateTools.MILLISECONDS_PER_HOUR);
+        Date appEnd = new Date(appStart.getTime() + random.nextInt(5) * DateTools.MILLISECONDS_PER_HOUR);
+        final int type = random.nextInt(4);
+        if (type == 0)
+        {
+            // repeats forever
+            return createAppointment(new AppointmentImpl(appStart, appEnd, RepeatingType.WEEKLY, -1));
+        }
+        else if (type == 1)
+        {
+            return createAppointment(new AppointmentImpl(appStart, appEnd, RepeatingType.DAILY, 1 + random.nextInt(20)));
+        }
+        return createAppointment(appStart, appEnd);
+    }
+
+    private Appointment createAppointment(Date appStart, Date appEnd)
+    {
+        return createAppointment(new AppointmentImpl(appStart, appEnd));
+    }
+
+    private Appointment createAppointment(AppointmentImpl appointment)
+    {
+        appointment.setId("a" + id++);
+        ReservationImpl reservation = new ReservationImpl(start, start);
+        reservation.setId("r" + id++);
+        reservation.addAppointment(appointment);
+        return appointment;
+    }
+}
@@ -0,0 +1,216 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.CalendarModelConfiguration;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.configuration.RaplaMap;
+import org.rapla.entities.configuration.internal.RaplaMapImpl;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.facade.internal.CalendarModelImpl;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.exchangeconnector.ExchangeConnectorPlugin;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** compares the users found by the index of the CalendarModelCache with a scan of all exported calendar models */
+@RunWith(JUnit4.class)
+public class TestCalendarModelCache
+{
+    RaplaFacade facade;
+    CachableStorageOperator operator;
+    Logger logger;
+    DynamicType roomType;
+    DynamicType eventType;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        operator = (CachableStorageOperator) facade.getOperator();
+        roomType = facade.getDynamicType("room");
+        eventType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0];
+    }
+
+    @After
+    public void tearDown() throws RaplaException
+    {
+        RaplaTestCase.dispose(facade);
+    }
+
+    @Test
+    public void indexMatchesScan() throws Exception
+    {
+        final User homer = facade.getUser("homer");
+        final User monty = facade.getUser("monty");
+        final Allocatable lecturer = facade.getAllocatablesWithFilter(new ClassificationFilter[] { facade.getDynamicType("lecturer").newClassificationFilter() })[0];
+        final Allocatable room = newRoom("cache test room");
+        final User bart;
+        {
+            final User newUser = facade.newUser();
+            newUser.setUsername("bart");
+            facade.store(newUser);
+            bart = facade.getUser("bart");
+        }
+        // homer exports all rooms, monty one lecturer with the filtered events and bart all resources
+        export(homer, Collections.singletonList(roomType), null);
+        export(monty, Collections.singletonList(lecturer), "filtered");
+        export(bart, Collections.singletonList(CalendarModelImpl.ALLOCATABLES_ROOT), null);
+        final Reservation filtered = newReservation("filtered", lecturer, room);
+        final Reservation other = newReservation("other", lecturer);
+        assertIndexMatchesScan();
+        Assert.assertEquals(set(homer, monty, bart), operator.findUsersThatExport(filtered.getAppointments()[0]));
+        Assert.assertEquals(set(bart), operator.findUsersThatExport(other.getAppointments()[0]));
+
+        // a new allocatable of the selected type is part of homer's calendar
+        final Allocatable newRoom = newRoom("new cache test room");
+        final Reservation newRoomReservation = newReservation("other", newRoom);
+        assertIndexMatchesScan();
+        Assert.assertEquals(set(homer, bart), operator.findUsersThatExport(newRoom));
+        Assert.assertEquals(set(homer, bart), operator.findUsersThatExport(newRoomReservation.getAppointments()[0]));
+
+        // monty now exports the other events of the lecturer
+        export(monty, Collections.singletonList(lecturer), "other");
+        assertIndexMatchesScan();
+        Assert.assertEquals(set(homer, bart), operator.findUsersThatExport(filtered.getAppointments()[0]));
+        Assert.assertEquals(set(monty, bart), operator.findUsersThatExport(other.getAppointments()[0]));
+
+        facade.remove(bart);
+        assertIndexMatchesScan();
+        Assert.assertEquals(set(homer), operator.findUsersThatExport(newRoom));
+        Assert.assertEquals(set(monty), operator.findUsersThatExport(other.getAppointments()[0]));
+    }
+
+    private Allocatable newRoom(String name) throws RaplaException
+    {
+        final Allocatable room = facade.newAllocatable(roomType.newClassification(), facade.getUser("homer"));
+        room.getClassification().setValue("name", name);
+        facade.store(room);
+        return room;
+    }
+
+    private Reservation newReservation(String name, Allocatable... allocatables) throws RaplaException
+    {
+        final User homer = facade.getUser("homer");
+        final Reservation reservation = facade.newReservation(eventType.newClassification(), homer);
+        reservation.getClassification().setValue("name", name);
+        final Date start = new Date(operator.today().getTime() + 10 * 60 * 60 * 1000);
+        reservation.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + 60 * 60 * 1000), homer));
+        for (Allocatable allocatable : allocatables)
+        {
+            reservation.addAllocatable(allocatable);
+        }
+        facade.store(reservation);
+        return facade.resolve(reservation.getReference());
+    }
+
+    /** stores an exchange export of the selected objects, only with the events of the given name if a name is passed */
+    private void export(User user, List<?> selected, String eventName) throws RaplaException
+    {
+        final CalendarModelImpl model = new CalendarModelImpl(Locale.ENGLISH, user, operator, logger);
+        model.setSelectedObjects(selected);
+        if (eventName != null)
+        {
+            final ClassificationFilter filter = eventType.newClassificationFilter();
+            filter.addEqualsRule("name", eventName);
+            model.setReservationFilter(new ClassificationFilter[] { filter });
+        }
+        model.setOption(ExchangeConnectorPlugin.EXCHANGE_EXPORT, "true");
+        final Preferences preferences = facade.edit(facade.getPreferences(user));
+        final Map<String, CalendarModelConfiguration> exportMap = new TreeMap<>();
+        exportMap.put("exchange", model.createConfiguration());
+        final RaplaMapImpl map = new RaplaMapImpl(exportMap);
+        map.setResolver(operator);
+        preferences.putEntry(CalendarModelConfiguration.EXPORT_ENTRY, map);
+        facade.store(preferences);
+    }
+
+    private void assertIndexMatchesScan() throws RaplaException
+    {
+        final List<CalendarModelImpl> models = new ArrayList<>();
+        final List<ReferenceInfo<User>> modelUsers = new ArrayList<>();
+        for (User user : operator.getUsers())
+        {
+            final Preferences preferences = operator.getPreferences(user, false);
+            final RaplaMap<CalendarModelConfiguration> exportMap = preferences != null ? preferences.getEntry(CalendarModelConfiguration.EXPORT_ENTRY) : null;
+            if (exportMap == null)
+            {
+                continue;
+            }
+            for (CalendarModelConfiguration config : exportMap.values())
+            {
+                if ("true".equals(config.getOptionMap().get(ExchangeConnectorPlugin.EXCHANGE_EXPORT)))
+                {
+                    final CalendarModelImpl model = new CalendarModelImpl(Locale.ENGLISH, user, operator, logger);
+                    model.setConfiguration(config, null);
+                    models.add(model);
+                    modelUsers.add(user.getReference());
+                }
+            }
+        }
+        for (Allocatable allocatable : facade.getAllocatables())
+        {
+            final Set<ReferenceInfo<User>> expected = new HashSet<>();
+            for (int i = 0; i < models.size(); i++)
+            {
+                if (models.get(i).getAllAllocatables().contains(allocatable))
+                {
+                    expected.add(modelUsers.get(i));
+                }
+            }
+            Assert.assertEquals(allocatable.toString(), expected, new HashSet<>(operator.findUsersThatExport(allocatable)));
+        }
+        final Collection<Reservation> reservations = RaplaTestCase
+                .waitForWithRaplaException(facade.getReservationsForAllocatable(null, null, null, null), 10000);
+        for (Reservation reservation : reservations)
+        {
+            for (Appointment appointment : reservation.getAppointments())
+            {
+                final Set<ReferenceInfo<User>> expected = new HashSet<>();
+                for (int i = 0; i < models.size(); i++)
+                {
+                    if (models.get(i).isMatchingSelectionAndFilter(appointment))
+                    {
+                        expected.add(modelUsers.get(i));
+                    }
+                }
+                Assert.assertEquals(appointment.toString(), expected, new HashSet<>(operator.findUsersThatExport(appointment)));
+            }
+        }
+    }
+
+    private static Set<ReferenceInfo<User>> set(User... users)
+    {
+        final Set<ReferenceInfo<User>> result = new HashSet<>();
+        for (User user : users)
+        {
+            result.add(user.getReference());
+        }
+        return result;
+    }
+}
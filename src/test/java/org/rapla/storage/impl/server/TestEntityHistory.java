@@ -54,4 +54,27 @@ public class TestEntityHistory
         entityHistory.addHistoryEntry(ref,json, timestamp, false);
         Assert.assertEquals(entityHistory.getHistoryList(ref)+"", 1, entityHistory.getHistoryList(ref).size());
     }
+
+    @Test
+    public void compressedJson()
+    {
+        final Date timestamp = new Date();
+        ReferenceInfo<Allocatable> ref = new ReferenceInfo<Allocatable>("test" , Allocatable.class);
+        StringBuilder builder = new StringBuilder("{\"id\":\"test\",\"classification\":{");
+        for (int i = 0; i < 50; i++)
+        {
+            builder.append("\"attribute").append(i).append("\":[\"value").append(i).append("\"],");
+        }
+        builder.append("\"name\":[\"Room \u00e4\"]}}");
+        String json = builder.toString();
+        entityHistory.addHistoryEntry(ref, json, timestamp, false);
+        entityHistory.addHistoryEntry(ref, "{\"id\":\"test\"}", new Date(timestamp.getTime() + 1), false);
+        final EntityHistory.HistoryEntry entry = entityHistory.getHistoryList(ref).get(0);
+        Assert.assertEquals(json, entry.getJson());
+        Assert.assertTrue(entry.getSize() < json.length() / 2);
+        Assert.assertEquals("{\"id\":\"test\"}", entityHistory.getHistoryList(ref).get(1).getJson());
+        // same json with the same timestamp is not added twice
+        entityHistory.addHistoryEntry(ref, json, timestamp, false);
+        Assert.assertEquals(2, entityHistory.getHistoryList(ref).size());
+    }
 }
@@ -0,0 +1,93 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongPredicate;
+
+@RunWith(JUnit4.class)
+public class TestFreeTimeSearch
+{
+    private static final long HOUR = DateTools.MILLISECONDS_PER_HOUR;
+
+    @Test
+    public void mergeOverlappingIntervals()
+    {
+        FreeTimeSearch search = new FreeTimeSearch();
+        search.addBusy(10 * HOUR, 12 * HOUR);
+        search.addBusy(8 * HOUR, 9 * HOUR);
+        search.addBusy(11 * HOUR, 14 * HOUR);
+        search.addBusy(14 * HOUR, 15 * HOUR);
+        Assert.assertEquals(2, search.getBusyCount());
+        Assert.assertTrue(search.isFree(9 * HOUR, 10 * HOUR));
+        Assert.assertFalse(search.isFree(9 * HOUR, 10 * HOUR + 1));
+        Assert.assertFalse(search.isFree(13 * HOUR, 13 * HOUR));
+        Assert.assertTrue(search.isFree(15 * HOUR, 16 * HOUR));
+    }
+
+    @Test
+    public void jumpOverBusyIntervals()
+    {
+        FreeTimeSearch search = new FreeTimeSearch();
+        search.addBusy(1 * HOUR, 5 * HOUR + HOUR / 2);
+        search.addBusy(7 * HOUR, 8 * HOUR);
+        long[] slots = search.findFreeSlots(0, HOUR, 24, 2 * HOUR, null, 3);
+        // 6:00 is the first candidate after the first busy interval, 8:00 the first after the second
+        Assert.assertArrayEquals(new long[] { 8 * HOUR, 9 * HOUR, 10 * HOUR }, slots);
+        LongPredicate evenHours = (start) -> (start / HOUR) % 2 == 0;
+        slots = search.findFreeSlots(0, HOUR, 24, HOUR, evenHours, 2);
+        Assert.assertArrayEquals(new long[] { 6 * HOUR, 8 * HOUR }, slots);
+        Assert.assertEquals(0, search.findFreeSlots(0, HOUR, 4, HOUR, null, 1).length);
+    }
+
+    @Test
+    public void compareWithTestOfEveryCandidate()
+    {
+        Random random = new Random(42);
+        for (int run = 0; run < 50; run++)
+        {
+            FreeTimeSearch search = new FreeTimeSearch();
+            List<long[]> busy = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+            {
+                long start = random.nextInt(24 * 60) * HOUR / 4;
+                long end = start + random.nextInt(12) * HOUR / 4;
+                search.addBusy(start, end);
+                busy.add(new long[] { start, end });
+            }
+            final long step = HOUR / (1 + random.nextInt(4));
+            final long length = (1 + random.nextInt(8)) * HOUR / 4;
+            final int candidateCount = (int) (60 * 24 * HOUR / step);
+            final LongPredicate accept = (start) -> DateTools.getMinuteOfDay(start) >= 8 * 60;
+            final List<Long> expected = new ArrayList<>();
+            for (int i = 1; i <= candidateCount && expected.size() < 20; i++)
+            {
+                long start = i * step;
+                boolean free = accept.test(start);
+                for (long[] interval : busy)
+                {
+                    if (interval[0] < start + length && interval[1] > start)
+                    {
+                        free = false;
+                    }
+                }
+                if (free)
+                {
+                    expected.add(start);
+                }
+            }
+            final List<Long> result = new ArrayList<>();
+            for (long start : search.findFreeSlots(0, step, candidateCount, length, accept, 20))
+            {
+                result.add(start);
+            }
+            Assert.assertEquals(expected, result);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class TestIntervalST
+{
+    @Test
+    public void searchAll()
+    {
+        IntervalST<Integer> tree = new IntervalST<>(Integer::compareTo);
+        tree.put(0, 10, 1);
+        tree.put(5, 15, 2);
+        tree.put(10, 20, 3);
+        tree.put(30, 30, 4);
+        Assert.assertEquals(4, tree.size());
+        // half open intervals, so touching intervals don't intersect
+        Assert.assertEquals(list(1, 2), sorted(tree.searchAll(0, 10)));
+        Assert.assertEquals(list(2, 3), sorted(tree.searchAll(10, 11)));
+        Assert.assertEquals(list(), sorted(tree.searchAll(20, 30)));
+        Assert.assertTrue(tree.remove(5, 15, 2));
+        Assert.assertFalse(tree.remove(5, 15, 2));
+        Assert.assertEquals(list(1), sorted(tree.searchAll(0, 10)));
+        Assert.assertEquals(3, tree.size());
+    }
+
+    @Test
+    public void compareWithLinearScan()
+    {
+        Random random = new Random(42);
+        IntervalST<Integer> tree = new IntervalST<>(Integer::compareTo);
+        List<long[]> intervals = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+        {
+            long lo = random.nextInt(10000);
+            long hi = lo + random.nextInt(random.nextBoolean() ? 20 : 2000);
+            intervals.add(new long[] { lo, hi });
+            tree.put(lo, hi, i);
+        }
+        // remove every third interval
+        for (int i = 0; i < intervals.size(); i += 3)
+        {
+            long[] interval = intervals.get(i);
+            Assert.assertTrue(tree.remove(interval[0], interval[1], i));
+        }
+        for (int j = 0; j < 500; j++)
+        {
+            long lo = random.nextInt(10000);
+            long hi = lo + random.nextInt(500);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < intervals.size(); i++)
+            {
+                long[] interval = intervals.get(i);
+                if (i % 3 != 0 && interval[0] < hi && interval[1] > lo)
+                {
+                    expected.add(i);
+                }
+            }
+            Assert.assertEquals(expected, sorted(tree.searchAll(lo, hi)));
+        }
+    }
+
+    private static List<Integer> list(Integer... values)
+    {
+        List<Integer> result = new ArrayList<>();
+        Collections.addAll(result, values);
+        return result;
+    }
+
+    private static List<Integer> sorted(List<Integer> values)
+    {
+        Collections.sort(values);
+        return values;
+    }
+}
@@ -0,0 +1,58 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+@RunWith(JUnit4.class)
+public class TestMergedSortedSet
+{
+    @Test
+    public void mergeWithDuplicates()
+    {
+        SortedSet<Integer> set1 = new TreeSet<>(Arrays.asList(1, 4, 7, 9));
+        SortedSet<Integer> set2 = new TreeSet<>(Arrays.asList(2, 4, 8));
+        SortedSet<Integer> set3 = new TreeSet<>();
+        MergedSortedSet<Integer> merged = new MergedSortedSet<>(Integer::compareTo, Arrays.asList(set1, set2, set3));
+        Assert.assertEquals(Arrays.asList(1, 2, 4, 7, 8, 9), new ArrayList<>(merged));
+        Assert.assertEquals(6, merged.size());
+        Assert.assertTrue(merged.contains(8));
+        Assert.assertFalse(merged.contains(3));
+        Assert.assertEquals(Integer.valueOf(1), merged.first());
+        Assert.assertEquals(Integer.valueOf(9), merged.last());
+        Assert.assertEquals(Arrays.asList(2, 4), new ArrayList<>(merged.subSet(2, 7)));
+        Assert.assertEquals(Arrays.asList(8, 9), new ArrayList<>(merged.tailSet(8)));
+        // changes in the sources are visible in the view
+        set3.add(3);
+        Assert.assertEquals(Arrays.asList(1, 2, 3), new ArrayList<>(merged.headSet(4)));
+    }
+
+    @Test
+    public void compareWithTreeSet()
+    {
+        Random random = new Random(42);
+        List<SortedSet<Integer>> sources = new ArrayList<>();
+        SortedSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 7; i++)
+        {
+            SortedSet<Integer> source = new TreeSet<>();
+            for (int j = random.nextInt(200); j > 0; j--)
+            {
+                source.add(random.nextInt(500));
+            }
+            sources.add(source);
+            expected.addAll(source);
+        }
+        MergedSortedSet<Integer> merged = new MergedSortedSet<>(Integer::compareTo, sources);
+        Assert.assertEquals(new ArrayList<>(expected), new ArrayList<>(merged));
+        Assert.assertEquals(expected.size(), merged.size());
+    }
+}
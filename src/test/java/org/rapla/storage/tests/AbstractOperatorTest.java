@@ -28,10 +28,15 @@ import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.framework.RaplaException;
+import org.rapla.storage.BulkStoreProgress;
 import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.dbsql.DBOperator;
 import org.rapla.test.util.RaplaTestCase;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 public abstract class AbstractOperatorTest  {
 
@@ -84,6 +89,93 @@ public abstract class AbstractOperatorTest  {
         }
     }
 
+	@Test
+    public void testBulkReservationStore() throws RaplaException {
+		RaplaFacade facade = getFacade();
+		final User user = facade.getUsers()[0];
+		final DynamicType eventType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0];
+		final Allocatable resource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+		facade.store( resource );
+		final int count = 1200;
+		List<Reservation> reservations = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			Reservation r = facade.newReservation(eventType.newClassification(), user);
+			r.getClassification().setValue("name", "bulk" + i);
+			r.addAppointment( facade.newAppointmentWithUser( new Date(), new Date(), user));
+			r.addAllocatable( resource );
+			reservations.add( r );
+		}
+		CachableStorageOperator operator = getOperator();
+		// an invalid reservation at the end prevents storing any of the reservations
+		Reservation invalid = facade.newReservation(eventType.newClassification(), user);
+		invalid.getClassification().setValue("name", "bulkInvalid");
+		List<Reservation> withInvalid = new ArrayList<>(reservations);
+		withInvalid.add( invalid );
+		try
+		{
+			operator.storeBulk( withInvalid, user, null);
+			Assert.fail("RaplaException expected");
+		}
+		catch (RaplaException ex)
+		{
+		}
+		Assert.assertNull(facade.tryResolve( reservations.get(0).getReference()));
+
+		List<BulkStoreProgress> progress = new ArrayList<>();
+		operator.storeBulk( reservations, user, progress::add);
+		BulkStoreProgress last = progress.get(progress.size() - 1);
+		Assert.assertTrue(last.isFinished());
+		Assert.assertEquals(count, last.getStored());
+		Assert.assertEquals(count, last.getValidated());
+		if (operator instanceof DBOperator)
+		{
+			// validated, first chunk stored, finished
+			Assert.assertEquals(3, progress.size());
+		}
+        operator.disconnect();
+        operator.connect();
+        ClassificationFilter filter = eventType.newClassificationFilter();
+        filter.addRule("name",new Object[][] { {"contains","bulk"}});
+        Collection<Reservation> stored = RaplaTestCase
+                .waitForWithRaplaException(facade.getReservationsForAllocatable( null, null, null, new ClassificationFilter[] {filter} ), 10000);
+		Assert.assertEquals(count, stored.size());
+    }
+
+	@Test
+    public void testBulkStoreReferenceAcrossChunks() throws RaplaException {
+		RaplaFacade facade = getFacade();
+		final User user = facade.getUsers()[0];
+		final DynamicType resourceType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0];
+		final DynamicType eventType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0];
+		List<Entity> toStore = new ArrayList<>();
+		final int count = 1001;
+		for (int i = 0; i < count; i++)
+		{
+			Allocatable resource = facade.newAllocatable(resourceType.newClassification(), user);
+			resource.getClassification().setValue("name", "bulkResource" + i);
+			toStore.add( resource );
+		}
+		// the reservation is checked after the chunk of the first resource
+		final Allocatable first = (Allocatable) toStore.get(0);
+		Reservation r = facade.newReservation(eventType.newClassification(), user);
+		r.getClassification().setValue("name", "bulkCrossChunk");
+		r.addAppointment( facade.newAppointmentWithUser( new Date(), new Date(), user));
+		r.addAllocatable( first );
+		toStore.add( r );
+		CachableStorageOperator operator = getOperator();
+		operator.storeBulk( toStore, user, null);
+        operator.disconnect();
+        operator.connect();
+        ClassificationFilter filter = eventType.newClassificationFilter();
+        filter.addRule("name",new Object[][] { {"contains","bulkCrossChunk"}});
+        Collection<Reservation> stored = RaplaTestCase
+                .waitForWithRaplaException(facade.getReservationsForAllocatable( null, null, null, new ClassificationFilter[] {filter} ), 10000);
+		Assert.assertEquals(1, stored.size());
+		Assert.assertEquals(first.getId(), stored.iterator().next().getAllocatables()[0].getId());
+		Assert.assertNotNull(facade.tryResolve( toStore.get(count - 1).getReference()));
+    }
+
 	@Test
     public void testUserStore() throws RaplaException {
 		RaplaFacade facade = getFacade();
@@ -0,0 +1,164 @@
+package org.rapla.storage.tests;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.Category;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.internal.AllocatableImpl;
+import org.rapla.entities.dynamictype.AttributeType;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.ConstraintIds;
+import org.rapla.entities.dynamictype.internal.AttributeImpl;
+import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
+import org.rapla.entities.internal.CategoryImpl;
+import org.rapla.storage.LocalCache;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class ClassificationIndexTest
+{
+    LocalCache cache;
+    DynamicTypeImpl type;
+    CategoryImpl root;
+    List<CategoryImpl> categories = new ArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        cache = new LocalCache(null);
+        root = createCategory("root", null);
+        for (int i = 0; i < 3; i++)
+        {
+            CategoryImpl parent = createCategory("c" + i, root);
+            for (int j = 0; j < 3; j++)
+            {
+                createCategory("c" + i + j, parent);
+            }
+        }
+        type = new DynamicTypeImpl();
+        type.setResolver(cache);
+        type.setKey("room");
+        type.setId("room");
+        addAttribute("a1", "name", AttributeType.STRING);
+        addAttribute("a2", "size", AttributeType.INT);
+        AttributeImpl category = addAttribute("a3", "department", AttributeType.CATEGORY);
+        category.setConstraint(ConstraintIds.KEY_ROOT_CATEGORY, root);
+        type.setReadOnly();
+        cache.put(type);
+    }
+
+    private CategoryImpl createCategory(String key, CategoryImpl parent)
+    {
+        CategoryImpl category = new CategoryImpl();
+        category.setKey(key);
+        category.setId(key);
+        category.setResolver(cache);
+        if (parent != null)
+        {
+            parent.addCategory(category);
+        }
+        cache.put(category);
+        categories.add(category);
+        return category;
+    }
+
+    private AttributeImpl addAttribute(String id, String key, AttributeType attributeType)
+    {
+        AttributeImpl attribute = new AttributeImpl(attributeType);
+        attribute.setKey(key);
+        attribute.setId(id);
+        attribute.setResolver(cache);
+        type.addAttribute(attribute);
+        return attribute;
+    }
+
+    private AllocatableImpl createRoom(int id, String name, Long size, Category department)
+    {
+        Date today = new Date();
+        AllocatableImpl room = new AllocatableImpl(today, today);
+        room.setId("r" + id);
+        room.setResolver(cache);
+        Classification classification = type.newClassification();
+        classification.setValue("name", name);
+        classification.setValue("size", size);
+        classification.setValue("department", department);
+        room.setClassification(classification);
+        return room;
+    }
+
+    @Test
+    public void candidatesContainAllMatches()
+    {
+        Random random = new Random(42);
+        String[] words = { "Lecture", "Hall", "Lab", "Seminar", "Office", "Studio" };
+        for (int i = 0; i < 500; i++)
+        {
+            String name = words[random.nextInt(words.length)] + " " + random.nextInt(100);
+            Long size = random.nextInt(10) == 0 ? null : Long.valueOf(random.nextInt(200));
+            Category department = random.nextInt(10) == 0 ? null : categories.get(1 + random.nextInt(categories.size() - 1));
+            cache.put(createRoom(i, name, size, department));
+        }
+        // replace some rooms, they must keep their position
+        for (int i = 0; i < 500; i += 7)
+        {
+            cache.put(createRoom(i, "Lab " + i, (long) i, categories.get(1)));
+        }
+        List<ClassificationFilter> filters = new ArrayList<>();
+        filters.add(filter("name", "contains", "lab"));
+        filters.add(filter("name", "contains", "ecture 1"));
+        filters.add(filter("name", "starts", "sem"));
+        filters.add(filter("name", "=", "Hall 12"));
+        filters.add(filter("size", ">", 150L));
+        filters.add(filter("size", "<=", 20L));
+        filters.add(filter("size", "=", 42L));
+        filters.add(filter("department", "is", cache.tryResolve("c1", Category.class)));
+        filters.add(filter("department", "=", cache.tryResolve("c12", Category.class)));
+        ClassificationFilter combined = type.newClassificationFilter();
+        combined.addRule("name", new Object[][] { { "contains", "hall" }, { "contains", "lab" } });
+        combined.addRule("size", new Object[][] { { ">=", 100L } });
+        filters.add(combined);
+        for (ClassificationFilter filter : filters)
+        {
+            ClassificationFilter[] array = filter.toArray();
+            List<Allocatable> candidates = cache.getAllocatableCandidates(array);
+            Assert.assertNotNull(filter.toString(), candidates);
+            List<Allocatable> expected = new ArrayList<>();
+            for (Allocatable allocatable : cache.getAllocatables())
+            {
+                if (ClassificationFilter.Util.matches(array, allocatable))
+                {
+                    expected.add(allocatable);
+                }
+            }
+            List<Allocatable> result = new ArrayList<>();
+            for (Allocatable allocatable : candidates)
+            {
+                if (ClassificationFilter.Util.matches(array, allocatable))
+                {
+                    result.add(allocatable);
+                }
+            }
+            Assert.assertEquals(filter.toString(), expected, result);
+            Assert.assertTrue(filter.toString(), candidates.size() < cache.getAllocatables().size());
+        }
+        // too short for the trigram index
+        Assert.assertNull(cache.getAllocatableCandidates(filter("name", "contains", "la").toArray()));
+        cache.removeWithId(cache.getAllocatables().iterator().next().getReference());
+        Assert.assertEquals(499, cache.getAllocatables().size());
+    }
+
+    private ClassificationFilter filter(String attribute, String operator, Object value)
+    {
+        ClassificationFilter filter = type.newClassificationFilter();
+        filter.addRule(attribute, new Object[][] { { operator, value } });
+        return filter;
+    }
+}
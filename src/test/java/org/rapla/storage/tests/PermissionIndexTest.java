@@ -0,0 +1,177 @@
+package org.rapla.storage.tests;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.Category;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Permission;
+import org.rapla.entities.domain.internal.AllocatableImpl;
+import org.rapla.entities.domain.permission.PermissionExtension;
+import org.rapla.entities.domain.permission.impl.RaplaDefaultPermissionImpl;
+import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
+import org.rapla.entities.internal.CategoryImpl;
+import org.rapla.entities.internal.UserImpl;
+import org.rapla.storage.LocalCache;
+import org.rapla.storage.PermissionController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class PermissionIndexTest
+{
+    LocalCache cache;
+    PermissionController permissionController;
+    DynamicTypeImpl type;
+    CategoryImpl staff;
+    CategoryImpl lab;
+
+    @Before
+    public void setUp()
+    {
+        Set<PermissionExtension> extensions = Collections.singleton(new RaplaDefaultPermissionImpl());
+        permissionController = new PermissionController(extensions, null);
+        cache = new LocalCache(permissionController);
+        CategoryImpl superCategory = createCategory(Category.SUPER_CATEGORY_REF.getId(), null);
+        CategoryImpl userGroups = createCategory("user-groups", superCategory);
+        staff = createCategory("staff", userGroups);
+        lab = createCategory("lab", staff);
+        putAll(superCategory, userGroups, staff, lab);
+
+        type = new DynamicTypeImpl();
+        type.setResolver(cache);
+        type.setKey("room");
+        type.setId("room");
+        Permission readType = type.newPermission();
+        readType.setAccessLevel(Permission.READ_TYPE);
+        type.addPermission(readType);
+        type.setReadOnly();
+        cache.put(type);
+    }
+
+    private CategoryImpl createCategory(String key, CategoryImpl parent)
+    {
+        CategoryImpl category = new CategoryImpl();
+        category.setKey(key);
+        category.setId(key);
+        category.setResolver(cache);
+        if (parent != null)
+        {
+            parent.addCategory(category);
+        }
+        return category;
+    }
+
+    private void putAll(Category... categories)
+    {
+        for (Category category : categories)
+        {
+            cache.put(category);
+        }
+    }
+
+    private UserImpl createUser(String id, Category group)
+    {
+        Date today = new Date();
+        UserImpl user = new UserImpl(today, today);
+        user.setId(id);
+        user.setUsername(id);
+        user.setResolver(cache);
+        if (group != null)
+        {
+            user.addGroup(group);
+        }
+        user.setReadOnly();
+        cache.put(user);
+        return user;
+    }
+
+    private AllocatableImpl createRoom(String id, Category group, User user)
+    {
+        Date today = new Date();
+        AllocatableImpl room = new AllocatableImpl(today, today);
+        room.setId(id);
+        room.setResolver(cache);
+        room.setClassification(type.newClassification());
+        Permission permission = room.newPermission();
+        permission.setAccessLevel(Permission.READ_NO_ALLOCATION);
+        if (group != null)
+        {
+            permission.setGroup(group);
+        }
+        if (user != null)
+        {
+            permission.setUser(user);
+        }
+        room.addPermission(permission);
+        room.setReadOnly();
+        cache.put(room);
+        return room;
+    }
+
+    private void assertVisible(User user)
+    {
+        List<Allocatable> expected = new ArrayList<>();
+        for (Allocatable allocatable : cache.getAllocatables())
+        {
+            if (permissionController.canReadOnlyInformation(allocatable, user))
+            {
+                expected.add(allocatable);
+            }
+        }
+        List<Allocatable> visible = new ArrayList<>();
+        for (Entity entity : cache.getVisibleEntities(user))
+        {
+            if (entity instanceof Allocatable)
+            {
+                visible.add((Allocatable) entity);
+            }
+        }
+        Assert.assertEquals(user.getId(), expected, visible);
+    }
+
+    @Test
+    public void visibleAllocatablesFollowChanges()
+    {
+        UserImpl labUser = createUser("u1", lab);
+        UserImpl otherUser = createUser("u2", null);
+        for (int i = 0; i < 10; i++)
+        {
+            createRoom("r" + i, i % 2 == 0 ? staff : null, i % 2 == 0 ? null : otherUser);
+        }
+        assertVisible(labUser);
+        assertVisible(otherUser);
+        Assert.assertTrue(labUser.belongsTo(staff));
+
+        // the permissions of a room change
+        createRoom("r1", lab, null);
+        assertVisible(labUser);
+        assertVisible(otherUser);
+
+        // a room is removed
+        cache.remove(cache.tryResolve("r0", Allocatable.class));
+        assertVisible(labUser);
+
+        // a new version of the user joins a group
+        otherUser = createUser("u2", staff);
+        assertVisible(otherUser);
+
+        // the group hierarchy changes, lab is no longer a subgroup of staff
+        CategoryImpl superCategory = createCategory(Category.SUPER_CATEGORY_REF.getId(), null);
+        CategoryImpl userGroups = createCategory("user-groups", superCategory);
+        staff = createCategory("staff", userGroups);
+        lab = createCategory("lab", userGroups);
+        putAll(superCategory, userGroups, staff, lab);
+        Assert.assertFalse(labUser.belongsTo(staff));
+        assertVisible(labUser);
+        assertVisible(otherUser);
+    }
+}
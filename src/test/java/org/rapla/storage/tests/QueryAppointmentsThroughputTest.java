@@ -0,0 +1,86 @@
+package org.rapla.storage.tests;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Entity;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.facade.client.ClientFacade;
+import org.rapla.logger.Logger;
+import org.rapla.storage.StorageOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** measures the throughput of queryAppointments for a resource view with many resources selected */
+@Ignore
+@RunWith(JUnit4.class)
+public class QueryAppointmentsThroughputTest
+{
+    @Test
+    public void testQueryThroughput() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        ClientFacade clientFacade = RaplaTestCase.createSimpleSimpsonsWithHomer();
+        RaplaFacade facade = clientFacade.getRaplaFacade();
+        final int RESOURCE_COUNT = 300;
+        final int RESERVATION_COUNT = 30000;
+        final Random random = new Random(42);
+        List<Entity> entities = new ArrayList<>();
+        List<Allocatable> resources = new ArrayList<>();
+        for (int i = 0; i < RESOURCE_COUNT; i++)
+        {
+            Allocatable resource = facade.newResourceDeprecated();
+            resource.getClassification().setValue("name", "Room " + i);
+            resources.add(resource);
+            entities.add(resource);
+        }
+        final long start = DateTools.cutDate(System.currentTimeMillis());
+        for (int i = 0; i < RESERVATION_COUNT; i++)
+        {
+            Reservation event = facade.newReservationDeprecated();
+            // events spread over two years
+            Date appStart = new Date(start + random.nextInt(2 * 365 * 24) * DateTools.MILLISECONDS_PER_HOUR);
+            Appointment app = facade.newAppointmentDeprecated(appStart, new Date(appStart.getTime() + 2 * DateTools.MILLISECONDS_PER_HOUR));
+            event.addAppointment(app);
+            event.addAllocatable(resources.get(random.nextInt(RESOURCE_COUNT)));
+            event.getClassification().setValue("name", "Test-Event " + i);
+            entities.add(event);
+        }
+        facade.storeObjects(entities.toArray(new Entity[] {}));
+
+        final StorageOperator operator = facade.getOperator();
+        final int QUERY_COUNT = 200;
+        for (int run = 0; run < 3; run++)
+        {
+            long time = System.currentTimeMillis();
+            int found = 0;
+            for (int i = 0; i < QUERY_COUNT; i++)
+            {
+                final Date queryStart = new Date(start + random.nextInt(2 * 365) * DateTools.MILLISECONDS_PER_DAY);
+                final Date queryEnd = new Date(queryStart.getTime() + DateTools.MILLISECONDS_PER_WEEK);
+                Map<Allocatable, Collection<Appointment>> result = RaplaTestCase
+                        .waitForWithRaplaException(operator.queryAppointments(null, resources, queryStart, queryEnd, null, (Map<String, String>) null), 10000);
+                for (Collection<Appointment> appointments : result.values())
+                {
+                    found += appointments.size();
+                }
+            }
+            long duration = System.currentTimeMillis() - time;
+            Assert.assertTrue(found > 0);
+            logger.info(QUERY_COUNT * 1000 / Math.max(1, duration) + " queries/s over " + RESOURCE_COUNT + " resources, " + found + " appointments found");
+        }
+        clientFacade.logout();
+    }
+}
@@ -18,7 +18,7 @@ import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.webapp.WebAppContext;
-import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
+import org.jboss.resteasy.plugins.server.servlet.HttpServlet30Dispatcher;
 import org.jboss.resteasy.plugins.server.servlet.ResteasyBootstrap;
 import org.jetbrains.annotations.NotNull;
 import org.rapla.RaplaResources;
@@ -205,6 +205,8 @@ public abstract class RaplaTestCase
             }
         };
         final FilterHolder holder = new FilterHolder(filter);
+        // the clients waiting for changes are suspended
+        holder.setAsyncSupported(true);
         context.addFilter(holder, "/*", EnumSet.allOf(DispatcherType.class));
         context.setInitParameter("resteasy.servlet.mapping.prefix", "/rapla");
         context.setInitParameter("resteasy.use.builtin.providers", "false");
@@ -212,8 +214,9 @@ public abstract class RaplaTestCase
         context.setResourceBase(webappFolder.getAbsolutePath());
         context.setMaxFormContentSize(64000000);
 
-        final ServletHolder servletHolder = new ServletHolder(HttpServletDispatcher.class);
-        servletHolder.setServlet(new HttpServletDispatcher());
+        final ServletHolder servletHolder = new ServletHolder(HttpServlet30Dispatcher.class);
+        servletHolder.setServlet(new HttpServlet30Dispatcher());
+        servletHolder.setAsyncSupported(true);
         context.addServlet(servletHolder, "/rapla/*");
         jettyServer.start();
         Handler[] childHandlers = context.getChildHandlersByClass(ServletHandler.class);